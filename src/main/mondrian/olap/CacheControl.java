@@ -30,6 +30,7 @@ import javax.sql.DataSource;
  * <li>{@link #createCrossjoinRegion(mondrian.olap.CacheControl.CellRegion[])}</li>
  * <li>{@link #createMeasuresRegion(Cube)}</li>
  * <li>{@link #flush(mondrian.olap.CacheControl.CellRegion)}</li>
+ * <li>{@link #flushSample(mondrian.olap.CacheControl.CellRegion, String)}</li>
  * </ul></p>
  *
  * <p>Methods concerning member cache:<ul>
@@ -178,6 +179,19 @@ public interface CacheControl {
      */
     void flush(CellRegion region);
 
+    /**
+     * Atomically flushes the cells in the cell cache that correspond to a
+     * given region and that were estimated from a given sample table.
+     *
+     * <p>Cells read from the fact table, and cells estimated from other
+     * samples, remain in the cache. Call this method after a sample table has
+     * been modified.
+     *
+     * @param region a region
+     * @param sampleTable name of the sample table
+     */
+    void flushSample(CellRegion region, String sampleTable);
+
     /**
      * Prints the state of the cell cache as it pertains to a given region.
      * @param pw the output target
@@ -702,6 +702,37 @@ public class Property extends EnumeratedValues.BasicValue {
             "Number of fact rows that contributed to this cell. If the cell is "
             + "not drillable, value is -1.");
 
+    public static final int ERROR_BOUND_ORDINAL = 56;
+
+    /**
+     * Definition of the property that
+     * holds the error bound of a cell whose value was estimated from a sample
+     * of the fact table: the half-width of the confidence interval at the
+     * level given by {@link #CONFIDENCE}. If the value is exact, or the
+     * error cannot be estimated, value is null.
+     */
+    public static final Property ERROR_BOUND =
+        new Property(
+            "ERROR_BOUND", Datatype.TYPE_NUMERIC,
+            ERROR_BOUND_ORDINAL, false,
+            false, true,
+            "Half-width of the confidence interval of a value estimated from "
+            + "a sample. If the value is exact, value is null.");
+
+    public static final int CONFIDENCE_ORDINAL = 57;
+
+    /**
+     * Definition of the property that
+     * holds the confidence level of {@link #ERROR_BOUND}.
+     */
+    public static final Property CONFIDENCE =
+        new Property(
+            "CONFIDENCE", Datatype.TYPE_NUMERIC,
+            CONFIDENCE_ORDINAL, false,
+            false, true,
+            "Confidence level of the error bound of a value estimated from a "
+            + "sample. If the value is exact, value is null.");
+
     /**
      * The various property names which define a format string.
      */
@@ -845,9 +876,11 @@ public class Property extends EnumeratedValues.BasicValue {
                 FORMAT_EXP,
                 ACTION_TYPE,
                 DRILLTHROUGH_COUNT,
+                ERROR_BOUND,
+                CONFIDENCE,
             });
 
-    private static final int MAX_ORDINAL = 56;
+    private static final int MAX_ORDINAL = 58;
 
     static {
         // Populate synonyms.
@@ -10,6 +10,7 @@ package mondrian.olap.fun;
 
 import mondrian.calc.*;
 import mondrian.calc.impl.DelegatingTupleList;
+import mondrian.mdx.ResolvedFunCall;
 import mondrian.mdx.UnresolvedFunCall;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
@@ -106,6 +107,32 @@ public class AbstractAggregateFunDef extends FunDefBase {
         return iterable;
     }
 
+    /**
+     * Returns an evaluator that computes a call to an aggregate function in
+     * SQL, or null if the call cannot be evaluated natively in the current
+     * context.
+     *
+     * @param call Call to aggregate function
+     * @param evaluator Evaluation context
+     * @param calc Compiled call
+     * @return Native evaluator, or null
+     *
+     * @see mondrian.rolap.RolapNativeAggregate
+     */
+    protected static NativeEvaluator getNativeEvaluator(
+        ResolvedFunCall call,
+        Evaluator evaluator,
+        Calc calc)
+    {
+        // Sum and Count are evaluated far more often than set functions;
+        // don't look for an evaluator unless one could be found.
+        if (!MondrianProperties.instance().EnableNativeAggregate.get()) {
+            return null;
+        }
+        return evaluator.getSchemaReader().getNativeSetEvaluator(
+            call.getFunDef(), call.getArgs(), evaluator, calc);
+    }
+
     private static void crossProd(Evaluator evaluator, int currLen) {
         long iterationLimit =
             MondrianProperties.instance().IterationLimit.get();
@@ -99,6 +99,14 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             evaluator.getTiming().markStart(TIMING_NAME);
             final int savepoint = evaluator.savepoint();
             try {
+                if (exp instanceof ResolvedFunCall) {
+                    final NativeEvaluator nativeEvaluator =
+                        getNativeEvaluator(
+                            (ResolvedFunCall) exp, evaluator, this);
+                    if (nativeEvaluator != null) {
+                        return nativeEvaluator.execute(ResultStyle.VALUE);
+                    }
+                }
                 TupleList list = evaluateCurrentList(listCalc, evaluator);
                 if (member != null) {
                     evaluator.setContext(member);
@@ -37,7 +37,9 @@ class CountFunDef extends AbstractAggregateFunDef {
         super(dummyFunDef);
     }
 
-    public Calc compileCall(ResolvedFunCall call, ExpCompiler compiler) {
+    public Calc compileCall(
+        final ResolvedFunCall call, ExpCompiler compiler)
+    {
         final Calc calc =
             compiler.compileAs(
                 call.getArg(0), null, ResultStyle.ITERABLE_ANY);
@@ -50,6 +52,12 @@ class CountFunDef extends AbstractAggregateFunDef {
             new Calc[] {calc})
         {
             public int evaluateInteger(Evaluator evaluator) {
+                final NativeEvaluator nativeEvaluator =
+                    getNativeEvaluator(call, evaluator, this);
+                if (nativeEvaluator != null) {
+                    return (Integer) nativeEvaluator.execute(
+                        ResultStyle.VALUE);
+                }
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
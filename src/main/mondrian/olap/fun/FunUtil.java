@@ -517,6 +517,28 @@ public class FunUtil extends Util {
         boolean timingEval = true;
         boolean timingSort = false;
         try {
+            if (brk) {
+                // Sorting by value alone. If the values are numbers, sort
+                // their ordinals.
+                if (memberList == null) {
+                    memberList = new ArrayList<Member>();
+                    for (Member member : memberIter) {
+                        memberList.add(member);
+                    }
+                    memberIter = memberList;
+                }
+                final NumericSortKeys keys =
+                    NumericSortKeys.evaluate(evaluator, exp, memberList);
+                if (keys != null) {
+                    evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+                    timingEval = false;
+                    evaluator.getTiming().markStart(SORT_TIMING_NAME);
+                    timingSort = true;
+                    NumericSortKeys.permute(memberList, keys.sort(desc));
+                    return memberList;
+                }
+            }
+
             // REVIEW mberkowitz 1/09: test whether precomputing
             // values saves time.
             Map<Member, Object> mapMemberToValue;
@@ -655,6 +677,24 @@ public class FunUtil extends Util {
             tupleArrayList = tupleList;
         }
 
+        if (brk) {
+            // Sorting by value alone. If the values are numbers, sort their
+            // ordinals.
+            final NumericSortKeys keys =
+                NumericSortKeys.evaluate(
+                    evaluator,
+                    exp,
+                    tupleList != null
+                        ? tupleList
+                        : new DelegatingTupleList(
+                            tupleIterable.getArity(), tupleArrayList));
+            if (keys != null) {
+                return new DelegatingTupleList(
+                    tupleIterable.getArity(),
+                    NumericSortKeys.select(tupleArrayList, keys.sort(desc)));
+            }
+        }
+
         @SuppressWarnings({"unchecked"})
         List<Member>[] tuples =
             tupleArrayList.toArray(new List[tupleArrayList.size()]);
@@ -720,6 +760,16 @@ public class FunUtil extends Util {
         boolean timingEval = true;
         boolean timingSort = false;
         try {
+            final NumericSortKeys keys =
+                NumericSortKeys.evaluate(evaluator, exp, list);
+            if (keys != null) {
+                evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+                timingEval = false;
+                evaluator.getTiming().markStart(SORT_TIMING_NAME);
+                timingSort = true;
+                return NumericSortKeys.select(
+                    list, keys.partialSort(desc, limit));
+            }
             MemberComparator comp =
                 new BreakMemberComparator(evaluator, exp, desc);
             Map<Member, Object> valueMap =
@@ -829,6 +879,11 @@ public class FunUtil extends Util {
     {
         assert list.size() > 0;
         assert limit <= list.size();
+        final NumericSortKeys keys =
+            NumericSortKeys.evaluate(evaluator, exp, list);
+        if (keys != null) {
+            return NumericSortKeys.select(list, keys.partialSort(desc, limit));
+        }
         Comparator<List<Member>> comp =
             new BreakTupleComparator(evaluator, exp, list.getArity());
         if (desc) {
@@ -0,0 +1,342 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+import mondrian.rolap.RolapUtil;
+
+import java.util.*;
+
+/**
+ * The values of a numeric sort key for each member or tuple of a list, held
+ * in a primitive array indexed by ordinal; and sorts of the ordinals by
+ * those values.
+ *
+ * <p>Sorting a large list with a comparator that looks up the value of each
+ * member or tuple in a hash map spends most of its time hashing and
+ * unboxing. Here each value is evaluated once, in list order, into a
+ * {@code double[]}; a sort permutes an {@code int[]} of ordinals, from which
+ * the caller builds the sorted list.</p>
+ *
+ * <p>Values compare as {@link FunUtil#compareValues(Object, Object)} does:
+ * null, and a value that is not ready yet, is less than any number, and NaN
+ * is greater than any number but positive infinity. Ties are broken by
+ * ordinal, so every sort is stable.</p>
+ *
+ * <p>If a value is not a number, or is negative infinity (which would be
+ * indistinguishable from null), the methods that create sort keys return
+ * null, and the caller sorts by comparator.</p>
+ */
+final class NumericSortKeys {
+    /** Key of a null value. Less than any other key. */
+    private static final double NULL_KEY = Double.NEGATIVE_INFINITY;
+
+    /** Number of ordinals below which merge sort uses insertion sort. */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final double[] keys;
+
+    private NumericSortKeys(double[] keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Evaluates an expression for each member of a list.
+     *
+     * @param evaluator Evaluator
+     * @param exp Sort key expression
+     * @param members Members
+     * @return Sort keys, or null if a value is not numeric
+     */
+    static NumericSortKeys evaluate(
+        Evaluator evaluator,
+        Calc exp,
+        List<Member> members)
+    {
+        final int savepoint = evaluator.savepoint();
+        try {
+            final double[] keys = new double[members.size()];
+            for (int i = 0; i < keys.length; i++) {
+                evaluator.setContext(members.get(i));
+                if (!setKey(keys, i, exp.evaluate(evaluator))) {
+                    return null;
+                }
+            }
+            return new NumericSortKeys(keys);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Evaluates an expression for each tuple of a list.
+     *
+     * @param evaluator Evaluator
+     * @param exp Sort key expression
+     * @param tuples Tuples
+     * @return Sort keys, or null if a value is not numeric
+     */
+    static NumericSortKeys evaluate(
+        Evaluator evaluator,
+        Calc exp,
+        TupleList tuples)
+    {
+        final int savepoint = evaluator.savepoint();
+        try {
+            final double[] keys = new double[tuples.size()];
+            final TupleCursor cursor = tuples.tupleCursor();
+            for (int i = 0; cursor.forward(); i++) {
+                cursor.setContext(evaluator);
+                if (!setKey(keys, i, exp.evaluate(evaluator))) {
+                    return null;
+                }
+            }
+            return new NumericSortKeys(keys);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * Creates sort keys from values that have already been evaluated.
+     *
+     * @param values Values
+     * @return Sort keys, or null if a value is not numeric
+     */
+    static NumericSortKeys of(Object[] values) {
+        final double[] keys = new double[values.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (!setKey(keys, i, values[i])) {
+                return null;
+            }
+        }
+        return new NumericSortKeys(keys);
+    }
+
+    private static boolean setKey(double[] keys, int i, Object value) {
+        if (value == null
+            || value == Util.nullValue
+            || value == RolapUtil.valueNotReadyException)
+        {
+            keys[i] = NULL_KEY;
+            return true;
+        }
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        final double d = ((Number) value).doubleValue();
+        if (d == NULL_KEY) {
+            return false;
+        }
+        keys[i] = d;
+        return true;
+    }
+
+    /**
+     * Returns the number of keys.
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns whether the value at an ordinal is null.
+     */
+    boolean isNull(int ordinal) {
+        return keys[ordinal] == NULL_KEY;
+    }
+
+    /**
+     * Compares the values at two ordinals.
+     *
+     * @param ordinal0 First ordinal
+     * @param ordinal1 Second ordinal
+     * @return Negative, zero or positive, as the first value is less than,
+     * equal to or greater than the second
+     */
+    int compareValues(int ordinal0, int ordinal1) {
+        final double d0 = keys[ordinal0];
+        final double d1 = keys[ordinal1];
+        if (d0 == NULL_KEY) {
+            return d1 == NULL_KEY ? 0 : -1;
+        } else if (d1 == NULL_KEY) {
+            return 1;
+        }
+        return FunUtil.compareValues(d0, d1);
+    }
+
+    private int compare(int ordinal0, int ordinal1, boolean desc) {
+        final int c = compareValues(ordinal0, ordinal1);
+        if (c != 0) {
+            return desc ? -c : c;
+        }
+        return ordinal0 < ordinal1 ? -1 : ordinal0 == ordinal1 ? 0 : 1;
+    }
+
+    /**
+     * Sorts the ordinals by value. The sort is stable.
+     *
+     * @param desc Whether to sort descending
+     * @return Ordinals in sorted order
+     */
+    int[] sort(boolean desc) {
+        final int[] ordinals = new int[keys.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        mergeSort(ordinals.clone(), ordinals, 0, ordinals.length, desc);
+        return ordinals;
+    }
+
+    /**
+     * Merge-sorts {@code dest[low, high)}, using {@code src}, which contains
+     * the same ordinals, as work space.
+     */
+    private void mergeSort(
+        int[] src, int[] dest, int low, int high, boolean desc)
+    {
+        final int length = high - low;
+        if (length < INSERTION_SORT_THRESHOLD) {
+            for (int i = low + 1; i < high; i++) {
+                final int ordinal = dest[i];
+                int j = i;
+                for (; j > low && compare(dest[j - 1], ordinal, desc) > 0;
+                    j--)
+                {
+                    dest[j] = dest[j - 1];
+                }
+                dest[j] = ordinal;
+            }
+            return;
+        }
+        final int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, desc);
+        mergeSort(dest, src, mid, high, desc);
+        if (compare(src[mid - 1], src[mid], desc) <= 0) {
+            // Halves are already in order.
+            System.arraycopy(src, low, dest, low, length);
+            return;
+        }
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high
+                || p < mid && compare(src[p], src[q], desc) <= 0)
+            {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Returns the first ordinals in value order, without sorting the others.
+     * Equivalent to the first {@code limit} elements of {@link #sort}, in
+     * time proportional to n log(limit).
+     *
+     * @param desc Whether to sort descending
+     * @param limit Number of ordinals to return
+     * @return First ordinals in sorted order
+     */
+    int[] partialSort(boolean desc, int limit) {
+        limit = Math.min(limit, keys.length);
+        if (limit <= 0) {
+            return new int[0];
+        }
+
+        // A heap of the best "limit" ordinals so far, whose root is the
+        // worst of them.
+        final int[] heap = new int[limit];
+        int n = 0;
+        for (int ordinal = 0; ordinal < keys.length; ordinal++) {
+            if (n < limit) {
+                heap[n] = ordinal;
+                siftUp(heap, n++, desc);
+            } else if (compare(ordinal, heap[0], desc) < 0) {
+                heap[0] = ordinal;
+                siftDown(heap, n, desc);
+            }
+        }
+
+        // Remove the worst repeatedly, filling the array from the end.
+        for (int i = n - 1; i > 0; i--) {
+            final int worst = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, i, desc);
+            heap[i] = worst;
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int i, boolean desc) {
+        final int ordinal = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (compare(heap[parent], ordinal, desc) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = ordinal;
+    }
+
+    private void siftDown(int[] heap, int n, boolean desc) {
+        final int ordinal = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n
+                && compare(heap[child + 1], heap[child], desc) > 0)
+            {
+                ++child;
+            }
+            if (compare(ordinal, heap[child], desc) >= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = ordinal;
+    }
+
+    /**
+     * Returns the elements of a list at the given ordinals, in order.
+     *
+     * @param list List
+     * @param ordinals Ordinals
+     * @return New list
+     */
+    static <T> List<T> select(List<T> list, int[] ordinals) {
+        final List<T> result = new ArrayList<T>(ordinals.length);
+        for (int ordinal : ordinals) {
+            result.add(list.get(ordinal));
+        }
+        return result;
+    }
+
+    /**
+     * Rearranges a list so that its elements are in the order of the given
+     * ordinals.
+     *
+     * @param list Mutable list
+     * @param ordinals Permutation of the ordinals of the list
+     */
+    static <T> void permute(List<T> list, int[] ordinals) {
+        final List<T> sorted = select(list, ordinals);
+        for (int i = 0; i < ordinals.length; i++) {
+            list.set(i, sorted.get(i));
+        }
+    }
+}
+
+// End NumericSortKeys.java
@@ -199,6 +199,15 @@ class OrderFunDef extends FunDefBase {
         }
 
         public TupleList evaluateList(Evaluator evaluator) {
+            final ResolvedFunCall call = (ResolvedFunCall) exp;
+            // Use a native evaluator, if more efficient.
+            final NativeEvaluator nativeEvaluator =
+                evaluator.getSchemaReader().getNativeSetEvaluator(
+                    call.getFunDef(), call.getArgs(), evaluator, this);
+            if (nativeEvaluator != null) {
+                return
+                    (TupleList) nativeEvaluator.execute(ResultStyle.LIST);
+            }
             final TupleIterable iterable =
                 iterCalc.evaluateIterable(evaluator);
             // REVIEW: If iterable happens to be a list, we'd like to pass it,
@@ -387,14 +387,8 @@ public class RankFunDef extends FunDefBase {
             // Save the state of the evaluator.
             final int savepoint = evaluator.savepoint();
             RuntimeException exception = null;
-            final Map<Member, Object> memberValueMap;
-            final Map<List<Member>, Object> tupleValueMap;
-            final int numValues;
-            //noinspection unchecked
-            final Map<Object, Integer> uniqueValueCounterMap =
-                new TreeMap<Object, Integer>(
-                    FunUtil.DescendingValueComparator.instance);
-            TupleList list;
+            final TupleList list;
+            final Object[] keyValues;
             try {
                 evaluator.setNonEmpty(false);
 
@@ -413,69 +407,104 @@ public class RankFunDef extends FunDefBase {
                         Collections.<List<Member>, Integer>emptyMap());
                 }
 
-                if (list.getArity() == 1) {
-                    memberValueMap = new HashMap<Member, Object>();
-                    tupleValueMap = null;
-                    for (Member member : list.slice(0)) {
-                        evaluator.setContext(member);
-                        final Object keyValue = keyCalc.evaluate(evaluator);
-                        if (keyValue instanceof RuntimeException) {
-                            if (exception == null) {
-                                exception = (RuntimeException) keyValue;
-                            }
-                        } else if (Util.isNull(keyValue)) {
-                            // nothing to do
-                        } else {
-                            // Assume it's the first time seeing this keyValue.
-                            Integer valueCounter =
-                                uniqueValueCounterMap.put(keyValue, ONE);
-                            if (valueCounter != null) {
-                                // Update the counter on how many times this
-                                // keyValue has been seen.
-                                uniqueValueCounterMap.put(
-                                    keyValue, valueCounter + 1);
-                            }
-                            memberValueMap.put(member, keyValue);
-                        }
-                    }
-                    numValues = memberValueMap.keySet().size();
-                } else {
-                    tupleValueMap = new HashMap<List<Member>, Object>();
-                    memberValueMap = null;
-                    for (List<Member> tuple : list) {
-                        evaluator.setContext(tuple);
-                        final Object keyValue = keyCalc.evaluate(evaluator);
-                        if (keyValue instanceof RuntimeException) {
-                            if (exception == null) {
-                                exception = (RuntimeException) keyValue;
-                            }
-                        } else if (Util.isNull(keyValue)) {
-                            // nothing to do
-                        } else {
-                            // Assume it's the first time seeing this keyValue.
-                            Integer valueCounter = uniqueValueCounterMap.put(
-                                keyValue, ONE);
-                            if (valueCounter != null) {
-                                // Update the counter on how many times this
-                                // keyValue has been seen.
-                                uniqueValueCounterMap.put(
-                                    keyValue, valueCounter + 1);
-                            }
-                            tupleValueMap.put(tuple, keyValue);
-                        }
+                keyValues = new Object[list.size()];
+                final TupleCursor cursor = list.tupleCursor();
+                for (int i = 0; cursor.forward(); i++) {
+                    cursor.setContext(evaluator);
+                    final Object keyValue = keyCalc.evaluate(evaluator);
+                    if (keyValue instanceof RuntimeException
+                        && exception == null)
+                    {
+                        exception = (RuntimeException) keyValue;
                     }
-                    numValues = tupleValueMap.keySet().size();
+                    keyValues[i] = keyValue;
                 }
             } finally {
                 evaluator.restore(savepoint);
             }
 
-
             // If there were exceptions, quit now... we'll be back.
             if (exception != null) {
                 return exception;
             }
 
+            // If the values are numbers, sort their ordinals; otherwise, sort
+            // the values themselves.
+            final NumericSortKeys keys = NumericSortKeys.of(keyValues);
+            if (keys != null) {
+                return rank(list, keyValues, keys);
+            }
+            return rank(list, keyValues);
+        }
+
+        /**
+         * Ranks a list whose values are numbers.
+         */
+        private Object rank(
+            TupleList list,
+            Object[] keyValues,
+            NumericSortKeys keys)
+        {
+            // Null values sort last, and are not ranked.
+            final int[] ordinals = keys.sort(true);
+            int numValues = ordinals.length;
+            while (numValues > 0 && keys.isNull(ordinals[numValues - 1])) {
+                --numValues;
+            }
+
+            final Object[] allValuesSorted = new Object[numValues];
+            final int[] ranks = new int[numValues];
+            for (int i = 0; i < numValues; i++) {
+                allValuesSorted[i] = keyValues[ordinals[i]];
+                ranks[i] =
+                    i > 0 && keys.compareValues(ordinals[i - 1], ordinals[i])
+                        == 0
+                        ? ranks[i - 1]
+                        : i + 1;
+            }
+
+            // Build a member/tuple to rank map
+            if (list.getArity() == 1) {
+                final Map<Member, Integer> rankMap =
+                    new HashMap<Member, Integer>();
+                for (int i = 0; i < numValues; i++) {
+                    rankMap.put(list.get(0, ordinals[i]), ranks[i]);
+                }
+                return new MemberSortResult(allValuesSorted, rankMap);
+            } else {
+                final Map<List<Member>, Integer> rankMap =
+                    new HashMap<List<Member>, Integer>();
+                for (int i = 0; i < numValues; i++) {
+                    rankMap.put(list.get(ordinals[i]), ranks[i]);
+                }
+                return new TupleSortResult(allValuesSorted, rankMap);
+            }
+        }
+
+        /**
+         * Ranks a list whose values are not all numbers.
+         */
+        private Object rank(TupleList list, Object[] keyValues) {
+            //noinspection unchecked
+            final Map<Object, Integer> uniqueValueCounterMap =
+                new TreeMap<Object, Integer>(
+                    FunUtil.DescendingValueComparator.instance);
+            int numValues = 0;
+            for (Object keyValue : keyValues) {
+                if (Util.isNull(keyValue)) {
+                    continue;
+                }
+                // Assume it's the first time seeing this keyValue.
+                Integer valueCounter =
+                    uniqueValueCounterMap.put(keyValue, ONE);
+                if (valueCounter != null) {
+                    // Update the counter on how many times this
+                    // keyValue has been seen.
+                    uniqueValueCounterMap.put(keyValue, valueCounter + 1);
+                }
+                ++numValues;
+            }
+
             final Object[] allValuesSorted = new Object[numValues];
 
             // Now build the sorted array containing all keyValues
@@ -504,23 +533,23 @@ public class RankFunDef extends FunDefBase {
             if (list.getArity() == 1) {
                 final Map<Member, Integer> rankMap =
                     new HashMap<Member, Integer>();
-                for (Map.Entry<Member, Object> entry
-                    : memberValueMap.entrySet())
-                {
-                    int oneBasedRank =
-                        uniqueValueRankMap.get(entry.getValue());
-                    rankMap.put(entry.getKey(), oneBasedRank);
+                for (int i = 0; i < keyValues.length; i++) {
+                    if (!Util.isNull(keyValues[i])) {
+                        rankMap.put(
+                            list.get(0, i),
+                            uniqueValueRankMap.get(keyValues[i]));
+                    }
                 }
                 return new MemberSortResult(allValuesSorted, rankMap);
             } else {
                 final Map<List<Member>, Integer> rankMap =
                     new HashMap<List<Member>, Integer>();
-                for (Map.Entry<List<Member>, Object> entry
-                    : tupleValueMap.entrySet())
-                {
-                    int oneBasedRank =
-                        uniqueValueRankMap.get(entry.getValue());
-                    rankMap.put(entry.getKey(), oneBasedRank);
+                for (int i = 0; i < keyValues.length; i++) {
+                    if (!Util.isNull(keyValues[i])) {
+                        rankMap.put(
+                            list.get(i),
+                            uniqueValueRankMap.get(keyValues[i]));
+                    }
                 }
                 return new TupleSortResult(allValuesSorted, rankMap);
             }
@@ -14,6 +14,7 @@ import mondrian.calc.impl.AbstractListCalc;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.Evaluator;
 import mondrian.olap.FunDef;
+import mondrian.olap.NativeEvaluator;
 
 /**
  * Definition of the <code>Subset</code> MDX function.
@@ -34,7 +35,9 @@ class SubsetFunDef extends FunDefBase {
         super(dummyFunDef);
     }
 
-    public Calc compileCall(ResolvedFunCall call, ExpCompiler compiler) {
+    public Calc compileCall(
+        final ResolvedFunCall call, ExpCompiler compiler)
+    {
         final ListCalc listCalc =
             compiler.compileList(call.getArg(0));
         final IntegerCalc startCalc =
@@ -47,6 +50,14 @@ class SubsetFunDef extends FunDefBase {
             call, new Calc[] {listCalc, startCalc, countCalc})
         {
             public TupleList evaluateList(Evaluator evaluator) {
+                // Use a native evaluator, if more efficient.
+                final NativeEvaluator nativeEvaluator =
+                    evaluator.getSchemaReader().getNativeSetEvaluator(
+                        call.getFunDef(), call.getArgs(), evaluator, this);
+                if (nativeEvaluator != null) {
+                    return
+                        (TupleList) nativeEvaluator.execute(ResultStyle.LIST);
+                }
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
@@ -97,6 +97,12 @@ class SumFunDef extends AbstractAggregateFunDef {
     {
         return new AbstractDoubleCalc(call, new Calc[] {iterCalc, calc}) {
             public double evaluateDouble(Evaluator evaluator) {
+                final NativeEvaluator nativeEvaluator =
+                    getNativeEvaluator(call, evaluator, this);
+                if (nativeEvaluator != null) {
+                    return toDouble(
+                        nativeEvaluator.execute(ResultStyle.VALUE));
+                }
                 TupleIterable iterable =
                     evaluateCurrentIterable(iterCalc, evaluator);
                 final int savepoint = evaluator.savepoint();
@@ -120,6 +126,12 @@ class SumFunDef extends AbstractAggregateFunDef {
     {
         return new AbstractDoubleCalc(call, new Calc[] {listCalc, calc}) {
             public double evaluateDouble(Evaluator evaluator) {
+                final NativeEvaluator nativeEvaluator =
+                    getNativeEvaluator(call, evaluator, this);
+                if (nativeEvaluator != null) {
+                    return toDouble(
+                        nativeEvaluator.execute(ResultStyle.VALUE));
+                }
                 TupleList memberList = evaluateCurrentList(listCalc, evaluator);
                 final int savepoint = evaluator.savepoint();
                 try {
@@ -137,6 +149,20 @@ class SumFunDef extends AbstractAggregateFunDef {
             }
         };
     }
+
+    /**
+     * Converts the result of a native evaluator to a double, the way
+     * {@link FunUtil#sumDouble} treats the value of a cell.
+     */
+    private static double toDouble(Object o) {
+        if (o instanceof Number) {
+            return ((Number) o).doubleValue();
+        } else if (o == null || o == Util.nullValue) {
+            return DoubleNull;
+        } else {
+            return Double.NaN;
+        }
+    }
 }
 
 // End SumFunDef.java
@@ -176,13 +176,25 @@ public class CacheControlImpl implements CacheControl {
             "Flush",
             new Locus.Action<Void>() {
                 public Void execute() {
-                    flushInternal(region);
+                    flushInternal(region, null);
                     return null;
                 }
             });
     }
 
-    private void flushInternal(CellRegion region) {
+    public void flushSample(final CellRegion region, final String sampleTable) {
+        Locus.execute(
+            connection,
+            "Flush sample",
+            new Locus.Action<Void>() {
+                public Void execute() {
+                    flushInternal(region, sampleTable);
+                    return null;
+                }
+            });
+    }
+
+    private void flushInternal(CellRegion region, String sampleTable) {
         if (region instanceof EmptyCellRegion) {
             return;
         }
@@ -201,7 +213,7 @@ public class CacheControlImpl implements CacheControl {
         final UnionCellRegion union = normalize((CellRegionImpl) region);
         for (CellRegionImpl cellRegion : union.regions) {
             // Figure out the bits.
-            flushNonUnion(cellRegion);
+            flushNonUnion(cellRegion, sampleTable);
         }
     }
 
@@ -304,7 +316,14 @@ public class CacheControlImpl implements CacheControl {
         }
     }
 
-    protected void flushNonUnion(CellRegion region) {
+    /**
+     * Flushes the segments of a region that contains no unions.
+     *
+     * @param region Region
+     * @param sampleTable Name of the sample table whose segments to flush, or
+     *   null to flush all segments
+     */
+    protected void flushNonUnion(CellRegion region, String sampleTable) {
         throw new UnsupportedOperationException();
     }
 
@@ -89,6 +89,7 @@ public class CompoundPredicateInfo {
         SqlQuery query =
             new SqlQuery(
                 star.getSqlQueryDialect());
+        query.setGenerateParameterizedSql(false);
         buf.setLength(0);
         predicate.toSql(query, buf);
         return buf.toString();
@@ -16,6 +16,7 @@ import mondrian.rolap.aggmatcher.AggGen;
 import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.rolap.cache.SegmentCacheIndexImpl;
+import mondrian.sampling.SampleInfo;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.spi.*;
@@ -139,7 +140,7 @@ public class FastBatchingCellReader implements CellReader {
         {
             SegmentWithData segmentWithData = cacheMgr.peek(request);
             if (segmentWithData != null) {
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
                 final Object o2 =
                     aggMgr.getCellFromCache(request, pinnedSegments);
                 if (o2 != null) {
@@ -155,6 +156,17 @@ public class FastBatchingCellReader implements CellReader {
         return RolapUtil.valueNotReadyException;
     }
 
+    /**
+     * Registers a segment with the local cache of its star, and notes whether
+     * the answer of the execution will contain estimates.
+     */
+    private void register(SegmentWithData segmentWithData) {
+        segmentWithData.getStar().register(segmentWithData);
+        if (segmentWithData.getHeader().isSampled()) {
+            execution.setApproximate();
+        }
+    }
+
     public int getMissCount() {
         return missCount;
     }
@@ -275,7 +287,7 @@ public class FastBatchingCellReader implements CellReader {
                 headerBodies.put(header, body);
                 final SegmentWithData segmentWithData =
                     response.convert(header, body);
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
             }
 
             // Perform each suggested rollup.
@@ -309,7 +321,9 @@ public class FastBatchingCellReader implements CellReader {
                         keepColumns,
                         rollup.constrainedColumnsBitKey,
                         rollup.measure.getAggregator().getRollup(),
-                        rollup.measure.getDatatype());
+                        rollup.measure.getDatatype(),
+                        cacheMgr.rollupPool,
+                        execution);
 
                 final SegmentHeader header = rollupHeaderBody.left;
                 final SegmentBody body = rollupHeaderBody.right;
@@ -326,7 +340,7 @@ public class FastBatchingCellReader implements CellReader {
                     response.convert(header, body);
 
                 // Register this segment with the local star.
-                segmentWithData.getStar().register(segmentWithData);
+                register(segmentWithData);
 
                 // Make sure that the cache manager knows about this new
                 // segment. First thing we do is to add it to the index.
@@ -382,7 +396,7 @@ public class FastBatchingCellReader implements CellReader {
                         "Waiting for someone else's segment to load via SQL");
                     final SegmentWithData segmentWithData =
                         response.convert(header, body);
-                    segmentWithData.getStar().register(segmentWithData);
+                    register(segmentWithData);
                 }
 
                 // Wait on segments being loaded by SQL statements we asked for.
@@ -395,7 +409,7 @@ public class FastBatchingCellReader implements CellReader {
                             "Waiting for segment to load via SQL");
                     for (SegmentWithData segmentWithData : segmentMap.values())
                     {
-                        segmentWithData.getStar().register(segmentWithData);
+                        register(segmentWithData);
                     }
                     // TODO: also pass back SegmentHeader and SegmentBody,
                     // and add these to headerBodies. Might help?
@@ -664,11 +678,18 @@ class BatchLoader {
         // segment.)
 
         if (!headersInCache.isEmpty()) {
+            final boolean anySampled = anySampled(headersInCache);
             for (SegmentHeader headerInCache : headersInCache) {
                 final Future<SegmentBody> future =
                     index.getFuture(locus.execution, headerInCache);
 
                 if (future != null) {
+                    if (anySampled && !headerInCache.isSampled()) {
+                        // An estimate covers this request. Don't hold up
+                        // the approximate answer waiting for exact values
+                        // that are still being loaded.
+                        continue;
+                    }
                     // Segment header is in cache, body is being loaded.
                     // Worker will need to wait for load to complete.
                     futures.put(headerInCache, future);
@@ -743,6 +764,15 @@ class BatchLoader {
         return false;
     }
 
+    private static boolean anySampled(List<SegmentHeader> headers) {
+        for (SegmentHeader header : headers) {
+            if (header.isSampled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
       /**
        * Checks if the request can be satisfied by a rollup already in place
        * and moves that rollup to the top of the list if not there.
@@ -874,10 +904,12 @@ class BatchLoader {
 
         final long t1 = System.currentTimeMillis();
 
-        // Now we're inside the cache manager, we can see which of our cell
-        // requests can be answered from cache. Those that can will be added
-        // to the segments list; those that can not will be converted into
-        // batches and rolled up or loaded using SQL.
+        // See which of our cell requests can be answered from cache. Those
+        // that can will be added to the segments list; those that can not
+        // will be converted into batches and rolled up or loaded using SQL.
+        // No other load into this index runs at the same time (see
+        // LoadBatchCommand), so a segment that we find missing here is still
+        // missing when we register it as loading.
         for (CellRequest cellRequest : cellRequests) {
             recordCellRequest2(cellRequest);
         }
@@ -985,6 +1017,13 @@ class BatchLoader {
     /**
      * Command that loads the segments required for a collection of cell
      * requests. Returns the collection of segments.
+     *
+     * <p>The cache manager runs commands in the calling thread, but loads
+     * into the same {@link SegmentCacheIndex} are serialized. Between
+     * finding that a segment is not in the index and registering it as
+     * loading, no other query can register the same segment; a second query
+     * that misses the same cells finds the segment loading, and waits for it
+     * instead of issuing the same SQL.</p>
      */
     public static class LoadBatchCommand
         implements SegmentCacheManager.Command<LoadBatchResponse>
@@ -1021,8 +1060,19 @@ class BatchLoader {
                 old.clear();
                 old.putAll(mdc);
             }
-            return new BatchLoader(locus, cacheMgr, dialect, cube)
-                .load(cellRequests);
+            if (cellRequests.isEmpty()) {
+                return new BatchLoader(locus, cacheMgr, dialect, cube)
+                    .load(cellRequests);
+            }
+            // All cells of a cube belong to the same schema, and therefore
+            // to the same index.
+            final SegmentCacheIndex index =
+                cacheMgr.getIndexRegistry().getIndex(
+                    cellRequests.get(0).getMeasure().getStar());
+            synchronized (index) {
+                return new BatchLoader(locus, cacheMgr, dialect, cube)
+                    .load(cellRequests);
+            }
         }
 
         public Locus getLocus() {
@@ -1266,6 +1316,11 @@ class BatchLoader {
             // the members are requested; whether we should get just the cells
             // requested or expand to a n-cube
 
+            // Sketch measures group by their operand, so load them apart
+            // from other measures; see RolapAggregator.SketchAggor.
+            loadSketchMeasures(
+                predicates, groupingSetsCollector, segmentFutures);
+
             // If the database cannot execute "count(distinct ...)", split the
             // distinct aggregations out.
             int distinctMeasureCount = getDistinctMeasureCount(measuresList);
@@ -1375,6 +1430,56 @@ class BatchLoader {
             }
         }
 
+        /**
+         * Loads the measures of this batch whose aggregator is a sketch, one
+         * query per operand, and removes them from the list of measures.
+         * A query for sketch measures groups by their operand; other measures
+         * in the same query would be split across the groups.
+         */
+        private void loadSketchMeasures(
+            StarColumnPredicate[] predicates,
+            GroupingSetsCollector groupingSetsCollector,
+            List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
+        {
+            while (true) {
+                RolapStar.Measure sketchMeasure = null;
+                for (RolapStar.Measure measure : measuresList) {
+                    if (measure.getAggregator().isSketch()) {
+                        sketchMeasure = measure;
+                        break;
+                    }
+                }
+                if (sketchMeasure == null) {
+                    break;
+                }
+                final String expr =
+                    sketchMeasure.getExpression().getGenericExpression();
+                final List<RolapStar.Measure> sketchMeasuresList =
+                    new ArrayList<RolapStar.Measure>();
+                for (int i = 0; i < measuresList.size();) {
+                    final RolapStar.Measure measure = measuresList.get(i);
+                    if (measure.getAggregator().isSketch()
+                        && measure.getExpression().getGenericExpression()
+                        .equals(expr))
+                    {
+                        measuresList.remove(i);
+                        sketchMeasuresList.add(measure);
+                    } else {
+                        i++;
+                    }
+                }
+                AggregationManager.loadAggregation(
+                    cacheMgr,
+                    cellRequestCount,
+                    sketchMeasuresList,
+                    columns,
+                    batchKey,
+                    predicates,
+                    groupingSetsCollector,
+                    segmentFutures);
+            }
+        }
+
         private StarColumnPredicate[] initPredicates() {
             StarColumnPredicate[] predicates =
                 new StarColumnPredicate[columns.length];
@@ -1508,7 +1613,9 @@ class BatchLoader {
          *     and
          * <li>both have same Fact Table; and
          * <li>matching columns of this and other batch has the same value; and
-         * <li>non matching columns of this batch have ALL VALUES
+         * <li>non matching columns of this batch have ALL VALUES; and
+         * <li>both are read from the same sample, or both exactly; and
+         * <li>neither has sketch measures
          * </ul>
          */
         boolean canBatch(Batch other) {
@@ -1517,7 +1624,10 @@ class BatchLoader {
                 && hasSameMeasureList(other)
                 && !hasDistinctCountMeasure()
                 && !other.hasDistinctCountMeasure()
+                && !hasSketchMeasure()
+                && !other.hasSketchMeasure()
                 && haveSameStarAndAggregation(other)
+                && haveSameSample(other)
                 && haveSameClosureColumns(other);
         }
 
@@ -1592,6 +1702,15 @@ class BatchLoader {
             return getDistinctMeasureCount(measuresList) > 0;
         }
 
+        boolean hasSketchMeasure() {
+            for (RolapStar.Measure measure : measuresList) {
+                if (measure.getAggregator().isSketch()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         boolean hasSameCompoundPredicate(Batch other) {
             final StarPredicate starPredicate = compoundPredicate();
             final StarPredicate otherStarPredicate = other.compoundPredicate();
@@ -1644,6 +1763,27 @@ class BatchLoader {
             return hasSameStar && hasSameAggregation && hasSameRollupOption;
         }
 
+        /**
+         * Returns whether this batch will be estimated from the same sample
+         * as another, or both will be read exactly. The segments of a
+         * batch that is subsumed into another are loaded by the same SQL
+         * statement, so they must have been created for the same sample.
+         *
+         * @param other Other batch
+         * @return Whether batches use the same sample
+         */
+        boolean haveSameSample(Batch other) {
+            return getSample() == other.getSample();
+        }
+
+        private SampleInfo getSample() {
+            return AggregationManager.chooseSample(
+                getStar(),
+                getConstrainedColumnsBitKey(),
+                makeMeasureBitKey(),
+                batchKey.getCompoundPredicateList());
+        }
+
         /**
          * Returns whether this batch has the same closure columns as another.
          *
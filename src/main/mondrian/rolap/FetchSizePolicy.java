@@ -0,0 +1,177 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+import mondrian.spi.Dialect;
+
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.sql.DataSource;
+
+/**
+ * Chooses the JDBC fetch size of SQL statements against a data source.
+ *
+ * <p>Left to themselves, drivers either read a whole result into memory
+ * before returning the first row (MySQL, PostgreSQL), which for a segment
+ * of millions of cells may exhaust the heap, or read a few rows per round
+ * trip (Oracle reads 10), which makes large results slow.</p>
+ *
+ * <p>The policy remembers a moving average of the number of rows that
+ * statements of each {@link Purpose} have returned, and sets the fetch size
+ * of the next statement of that purpose to the average, up to
+ * {@link MondrianProperties#MaxFetchSize}. Segment loads and drill-throughs
+ * that usually return at least
+ * {@link MondrianProperties#StreamingRowThreshold} rows, or whose size is
+ * not yet known, are streamed, in the way that the {@link Dialect}
+ * requires.</p>
+ *
+ * @see SqlStatement
+ */
+class FetchSizePolicy {
+    private static final Map<DataSource, FetchSizePolicy> MAP =
+        new WeakHashMap<DataSource, FetchSizePolicy>();
+
+    /**
+     * Smallest fetch size that the policy sets; the usual driver default.
+     */
+    static final int MIN_FETCH_SIZE = 10;
+
+    private final Dialect dialect;
+
+    /**
+     * Moving average of the number of rows returned by statements of each
+     * purpose, indexed by {@link Purpose#ordinal()}; -1 if no statement of
+     * that purpose has finished.
+     */
+    private final long[] averageRowCounts =
+        new long[Purpose.values().length];
+
+    FetchSizePolicy(Dialect dialect) {
+        this.dialect = dialect;
+        Arrays.fill(averageRowCounts, -1L);
+    }
+
+    /**
+     * Returns the policy for a data source, creating it if necessary.
+     *
+     * @param dataSource Data source
+     * @param statement Statement that is about to execute; used to create
+     *   the dialect of a new policy
+     * @return Policy
+     */
+    static FetchSizePolicy instance(
+        DataSource dataSource,
+        SqlStatement statement)
+    {
+        synchronized (MAP) {
+            FetchSizePolicy policy = MAP.get(dataSource);
+            if (policy == null) {
+                policy = new FetchSizePolicy(statement.createDialect());
+                MAP.put(dataSource, policy);
+            }
+            return policy;
+        }
+    }
+
+    /**
+     * Sets the fetch size of a statement that is about to execute, and
+     * switches off the connection's auto-commit mode if the dialect needs
+     * that to stream the result.
+     *
+     * @param connection Connection
+     * @param statement Statement
+     * @param purpose Purpose of statement
+     * @param forwardOnly Whether the result set will be forward-only; only
+     *   forward-only results can be streamed
+     * @return Whether auto-commit was switched off; if so, the caller must
+     *   switch it back on before it releases the connection
+     * @throws SQLException on error
+     */
+    boolean apply(
+        Connection connection,
+        Statement statement,
+        Purpose purpose,
+        boolean forwardOnly)
+        throws SQLException
+    {
+        final MondrianProperties properties = MondrianProperties.instance();
+        if (!properties.AdaptiveFetchSize.get()) {
+            return false;
+        }
+        final long averageRowCount;
+        synchronized (this) {
+            averageRowCount = averageRowCounts[purpose.ordinal()];
+        }
+        final boolean bulk =
+            purpose == Purpose.CELL_SEGMENT
+            || purpose == Purpose.DRILL_THROUGH;
+        final int maxFetchSize =
+            Math.max(MIN_FETCH_SIZE, properties.MaxFetchSize.get());
+        final int fetchSize;
+        if (averageRowCount >= 0) {
+            fetchSize =
+                (int) Math.max(
+                    MIN_FETCH_SIZE,
+                    Math.min(maxFetchSize, averageRowCount + 1));
+        } else if (bulk) {
+            fetchSize = maxFetchSize;
+        } else {
+            return false;
+        }
+        final boolean stream =
+            bulk
+            && forwardOnly
+            && (averageRowCount < 0
+                || averageRowCount >= properties.StreamingRowThreshold.get());
+        final int dialectFetchSize = dialect.getFetchSize(fetchSize, stream);
+        if (dialectFetchSize != 0) {
+            statement.setFetchSize(dialectFetchSize);
+        }
+        if (stream
+            && dialect.requiresAutoCommitOffToStream()
+            && connection.getAutoCommit())
+        {
+            connection.setAutoCommit(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the moving average of the number of rows that statements of a
+     * given purpose have returned, or -1 if none has finished.
+     *
+     * @param purpose Purpose of statement
+     * @return Average number of rows
+     */
+    synchronized long getAverageRowCount(Purpose purpose) {
+        return averageRowCounts[purpose.ordinal()];
+    }
+
+    /**
+     * Records the number of rows that a statement returned.
+     *
+     * @param purpose Purpose of statement
+     * @param rowCount Number of rows
+     */
+    synchronized void recordRowCount(Purpose purpose, int rowCount) {
+        final int i = purpose.ordinal();
+        final long average = averageRowCounts[i];
+        averageRowCounts[i] =
+            average < 0
+                ? rowCount
+                : average - (average >> 2) + (rowCount >> 2);
+    }
+}
+
+// End FetchSizePolicy.java
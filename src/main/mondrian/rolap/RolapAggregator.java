@@ -14,18 +14,20 @@ import java.util.Arrays;
 import java.util.List;
 
 import mondrian.calc.Calc;
+import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleList;
 import mondrian.olap.Aggregator;
 import mondrian.olap.EnumeratedValues;
 import mondrian.olap.Evaluator;
 import mondrian.olap.MondrianException;
+import mondrian.olap.Util;
 import mondrian.olap.fun.AggregateFunDef;
 import mondrian.olap.fun.FunUtil;
-import mondrian.sampling.SampleContext;
-import mondrian.sampling.SampleInfo;
-import mondrian.sampling.SampleInfoReader;
 import mondrian.spi.Dialect;
 import mondrian.spi.Dialect.Datatype;
+import mondrian.util.HyperLogLog;
+import mondrian.util.QuantileSketch;
+import mondrian.util.Sketch;
 
 /**
  * Describes an aggregation operator, such as "sum" or "count".
@@ -260,13 +262,211 @@ public abstract class RolapAggregator
             };
         };
 
+    /**
+     * Aggregator that estimates the number of distinct values of its operand
+     * with a {@link HyperLogLog} sketch. Unlike {@link #DistinctCount}, its
+     * cells can be rolled up in memory, and it can be read from a sample.
+     */
+    public static final RolapAggregator DistinctCountSketch =
+        new SketchAggor("distinct-count-sketch", index++) {
+            public Sketch newSketch() {
+                return new HyperLogLog();
+            }
+
+            public Sketch decode(byte[] bytes) {
+                return HyperLogLog.fromBytes(bytes);
+            }
+        };
+
+    /**
+     * Aggregator that estimates the minimum of its operand with a
+     * {@link QuantileSketch}.
+     */
+    public static final RolapAggregator MinSketch =
+        new QuantileSketchAggor("min-sketch", index++, 0d);
+
+    /**
+     * Aggregator that estimates the maximum of its operand with a
+     * {@link QuantileSketch}.
+     */
+    public static final RolapAggregator MaxSketch =
+        new QuantileSketchAggor("max-sketch", index++, 1d);
+
+    /**
+     * Aggregator that estimates the median of its operand with a
+     * {@link QuantileSketch}.
+     */
+    public static final RolapAggregator MedianSketch =
+        new QuantileSketchAggor("median-sketch", index++, 0.5d);
+
     /**
      * List of all valid aggregation operators.
      * 有效的聚集操作的列表
      */
     public static final EnumeratedValues<RolapAggregator> enumeration =
         new EnumeratedValues<RolapAggregator>(
-            new RolapAggregator[] {Sum, Count, Min, Max, Avg, DistinctCount});
+            new RolapAggregator[] {
+                Sum, Count, Min, Max, Avg, DistinctCount,
+                DistinctCountSketch, MinSketch, MaxSketch, MedianSketch});
+
+    /**
+     * Base class for aggregators whose cell values are
+     * {@link Sketch sketches}.
+     *
+     * <p>The operand column holds either raw values, or sketches serialized
+     * by {@link Sketch#toBytes()}; for example, a binary column of an
+     * aggregate table, or of a sample that holds a sketch of each stratum of
+     * the fact table. SQL cannot merge sketches, so the operand is not
+     * aggregated in SQL. The query groups by the operand instead, and its
+     * last column holds the number of rows in each group. The rows of each
+     * cell are {@link #fold(Sketch, Object, long) folded}, weighted by that
+     * number, into one sketch as the segment is loaded. Cells roll up by
+     * merging their sketches, so cells at coarse levels can be derived from
+     * finer cached segments without going back to SQL.
+     */
+    public static abstract class SketchAggor extends RolapAggregator {
+        protected SketchAggor(String name, int ordinal) {
+            super(name, ordinal, false);
+        }
+
+        /**
+         * Creates an empty sketch.
+         *
+         * @return Empty sketch
+         */
+        public abstract Sketch newSketch();
+
+        /**
+         * Reads a sketch serialized by {@link Sketch#toBytes()}.
+         *
+         * @param bytes Bytes
+         * @return Sketch
+         */
+        public abstract Sketch decode(byte[] bytes);
+
+        /**
+         * Folds a value read from the operand column into a cell's sketch.
+         *
+         * @param sketch Sketch of the cell so far, or null
+         * @param value Raw value, or serialized sketch
+         * @return Sketch of the cell
+         */
+        public Sketch fold(Sketch sketch, Object value) {
+            return fold(sketch, value, 1);
+        }
+
+        /**
+         * Folds a value that occurs in several rows into a cell's sketch.
+         *
+         * <p>The query that loads a sketch measure groups by the operand, so
+         * each row stands for all of the rows that have that value; the
+         * weight is the number of such rows. Quantiles depend on how often
+         * each value occurs, so the value is counted that many times.</p>
+         *
+         * @param sketch Sketch of the cell so far, or null
+         * @param value Raw value, or serialized sketch
+         * @param weight Number of rows in which the value occurs
+         * @return Sketch of the cell
+         */
+        public Sketch fold(Sketch sketch, Object value, long weight) {
+            if (sketch == null) {
+                sketch = newSketch();
+            }
+            if (value instanceof byte[]) {
+                sketch.merge(decode((byte[]) value), weight);
+            } else if (value instanceof Sketch) {
+                sketch.merge((Sketch) value, weight);
+            } else {
+                sketch.add(value, weight);
+            }
+            return sketch;
+        }
+
+        public boolean isSketch() {
+            return true;
+        }
+
+        public String getExpression(String operand) {
+            return operand;
+        }
+
+        public boolean supportsSampling() {
+            return true;
+        }
+
+        public String getSampledExpression(String operand) {
+            return operand;
+        }
+
+        public Object aggregate(
+            Evaluator evaluator, TupleList members, Calc exp)
+        {
+            final TupleCursor cursor = members.tupleCursor();
+            Sketch merged = null;
+            int errorCount = 0;
+            while (cursor.forward()) {
+                cursor.setContext(evaluator);
+                final Object o = exp.evaluate(evaluator);
+                if (o == RolapUtil.valueNotReadyException) {
+                    // Carry on, so that if we are running in a
+                    // BatchingCellReader, we find out all the dependent cells
+                    // we need.
+                    ++errorCount;
+                } else if (o instanceof Sketch) {
+                    if (merged == null) {
+                        merged = ((Sketch) o).copy();
+                    } else {
+                        merged.merge((Sketch) o);
+                    }
+                }
+            }
+            if (errorCount > 0) {
+                return Double.NaN;
+            }
+            return merged == null ? Util.nullValue : merged;
+        }
+
+        public boolean supportsFastAggregates(Dialect.Datatype dataType) {
+            return true;
+        }
+
+        public Object aggregate(List<Object> rawData, Datatype datatype) {
+            Sketch merged = null;
+            for (Object data : rawData) {
+                if (!(data instanceof Sketch)) {
+                    continue;
+                }
+                // Cached sketches are shared; merge into a copy.
+                if (merged == null) {
+                    merged = ((Sketch) data).copy();
+                } else {
+                    merged.merge((Sketch) data);
+                }
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Aggregator that estimates a quantile of its operand with a
+     * {@link QuantileSketch}.
+     */
+    static class QuantileSketchAggor extends SketchAggor {
+        private final double rank;
+
+        QuantileSketchAggor(String name, int ordinal, double rank) {
+            super(name, ordinal);
+            this.rank = rank;
+        }
+
+        public Sketch newSketch() {
+            return new QuantileSketch(rank);
+        }
+
+        public Sketch decode(byte[] bytes) {
+            return QuantileSketch.fromBytes(bytes, rank);
+        }
+    }
 
     /**
      * This is the base class for implementing aggregators over sum and
@@ -444,47 +644,73 @@ public abstract class RolapAggregator
         return distinct;
     }
 
+    /**
+     * Returns whether the values of this aggregator are
+     * {@link Sketch sketches}; see {@link SketchAggor}.
+     */
+    public boolean isSketch() {
+        return false;
+    }
+
     /**
      * Returns the expression to apply this aggregator to an operand.
      * For example, <code>getExpression("emp.sal")</code> returns
      * <code>"sum(emp.sal)"</code>
      */
     public String getExpression(String operand) {
-    	
+        StringBuilder buf = new StringBuilder(64);
+        buf.append(name);
+        buf.append('(');
+        if (distinct) {
+            buf.append("distinct ");
+        }
+        buf.append(operand);
+        buf.append(')');
+        return buf.toString();
+    }
+
+    /**
+     * Returns the expression to apply this aggregator to an operand, which
+     * is read either from the table itself or from a sample of it.
+     *
+     * @param operand Operand
+     * @param sampled Whether the operand's table is read from a sample
+     * @return Aggregate expression
+     */
+    public String getExpression(String operand, boolean sampled) {
+        return sampled
+            ? getSampledExpression(operand)
+            : getExpression(operand);
+    }
+
+    /**
+     * Returns whether this aggregator can be evaluated over a sample table,
+     * scaling each row by the sample's scale factor column <code>sf</code>.
+     */
+    public boolean supportsSampling() {
+        return !distinct
+            && (name.equals("sum")
+                || name.equals("count")
+                || name.equals("avg"));
+    }
+
+    /**
+     * Returns the expression to apply this aggregator to an operand read
+     * from a sample table, estimating the aggregate over the full table.
+     * For example, <code>getSampledExpression("emp.sal")</code> returns
+     * <code>"sum((emp.sal)*sf)"</code>.
+     *
+     * @throws MondrianException if this aggregator
+     *   {@link #supportsSampling() cannot be evaluated} over a sample
+     */
+    public String getSampledExpression(String operand) {
     	//TODO count(*)情形如何处理
     	StringBuilder buf = new StringBuilder(64);
-    	//检查是否从样本表进行计算
-    	String tableWithQuote = operand.split("\\.")[0];
-    	String table = tableWithQuote.substring(1,tableWithQuote.length()-1);
-    	boolean isSampleTable = false;
-    	if(SampleContext.getTablesNeededSampling().contains(table.toLowerCase())){
-    		for(SampleInfo info:SampleInfoReader.sampleInfos){
-    			if(info.getOriginTable().equalsIgnoreCase(table)){
-    				isSampleTable = true;
-    				break;
-    			}
-    		}
-    	}
-    	
-    	//不从样本表进行计算，进行常规处理
-    	if(!isSampleTable){
-    		buf.append(name);
-	        buf.append('(');
-	        if (distinct) {
-	        	buf.append("distinct ");
-	        }
-	        buf.append(operand);
-	        buf.append(')');
-	        return buf.toString();
-    	}
-    	
-    	//-------------以下为基于样本运算的查询重写--------------
-    	
     	//TODO 如果为distinct操作，抛出异常（暂时不支持该聚集运算）
     	if(distinct)
-    		throw new RuntimeException("不支持基于样本的distinct运算");
+    		throw new MondrianException("不支持基于样本的distinct运算");
     	
-    	//否则，根据具体的聚集操作进行查询重写
+    	//根据具体的聚集操作进行查询重写
         if(name.equals("sum")){
         	buf.append(name);
 	        buf.append("((");
@@ -498,11 +724,55 @@ public abstract class RolapAggregator
 	        buf.append(operand);
 	        buf.append(')');
         }else{	//TODO	min/max/distinct-count 	抛出异常,不支持该聚集运算
-        	throw new RuntimeException("不支持基于样本的聚集运算："+name);
+        	throw new MondrianException("不支持基于样本的聚集运算："+name);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns whether the variance of this aggregator's
+     * {@link #getSampledExpression(String) sampled estimate} can be computed
+     * in the same pass over the sample.
+     */
+    public boolean supportsErrorEstimate() {
+        return !distinct
+            && (name.equals("sum")
+                || name.equals("count"));
+    }
+
+    /**
+     * Returns the expression that estimates the variance of
+     * {@link #getSampledExpression(String)}.
+     *
+     * <p>Each row of a sample stands for <code>sf</code> rows of its origin
+     * table. Treating each row as kept with probability 1/sf, the
+     * Horvitz-Thompson variance of the scaled sum is the sum, over the rows of
+     * the sample, of sf*(sf-1)*x*x. The estimate is additive, so it can be
+     * rolled up with <code>sum</code> like the aggregate itself.
+     * For example, <code>getSampledVarianceExpression("emp.sal")</code>
+     * returns <code>"sum((emp.sal)*(emp.sal)*sf*(sf-1))"</code>.
+     *
+     * @param operand Operand
+     * @return Variance expression
+     * @throws MondrianException if this aggregator
+     *   {@link #supportsErrorEstimate() does not support} error estimates
+     */
+    public String getSampledVarianceExpression(String operand) {
+        if (!supportsErrorEstimate()) {
+            throw new MondrianException(
+                "不支持基于样本的误差估计：" + name);
+        }
+        StringBuilder buf = new StringBuilder(64);
+        if (name.equals("sum")) {
+            buf.append("sum((");
+            buf.append(operand);
+            buf.append(")*(");
+            buf.append(operand);
+            buf.append(")*sf*(sf-1))");
+        } else {
+            buf.append("sum(sf*(sf-1))");
         }
-        
         return buf.toString();
-       
     }
 
     /**
@@ -131,7 +131,8 @@ public class RolapBaseCubeMeasure
         setProperty(Property.AGGREGATION_TYPE.name, aggregator);
         if (datatype == null) {			//如果聚集操作为计数操作，数据类型为Integer，否则为Numerica
             if (aggregator == RolapAggregator.Count
-                || aggregator == RolapAggregator.DistinctCount)
+                || aggregator == RolapAggregator.DistinctCount
+                || aggregator == RolapAggregator.DistinctCountSketch)
             {
                 datatype = "Integer";
             } else {
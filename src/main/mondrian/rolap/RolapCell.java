@@ -20,6 +20,9 @@ import mondrian.server.*;
 import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.spi.Dialect;
 
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.NormalDistribution;
+import org.apache.commons.math.distribution.NormalDistributionImpl;
 import org.apache.log4j.Logger;
 
 import org.olap4j.AllocationPolicy;
@@ -40,6 +43,12 @@ public class RolapCell implements Cell {
      */
     private static final int MDACTION_TYPE_DRILLTHROUGH = 0x100;
 
+    /**
+     * Standard normal distribution, for computing error bounds.
+     */
+    private static final NormalDistribution NORMAL =
+        new NormalDistributionImpl();
+
     private final RolapResult result;
     protected final int[] pos;
     protected RolapResult.CellInfo ci;
@@ -554,6 +563,12 @@ public class RolapCell implements Cell {
                 return canDrillThrough() ? MDACTION_TYPE_DRILLTHROUGH : 0;
             case Property.DRILLTHROUGH_COUNT_ORDINAL:
                 return canDrillThrough() ? getDrillThroughCount() : -1;
+            case Property.ERROR_BOUND_ORDINAL:
+                return getErrorBound();
+            case Property.CONFIDENCE_ORDINAL:
+                return getErrorBound() == null
+                    ? null
+                    : MondrianProperties.instance().SamplingConfidence.get();
             default:
                 // fall through
             }
@@ -568,6 +583,74 @@ public class RolapCell implements Cell {
         }
     }
 
+    /**
+     * Returns the error bound of this cell, if its value was estimated from a
+     * sample of the fact table: the half-width of the normal-approximation
+     * confidence interval at the level given by
+     * {@link MondrianProperties#SamplingConfidence}.
+     *
+     * <p>Returns null if the value is exact, if the cell is calculated, or
+     * if the segment that holds the cell is no longer in cache.
+     *
+     * @return Error bound, or null
+     */
+    public Double getErrorBound() {
+        if (ci.value == Util.nullValue || isError()) {
+            return null;
+        }
+        final RolapEvaluator evaluator =
+            (RolapEvaluator) result.getRootEvaluator();
+        final int savepoint = evaluator.savepoint();
+        final CellRequest request;
+        try {
+            result.populateEvaluator(evaluator, pos);
+            request = RolapAggregationManager.makeRequest(evaluator);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+        if (request == null) {
+            return null;
+        }
+        final Double variance =
+            Locus.execute(
+                result.getExecution(),
+                "RolapCell.getErrorBound",
+                new Locus.Action<Double>() {
+                    public Double execute() {
+                        return request.getMeasure().getStar()
+                            .getCellVarianceFromAllCaches(request);
+                    }
+                });
+        if (variance == null) {
+            return null;
+        }
+        return getZScore(
+            MondrianProperties.instance().SamplingConfidence.get())
+            * Math.sqrt(Math.max(variance, 0d));
+    }
+
+    /**
+     * Returns the z-score of a two-sided confidence interval; for example,
+     * 1.96 for a confidence of 0.95.
+     *
+     * @param confidence Confidence level, between 0 and 1
+     * @return z-score
+     */
+    static double getZScore(double confidence) {
+        if (confidence <= 0d || confidence >= 1d) {
+            throw Util.newError(
+                "Invalid value for property "
+                + MondrianProperties.instance().SamplingConfidence.getPath()
+                + ": " + confidence);
+        }
+        try {
+            return NORMAL.inverseCumulativeProbability((1d + confidence) / 2d);
+        } catch (MathException e) {
+            throw Util.newError(
+                e, "Error computing z-score for confidence " + confidence);
+        }
+    }
+
     public Member getContextMember(Hierarchy hierarchy) {
         return result.getMember(pos, hierarchy);
     }
@@ -15,6 +15,7 @@ import mondrian.calc.impl.DelegatingTupleList;
 import mondrian.olap.*;
 import mondrian.parser.MdxParserValidator;
 import mondrian.resource.MondrianResource;
+import mondrian.sampling.SampleContext;
 import mondrian.server.*;
 import mondrian.spi.*;
 import mondrian.spi.impl.JndiDataSourceResolver;
@@ -33,6 +34,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
@@ -71,6 +73,12 @@ public class RolapConnection extends ConnectionBase {
     private Scenario scenario;
     private boolean closed = false;
 
+    /**
+     * Tables that statements of this connection answer from samples, unless
+     * a statement overrides it. Never null.
+     */
+    private final SampleContext sampleContext;
+
     private static DataSourceResolver dataSourceResolver;
     private final int id;
     private final Statement internalStatement;
@@ -123,6 +131,10 @@ public class RolapConnection extends ConnectionBase {
             RolapConnectionProperties.Provider.name(), "mondrian");
         Util.assertTrue(provider.equalsIgnoreCase("mondrian"));
         this.connectInfo = connectInfo;
+        this.sampleContext =
+            SampleContext.parse(
+                connectInfo.get(
+                    RolapConnectionProperties.SampleTables.name()));
         this.catalogUrl =
             connectInfo.get(RolapConnectionProperties.Catalog.name());
         final String jdbcUser =
@@ -682,6 +694,11 @@ public class RolapConnection extends ConnectionBase {
                 ((RolapCube) query.getCube()).clearCachedAggregations(true);
             }
             statement.end(execution);
+            final RefreshListener refreshListener =
+                statement.getRefreshListener();
+            if (refreshListener != null && execution.isApproximate()) {
+                refreshInBackground(statement, refreshListener);
+            }
             return result;
         } catch (ResultLimitExceededException e) {
             // query has been punted
@@ -717,6 +734,61 @@ public class RolapConnection extends ConnectionBase {
         }
     }
 
+    /**
+     * Executes the query of a statement that was answered from samples again,
+     * this time exactly, in the background, and passes the exact result to a
+     * listener.
+     *
+     * <p>The task runs on the refresh thread pool of the segment cache
+     * manager; not on its SQL thread pool, because the task waits for
+     * segments to be loaded by that pool. It executes on its own statement,
+     * so the client may re-use the original statement in the meantime.
+     *
+     * @param statement Statement whose execution was approximate
+     * @param refreshListener Listener to notify
+     */
+    private void refreshInBackground(
+        final Statement statement,
+        final RefreshListener refreshListener)
+    {
+        final String mdx = Util.unparse(statement.getQuery());
+        final long timeoutMillis = statement.getQueryTimeoutMillis();
+        final Runnable refresh =
+            new Runnable() {
+                public void run() {
+                    Query query = null;
+                    final Result result;
+                    try {
+                        query = parseQuery(mdx);
+                        final Statement exactStatement = query.getStatement();
+                        exactStatement.setSampleContext(SampleContext.NONE);
+                        result =
+                            execute(
+                                new Execution(exactStatement, timeoutMillis));
+                    } catch (Throwable e) {
+                        if (query != null) {
+                            query.close();
+                        }
+                        LOGGER.debug("Exact refresh failed: " + mdx, e);
+                        refreshListener.refreshFailed(statement, e);
+                        return;
+                    }
+                    try {
+                        refreshListener.refreshed(statement, result);
+                    } finally {
+                        query.close();
+                    }
+                }
+            };
+        try {
+            server.getAggregationManager().cacheMgr.refreshExecutor.submit(
+                refresh);
+        } catch (RejectedExecutionException e) {
+            // The server is shutting down.
+            refreshListener.refreshFailed(statement, e);
+        }
+    }
+
     public void setRole(Role role) {
         assert role != null;
 
@@ -738,6 +810,16 @@ public class RolapConnection extends ConnectionBase {
         return scenario;
     }
 
+    /**
+     * Returns the sample context of this connection, as given by the
+     * {@link RolapConnectionProperties#SampleTables} connect-string property.
+     *
+     * @return Sample context; never null
+     */
+    public SampleContext getSampleContext() {
+        return sampleContext;
+    }
+
     /**
      * Returns the server (mondrian instance) that this connection belongs to.
      * Usually there is only one server instance in a given JVM.
@@ -12,10 +12,14 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 
 import org.apache.commons.dbcp.*;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
 import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
 import java.util.*;
@@ -205,6 +209,29 @@ class RolapConnectionPool {
             // Flag to log stack traces for application code which abandoned a
             // Statement or Connection
             abandonedConfig.setLogAbandoned(true);
+
+            // If SQL is parameterized, each connection keeps the statements
+            // it has prepared, keyed by SQL text, so that executing the same
+            // SQL with different values does not prepare it again. Statements
+            // idle for a minute are closed, so that a connection does not
+            // hold open a cursor for every statement it has ever executed.
+            final KeyedObjectPoolFactory statementPoolFactory =
+                MondrianProperties.instance().GenerateParameterizedSql.get()
+                    ? new GenericKeyedObjectPoolFactory(
+                        null, // KeyedPoolableObjectFactory, can be null
+                        -1, // max active per key; no limit
+                        GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW,
+                        0, // max wait (milli seconds)
+                        1, // max idle per key
+                        false, // test on borrow
+                        false, // test on return
+                        30000, // time between eviction runs (millis)
+                        MondrianProperties.instance()
+                            .PreparedStatementCacheSize.get(),
+                        // number to test on eviction run
+                        60000, // min evictable idle time (millis)
+                        false) // test while idle
+                    : null;
             PoolableConnectionFactory poolableConnectionFactory =
                 new PoolableConnectionFactory(
                     // the connection factory
@@ -213,7 +240,7 @@ class RolapConnectionPool {
                     connectionPool,
                     // statement pool factory for pooling prepared statements,
                     // or null for no pooling
-                    null,
+                    statementPoolFactory,
                     // validation query (must return at least 1 row e.g. Oracle:
                     // select count(*) from dual) to test connection, can be
                     // null
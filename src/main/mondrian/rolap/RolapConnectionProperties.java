@@ -203,7 +203,20 @@ public enum RolapConnectionProperties {
      *
      * <p>Defaults to "-1s".
      */
-    PinSchemaTimeout;
+    PinSchemaTimeout,
+
+    /**
+     * The "SampleTables" property is a comma-separated list of fact tables
+     * which queries on this connection should answer from their registered
+     * sample tables rather than from the full table, for example
+     * <code>"inventory_fact_1997,sales_fact_1997"</code>.
+     *
+     * <p>The list applies only to statements of this connection; a statement
+     * may override it via
+     * {@link mondrian.server.Statement#setSampleContext}. If not specified,
+     * every query reads the full tables.
+     */
+    SampleTables;
 
     /**
      * Any property beginning with this value will be added to the
@@ -0,0 +1,326 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.*;
+import mondrian.calc.impl.ValueCalc;
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.AggregateFunDef;
+import mondrian.olap.type.NumericType;
+import mondrian.rolap.sql.*;
+
+import java.util.*;
+
+/**
+ * Computes <code>Sum</code>, <code>Aggregate</code> and
+ * <code>Count(..., EXCLUDEEMPTY)</code> of a set in SQL.
+ *
+ * <p>The set must be one that can be evaluated natively: the members of a
+ * level, the children or descendants of a member, a list of members of one
+ * level, or a crossjoin of those. Its tuples are therefore distinct and do
+ * not overlap.</p>
+ *
+ * <p>The tuples that have data in the current context are read in one
+ * query. <code>Count</code> is the number of those tuples.
+ * <code>Sum</code> and <code>Aggregate</code> of a stored measure, instead
+ * of requesting a cell per tuple and folding the values, request one cell
+ * whose context is the list of tuples; the list becomes a predicate of the
+ * cell's SQL query, as for a compound slicer. This is valid if the measure's
+ * aggregator gives the same result over the union of the tuples as the
+ * function does over their values: sum and count for <code>Sum</code>,
+ * also min and max for <code>Aggregate</code>. <code>Aggregate</code> rolls
+ * up the values with the aggregator of the current measure, which may not
+ * be the measure that it aggregates, so the two must roll up alike.</p>
+ *
+ * <p>As with other native set functions, a tuple is considered empty if it
+ * has no rows in the fact table.</p>
+ */
+public class RolapNativeAggregate extends RolapNativeSet {
+
+    /** Aggregators for which Sum of the tuples' values can be computed. */
+    private static final Set<RolapAggregator> SUM_AGGREGATORS =
+        new HashSet<RolapAggregator>(
+            Arrays.asList(RolapAggregator.Sum, RolapAggregator.Count));
+
+    /**
+     * Aggregators for which Aggregate of the tuples' values can be
+     * computed.
+     */
+    private static final Set<RolapAggregator> AGGREGATE_AGGREGATORS =
+        new HashSet<RolapAggregator>(
+            Arrays.asList(
+                RolapAggregator.Sum, RolapAggregator.Count,
+                RolapAggregator.Min, RolapAggregator.Max));
+
+    public RolapNativeAggregate() {
+        super.setEnabled(
+            MondrianProperties.instance().EnableNativeAggregate.get());
+    }
+
+    /**
+     * Constraint that restricts the tuples of the set to those that have
+     * data in the current context.
+     */
+    static class AggregateConstraint extends SetConstraint {
+        AggregateConstraint(
+            CrossJoinArg[] args,
+            RolapEvaluator evaluator)
+        {
+            super(args, evaluator, true);
+        }
+
+        protected boolean isJoinRequired() {
+            return true;
+        }
+
+        public Object getCacheKey() {
+            List<Object> key = new ArrayList<Object>();
+            key.add(super.getCacheKey());
+            if (this.getEvaluator() instanceof RolapEvaluator) {
+                key.add(
+                    ((RolapEvaluator)this.getEvaluator())
+                        .getSlicerMembers());
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Evaluator that reads the non-empty tuples of the set, then counts them
+     * or aggregates the measure over them.
+     */
+    private class AggregateEvaluator implements NativeEvaluator {
+        private final SetEvaluator setEvaluator;
+        private final RolapEvaluator evaluator;
+        private final RolapStoredMeasure measure;
+
+        /**
+         * Creates an AggregateEvaluator.
+         *
+         * @param setEvaluator Evaluator for the non-empty tuples of the set
+         * @param evaluator Evaluation context
+         * @param measure Measure to aggregate, or null to count tuples
+         */
+        AggregateEvaluator(
+            SetEvaluator setEvaluator,
+            RolapEvaluator evaluator,
+            RolapStoredMeasure measure)
+        {
+            this.setEvaluator = setEvaluator;
+            this.evaluator = evaluator;
+            this.measure = measure;
+        }
+
+        public Object execute(ResultStyle resultStyle) {
+            TupleList tupleList =
+                (TupleList) setEvaluator.execute(ResultStyle.LIST);
+            if (measure == null) {
+                return tupleList.size();
+            }
+            if (tupleList.isEmpty()) {
+                return null;
+            }
+            final int maxConstraints =
+                MondrianProperties.instance().MaxConstraints.get();
+            if (!evaluator.getDialect().supportsUnlimitedValueList()
+                && tupleList.size() > maxConstraints)
+            {
+                tupleList =
+                    AggregateFunDef.AggregateCalc.optimizeTupleList(
+                        evaluator, tupleList, false);
+            }
+            final int savepoint = evaluator.savepoint();
+            try {
+                evaluator.setNonEmpty(false);
+                evaluator.setContext(measure);
+                if (!evaluator.getDialect().supportsUnlimitedValueList()
+                    && tupleList.size() > maxConstraints)
+                {
+                    // Too many tuples for the predicate. Fold the values
+                    // of the tuples that have data.
+                    return measure.getAggregator().getRollup().aggregate(
+                        evaluator,
+                        tupleList,
+                        new ValueCalc(new DummyExp(new NumericType())));
+                }
+                return evaluator.pushAggregation(tupleList)
+                    .evaluateCurrent();
+            } finally {
+                evaluator.restore(savepoint);
+            }
+        }
+    }
+
+    protected boolean restrictMemberTypes() {
+        return true;
+    }
+
+    NativeEvaluator createEvaluator(
+        RolapEvaluator evaluator,
+        FunDef fun,
+        Exp[] args)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        // is this "Sum(<set>[, <measure>])", "Aggregate(<set>[, <measure>])"
+        // or "Count(<set>, EXCLUDEEMPTY)"?
+        final String funName = fun.getName();
+        final Set<RolapAggregator> aggregators;
+        if ("Sum".equalsIgnoreCase(funName)) {
+            aggregators = SUM_AGGREGATORS;
+        } else if ("Aggregate".equalsIgnoreCase(funName)) {
+            aggregators = AGGREGATE_AGGREGATORS;
+        } else if ("Count".equalsIgnoreCase(funName)) {
+            if (args.length != 2
+                || !(args[1] instanceof Literal)
+                || !"EXCLUDEEMPTY".equalsIgnoreCase(
+                    String.valueOf(((Literal) args[1]).getValue())))
+            {
+                // Count including empty tuples requests no cells.
+                return null;
+            }
+            aggregators = null;
+        } else {
+            return null;
+        }
+        if (args.length < 1 || args.length > 2) {
+            return null;
+        }
+
+        // The measure to aggregate, or (for Count) whose cells determine
+        // whether a tuple is empty.
+        final Member member;
+        if (aggregators != null && args.length == 2) {
+            if (!(args[1] instanceof MemberExpr)) {
+                alertNonNativeAggregate("Expression is not a measure.");
+                return null;
+            }
+            member = ((MemberExpr) args[1]).getMember();
+        } else {
+            member = evaluator.getMembers()[0];
+        }
+        if (!(member instanceof RolapStoredMeasure)) {
+            alertNonNativeAggregate("Measure is not a stored measure.");
+            return null;
+        }
+        final RolapStoredMeasure measure = (RolapStoredMeasure) member;
+        if (aggregators != null
+            && !aggregators.contains(measure.getAggregator()))
+        {
+            alertNonNativeAggregate(
+                "Aggregator " + measure.getAggregator().getName()
+                + " cannot be computed over the union of the tuples.");
+            return null;
+        }
+        if (aggregators == AGGREGATE_AGGREGATORS) {
+            // Aggregate folds the values of the tuples with the rollup of
+            // the current measure's aggregator, as AggregateFunDef does.
+            final Object aggregator =
+                evaluator.getProperty(Property.AGGREGATION_TYPE.name, null);
+            if (!aggregators.contains(aggregator)
+                || ((Aggregator) aggregator).getRollup()
+                != measure.getAggregator().getRollup())
+            {
+                alertNonNativeAggregate(
+                    "Current measure does not roll up as " + measure.getName()
+                    + " does.");
+                return null;
+            }
+        }
+
+        // extract the set expression
+        Exp setExp = args[0];
+        if (setExp instanceof ResolvedFunCall
+            && ((ResolvedFunCall) setExp).getFunName().equals("Cache"))
+        {
+            setExp = ((ResolvedFunCall) setExp).getArg(0);
+        }
+        List<CrossJoinArg[]> allArgs =
+            crossJoinArgFactory().checkCrossJoinArg(evaluator, setExp);
+        if (allArgs == null || allArgs.isEmpty() || allArgs.get(0) == null) {
+            alertNonNativeAggregate(
+                "Set in 1st argument does not support native eval.");
+            return null;
+        }
+        CrossJoinArg[] cjArgs = allArgs.get(0);
+        if (isPreferInterpreter(cjArgs, false)) {
+            alertNonNativeAggregate("One or more args prefer non-native.");
+            return null;
+        }
+        final SchemaReader schemaReader = evaluator.getSchemaReader();
+        for (CrossJoinArg cjArg : cjArgs) {
+            final RolapLevel level = cjArg.getLevel();
+            if (level == null) {
+                // An empty set; not worth a query.
+                return null;
+            }
+            if (level.isParentChild()) {
+                // The value of a member of a parent-child hierarchy
+                // includes its descendants, so the tuples overlap.
+                alertNonNativeAggregate("Set has a parent-child level.");
+                return null;
+            }
+            if (schemaReader.getRole().getAccess(level.getHierarchy())
+                != Access.ALL)
+            {
+                alertNonNativeAggregate("Set has a restricted hierarchy.");
+                return null;
+            }
+            if (cjArg instanceof MemberListCrossJoinArg) {
+                final List<RolapMember> members = cjArg.getMembers();
+                if (((MemberListCrossJoinArg) cjArg).hasCalcMembers()
+                    || new HashSet<RolapMember>(members).size()
+                    != members.size())
+                {
+                    alertNonNativeAggregate(
+                        "Set has calculated or duplicate members.");
+                    return null;
+                }
+            }
+        }
+
+        final int savepoint = evaluator.savepoint();
+        try {
+            // The tuples of the set replace the current members of their
+            // hierarchies, so validate the context after overriding them.
+            overrideContext(evaluator, cjArgs, measure);
+            if (!AggregateConstraint.isValidContext(
+                    evaluator, restrictMemberTypes()))
+            {
+                return null;
+            }
+
+            CrossJoinArg[] combinedArgs = cjArgs;
+            if (allArgs.size() == 2) {
+                // Combine the CJ and the additional predicate args
+                // to form the TupleConstraint.
+                combinedArgs = Util.appendArrays(cjArgs, allArgs.get(1));
+            }
+            final AggregateConstraint constraint =
+                new AggregateConstraint(combinedArgs, evaluator);
+            LOGGER.debug("using native aggregate");
+            return new AggregateEvaluator(
+                new SetEvaluator(cjArgs, schemaReader, constraint),
+                evaluator,
+                aggregators == null ? null : measure);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    private void alertNonNativeAggregate(String msg) {
+        RolapUtil.alertNonNative("Aggregate", msg);
+    }
+}
+
+// End RolapNativeAggregate.java
@@ -0,0 +1,355 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.calc.TupleList;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.sql.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Computes an Order, and a Head or Subset of an Order, in SQL.
+ *
+ * <p>The set must be one that can be evaluated natively, and it must be
+ * ordered by a single numeric expression that can be converted to SQL
+ * (typically a stored measure), with the <code>BASC</code> or
+ * <code>BDESC</code> flag. The rows are sorted by the database; a Head or
+ * Subset is fetched using the dialect's LIMIT/OFFSET syntax, if it has
+ * one.</p>
+ *
+ * <p>Rows that have no data sort as null, which MDX treats as less than any
+ * other value. So that they need not be generated, an Order is evaluated
+ * natively only in a non-empty context, where the empty rows would be
+ * removed anyway; a Head or Subset only if the order is descending, the
+ * empty rows then coming last.</p>
+ */
+public class RolapNativeOrder extends RolapNativeSet {
+
+    public RolapNativeOrder() {
+        super.setEnabled(
+            MondrianProperties.instance().EnableNativeOrder.get());
+    }
+
+    static class OrderConstraint extends SetConstraint {
+        private final Exp orderByExpr;
+        private final boolean ascending;
+        private final int offset;
+        private final int limit;
+        private final boolean pushLimit;
+
+        /**
+         * Creates an OrderConstraint.
+         *
+         * @param args Cross-join arguments
+         * @param evaluator Evaluator
+         * @param orderByExpr Expression to sort by
+         * @param ascending Whether to sort in ascending order
+         * @param offset Number of rows to skip
+         * @param limit Maximum number of rows, or -1 if there is no limit
+         * @param pushLimit Whether to generate the offset and limit in the
+         *   SQL query
+         */
+        public OrderConstraint(
+            CrossJoinArg[] args,
+            RolapEvaluator evaluator,
+            Exp orderByExpr,
+            boolean ascending,
+            int offset,
+            int limit,
+            boolean pushLimit)
+        {
+            super(args, evaluator, true);
+            this.orderByExpr = orderByExpr;
+            this.ascending = ascending;
+            this.offset = offset;
+            this.limit = limit;
+            this.pushLimit = pushLimit;
+        }
+
+        protected boolean isJoinRequired() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsAggTables() {
+            return true;
+        }
+
+        public void addConstraint(
+            SqlQuery sqlQuery,
+            RolapCube baseCube,
+            AggStar aggStar)
+        {
+            RolapNativeSql sql =
+                new RolapNativeSql(sqlQuery, aggStar, getEvaluator(), null);
+            final String orderBySql = sql.generateTopCountOrderBy(orderByExpr);
+            final String orderByAlias = sqlQuery.addSelect(orderBySql, null);
+            // Nulls are less than any other value in MDX.
+            sqlQuery.addOrderBy(
+                orderBySql,
+                orderByAlias,
+                ascending,
+                true,
+                RolapNativeTopCount.TopCountConstraint.deduceNullability(
+                    orderByExpr),
+                !ascending);
+            if (pushLimit) {
+                sqlQuery.setLimitOffset(offset, limit);
+            }
+            super.addConstraint(sqlQuery, baseCube, aggStar);
+        }
+
+        public Object getCacheKey() {
+            List<Object> key = new ArrayList<Object>();
+            key.add(super.getCacheKey());
+            // Note: need to use string in order for caching to work
+            key.add(orderByExpr.toString());
+            key.add(ascending);
+            key.add(offset);
+            key.add(limit);
+            key.add(pushLimit);
+            key.add(this.getEvaluator().isNonEmpty());
+
+            if (this.getEvaluator() instanceof RolapEvaluator) {
+                key.add(
+                    ((RolapEvaluator)this.getEvaluator())
+                        .getSlicerMembers());
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Evaluator that skips the first rows of the result, if the offset could
+     * not be generated in SQL.
+     */
+    private class OrderEvaluator extends SetEvaluator {
+        private final int skip;
+
+        OrderEvaluator(
+            CrossJoinArg[] args,
+            SchemaReader schemaReader,
+            TupleConstraint constraint,
+            int skip)
+        {
+            super(args, schemaReader, constraint);
+            this.skip = skip;
+        }
+
+        protected TupleList executeList(SqlTupleReader tr) {
+            final TupleList list = super.executeList(tr);
+            if (skip == 0) {
+                return list;
+            }
+            return list.subList(Math.min(skip, list.size()), list.size());
+        }
+    }
+
+    protected boolean restrictMemberTypes() {
+        return true;
+    }
+
+    NativeEvaluator createEvaluator(
+        RolapEvaluator evaluator,
+        FunDef fun,
+        Exp[] args)
+    {
+        if (!isEnabled() || !isValidContext(evaluator)) {
+            return null;
+        }
+
+        // is this "Order(<set>, <numeric expr>, BASC|BDESC)", or a
+        // "Head(<order>[, <count>])" or "Subset(<order>, <start>[, <count>])"
+        // of one?
+        int offset = 0;
+        int limit = -1;
+        String funName = fun.getName();
+        if ("Head".equalsIgnoreCase(funName)) {
+            if (args.length < 1 || args.length > 2) {
+                return null;
+            }
+            limit = 1;
+            if (args.length == 2) {
+                if (!isIntLiteral(args[1])) {
+                    alertNonNativeOrder("Head count cannot be determined.");
+                    return null;
+                }
+                limit = ((Literal) args[1]).getIntValue();
+            }
+        } else if ("Subset".equalsIgnoreCase(funName)) {
+            if (args.length < 2 || args.length > 3) {
+                return null;
+            }
+            if (!isIntLiteral(args[1])
+                || args.length == 3 && !isIntLiteral(args[2]))
+            {
+                alertNonNativeOrder(
+                    "Subset start or count cannot be determined.");
+                return null;
+            }
+            offset = ((Literal) args[1]).getIntValue();
+            if (args.length == 3) {
+                limit = ((Literal) args[2]).getIntValue();
+            }
+        } else if (!"Order".equalsIgnoreCase(funName)) {
+            return null;
+        }
+        if (offset < 0 || limit == 0 || limit < -1) {
+            // Result is empty; not worth a query.
+            return null;
+        }
+        Exp[] orderArgs = args;
+        if (!"Order".equalsIgnoreCase(funName)) {
+            if (!(args[0] instanceof ResolvedFunCall)
+                || !((ResolvedFunCall) args[0]).getFunName()
+                    .equalsIgnoreCase("Order"))
+            {
+                return null;
+            }
+            orderArgs = ((ResolvedFunCall) args[0]).getArgs();
+        }
+
+        // Only the form with one key and a flag that breaks the hierarchy.
+        // (The default, ASC, keeps children after their parents.)
+        if (orderArgs.length != 3
+            || !(orderArgs[2] instanceof Literal)
+            || orderArgs[2].getCategory() != Category.Symbol)
+        {
+            alertNonNativeOrder("Order must have one key and a flag.");
+            return null;
+        }
+        final String flag = (String) ((Literal) orderArgs[2]).getValue();
+        final boolean ascending;
+        if ("BASC".equalsIgnoreCase(flag)) {
+            ascending = true;
+        } else if ("BDESC".equalsIgnoreCase(flag)) {
+            ascending = false;
+        } else {
+            alertNonNativeOrder("Flag " + flag + " is hierarchical.");
+            return null;
+        }
+
+        // Empty rows are not generated. If the context is not non-empty,
+        // they must come last, so that we can complete the result with them
+        // as TopCount does.
+        final boolean nonEmpty = evaluator.isNonEmpty();
+        final boolean paged = offset > 0 || limit >= 0;
+        if (paged && ascending) {
+            alertNonNativeOrder(
+                "Empty rows would come first in an ascending order.");
+            return null;
+        }
+        if (!nonEmpty && limit < 0) {
+            alertNonNativeOrder("Context is not non-empty.");
+            return null;
+        }
+
+        // extract the set expression
+        List<CrossJoinArg[]> allArgs =
+            crossJoinArgFactory().checkCrossJoinArg(evaluator, orderArgs[0]);
+        if (allArgs == null || allArgs.isEmpty() || allArgs.get(0) == null) {
+            alertNonNativeOrder(
+                "Set in 1st argument does not support native eval.");
+            return null;
+        }
+        CrossJoinArg[] cjArgs = allArgs.get(0);
+        if (isPreferInterpreter(cjArgs, false)) {
+            alertNonNativeOrder("One or more args prefer non-native.");
+            return null;
+        }
+        for (CrossJoinArg cjArg : cjArgs) {
+            if (cjArg instanceof MemberListCrossJoinArg
+                && ((MemberListCrossJoinArg) cjArg).hasCalcMembers())
+            {
+                // Calculated members are not sorted or limited by SQL.
+                alertNonNativeOrder("Set contains calculated members.");
+                return null;
+            }
+        }
+        if (!nonEmpty && cjArgs.length != 1) {
+            alertNonNativeOrder(
+                "Cannot complete a cross join with empty rows.");
+            return null;
+        }
+
+        SchemaReader schemaReader = evaluator.getSchemaReader();
+        DataSource ds = schemaReader.getDataSource();
+
+        // Need to generate the order by to determine whether or not it can be
+        // created. The query could change to use an aggregate table later in
+        // evaluation.
+        SqlQuery sqlQuery = SqlQuery.newQuery(ds, "NativeOrder");
+        RolapNativeSql sql =
+            new RolapNativeSql(sqlQuery, null, evaluator, null);
+        if (sql.generateTopCountOrderBy(orderArgs[1]) == null) {
+            alertNonNativeOrder("Cannot convert order by expression to SQL.");
+            return null;
+        }
+
+        // If the result is to be completed with empty rows, we need the
+        // rows before the offset too, to know which rows to exclude.
+        final boolean pushLimit =
+            sqlQuery.getDialect().supportsLimitOffset();
+        final int maxRows = limit < 0 ? 0 : offset + limit;
+        final int sqlOffset = nonEmpty ? offset : 0;
+        final int sqlLimit = nonEmpty ? limit : maxRows;
+
+        final int savepoint = evaluator.savepoint();
+        try {
+            overrideContext(evaluator, cjArgs, sql.getStoredMeasure());
+
+            CrossJoinArg[] combinedArgs = cjArgs;
+            if (allArgs.size() == 2) {
+                // Combine the CJ and the additional predicate args
+                // to form the TupleConstraint.
+                combinedArgs = Util.appendArrays(cjArgs, allArgs.get(1));
+            }
+            OrderConstraint constraint =
+                new OrderConstraint(
+                    combinedArgs, evaluator, orderArgs[1], ascending,
+                    sqlOffset, sqlLimit, pushLimit);
+            LOGGER.debug("using native order");
+            final SetEvaluator sev;
+            if (pushLimit && nonEmpty) {
+                sev = new SetEvaluator(cjArgs, schemaReader, constraint);
+            } else {
+                sev = new OrderEvaluator(
+                    cjArgs, schemaReader, constraint, offset);
+                sev.setMaxRows(maxRows);
+                sev.setCompleteWithNullValues(!nonEmpty);
+            }
+            return sev;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    private static boolean isIntLiteral(Exp exp) {
+        return exp instanceof Literal
+            && ((Literal) exp).getValue() instanceof Number;
+    }
+
+    private void alertNonNativeOrder(String msg) {
+        RolapUtil.alertNonNative("Order", msg);
+    }
+
+    // package-local visibility for testing purposes
+    boolean isValidContext(RolapEvaluator evaluator) {
+        return OrderConstraint.isValidContext(
+            evaluator, restrictMemberTypes());
+    }
+}
+
+// End RolapNativeOrder.java
@@ -40,6 +40,12 @@ public class RolapNativeRegistry extends RolapNative {
         register("CrossJoin".toUpperCase(), new RolapNativeCrossJoin());
         register("TopCount".toUpperCase(), new RolapNativeTopCount());
         register("Filter".toUpperCase(), new RolapNativeFilter());
+        register("Order".toUpperCase(), new RolapNativeOrder());
+        register("Head".toUpperCase(), new RolapNativeOrder());
+        register("Subset".toUpperCase(), new RolapNativeOrder());
+        register("Sum".toUpperCase(), new RolapNativeAggregate());
+        register("Aggregate".toUpperCase(), new RolapNativeAggregate());
+        register("Count".toUpperCase(), new RolapNativeAggregate());
     }
 
     /**
@@ -181,12 +181,17 @@ public class RolapNativeSql {
             if (measure.isCalculated()) {
                 return null; // ??
             }
+            if (measure.getAggregator().isSketch()) {
+                // Sketches are merged in memory; there is no SQL for them.
+                return null;
+            }
             if (!saveStoredMeasure(measure)) {
                 return null;
             }
 
             RolapAggregator aggregator = measure.getAggregator();
             String exprInner;
+            boolean sampled = false;
             // Use aggregate table to create condition if available
             if (aggStar != null
                 && measure.getStarMeasure() instanceof RolapStar.Column)
@@ -212,9 +217,16 @@ public class RolapNativeSql {
                     measure.getMondrianDefExpression();
                 exprInner = (defExp == null)	//TODO count(*)
                     ? "*" : defExp.getExpression(sqlQuery);
+                if (measure.getStarMeasure() instanceof RolapStar.Measure) {
+                    final RolapStar.Table table =
+                        ((RolapStar.Measure) measure.getStarMeasure())
+                            .getTable();
+                    sampled =
+                        sqlQuery.getSampleInfo(table.getTableName()) != null;
+                }
             }
 
-            String expr = aggregator.getExpression(exprInner);
+            String expr = aggregator.getExpression(exprInner, sampled);
             if (dialect.getDatabaseProduct().getFamily()
                 == Dialect.DatabaseProduct.DB2)
             {
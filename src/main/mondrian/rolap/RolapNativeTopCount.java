@@ -119,7 +119,7 @@ public class RolapNativeTopCount extends RolapNativeSet {
             }
         }
 
-        private boolean deduceNullability(Exp expr) {
+        static boolean deduceNullability(Exp expr) {
             if (!(expr instanceof MemberExpr)) {
                 return true;
             }
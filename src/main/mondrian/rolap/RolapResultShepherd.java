@@ -12,14 +12,13 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.server.Execution;
-import mondrian.util.Pair;
 
 import org.eigenbase.util.property.IntegerProperty;
 
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A utility class for {@link RolapConnection}. It specializes in
@@ -32,6 +31,11 @@ import java.util.concurrent.*;
  * <li>Gracefully cancel all SQL statements and cleanup in the background.</li>
  * </ul>
  *
+ * <p>The shepherd does not poll executions. It listens to each execution;
+ * when the execution is canceled or fails, the user thread is released at
+ * once; when the execution starts, its deadline is put in a heap, and a
+ * timer thread releases the user thread when the deadline is reached.</p>
+ *
  * @author LBoudreau
  */
 public class RolapResultShepherd {
@@ -40,23 +44,31 @@ public class RolapResultShepherd {
      * An executor service used for both the shepherd thread and the
      * Execution objects.
      */
-    private final ExecutorService executor;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Executions that are being shepherded.
+     */
+    private final Set<Shepherded> shepherdeds =
+        Collections.newSetFromMap(
+            new ConcurrentHashMap<Shepherded, Boolean>());
 
     /**
-     * List of tasks that should be monitored by the shepherd thread.
+     * Timer that cancels executions when they reach their deadline. It holds
+     * deadlines in a heap, so scheduling and unscheduling a deadline take
+     * logarithmic time.
      */
-    private final List<Pair<FutureTask<Result>, Execution>> tasks =
-        new CopyOnWriteArrayList<Pair<FutureTask<Result>,Execution>>();
+    private final ScheduledThreadPoolExecutor timer;
 
-    private final Timer timer =
-        Util.newTimer("mondrian.rolap.RolapResultShepherd#timer", true);
+    private final AtomicLong rejectionCount = new AtomicLong();
+    private final AtomicLong cancelCount = new AtomicLong();
 
     public RolapResultShepherd() {
         final IntegerProperty property =
             MondrianProperties.instance().RolapConnectionShepherdNbThreads;
         final int maximumPoolSize = property.get();
         executor =
-            Util.getExecutorService(
+            (ThreadPoolExecutor) Util.getExecutorService(
                  // We use the same value for coreSize and maxSize
                 // because that's the behavior we want. All extra
                 // tasks will be put on an unbounded queue.
@@ -69,46 +81,19 @@ public class RolapResultShepherd {
                         Runnable r,
                         ThreadPoolExecutor executor)
                     {
+                        rejectionCount.incrementAndGet();
                         throw MondrianResource.instance().QueryLimitReached.ex(
                             maximumPoolSize,
                             property.getPath());
                     }
                 });
-        final Pair<Long, TimeUnit> interval =
-            Util.parseInterval(
-                String.valueOf(
-                    MondrianProperties.instance()
-                        .RolapConnectionShepherdThreadPollingInterval.get()),
-                TimeUnit.MILLISECONDS);
-        long period = interval.right.toMillis(interval.left);
-        timer.schedule(
-            new TimerTask() {
-                public void run() {
-                    for (final Pair<FutureTask<Result>, Execution> task
-                        : tasks)
-                    {
-                        if (task.left.isDone()) {
-                            tasks.remove(task);
-                            continue;
-                        }
-                        if (task.right.isCancelOrTimeout()) {
-                            // Remove it from the list so that we know
-                            // it was cleaned once.
-                            tasks.remove(task);
-
-                            // Cancel the FutureTask for which
-                            // the user thread awaits. The user
-                            // thread will call
-                            // Execution.checkCancelOrTimeout
-                            // later and take care of sending
-                            // an exception on the user thread.
-                            task.left.cancel(false);
-                        }
-                    }
-                }
-            },
-            period,
-            period);
+        timer =
+            (ScheduledThreadPoolExecutor) Util.getScheduledExecutorService(
+                1,
+                "mondrian.rolap.RolapResultShepherd$timer");
+        // Remove a deadline from the heap as soon as its execution ends,
+        // rather than when it would have expired.
+        timer.setRemoveOnCancelPolicy(true);
     }
 
     /**
@@ -135,16 +120,20 @@ public class RolapResultShepherd {
     {
         // We must wrap this execution into a task that so that we are able
         // to monitor, cancel and detach from it.
-        FutureTask<Result> task = new FutureTask<Result>(callable);
+        final FutureTask<Result> task = new FutureTask<Result>(callable);
 
-        // Register this task with the shepherd thread
-        final Pair<FutureTask<Result>, Execution> pair =
-            new Pair<FutureTask<Result>, Execution>(
-                task,
-                execution);
-        tasks.add(pair);
+        // Listen to the execution, so that we learn when it starts (and
+        // therefore when it will time out), and when it is canceled.
+        final Shepherded shepherded = new Shepherded(execution, task);
+        final Execution.Listener previousListener = execution.getListener();
+        execution.setListener(shepherded);
+        shepherdeds.add(shepherded);
 
         try {
+            if (execution.getDeadlineNanos() != 0) {
+                // Started before we were listening.
+                shepherded.executionStarted(execution);
+            }
             // Now run it.
             executor.execute(task);
             return task.get();
@@ -200,13 +189,148 @@ public class RolapResultShepherd {
             } else {
                 throw new MondrianException(node);
             }
+        } finally {
+            shepherded.finish();
+            shepherdeds.remove(shepherded);
+            execution.setListener(previousListener);
         }
     }
 
     public void shutdown() {
-        this.timer.cancel();
+        this.timer.shutdownNow();
         this.executor.shutdown();
-        this.tasks.clear();
+        this.shepherdeds.clear();
+    }
+
+    /**
+     * Returns the number of executions waiting for a query thread.
+     *
+     * @return Number of waiting executions
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the approximate number of executions running on query threads.
+     *
+     * @return Number of running executions
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of executions that have been refused a query
+     * thread.
+     *
+     * @return Number of rejected executions
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * Returns the number of executions whose user thread the shepherd has
+     * released because the execution was canceled, failed, or timed out.
+     *
+     * @return Number of canceled executions
+     */
+    public long getCancelCount() {
+        return cancelCount.get();
+    }
+
+    /**
+     * Returns the number of deadlines waiting in the timer's heap.
+     *
+     * @return Number of deadlines
+     */
+    int getDeadlineCount() {
+        return timer.getQueue().size();
+    }
+
+    /**
+     * Releases the user thread of every execution that has been canceled,
+     * has failed, or has timed out. Executions nested in a canceled
+     * execution are released too.
+     */
+    private void cancelStopped() {
+        for (Shepherded shepherded : shepherdeds) {
+            shepherded.cancelIfStopped();
+        }
+    }
+
+    /**
+     * An execution being shepherded, and the task that runs it.
+     */
+    private class Shepherded implements Execution.Listener, Runnable {
+        private final Execution execution;
+        private final FutureTask<Result> task;
+
+        /**
+         * Deadline of the execution in the timer; null if the execution
+         * has not started or has no timeout. Guarded by this.
+         */
+        private ScheduledFuture<?> deadline;
+
+        private boolean finished;
+
+        Shepherded(Execution execution, FutureTask<Result> task) {
+            this.execution = execution;
+            this.task = task;
+        }
+
+        public synchronized void executionStarted(Execution execution) {
+            if (finished || deadline != null) {
+                return;
+            }
+            final long deadlineNanos = this.execution.getDeadlineNanos();
+            if (deadlineNanos == 0) {
+                return;
+            }
+            try {
+                deadline =
+                    timer.schedule(
+                        this,
+                        deadlineNanos - System.nanoTime(),
+                        TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // The server is shutting down.
+            }
+        }
+
+        public void executionStopped(Execution execution) {
+            cancelStopped();
+        }
+
+        /**
+         * Called by the timer when the execution reaches its deadline.
+         * Executions nested in this one have deadlines no later than this
+         * one, so they are released by their own timers.
+         */
+        public void run() {
+            cancelIfStopped();
+        }
+
+        void cancelIfStopped() {
+            if (execution.isCancelOrTimeout()) {
+                // Cancel the FutureTask for which the user thread awaits.
+                // The user thread will call Execution.checkCancelOrTimeout
+                // later and take care of sending an exception on the user
+                // thread.
+                if (task.cancel(false)) {
+                    cancelCount.incrementAndGet();
+                }
+            }
+        }
+
+        synchronized void finish() {
+            finished = true;
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+        }
     }
 }
 
@@ -187,6 +187,36 @@ public class RolapStar {
         return segment.getCellValue(request.getSingleValues());
     }
 
+    /**
+     * Returns the estimated sampling variance of a cell whose value was
+     * estimated from a sample of the fact table, looking in the local cache
+     * and then in the external cache.
+     *
+     * @param request Cell request
+     * @return Estimated variance, or null if the cell is not in cache or its
+     *     value is exact
+     */
+    public Double getCellVarianceFromAllCaches(final CellRequest request) {
+        AggregationKey aggregationKey = new AggregationKey(request);
+        final Bar bar = localBars.get();
+        for (SegmentWithData segment : Util.GcIterator.over(bar.segmentRefs)) {
+            if (segment.getConstrainedColumnsBitKey().equals(
+                    request.getConstrainedColumnsBitKey())
+                && segment.matches(aggregationKey, request.getMeasure())
+                && segment.getCellValue(request.getSingleValues()) != null)
+            {
+                return segment.getCellVariance(request.getSingleValues());
+            }
+        }
+        final SegmentWithData segment =
+            Locus.peek().getServer().getAggregationManager()
+                .cacheMgr.peek(request);
+        if (segment == null) {
+            return null;
+        }
+        return segment.getCellVariance(request.getSingleValues());
+    }
+
     public void register(SegmentWithData segment) {
         localBars.get().segmentRefs.add(
             new SoftReference<SegmentWithData>(segment));
@@ -768,7 +798,11 @@ public class RolapStar {
             String columnExpr = column.generateExprString(query);
             if (column instanceof Measure) {
                 Measure measure = (Measure) column;
-                columnExpr = measure.getAggregator().getExpression(columnExpr);
+                columnExpr =
+                    measure.getAggregator().getExpression(
+                        columnExpr,
+                        query.getSampleInfo(measure.getTable().getTableName())
+                            != null);
             }
             final String columnName = columnNameList.get(k);
             String alias = query.addSelect(columnExpr, null, columnName);
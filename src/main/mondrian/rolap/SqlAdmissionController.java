@@ -0,0 +1,325 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.resource.MondrianResource;
+import mondrian.server.Execution;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+
+import java.util.*;
+import javax.sql.DataSource;
+
+/**
+ * Decides when a SQL statement may start executing against a data source.
+ *
+ * <p>There is one controller per {@link DataSource}, so that statements
+ * against one database do not wait for statements against another. At most
+ * {@link MondrianProperties#QueryLimit} statements run at a time against a
+ * data source; segment loads and drill-throughs may be given lower limits,
+ * so that some connections are always left for other work.</p>
+ *
+ * <p>Statements that cannot start wait in a queue. When a statement
+ * finishes, the queued statement with the highest priority whose limits
+ * allow it to start goes next. Member and tuple reads, which an
+ * interactive user is waiting for, come before drill-throughs, which come
+ * before segment loads. Statements of the same priority start in the order
+ * they arrived.</p>
+ *
+ * <p>A waiting statement ages: for each
+ * {@link MondrianProperties#QueryLimitAgingMillis} that it has waited, it is
+ * treated as if it had the next higher priority. A segment load therefore
+ * starts, at the latest, when it has the highest priority and is the oldest
+ * waiting statement, however many member reads keep arriving.</p>
+ *
+ * <p>A queued statement never waits past the deadline of its
+ * {@link Execution}. If the statements ahead of it are likely to hold the
+ * data source beyond that deadline, the statement is rejected at once
+ * rather than being allowed to time out in the queue.</p>
+ *
+ * @see SqlStatement
+ */
+class SqlAdmissionController {
+    private static final Map<DataSource, SqlAdmissionController> MAP =
+        new WeakHashMap<DataSource, SqlAdmissionController>();
+
+    /**
+     * Longest time, in milliseconds, that a queued statement sleeps before
+     * checking whether its execution has been canceled.
+     */
+    private static final long POLL_MILLIS = 1000;
+
+    /** Waiting statements, in the order they arrived. */
+    private final List<Ticket> queue = new ArrayList<Ticket>();
+    private final int[] activeCounts = new int[Purpose.values().length];
+    private int activeCount;
+    private long ticketCount;
+
+    /**
+     * Moving average of the time, in nanoseconds, that a statement holds
+     * its place; 0 until a statement has finished.
+     */
+    private long averageHoldNanos;
+
+    /**
+     * Returns the controller for a data source.
+     *
+     * @param dataSource Data source
+     * @return Controller
+     */
+    static SqlAdmissionController instance(DataSource dataSource) {
+        synchronized (MAP) {
+            SqlAdmissionController controller = MAP.get(dataSource);
+            if (controller == null) {
+                controller = new SqlAdmissionController();
+                MAP.put(dataSource, controller);
+            }
+            return controller;
+        }
+    }
+
+    /**
+     * Waits until a statement may start.
+     *
+     * <p>The caller must call {@link #release} when the statement has
+     * finished, if and only if this method returns normally.</p>
+     *
+     * @param purpose Purpose of statement
+     * @param execution Execution the statement belongs to
+     * @return Time spent waiting, in nanoseconds
+     * @throws InterruptedException if the thread is interrupted
+     * @throws mondrian.olap.MondrianException if the execution is canceled
+     *   or times out, or would time out before the statement could start
+     */
+    long acquire(Purpose purpose, Execution execution)
+        throws InterruptedException
+    {
+        final long startNanos = System.nanoTime();
+        final long deadlineMillis = execution.getDeadlineMillis();
+        final Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(purpose, ticketCount++, startNanos);
+            queue.add(ticket);
+            if (mayStart(ticket)) {
+                start(ticket);
+                return 0;
+            }
+            if (deadlineMillis > 0) {
+                final long estimateMillis = estimateWaitMillis(ticket);
+                final long remainingMillis =
+                    deadlineMillis - System.currentTimeMillis();
+                if (estimateMillis > remainingMillis) {
+                    queue.remove(ticket);
+                    throw MondrianResource.instance().SqlAdmissionRejected.ex(
+                        purpose.name(),
+                        estimateMillis,
+                        remainingMillis);
+                }
+            }
+        }
+        boolean started = false;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (mayStart(ticket)) {
+                        start(ticket);
+                        started = true;
+                        return System.nanoTime() - startNanos;
+                    }
+                    long waitMillis = POLL_MILLIS;
+                    if (deadlineMillis > 0) {
+                        // Wake just after the deadline, so that the check
+                        // below sees that the execution has timed out.
+                        waitMillis = Math.min(
+                            waitMillis,
+                            deadlineMillis + 1 - System.currentTimeMillis());
+                    }
+                    if (waitMillis > 0) {
+                        wait(waitMillis);
+                    }
+                }
+                if (execution.isCancelOrTimeout()) {
+                    execution.checkCancelOrTimeout();
+                }
+            }
+        } finally {
+            if (!started) {
+                synchronized (this) {
+                    queue.remove(ticket);
+                    // Statements behind this one may now be able to start.
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a statement has finished, and lets the next queued
+     * statement start.
+     *
+     * @param purpose Purpose of statement
+     * @param holdNanos Time since the statement was admitted, in nanoseconds
+     */
+    synchronized void release(Purpose purpose, long holdNanos) {
+        --activeCount;
+        --activeCounts[purpose.ordinal()];
+        averageHoldNanos =
+            averageHoldNanos == 0
+                ? holdNanos
+                : averageHoldNanos - (averageHoldNanos >> 3)
+                    + (holdNanos >> 3);
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of statements waiting to start.
+     */
+    synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    private void start(Ticket ticket) {
+        queue.remove(ticket);
+        ++activeCount;
+        ++activeCounts[ticket.purpose.ordinal()];
+    }
+
+    /**
+     * Returns whether a queued statement may start now: its limits allow it,
+     * and no statement ahead of it in the queue may start.
+     */
+    private boolean mayStart(Ticket ticket) {
+        assert queue.contains(ticket) : "ticket not in queue";
+        if (!allowed(ticket.purpose)) {
+            return false;
+        }
+        final long nowNanos = System.nanoTime();
+        final long agingNanos = agingNanos();
+        for (Ticket t : queue) {
+            if (t != ticket
+                && t.isAheadOf(ticket, nowNanos, agingNanos)
+                && allowed(t.purpose))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean allowed(Purpose purpose) {
+        final int limit = limit(null);
+        return activeCount < limit
+            && activeCounts[purpose.ordinal()] < limit(purpose);
+    }
+
+    /**
+     * Returns the maximum number of statements for a purpose that may run at
+     * a time, or, if purpose is null, the maximum number of all statements.
+     */
+    private static int limit(Purpose purpose) {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final int queryLimit = Math.max(1, properties.QueryLimit.get());
+        final int limit;
+        if (purpose == Purpose.CELL_SEGMENT) {
+            limit = properties.QueryLimitCellSegment.get();
+        } else if (purpose == Purpose.DRILL_THROUGH) {
+            limit = properties.QueryLimitDrillThrough.get();
+        } else {
+            return queryLimit;
+        }
+        return limit <= 0 ? queryLimit : Math.min(limit, queryLimit);
+    }
+
+    /**
+     * Estimates how long a queued statement will wait, from the number of
+     * statements ahead of it and how long statements usually run. Returns 0
+     * if no statement has finished yet.
+     */
+    private long estimateWaitMillis(Ticket ticket) {
+        final long nowNanos = System.nanoTime();
+        final long agingNanos = agingNanos();
+        int ahead = 0;
+        for (Ticket t : queue) {
+            if (t.isAheadOf(ticket, nowNanos, agingNanos)) {
+                ++ahead;
+            }
+        }
+        final long rounds = ahead / limit(null) + 1;
+        return rounds * averageHoldNanos / 1000000L;
+    }
+
+    /**
+     * Returns the time, in nanoseconds, after which a waiting statement is
+     * treated as if it had the next higher priority, or 0 if statements do
+     * not age.
+     */
+    private static long agingNanos() {
+        final int agingMillis =
+            MondrianProperties.instance().QueryLimitAgingMillis.get();
+        return agingMillis <= 0 ? 0 : agingMillis * 1000000L;
+    }
+
+    /**
+     * Returns the priority of a purpose; lower values start first.
+     */
+    private static int priority(Purpose purpose) {
+        switch (purpose) {
+        case CELL_SEGMENT:
+            return 2;
+        case DRILL_THROUGH:
+            return 1;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Place in the queue of a statement waiting to start.
+     */
+    private static class Ticket {
+        final Purpose purpose;
+        final int priority;
+        final long ordinal;
+        final long queuedNanos;
+
+        Ticket(Purpose purpose, long ordinal, long queuedNanos) {
+            this.purpose = purpose;
+            this.priority = priority(purpose);
+            this.ordinal = ordinal;
+            this.queuedNanos = queuedNanos;
+        }
+
+        /**
+         * Returns the priority of this statement, raised by one level for
+         * each aging interval that it has waited.
+         */
+        int effectivePriority(long nowNanos, long agingNanos) {
+            if (agingNanos <= 0) {
+                return priority;
+            }
+            final long levels = (nowNanos - queuedNanos) / agingNanos;
+            return (int) Math.max(0, priority - levels);
+        }
+
+        /**
+         * Returns whether this statement should start before another:
+         * it has a higher priority, or the same priority and arrived first.
+         */
+        boolean isAheadOf(Ticket o, long nowNanos, long agingNanos) {
+            final int p = effectivePriority(nowNanos, agingNanos);
+            final int op = o.effectivePriority(nowNanos, agingNanos);
+            if (p != op) {
+                return p < op;
+            }
+            return ordinal < o.ordinal;
+        }
+    }
+}
+
+// End SqlAdmissionController.java
@@ -576,7 +576,7 @@ public class SqlConstraintUtils {
     {
         // No extra slicers.... just use the = method
         final StringBuilder buf = new StringBuilder();
-        sqlQuery.getDialect().quote(buf, value, column.getDatatype());
+        sqlQuery.quote(buf, value, column.getDatatype());
         sqlQuery.addWhere(expr, " = ", buf.toString());
     }
 
@@ -1718,7 +1718,7 @@ public class SqlConstraintUtils {
                     Double.valueOf(columnValue);
                 }
                 final StringBuilder buf = new StringBuilder();
-                query.getDialect().quote(buf, columnValue, datatype);
+                query.quote(buf, columnValue, datatype);
                 String value = buf.toString();
                 if (caseSensitive && datatype == Dialect.Datatype.String) {
                     // Some databases (like DB2) compare case-sensitive.
@@ -1797,7 +1797,7 @@ public class SqlConstraintUtils {
             final StringBuilder buf = new StringBuilder();
             buf.append(columnString);
             buf.append(" = ");
-            query.getDialect().quote(buf, columnValue, datatype);
+            query.quote(buf, columnValue, datatype);
             return buf.toString();
         }
     }
@@ -1914,8 +1914,7 @@ public class SqlConstraintUtils {
                     memberBuf.append(", ");
                 }
 
-                sqlQuery.getDialect().quote(
-                    memberBuf, value, level.getDatatype());
+                sqlQuery.quote(memberBuf, value, level.getDatatype());
 
                 // Only needs to compare up to the first(lowest) unique level.
                 if (p.getLevel() == fromLevel) {
@@ -10,6 +10,7 @@ package mondrian.rolap;
 
 import mondrian.olap.*;
 import mondrian.olap.Util.Functor1;
+import mondrian.rolap.sql.BoundSql;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.server.monitor.*;
@@ -23,9 +24,7 @@ import java.lang.reflect.Proxy;
 
 import java.sql.*;
 import java.sql.Connection;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 
@@ -64,20 +63,42 @@ public class SqlStatement {
     // used for SQL logging, allows for a SQL Statement UID
     private static final AtomicLong ID_GENERATOR = new AtomicLong();
 
-    private static final Semaphore querySemaphore = new Semaphore(
-        MondrianProperties.instance().QueryLimit.get(), true);
+    /**
+     * Text of the parameterized statements executed recently, least recently
+     * used first. A statement whose text is present has been prepared before;
+     * the database has already parsed it, and if connections come from a pool
+     * that pools prepared statements, as {@link RolapConnectionPool} does
+     * when {@link MondrianProperties#GenerateParameterizedSql} is true, the
+     * statement is usually still open.
+     */
+    private static final Map<String, Boolean> PREPARED_SQL =
+        Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(
+                    Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > MondrianProperties.instance()
+                        .PreparedStatementCacheSize.get();
+                }
+            });
 
     private final DataSource dataSource;
     private Connection jdbcConnection;
     private ResultSet resultSet;
     private final String sql;
+    private final BoundSql boundSql;
     private final List<Type> types;
     private final int maxRows;
     private final int firstRowOrdinal;
     private final Locus locus;
     private final int resultSetType;
     private final int resultSetConcurrency;
-    private boolean haveSemaphore;
+    private SqlAdmissionController admissionController;
+    private long admitTimeNanos;
+    private long queueNanos;
+    private FetchSizePolicy fetchSizePolicy;
+    private boolean restoreAutoCommit;
+    private boolean wrapped;
     public int rowCount;
     private long startTimeNanos;
     private long startTimeMillis;
@@ -90,7 +111,8 @@ public class SqlStatement {
      * Creates a SqlStatement.
      *
      * @param dataSource Data source
-     * @param sql SQL
+     * @param sql SQL; may contain bind variables written by
+     *     {@link mondrian.rolap.sql.SqlQuery#quote}
      * @param types Suggested types of columns, or null;
      *     if present, must have one element for each SQL column;
      *     each not-null entry overrides deduced JDBC type of the column
@@ -114,7 +136,8 @@ public class SqlStatement {
         this.callback = callback;
         this.id = ID_GENERATOR.getAndIncrement();
         this.dataSource = dataSource;
-        this.sql = sql;
+        this.boundSql = BoundSql.parse(sql);
+        this.sql = boundSql == null ? sql : boundSql.literalSql;
         this.types = types;
         this.maxRows = maxRows;
         this.firstRowOrdinal = firstRowOrdinal;
@@ -137,9 +160,15 @@ public class SqlStatement {
             // Check execution state
             locus.execution.checkCancelOrTimeout();
 
+            // Wait for our turn before taking a connection, so that queued
+            // statements do not hold connections that running ones need.
+            final SqlAdmissionController controller =
+                SqlAdmissionController.instance(dataSource);
+            queueNanos = controller.acquire(getPurpose(), locus.execution);
+            admissionController = controller;
+            admitTimeNanos = System.nanoTime();
+
             this.jdbcConnection = dataSource.getConnection();
-            querySemaphore.acquire();
-            haveSemaphore = true;
             // Trace start of execution.
             if (RolapUtil.SQL_LOGGER.isDebugEnabled()) {
                 StringBuilder sqllog = new StringBuilder();
@@ -169,9 +198,31 @@ public class SqlStatement {
             startTimeNanos = System.nanoTime();
             startTimeMillis = System.currentTimeMillis();
 
-            if (resultSetType < 0 || resultSetConcurrency < 0) {
+            final boolean preparedBefore;
+            if (boundSql != null) {
+                preparedBefore = PREPARED_SQL.put(boundSql.sql, true) != null;
+                if (preparedBefore) {
+                    Counters.PREPARED_STATEMENT_HIT_COUNT.incrementAndGet();
+                } else {
+                    Counters.PREPARED_STATEMENT_MISS_COUNT.incrementAndGet();
+                }
+                final PreparedStatement preparedStatement;
+                if (resultSetType < 0 || resultSetConcurrency < 0) {
+                    preparedStatement =
+                        jdbcConnection.prepareStatement(boundSql.sql);
+                } else {
+                    preparedStatement = jdbcConnection.prepareStatement(
+                        boundSql.sql,
+                        resultSetType,
+                        resultSetConcurrency);
+                }
+                statement = preparedStatement;
+                boundSql.bind(preparedStatement);
+            } else if (resultSetType < 0 || resultSetConcurrency < 0) {
+                preparedBefore = false;
                 statement = jdbcConnection.createStatement();
             } else {
+                preparedBefore = false;
                 statement = jdbcConnection.createStatement(
                     resultSetType,
                     resultSetConcurrency);
@@ -179,6 +230,14 @@ public class SqlStatement {
             if (maxRows > 0) {
                 statement.setMaxRows(maxRows);
             }
+            fetchSizePolicy = FetchSizePolicy.instance(dataSource, this);
+            restoreAutoCommit =
+                fetchSizePolicy.apply(
+                    jdbcConnection,
+                    statement,
+                    getPurpose(),
+                    resultSetType < 0
+                    || resultSetType == ResultSet.TYPE_FORWARD_ONLY);
 
             // First make sure to register with the execution instance.
             if (getPurpose() != Purpose.CELL_SEGMENT) {
@@ -196,9 +255,12 @@ public class SqlStatement {
                     locus,
                     sql,
                     getPurpose(),
-                    getCellRequestCount()));
+                    getCellRequestCount(),
+                    queueNanos));
 
-            this.resultSet = statement.executeQuery(sql);
+            this.resultSet = boundSql == null
+                ? statement.executeQuery(sql)
+                : ((PreparedStatement) statement).executeQuery();
 
             // skip to first row specified in request
             this.state = State.ACTIVE;
@@ -231,7 +293,11 @@ public class SqlStatement {
                     locus,
                     sql,
                     getPurpose(),
-                    executeNanos));
+                    executeNanos,
+                    boundSql == null ? 0 : boundSql.getBindVariableCount(),
+                    preparedBefore,
+                    Counters.PREPARED_STATEMENT_HIT_COUNT.get(),
+                    Counters.PREPARED_STATEMENT_MISS_COUNT.get()));
 
             // Compute accessors. They ensure that we use the most efficient
             // method (e.g. getInt, getDouble, getObject) for the type of the
@@ -280,18 +346,47 @@ public class SqlStatement {
         }
         state = State.CLOSED;
 
-        if (haveSemaphore) {
-            haveSemaphore = false;
-            querySemaphore.release();
+        if (admissionController != null) {
+            admissionController.release(
+                getPurpose(), System.nanoTime() - admitTimeNanos);
+            admissionController = null;
         }
 
         // According to the JDBC spec, closing a statement automatically closes
         // its result sets, and closing a connection automatically closes its
         // statements. But let's be conservative and close everything
         // explicitly.
-        SQLException ex = Util.close(resultSet, null, jdbcConnection);
+        final boolean executed = resultSet != null;
+        SQLException ex = Util.close(resultSet, null, null);
+        if (restoreAutoCommit) {
+            // We switched auto-commit off to stream the result. Switch it
+            // back on, which ends the transaction, before the connection
+            // goes back to the pool.
+            restoreAutoCommit = false;
+            try {
+                jdbcConnection.setAutoCommit(true);
+            } catch (SQLException e) {
+                if (ex == null) {
+                    ex = e;
+                }
+            }
+        }
+        final SQLException closeEx = Util.close(null, null, jdbcConnection);
+        if (ex == null) {
+            ex = closeEx;
+        }
         resultSet = null;
         jdbcConnection = null;
+        if (fetchSizePolicy != null
+            && executed
+            && (rowCount > 0 || !wrapped))
+        {
+            // A wrapped result set counts the rows that its client reads. If
+            // the client read none, say because it only looked at the
+            // metadata, the size of the result is not known.
+            fetchSizePolicy.recordRowCount(getPurpose(), rowCount);
+        }
+        fetchSizePolicy = null;
 
         if (ex != null) {
             throw Util.newError(
@@ -487,6 +582,7 @@ public class SqlStatement {
      * @return Wrapped result set
      */
     public ResultSet getWrappedResultSet() {
+        wrapped = true;
         return (ResultSet) Proxy.newProxyInstance(
             null,
             new Class<?>[] {ResultSet.class},
@@ -585,6 +681,27 @@ public class SqlStatement {
         public void close() throws SQLException {
             sqlStatement.close();
         }
+
+        /**
+         * Helper method to implement {@link java.sql.ResultSet#next()}.
+         * Counts the row, as the caller of a {@link SqlStatement} must, so
+         * that the statement knows how many rows the client read.
+         *
+         * @return Whether there is another row
+         * @throws SQLException on error
+         */
+        public boolean next() throws SQLException {
+            final ResultSet resultSet = sqlStatement.getResultSet();
+            if (resultSet == null) {
+                throw new SQLException(
+                    "Invalid operation. Statement is closed.");
+            }
+            if (resultSet.next()) {
+                ++sqlStatement.rowCount;
+                return true;
+            }
+            return false;
+        }
     }
 
     private enum State {
@@ -13,6 +13,7 @@ package mondrian.rolap.agg;
 import mondrian.olap.Util;
 import mondrian.rolap.*;
 import mondrian.rolap.sql.SqlQuery;
+import mondrian.sampling.SampleInfo;
 import mondrian.spi.Dialect;
 import mondrian.util.Pair;
 
@@ -28,6 +29,12 @@ public abstract class AbstractQuerySpec implements QuerySpec {
     private final RolapStar star;
     protected final boolean countOnly;
 
+    /**
+     * Samples this query reads in place of their origin tables, or null to
+     * follow the sample context of the current execution.
+     */
+    private List<SampleInfo> sampleSelection;
+
     /**
      * Creates an AbstractQuerySpec.
      *
@@ -48,7 +55,21 @@ public abstract class AbstractQuerySpec implements QuerySpec {
      * @return a new query object
      */
     protected SqlQuery newSqlQuery() {
-        return getStar().getSqlQuery();
+        final SqlQuery sqlQuery = getStar().getSqlQuery();
+        if (sampleSelection != null) {
+            sqlQuery.setSampleSelection(sampleSelection);
+        }
+        return sqlQuery;
+    }
+
+    /**
+     * Fixes which samples the generated query reads in place of their origin
+     * tables. An empty list makes the query read the full tables.
+     *
+     * @param sampleSelection Samples to read
+     */
+    public void setSampleSelection(List<SampleInfo> sampleSelection) {
+        this.sampleSelection = sampleSelection;
     }
 
     public RolapStar getStar() {
@@ -73,7 +94,22 @@ public abstract class AbstractQuerySpec implements QuerySpec {
             measure.getExpression() == null
                 ? "*"
                 : measure.generateExprString(sqlQuery);
-        String exprOuter = measure.getAggregator().getExpression(exprInner);
+        if (measure.getAggregator().isSketch()) {
+            // Sketches cannot be merged in SQL. Group by the operand, and
+            // let the loader fold the rows of each cell into a sketch; see
+            // addSketchWeight.
+            final String alias =
+                sqlQuery.addSelect(
+                    exprInner, SqlStatement.Type.OBJECT, getMeasureAlias(i));
+            if (isAggregate()) {
+                sqlQuery.addGroupBy(exprInner, alias);
+            }
+            return;
+        }
+        final boolean sampled =
+            sqlQuery.getSampleInfo(measure.getTable().getTableName()) != null;
+        String exprOuter =
+            measure.getAggregator().getExpression(exprInner, sampled);
         sqlQuery.addSelect(
             exprOuter,
             measure.getInternalType(),
@@ -204,10 +240,68 @@ public abstract class AbstractQuerySpec implements QuerySpec {
         if (!countOnly) {
             addGroupingFunction(sqlQuery);
             addGroupingSets(sqlQuery, groupingSetsAliases);
+            addSampleVariances(sqlQuery);
+            addSketchWeight(sqlQuery);
         }
         return sqlQuery.toSqlAndTypes();
     }
 
+    /**
+     * Adds, after all other columns, the number of rows in each group, if
+     * the query groups by the operand of sketch measures.
+     *
+     * <p>Each row of such a query stands for all of the rows that have its
+     * value of the operand. The loader adds the value to the cell's sketch
+     * that many times, so that quantiles are computed over all rows rather
+     * than over distinct values.</p>
+     *
+     * @param sqlQuery Query object
+     */
+    protected void addSketchWeight(final SqlQuery sqlQuery) {
+        if (!isAggregate()) {
+            return;
+        }
+        for (int i = 0, count = getMeasureCount(); i < count; i++) {
+            final RolapStar.Measure measure = getMeasure(i);
+            if (isPartOfSelect(measure)
+                && measure.getAggregator().isSketch())
+            {
+                sqlQuery.addSelect("count(*)", SqlStatement.Type.LONG, "w");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds, after all other columns, the estimated variance of each measure
+     * that is read from a sample and whose aggregator
+     * {@link RolapAggregator#supportsErrorEstimate() supports} error
+     * estimates. The columns are in the same order as the measures.
+     *
+     * @param sqlQuery Query object
+     */
+    protected void addSampleVariances(final SqlQuery sqlQuery) {
+        for (int i = 0, count = getMeasureCount(); i < count; i++) {
+            final RolapStar.Measure measure = getMeasure(i);
+            if (!isPartOfSelect(measure)
+                || !measure.getAggregator().supportsErrorEstimate()
+                || sqlQuery.getSampleInfo(measure.getTable().getTableName())
+                    == null)
+            {
+                continue;
+            }
+            String exprInner =
+                measure.getExpression() == null
+                    ? "*"
+                    : measure.generateExprString(sqlQuery);
+            sqlQuery.addSelect(
+                measure.getAggregator().getSampledVarianceExpression(
+                    exprInner),
+                SqlStatement.Type.DOUBLE,
+                "v" + i);
+        }
+    }
+
     protected void addGroupingFunction(SqlQuery sqlQuery) {
         throw new UnsupportedOperationException();
     }
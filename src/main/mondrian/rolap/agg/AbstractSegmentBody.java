@@ -11,7 +11,10 @@ package mondrian.rolap.agg;
 import mondrian.rolap.CellKey;
 import mondrian.spi.SegmentBody;
 import mondrian.util.Pair;
+import mondrian.util.Sketch;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
 
 /**
@@ -94,6 +97,108 @@ abstract class AbstractSegmentBody implements SegmentBody {
 
     protected abstract Object getObject(int i);
 
+    /**
+     * Returns an estimate of the number of bytes of heap memory used by this
+     * segment body, including its axes.
+     *
+     * @return Estimated size in bytes
+     */
+    long getByteCount() {
+        return OBJECT_OVERHEAD
+            + estimateAxisByteCount(axisValueSets)
+            + ARRAY_OVERHEAD + nullAxisFlags.length
+            + getValueByteCount();
+    }
+
+    /**
+     * Returns an estimate of the number of bytes of heap memory used by the
+     * values of this segment body.
+     *
+     * @return Estimated size in bytes
+     */
+    protected abstract long getValueByteCount();
+
+    /** Estimated size of an object header, in bytes. */
+    static final int OBJECT_OVERHEAD = 16;
+
+    /** Estimated size of an array header, in bytes. */
+    static final int ARRAY_OVERHEAD = 16;
+
+    /** Estimated size of an object reference, in bytes. */
+    static final int REFERENCE_SIZE = 8;
+
+    /**
+     * Estimates the heap used by the value sets of a segment's axes.
+     *
+     * @param axisValueSets Axis value sets
+     * @return Estimated size in bytes
+     */
+    static long estimateAxisByteCount(SortedSet<Comparable>[] axisValueSets) {
+        long n = ARRAY_OVERHEAD + REFERENCE_SIZE * axisValueSets.length;
+        for (SortedSet<Comparable> axisValueSet : axisValueSets) {
+            n += OBJECT_OVERHEAD + ARRAY_OVERHEAD;
+            for (Comparable value : axisValueSet) {
+                n += REFERENCE_SIZE + estimateByteCount(value);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Estimates the heap used by an array of objects, including the objects.
+     *
+     * @param values Values
+     * @return Estimated size in bytes
+     */
+    static long estimateByteCount(Object[] values) {
+        long n = ARRAY_OVERHEAD + REFERENCE_SIZE * values.length;
+        for (Object value : values) {
+            n += estimateByteCount(value);
+        }
+        return n;
+    }
+
+    /**
+     * Estimates the heap used by a cell or axis value.
+     *
+     * @param value Value, may be null
+     * @return Estimated size in bytes
+     */
+    static long estimateByteCount(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return OBJECT_OVERHEAD + 24 + ARRAY_OVERHEAD
+                + 2 * ((String) value).length();
+        } else if (value instanceof Sketch) {
+            return OBJECT_OVERHEAD + ARRAY_OVERHEAD
+                + ((Sketch) value).toBytes().length;
+        } else if (value instanceof BigDecimal
+            || value instanceof BigInteger)
+        {
+            return 64;
+        } else if (value instanceof Integer
+            || value instanceof Short
+            || value instanceof Byte
+            || value instanceof Boolean)
+        {
+            return OBJECT_OVERHEAD;
+        } else {
+            // Double, Long, Date and the like.
+            return OBJECT_OVERHEAD + 8;
+        }
+    }
+
+    /**
+     * Estimates the heap used by a bit set of a given number of bits.
+     *
+     * @param bitCount Number of bits
+     * @return Estimated size in bytes
+     */
+    static long estimateBitSetByteCount(int bitCount) {
+        return OBJECT_OVERHEAD + ARRAY_OVERHEAD + 8 * ((bitCount + 63) / 64);
+    }
+
     /**
      * Iterator over all (cellkey, value) pairs in this data set.
      */
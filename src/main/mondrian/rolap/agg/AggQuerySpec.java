@@ -141,7 +141,15 @@ class AggQuerySpec {
         String alias = getMeasureAlias(i);
 
         String expr;
-        if (rollup) {
+        if (column.getAggregator().isSketch()) {
+            // As in AbstractQuerySpec, sketches are grouped, not aggregated.
+            expr = column.generateExprString(query);
+            alias = query.addSelect(expr, Type.OBJECT, alias);
+            if (rollup) {
+                query.addGroupBy(expr, alias);
+            }
+            return;
+        } else if (rollup) {
             expr = column.generateRollupString(query);
         } else {
             expr = column.generateExprString(query);
@@ -184,6 +192,25 @@ class AggQuerySpec {
         }
         addGroupingSets(sqlQuery);
         addGroupingFunction(sqlQuery);
+        addSketchWeight(sqlQuery);
+    }
+
+    /**
+     * Adds, after all other columns, the number of aggregate table rows in
+     * each group, if the query reads sketch measures; see
+     * {@link AbstractQuerySpec#addSketchWeight}. If the query does not roll
+     * up, each row stands for itself.
+     */
+    private void addSketchWeight(SqlQuery sqlQuery) {
+        for (int i = 0, count = getMeasureCount(); i < count; i++) {
+            final AggStar.FactTable.Measure column =
+                (AggStar.FactTable.Measure) getMeasureAsColumn(i);
+            if (column.getAggregator().isSketch()) {
+                sqlQuery.addSelect(
+                    rollup ? "count(*)" : "1", Type.LONG, "w");
+                return;
+            }
+        }
     }
 
     private void addGroupingFunction(SqlQuery sqlQuery) {
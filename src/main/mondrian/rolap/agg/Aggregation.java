@@ -15,6 +15,7 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.*;
 import mondrian.rolap.*;
+import mondrian.sampling.SampleInfo;
 
 import java.util.*;
 import java.util.concurrent.Future;
@@ -124,12 +125,27 @@ public class Aggregation {
         List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
     {
         BitKey measureBitKey = getConstrainedColumnsBitKey().emptyCopy();
+        for (RolapStar.Measure measure : measures) {
+            measureBitKey.set(measure.getBitPosition());
+        }
         int axisCount = columns.length;
         Util.assertTrue(predicates.length == axisCount);
 
+        // Decide now whether the segments will be estimated from a sample,
+        // because it is part of their identity in the cache.
+        final SampleInfo sampleInfo =
+            AggregationManager.chooseSample(
+                star,
+                constrainedColumnsBitKey,
+                measureBitKey,
+                compoundPredicateList);
+
         List<Segment> segments =
             createSegments(
-                columns, measures, measureBitKey, predicates);
+                columns,
+                measures,
+                predicates,
+                sampleInfo == null ? null : sampleInfo.getSampleTable());
 
         // The constrained columns are simply the level and foreign columns
         BitKey levelBitKey = getConstrainedColumnsBitKey();
@@ -152,12 +168,11 @@ public class Aggregation {
     private List<Segment> createSegments(
         RolapStar.Column[] columns,
         List<RolapStar.Measure> measures,
-        BitKey measureBitKey,
-        StarColumnPredicate[] predicates)
+        StarColumnPredicate[] predicates,
+        String sampleTableName)
     {
         List<Segment> segments = new ArrayList<Segment>(measures.size());
         for (RolapStar.Measure measure : measures) {
-            measureBitKey.set(measure.getBitPosition());
             Segment segment =
                 new Segment(
                     star,
@@ -166,7 +181,8 @@ public class Aggregation {
                     measure,
                     predicates,
                     Collections.<Segment.ExcludedRegion>emptyList(),
-                    compoundPredicateList);
+                    compoundPredicateList,
+                    sampleTableName);
             segments.add(segment);
         }
         // It is important to sort the segments per measure bitkey.
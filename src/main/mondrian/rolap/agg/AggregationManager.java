@@ -16,6 +16,8 @@ import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.rolap.SqlStatement.Type;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.sampling.SampleContext;
+import mondrian.sampling.SampleInfo;
 import mondrian.server.Locus;
 import mondrian.util.Pair;
 
@@ -125,14 +127,18 @@ public class AggregationManager extends RolapAggregationManager {
         final PrintWriter pw)
     {
         return new CacheControlImpl(connection) {
-            protected void flushNonUnion(final CellRegion region) {
+            protected void flushNonUnion(
+                final CellRegion region,
+                final String sampleTable)
+            {
                 final SegmentCacheManager.FlushResult result =
                     cacheMgr.execute(
                         new SegmentCacheManager.FlushCommand(
                             Locus.peek(),
                             cacheMgr,
                             region,
-                            this));
+                            this,
+                            sampleTable));
                 final List<Future<Boolean>> futures =
                     new ArrayList<Future<Boolean>>();
                 for (Callable<Boolean> task : result.tasks) {
@@ -228,14 +234,21 @@ public class AggregationManager extends RolapAggregationManager {
         BitKey levelBitKey = groupingSetsList.getDefaultLevelBitKey();
         BitKey measureBitKey = groupingSetsList.getDefaultMeasureBitKey();
 
+        // Whether to read a sample was decided when the segments were
+        // created, because it is part of their identity; see
+        // chooseSample.
+        final String sampleTableName =
+            groupingSetsList.getDefaultSegments().get(0).getSampleTableName();
+
         // Check if using aggregates is enabled.
         boolean hasCompoundPredicates = false;
         if (compoundPredicateList != null && compoundPredicateList.size() > 0) {
             // Do not use Aggregate tables if compound predicates are present.
             hasCompoundPredicates = true;
         }
-        if (MondrianProperties.instance().UseAggregates.get()
-             && !hasCompoundPredicates)
+        if (sampleTableName == null
+            && MondrianProperties.instance().UseAggregates.get()
+            && !hasCompoundPredicates)
         {
             final boolean[] rollup = {false};
             AggStar aggStar = findAgg(star, levelBitKey, measureBitKey, rollup);
@@ -309,9 +322,34 @@ public class AggregationManager extends RolapAggregationManager {
         }
 
 
-        // Fact table query
+        // Fact table query, possibly answered from a sample of the fact
+        // table. Fix the choice so that the query does not fall back on the
+        // default sample of the execution's sample context.
+        final SampleInfo sampleInfo;
+        if (sampleTableName == null) {
+            sampleInfo = null;
+        } else {
+            sampleInfo =
+                SampleContext.current().getSampleInfoBySampleTable(
+                    sampleTableName);
+            if (sampleInfo == null) {
+                throw Util.newInternal(
+                    "Sample '" + sampleTableName
+                    + "' is not used by the current execution");
+            }
+        }
+        if (sampleInfo != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "SAMPLE MATCH: " + star.getFactTable().getAlias()
+                + " -> " + sampleInfo.getSampleTable()
+                + " (rate=" + sampleInfo.getSamplingRate() + ")");
+        }
         SegmentArrayQuerySpec spec =
             new SegmentArrayQuerySpec(groupingSetsList, compoundPredicateList);
+        spec.setSampleSelection(
+            sampleInfo == null
+                ? Collections.<SampleInfo>emptyList()
+                : Collections.singletonList(sampleInfo));
 
         Pair<String, List<SqlStatement.Type>> pair = spec.generateSqlQuery();
 
@@ -323,6 +361,170 @@ public class AggregationManager extends RolapAggregationManager {
         return pair;
     }
 
+    /**
+     * Decides whether a batch of cells for the given levels and measures will
+     * be estimated from a sample, and if so, from which.
+     *
+     * <p>The decision is made when the segments of the batch are created,
+     * because segments estimated from a sample are cached under different
+     * {@link mondrian.spi.SegmentHeader headers} than exact segments. An
+     * aggregate table, if one matches, takes precedence over samples,
+     * consistent with {@link #generateSql}.
+     *
+     * @param star Star
+     * @param levelBitKey Set of levels
+     * @param measureBitKey Set of measures
+     * @param compoundPredicateList Compound predicates, or null
+     * @return A sample, or null if the batch will be loaded exactly
+     */
+    public static SampleInfo chooseSample(
+        RolapStar star,
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        List<StarPredicate> compoundPredicateList)
+    {
+        if (SampleContext.current().isEmpty()) {
+            return null;
+        }
+        if (MondrianProperties.instance().UseAggregates.get()
+            && (compoundPredicateList == null
+                || compoundPredicateList.isEmpty())
+            && findAgg(star, levelBitKey, measureBitKey, new boolean[1])
+                != null)
+        {
+            return null;
+        }
+        return findSample(star, levelBitKey, measureBitKey);
+    }
+
+    /**
+     * Finds the cheapest sample of the star's fact table which can answer a
+     * request for the given levels and measures. Analogous to
+     * {@link #findAgg}.
+     *
+     * <p>Samples are only considered if the current execution's
+     * {@link SampleContext} asks for the fact table to be read from samples.
+     * A sample is suitable if every measure can be estimated from a sample
+     * (see {@link RolapAggregator#supportsSampling()}) and if its strata
+     * cover the grouping of the request; see {@link #sampleCovers}. Of the
+     * suitable samples, the one with the lowest sampling rate wins.
+     *
+     * @param star Star
+     * @param levelBitKey Set of levels
+     * @param measureBitKey Set of measures
+     * @return A sample, or null if the fact table must be read
+     */
+    public static SampleInfo findSample(
+        RolapStar star,
+        final BitKey levelBitKey,
+        final BitKey measureBitKey)
+    {
+        final List<SampleInfo> candidates =
+            SampleContext.current().getSampleInfos(
+                star.getFactTable().getTableName());
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        for (int i = measureBitKey.nextSetBit(0); i >= 0;
+            i = measureBitKey.nextSetBit(i + 1))
+        {
+            final RolapStar.Column column = star.getColumn(i);
+            if (!(column instanceof RolapStar.Measure)
+                || !((RolapStar.Measure) column).getAggregator()
+                    .supportsSampling())
+            {
+                return null;
+            }
+        }
+        SampleInfo best = null;
+        for (SampleInfo candidate : candidates) {
+            if (best != null
+                && candidate.getSamplingRate() >= best.getSamplingRate())
+            {
+                continue;
+            }
+            if (sampleCovers(star, candidate, levelBitKey)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns whether the strata of a sample cover the grouping of a request,
+     * that is, whether every constrained column is determined by the
+     * sample's grouping attributes. A column qualifies if it is itself a
+     * grouping attribute, or if its table is joined to the fact table via a
+     * foreign key which is a grouping attribute.
+     *
+     * @param star Star
+     * @param sampleInfo Sample
+     * @param levelBitKey Constrained columns
+     * @return Whether the sample can answer the request
+     */
+    static boolean sampleCovers(
+        RolapStar star,
+        SampleInfo sampleInfo,
+        BitKey levelBitKey)
+    {
+        final Set<String> groupingAttrs = new HashSet<String>();
+        for (String attr : sampleInfo.getGroupingAttrs()) {
+            groupingAttrs.add(attr.toLowerCase());
+        }
+        final RolapStar.Table factTable = star.getFactTable();
+        for (int i = levelBitKey.nextSetBit(0); i >= 0;
+            i = levelBitKey.nextSetBit(i + 1))
+        {
+            final RolapStar.Column column = star.getColumn(i);
+            if (isGroupingAttr(
+                    groupingAttrs, column.getTable(), column.getExpression()))
+            {
+                continue;
+            }
+            // Walk towards the fact table; any foreign key on the way which
+            // is a grouping attribute determines this column.
+            boolean covered = false;
+            for (RolapStar.Table table = column.getTable();
+                table != null && table != factTable;
+                table = table.getParentTable())
+            {
+                if (isGroupingAttr(
+                        groupingAttrs,
+                        table.getParentTable(),
+                        table.getJoinCondition().getLeft()))
+                {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isGroupingAttr(
+        Set<String> groupingAttrs,
+        RolapStar.Table table,
+        MondrianDef.Expression expression)
+    {
+        if (!(expression instanceof MondrianDef.Column)) {
+            return false;
+        }
+        final String name =
+            ((MondrianDef.Column) expression).name.toLowerCase();
+        final String tableName = table.getTableName();
+        if (tableName != null
+            && groupingAttrs.contains(tableName.toLowerCase() + "." + name))
+        {
+            return true;
+        }
+        // Single-table samples name fact table columns without a table.
+        return table.getParentTable() == null
+            && groupingAttrs.contains(name);
+    }
+
     /**
      * Finds an aggregate table in the given star which has the desired levels
      * and measures. Returns null if no aggregate table is suitable.
@@ -67,6 +67,12 @@ class DenseDoubleSegmentBody extends AbstractSegmentBody {
         return values.length - nullValues.cardinality();
     }
 
+    @Override
+    protected long getValueByteCount() {
+        return ARRAY_OVERHEAD + 8L * values.length
+            + estimateBitSetByteCount(values.length);
+    }
+
     @Override
     protected Object getObject(int i) {
         double value = values[i];
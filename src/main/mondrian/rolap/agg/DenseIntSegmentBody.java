@@ -66,6 +66,12 @@ class DenseIntSegmentBody extends AbstractSegmentBody {
         return values.length - nullValues.cardinality();
     }
 
+    @Override
+    protected long getValueByteCount() {
+        return ARRAY_OVERHEAD + 4L * values.length
+            + estimateBitSetByteCount(values.length);
+    }
+
     protected Object getObject(int i) {
         int value = values[i];
         if (value == 0 && nullValues.get(i)) {
@@ -54,6 +54,11 @@ class DenseObjectSegmentBody extends AbstractSegmentBody {
     protected int getSize() {
         return values.length;
     }
+
+    @Override
+    protected long getValueByteCount() {
+        return estimateByteCount(values);
+    }
 }
 
 // End DenseObjectSegmentBody.java
@@ -0,0 +1,280 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.SqlStatement;
+import mondrian.util.Pair;
+
+import java.io.ObjectStreamException;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Implementation of a dense segment body whose values are stored outside the
+ * Java heap, in a direct {@link ByteBuffer}.
+ *
+ * <p>The buffer holds the values of the cells, as {@code double} or
+ * {@code int} according to the {@link #getType() type}, followed by a bit
+ * for each cell that is set if the cell is null. Only the axes are on the
+ * heap, so a large body costs the garbage collector almost nothing.</p>
+ *
+ * <p>A {@link DirectSegmentDataset} reads the buffer in place; the values
+ * are never copied back onto the heap, except by
+ * {@link #getValueArray()} and {@link #getNullValueIndicators()}, which the
+ * SPI requires to return arrays. The buffer is never modified after the
+ * body has been created, and is read using absolute offsets, so the body is
+ * safe to share between threads.</p>
+ *
+ * <p>The body is serialized as the equivalent {@link DenseDoubleSegmentBody}
+ * or {@link DenseIntSegmentBody}, so external caches see a regular heap
+ * body.</p>
+ */
+class DirectSegmentBody extends AbstractSegmentBody {
+    private static final long serialVersionUID = 2962408431287650434L;
+
+    private final transient ByteBuffer buffer;
+    private final SqlStatement.Type type;
+    private final int size;
+    private final int nullCount;
+
+    /**
+     * Creates a DirectSegmentBody.
+     *
+     * @param buffer Buffer containing values followed by null indicators
+     * @param type Type of values, {@link SqlStatement.Type#DOUBLE} or
+     *   {@link SqlStatement.Type#INT}
+     * @param size Number of cells
+     * @param nullCount Number of null cells
+     * @param axes Axes
+     */
+    private DirectSegmentBody(
+        ByteBuffer buffer,
+        SqlStatement.Type type,
+        int size,
+        int nullCount,
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        super(axes);
+        this.buffer = buffer;
+        this.type = type;
+        this.size = size;
+        this.nullCount = nullCount;
+    }
+
+    /**
+     * Copies a dense body of doubles or ints into a new direct buffer.
+     *
+     * @param body Dense segment body
+     * @return Body whose values are off the heap
+     */
+    static DirectSegmentBody of(AbstractSegmentBody body) {
+        final SqlStatement.Type type;
+        final int size;
+        if (body instanceof DenseDoubleSegmentBody) {
+            type = SqlStatement.Type.DOUBLE;
+            size = ((double[]) body.getValueArray()).length;
+        } else if (body instanceof DenseIntSegmentBody) {
+            type = SqlStatement.Type.INT;
+            size = ((int[]) body.getValueArray()).length;
+        } else {
+            throw Util.newInternal(
+                "Cannot store segment body off heap: " + body.getClass());
+        }
+        final int valueBytes = size * width(type);
+        final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(valueBytes + 8 * wordCount(size))
+                .order(ByteOrder.nativeOrder());
+        if (type == SqlStatement.Type.DOUBLE) {
+            buffer.asDoubleBuffer().put((double[]) body.getValueArray());
+        } else {
+            buffer.asIntBuffer().put((int[]) body.getValueArray());
+        }
+        final BitSet nullValues = body.getNullValueIndicators();
+        final LongBuffer nullWords =
+            ((ByteBuffer) buffer.duplicate().position(valueBytes))
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        for (int i = nullValues.nextSetBit(0);
+             i >= 0 && i < size;
+             i = nullValues.nextSetBit(i + 1))
+        {
+            final int word = i >> 6;
+            nullWords.put(word, nullWords.get(word) | (1L << (i & 63)));
+        }
+        return new DirectSegmentBody(
+            buffer, type, size,
+            nullValues.get(0, size).cardinality(),
+            axes(body));
+    }
+
+    /**
+     * Creates a body that shares this body's buffer but has different axes.
+     *
+     * @param axes Axes
+     * @return Body sharing the same values
+     */
+    DirectSegmentBody withAxes(
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        return new DirectSegmentBody(buffer, type, size, nullCount, axes);
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        AbstractSegmentBody body)
+    {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int i = 0; i < body.getAxisValueSets().length; i++) {
+            axes.add(
+                Pair.of(
+                    body.getAxisValueSets()[i],
+                    body.getNullAxisFlags()[i]));
+        }
+        return axes;
+    }
+
+    private static int width(SqlStatement.Type type) {
+        return type == SqlStatement.Type.DOUBLE ? 8 : 4;
+    }
+
+    private static int wordCount(int size) {
+        return (size + 63) >> 6;
+    }
+
+    /**
+     * Returns the type of the values, {@link SqlStatement.Type#DOUBLE} or
+     * {@link SqlStatement.Type#INT}.
+     *
+     * @return Type of values
+     */
+    SqlStatement.Type getType() {
+        return type;
+    }
+
+    double getDouble(int offset) {
+        return type == SqlStatement.Type.DOUBLE
+            ? buffer.getDouble(offset << 3)
+            : buffer.getInt(offset << 2);
+    }
+
+    int getInt(int offset) {
+        return type == SqlStatement.Type.INT
+            ? buffer.getInt(offset << 2)
+            : (int) buffer.getDouble(offset << 3);
+    }
+
+    boolean isNull(int offset) {
+        final long word =
+            buffer.getLong(size * width(type) + ((offset >> 6) << 3));
+        return (word & (1L << (offset & 63))) != 0;
+    }
+
+    /**
+     * Returns the number of bytes that this body occupies outside the heap.
+     *
+     * @return Number of bytes in direct memory
+     */
+    long getDirectByteCount() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public Object getValueArray() {
+        if (type == SqlStatement.Type.DOUBLE) {
+            final double[] values = new double[size];
+            ((ByteBuffer) buffer.duplicate().clear())
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer().get(values);
+            return values;
+        } else {
+            final int[] values = new int[size];
+            ((ByteBuffer) buffer.duplicate().clear())
+                .order(ByteOrder.nativeOrder()).asIntBuffer().get(values);
+            return values;
+        }
+    }
+
+    @Override
+    public BitSet getNullValueIndicators() {
+        final BitSet nullValues = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (isNull(i)) {
+                nullValues.set(i);
+            }
+        }
+        return nullValues;
+    }
+
+    @Override
+    protected int getSize() {
+        return size;
+    }
+
+    @Override
+    protected int getEffectiveSize() {
+        return size - nullCount;
+    }
+
+    @Override
+    protected Object getObject(int i) {
+        if (isNull(i)) {
+            return null;
+        }
+        return type == SqlStatement.Type.DOUBLE
+            ? (Object) getDouble(i)
+            : (Object) getInt(i);
+    }
+
+    @Override
+    protected long getValueByteCount() {
+        // Bytes off the heap count against the cache's budget too.
+        return OBJECT_OVERHEAD + getDirectByteCount();
+    }
+
+    /**
+     * Returns the equivalent body on the heap.
+     *
+     * @return Heap body
+     */
+    AbstractSegmentBody toHeapBody() {
+        if (type == SqlStatement.Type.DOUBLE) {
+            return new DenseDoubleSegmentBody(
+                getNullValueIndicators(),
+                (double[]) getValueArray(),
+                axes(this));
+        } else {
+            return new DenseIntSegmentBody(
+                getNullValueIndicators(),
+                (int[]) getValueArray(),
+                axes(this));
+        }
+    }
+
+    /**
+     * Serializes this body as the equivalent heap body; direct buffers are
+     * not serializable.
+     *
+     * @return Heap body
+     * @throws ObjectStreamException never
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return toHeapBody();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectSegmentBody(type=" + type + ", size=" + size
+            + ", nullCount=" + nullCount
+            + ", axisValueSets=" + Arrays.toString(getAxisValueSets())
+            + ", nullAxisFlags=" + Arrays.toString(getNullAxisFlags())
+            + ")";
+    }
+}
+
+// End DirectSegmentBody.java
@@ -0,0 +1,94 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.rolap.SqlStatement;
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Implementation of {@link DenseSegmentDataset} that reads the values of a
+ * {@link DirectSegmentBody} in place, outside the Java heap.
+ *
+ * <p>The dataset is a read-only view. It is created when a segment is read
+ * from cache, and such segments are never populated.</p>
+ */
+class DirectSegmentDataset extends DenseSegmentDataset {
+    private final DirectSegmentBody body;
+
+    /**
+     * Creates a DirectSegmentDataset.
+     *
+     * @param axes Segment axes, containing actual column values
+     * @param body Body containing the values; not copied
+     */
+    DirectSegmentDataset(SegmentAxis[] axes, DirectSegmentBody body) {
+        super(axes);
+        this.body = body;
+    }
+
+    public double getDouble(CellKey key) {
+        return body.getDouble(key.getOffset(axisMultipliers));
+    }
+
+    public int getInt(CellKey key) {
+        return body.getInt(key.getOffset(axisMultipliers));
+    }
+
+    public Object getObject(CellKey pos) {
+        if (getSize() == 0) {
+            // No values means they are all null.
+            return null;
+        }
+        return getObject(pos.getOffset(axisMultipliers));
+    }
+
+    protected Object getObject(int offset) {
+        return body.getObject(offset);
+    }
+
+    public boolean isNull(CellKey key) {
+        return body.isNull(key.getOffset(axisMultipliers));
+    }
+
+    public boolean exists(CellKey pos) {
+        return true;
+    }
+
+    public void populateFrom(int[] pos, SegmentDataset data, CellKey key) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void populateFrom(
+        int[] pos, SegmentLoader.RowList rowList, int column)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public SqlStatement.Type getType() {
+        return body.getType();
+    }
+
+    protected int getSize() {
+        return body.getSize();
+    }
+
+    public SegmentBody createSegmentBody(
+        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    {
+        return body.withAxes(axes);
+    }
+}
+
+// End DirectSegmentDataset.java
@@ -0,0 +1,470 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.util.ArraySortedSet;
+
+import java.util.*;
+
+/**
+ * Set of the distinct values of an axis column, built up while a segment is
+ * loaded from SQL.
+ *
+ * <p>Each value is given an ordinal when it is first added: 0 for the first
+ * distinct value, 1 for the next, and so on. The loader records the ordinal
+ * of each row's value, rather than the value itself, and when all rows have
+ * been read converts ordinals to offsets in the sorted set of values using
+ * {@link #offsetOfOrdinal(int)}.</p>
+ *
+ * <p>Values of columns of type {@code int}, {@code long} and {@code double}
+ * are held in an array of primitive {@code long}s (doubles by their bits),
+ * so that adding the value of a cell does not allocate an object and costs
+ * one probe of an open-addressed hash table, rather than a boxed object and a
+ * tree insertion as with a {@link TreeSet}. Values of other columns are held
+ * in an array of objects. The values are sorted once, when
+ * {@link #toSortedSet()} or {@link #offsetOfOrdinal(int)} is first called
+ * after the last insert.</p>
+ *
+ * <p>A set starts out untyped, and takes the type of the first value added.
+ * If a value of a different type is added, the set converts itself to a set
+ * of objects; ordinals do not change.</p>
+ *
+ * <p>Null values are never added; the caller records them separately.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+class DistinctValueSet {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Comparable[] NO_COMPARABLES = new Comparable[0];
+    private static final int[] NO_INTS = new int[0];
+
+    private Kind kind = Kind.EMPTY;
+
+    /**
+     * Primitive values, indexed by ordinal.
+     */
+    private long[] longValues;
+
+    /**
+     * Object values, indexed by ordinal.
+     */
+    private Object[] objectValues;
+
+    /**
+     * Number of values added, and therefore the next ordinal.
+     */
+    private int count;
+
+    /**
+     * Open-addressed hash table. Each slot holds 1 + the ordinal of a value,
+     * or 0 if empty.
+     */
+    private int[] table;
+
+    private int mask;
+
+    /**
+     * Values in sorted order, or null if the set has changed since they were
+     * last sorted.
+     */
+    private Comparable[] sorted;
+
+    /**
+     * Offset in {@link #sorted} of each value, indexed by ordinal. Valid only
+     * if {@code sorted} is not null.
+     */
+    private int[] offsets;
+
+    /**
+     * Creates an empty DistinctValueSet.
+     */
+    DistinctValueSet() {
+    }
+
+    /**
+     * Adds an {@code int} value.
+     *
+     * @param value Value
+     * @return Whether the value was not already present
+     */
+    boolean add(int value) {
+        final int n = count;
+        put(value);
+        return count > n;
+    }
+
+    /**
+     * Adds a {@code long} value.
+     *
+     * @param value Value
+     * @return Whether the value was not already present
+     */
+    boolean add(long value) {
+        final int n = count;
+        put(value);
+        return count > n;
+    }
+
+    /**
+     * Adds a {@code double} value.
+     *
+     * @param value Value
+     * @return Whether the value was not already present
+     */
+    boolean add(double value) {
+        final int n = count;
+        put(value);
+        return count > n;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value Value, not null
+     * @return Whether the value was not already present
+     */
+    boolean add(Comparable value) {
+        final int n = count;
+        put(value);
+        return count > n;
+    }
+
+    /**
+     * Adds an {@code int} value if it is not present, and returns its
+     * ordinal.
+     *
+     * @param value Value
+     * @return Ordinal of value
+     */
+    int put(int value) {
+        if (kind != Kind.INT && !switchKind(Kind.INT)) {
+            return put((Comparable) value);
+        }
+        return putLong(value);
+    }
+
+    /**
+     * Adds a {@code long} value if it is not present, and returns its
+     * ordinal.
+     *
+     * @param value Value
+     * @return Ordinal of value
+     */
+    int put(long value) {
+        if (kind != Kind.LONG && !switchKind(Kind.LONG)) {
+            return put((Comparable) value);
+        }
+        return putLong(value);
+    }
+
+    /**
+     * Adds a {@code double} value if it is not present, and returns its
+     * ordinal.
+     *
+     * <p>Two values are the same if {@link Double#equals} says so;
+     * therefore {@code 0.0} and {@code -0.0} are different values.</p>
+     *
+     * @param value Value
+     * @return Ordinal of value
+     */
+    int put(double value) {
+        if (kind != Kind.DOUBLE && !switchKind(Kind.DOUBLE)) {
+            return put((Comparable) value);
+        }
+        return putLong(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Adds a value if it is not present, and returns its ordinal.
+     *
+     * <p>Values that are equal according to {@link Object#equals} have the
+     * same ordinal. Values that are not equal but compare equal, say
+     * {@link java.math.BigDecimal}s 1.0 and 1.00, have different ordinals but
+     * occur once in the sorted set, as in a {@link TreeSet}.</p>
+     *
+     * @param value Value, not null
+     * @return Ordinal of value
+     */
+    int put(Comparable value) {
+        switch (kind) {
+        case INT:
+            if (value instanceof Integer) {
+                return putLong((Integer) value);
+            }
+            break;
+        case LONG:
+            if (value instanceof Long) {
+                return putLong((Long) value);
+            }
+            break;
+        case DOUBLE:
+            if (value instanceof Double) {
+                return putLong(Double.doubleToLongBits((Double) value));
+            }
+            break;
+        default:
+            break;
+        }
+        if (kind != Kind.OBJECT) {
+            switchKind(Kind.OBJECT);
+        }
+        return putObject(value);
+    }
+
+    /**
+     * Returns the number of distinct values.
+     *
+     * @return Number of values
+     */
+    int size() {
+        if (kind == Kind.OBJECT) {
+            // Values that are not equal may compare equal, and count once.
+            return sort().length;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the values as a sorted set. The set is not a copy, and is
+     * valid until the next value is added.
+     *
+     * @return Sorted set of values
+     */
+    SortedSet<Comparable> toSortedSet() {
+        return new ArraySortedSet(sort());
+    }
+
+    /**
+     * Returns the offset, in the sorted set of values, of the value with a
+     * given ordinal.
+     *
+     * <p>The offset is the same as the offset of the value in the keys of a
+     * {@link SegmentAxis} built from {@link #toSortedSet()}.</p>
+     *
+     * @param ordinal Ordinal returned by a {@code put} method
+     * @return Offset of the value
+     */
+    int offsetOfOrdinal(int ordinal) {
+        sort();
+        return offsets[ordinal];
+    }
+
+    /**
+     * Changes the kind of this set. An empty set takes any kind; a set that
+     * has values can only become a set of objects.
+     *
+     * @param newKind New kind
+     * @return Whether the set now has the requested kind
+     */
+    private boolean switchKind(Kind newKind) {
+        if (kind == Kind.EMPTY) {
+            kind = newKind;
+            mask = INITIAL_CAPACITY - 1;
+            table = new int[INITIAL_CAPACITY];
+            if (newKind == Kind.OBJECT) {
+                objectValues = new Object[INITIAL_CAPACITY];
+            } else {
+                longValues = new long[INITIAL_CAPACITY];
+            }
+            return true;
+        }
+        if (newKind != Kind.OBJECT) {
+            return false;
+        }
+        // Mixed types. Box the values we have, in order of ordinal, and
+        // start again; each value keeps its ordinal.
+        final Comparable[] values = new Comparable[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = box(longValues[i]);
+        }
+        kind = Kind.EMPTY;
+        longValues = null;
+        count = 0;
+        switchKind(Kind.OBJECT);
+        for (Comparable value : values) {
+            putObject(value);
+        }
+        return true;
+    }
+
+    private Comparable box(long value) {
+        switch (kind) {
+        case INT:
+            return (int) value;
+        case LONG:
+            return value;
+        case DOUBLE:
+            return Double.longBitsToDouble(value);
+        default:
+            throw Util.unexpected(kind);
+        }
+    }
+
+    private int putLong(long value) {
+        int i = hash(value) & mask;
+        for (;;) {
+            final int slot = table[i];
+            if (slot == 0) {
+                break;
+            }
+            if (longValues[slot - 1] == value) {
+                return slot - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (count == longValues.length) {
+            longValues = Util.copyOf(longValues, count * 2);
+        }
+        longValues[count] = value;
+        return added(i);
+    }
+
+    private int putObject(Object value) {
+        int i = spread(value.hashCode()) & mask;
+        for (;;) {
+            final int slot = table[i];
+            if (slot == 0) {
+                break;
+            }
+            if (objectValues[slot - 1].equals(value)) {
+                return slot - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (count == objectValues.length) {
+            objectValues = Util.copyOf(objectValues, count * 2);
+        }
+        objectValues[count] = value;
+        return added(i);
+    }
+
+    /**
+     * Records that a value has been stored at the next ordinal, and that its
+     * ordinal belongs in a given slot of the hash table; grows the table if
+     * it is half full.
+     */
+    private int added(int i) {
+        table[i] = ++count;
+        sorted = null;
+        if (count * 2 > table.length) {
+            table = new int[table.length * 2];
+            mask = table.length - 1;
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                int j =
+                    (kind == Kind.OBJECT
+                        ? spread(objectValues[ordinal].hashCode())
+                        : hash(longValues[ordinal])) & mask;
+                while (table[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                table[j] = ordinal + 1;
+            }
+        }
+        return count - 1;
+    }
+
+    private static int hash(long value) {
+        return spread((int) (value ^ (value >>> 32)));
+    }
+
+    private static int spread(int h) {
+        final int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    /**
+     * Sorts the values, if they have changed since they were last sorted,
+     * and returns them.
+     */
+    private Comparable[] sort() {
+        if (sorted != null) {
+            return sorted;
+        }
+        switch (kind) {
+        case EMPTY:
+            offsets = NO_INTS;
+            sorted = NO_COMPARABLES;
+            break;
+        case OBJECT:
+            sorted = sortObjects();
+            break;
+        case DOUBLE:
+            sorted = sortDoubles();
+            break;
+        default:
+            sorted = sortLongs();
+        }
+        return sorted;
+    }
+
+    private Comparable[] sortObjects() {
+        final Comparable[] values = new Comparable[count];
+        System.arraycopy(objectValues, 0, values, 0, count);
+        Arrays.sort(values);
+        // Remove values that compare equal but are not equal (say
+        // BigDecimal 1.0 and 1.00), as TreeSet would.
+        int m = 0;
+        for (int i = 0; i < count; i++) {
+            if (m == 0 || values[m - 1].compareTo(values[i]) != 0) {
+                values[m++] = values[i];
+            }
+        }
+        offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = Arrays.binarySearch(values, 0, m, objectValues[i]);
+        }
+        return m == count ? values : Util.copyOf(values, m);
+    }
+
+    private Comparable[] sortDoubles() {
+        final double[] doubles = new double[count];
+        for (int i = 0; i < count; i++) {
+            doubles[i] = Double.longBitsToDouble(longValues[i]);
+        }
+        // Arrays.sort(double[]) orders as Double.compareTo does.
+        Arrays.sort(doubles);
+        final Comparable[] values = new Comparable[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = doubles[i];
+        }
+        offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] =
+                Arrays.binarySearch(
+                    doubles, Double.longBitsToDouble(longValues[i]));
+        }
+        return values;
+    }
+
+    private Comparable[] sortLongs() {
+        final long[] longs = Util.copyOf(longValues, count);
+        Arrays.sort(longs);
+        final Comparable[] values = new Comparable[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = box(longs[i]);
+        }
+        offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = Arrays.binarySearch(longs, longValues[i]);
+        }
+        return values;
+    }
+
+    private enum Kind {
+        EMPTY,
+        INT,
+        LONG,
+        DOUBLE,
+        OBJECT
+    }
+}
+
+// End DistinctValueSet.java
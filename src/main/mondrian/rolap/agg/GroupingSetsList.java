@@ -214,15 +214,22 @@ final class GroupingSetsList {
     static class Cohort
     {
         final List<SegmentDataset> segmentDatasetList;
+        /**
+         * Estimated sampling variance of each segment's values; an element is
+         * null if the segment was not estimated from a sample.
+         */
+        final List<SegmentDataset> varianceDatasetList;
         final SegmentAxis[] axes;
         // workspace
         final int[] pos;
 
         Cohort(
             List<SegmentDataset> segmentDatasetList,
+            List<SegmentDataset> varianceDatasetList,
             SegmentAxis[] axes)
         {
             this.segmentDatasetList = segmentDatasetList;
+            this.varianceDatasetList = varianceDatasetList;
             this.axes = axes;
             this.pos = new int[axes.length];
         }
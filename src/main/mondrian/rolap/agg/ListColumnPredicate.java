@@ -333,7 +333,7 @@ public class ListColumnPredicate extends AbstractColumnPredicate {
                 firstNotNull = predicate2;
             }
             ++notNullCount;
-            sqlQuery.getDialect().quote(buf, key, column.getDatatype());
+            sqlQuery.quote(buf, key, column.getDatatype());
         }
         buf.append(')');
 
@@ -362,7 +362,7 @@ public class ListColumnPredicate extends AbstractColumnPredicate {
             buf.append('(');
             buf.append(expr);
             buf.append(" = ");
-            sqlQuery.getDialect().quote(
+            sqlQuery.quote(
                 buf,
                 firstNotNull.getValue(),
                 column.getDatatype());
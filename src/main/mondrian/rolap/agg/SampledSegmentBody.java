@@ -0,0 +1,86 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.spi.SegmentBody;
+
+import java.util.*;
+
+/**
+ * Segment body whose values were estimated from a sample of the fact table.
+ *
+ * <p>Wraps the body that holds the estimates, and carries a companion body,
+ * over the same axes, that holds the estimated sampling variance of each
+ * cell. All {@link SegmentBody} methods describe the estimates.
+ *
+ * @see mondrian.rolap.RolapAggregator#getSampledVarianceExpression(String)
+ */
+class SampledSegmentBody implements SegmentBody {
+    private static final long serialVersionUID = -3870184936420915272L;
+
+    private final SegmentBody body;
+    private final SegmentBody varianceBody;
+
+    /**
+     * Creates a SampledSegmentBody.
+     *
+     * @param body Body containing the estimated values
+     * @param varianceBody Body containing the estimated variance of each
+     *     value; must have the same axes as <code>body</code>
+     */
+    SampledSegmentBody(SegmentBody body, SegmentBody varianceBody) {
+        assert body != null;
+        assert varianceBody != null;
+        assert !(body instanceof SampledSegmentBody);
+        this.body = body;
+        this.varianceBody = varianceBody;
+    }
+
+    /**
+     * Returns the body containing the estimated values.
+     */
+    public SegmentBody getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the body containing the estimated variance of each value.
+     */
+    public SegmentBody getVarianceBody() {
+        return varianceBody;
+    }
+
+    public Map<CellKey, Object> getValueMap() {
+        return body.getValueMap();
+    }
+
+    public Object getValueArray() {
+        return body.getValueArray();
+    }
+
+    public BitSet getNullValueIndicators() {
+        return body.getNullValueIndicators();
+    }
+
+    public SortedSet<Comparable>[] getAxisValueSets() {
+        return body.getAxisValueSets();
+    }
+
+    public boolean[] getNullAxisFlags() {
+        return body.getNullAxisFlags();
+    }
+
+    public String toString() {
+        return "SampledSegmentBody(" + body + ", variance=" + varianceBody
+            + ")";
+    }
+}
+
+// End SampledSegmentBody.java
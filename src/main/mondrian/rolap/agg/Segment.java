@@ -106,6 +106,12 @@ public class Segment {
     private final int aggregationKeyHashCode;
     protected final List<StarPredicate> compoundPredicateList;
 
+    /**
+     * Name of the sample table this segment's values are estimated from, or
+     * null if they are read from the fact table or an aggregate table.
+     */
+    protected final String sampleTableName;
+
     private final SegmentHeader segmentHeader;
 
     private static final Logger LOGGER = Logger.getLogger(Segment.class);
@@ -126,6 +132,38 @@ public class Segment {
         StarColumnPredicate[] predicates,
         List<ExcludedRegion> excludedRegions,
         final List<StarPredicate> compoundPredicateList)
+    {
+        this(
+            star,
+            constrainedColumnsBitKey,
+            columns,
+            measure,
+            predicates,
+            excludedRegions,
+            compoundPredicateList,
+            null);
+    }
+
+    /**
+     * Creates a <code>Segment</code> whose values are, or will be, estimated
+     * from a sample of the fact table; it's not loaded yet.
+     *
+     * @param star Star that this Segment belongs to
+     * @param measure Measure whose values this Segment contains
+     * @param predicates List of predicates constraining each axis
+     * @param excludedRegions List of regions which are not in this segment.
+     * @param sampleTableName Name of the sample table, or null if the
+     *     segment is exact
+     */
+    public Segment(
+        RolapStar star,
+        BitKey constrainedColumnsBitKey,
+        RolapStar.Column[] columns,
+        RolapStar.Measure measure,
+        StarColumnPredicate[] predicates,
+        List<ExcludedRegion> excludedRegions,
+        final List<StarPredicate> compoundPredicateList,
+        String sampleTableName)
     {
         this.id = nextId++;
         this.star = star;
@@ -135,6 +173,7 @@ public class Segment {
         this.predicates = predicates;
         this.excludedRegions = excludedRegions;
         this.compoundPredicateList = compoundPredicateList;
+        this.sampleTableName = sampleTableName;
         final List<BitKey> compoundPredicateBitKeys =
             compoundPredicateList == null
                 ? null
@@ -177,6 +216,14 @@ public class Segment {
         return compoundPredicateList;
     }
 
+    /**
+     * Returns the name of the sample table this segment's values are
+     * estimated from, or null if the segment is exact.
+     */
+    public String getSampleTableName() {
+        return sampleTableName;
+    }
+
     /**
      * Returns the BitKey for ALL columns (Measures and Levels) involved in the
      * query.
@@ -225,6 +272,11 @@ public class Segment {
                 ? measure.getAggregator().getExpression("*")
                 : measure.getAggregator().getExpression(
                     measure.getExpression().getGenericExpression()));
+        if (sampleTableName != null) {
+            buf.append(sep);
+            buf.append("sample=");
+            buf.append(sampleTableName);
+        }
         return buf.toString();
     }
 
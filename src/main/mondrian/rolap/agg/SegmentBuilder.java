@@ -13,6 +13,7 @@ import mondrian.olap.Util;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.Segment.ExcludedRegion;
 import mondrian.rolap.sql.SqlQuery;
+import mondrian.server.Execution;
 import mondrian.spi.*;
 import mondrian.spi.Dialect.Datatype;
 import mondrian.util.ArraySortedSet;
@@ -24,7 +25,7 @@ import org.olap4j.impl.UnmodifiableArrayList;
 
 import java.math.BigInteger;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Helper class that contains methods to convert between
@@ -57,6 +58,14 @@ public class SegmentBuilder {
                     sb.getAxisValueSets()[i],
                     sb.getNullAxisFlags()[i]);
         }
+        if (sb instanceof SampledSegmentBody) {
+            final SampledSegmentBody ssb = (SampledSegmentBody) sb;
+            return new SegmentWithData(
+                segment,
+                createDataset(ssb.getBody(), axes),
+                createDataset(ssb.getVarianceBody(), axes),
+                axes);
+        }
         final SegmentDataset dataSet = createDataset(sb, axes);
         return new SegmentWithData(segment, dataSet, axes);
     }
@@ -74,7 +83,11 @@ public class SegmentBuilder {
         SegmentAxis[] axes)
     {
         final SegmentDataset dataSet;
-        if (body instanceof DenseDoubleSegmentBody) {
+        if (body instanceof DirectSegmentBody) {
+            // Read the values in place; do not copy them onto the heap.
+            dataSet =
+                new DirectSegmentDataset(axes, (DirectSegmentBody) body);
+        } else if (body instanceof DenseDoubleSegmentBody) {
             dataSet =
                 new DenseDoubleSegmentDataset(
                     axes,
@@ -161,7 +174,8 @@ public class SegmentBuilder {
             predicateList.toArray(
                 new StarColumnPredicate[predicateList.size()]),
             new ExcludedRegionList(header),
-            compoundPredicates);
+            compoundPredicates,
+            header.sampleTableName);
     }
 
     /**
@@ -183,6 +197,36 @@ public class SegmentBuilder {
         BitKey targetBitkey,
         Aggregator rollupAggregator,
         Datatype datatype)
+    {
+        return rollup(
+            map, keepColumns, targetBitkey, rollupAggregator, datatype,
+            null, null);
+    }
+
+    /**
+     * Given a collection of segments, all of the same dimensionality, rolls up
+     * to create a segment with reduced dimensionality, aggregating large
+     * segments in parallel.
+     *
+     * @param map Source segment headers and bodies
+     * @param keepColumns A list of column names to keep as part of
+     * the rolled up segment.
+     * @param targetBitkey The column bit key to match with the
+     * resulting segment.
+     * @param rollupAggregator The aggregator to use to rollup.
+     * @param datatype The data type to use.
+     * @param pool Pool in which to aggregate in parallel, or null
+     * @param execution Execution to check for cancellation, or null
+     * @return Segment header and body of requested dimensionality
+     */
+    public static Pair<SegmentHeader, SegmentBody> rollup(
+        Map<SegmentHeader, SegmentBody> map,
+        Set<String> keepColumns,
+        BitKey targetBitkey,
+        Aggregator rollupAggregator,
+        Datatype datatype,
+        ForkJoinPool pool,
+        Execution execution)
     {
         class AxisInfo {
             SegmentColumn column;
@@ -194,6 +238,7 @@ public class SegmentBuilder {
             boolean lostPredicate;
         }
         assert allHeadersHaveSameDimensionality(map.keySet());
+        assert allHeadersHaveSameSample(map.keySet());
 
         // store the map values in a list to assure the first header
         // loaded here is consistent w/ the first segment processed below.
@@ -201,7 +246,7 @@ public class SegmentBuilder {
             UnmodifiableArrayList.of(map.entrySet());
         final SegmentHeader firstHeader = segments.get(0).getKey();
         final List<AxisInfo> axes = new ArrayList<AxisInfo>(keepColumns.size());
-        int z = 0, j = 0;
+        int j = 0;
         List<SegmentColumn> firstHeaderConstrainedColumns =
             firstHeader.getConstrainedColumns();
         for (SegmentColumn column : firstHeaderConstrainedColumns) {
@@ -285,85 +330,23 @@ public class SegmentBuilder {
         }
 
         // Populate cells.
-        //
-        // (This is a rough implementation, very inefficient. It makes all
-        // segment types pretend to be sparse, for purposes of reading. It
-        // maps all axis ordinals to a value, then back to an axis ordinal,
-        // even if this translation were not necessary, say if the source and
-        // target axes had the same set of values. And it always creates a
-        // sparse segment.
-        //
-        // We should do really efficient rollup if the source is an array: we
-        // should box values (e.g double to Double and back), and we should read
-        // a stripe of values from the and add them up into a single cell.
-        final Map<CellKey, List<Object>> cellValues =
-            new HashMap<CellKey, List<Object>>();
-        List<List<Comparable>> addedIntersections =
-            new ArrayList<List<Comparable>>();
-
-        for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
-            final int[] pos = new int[axes.size()];
-            final Comparable[][] valueArrays =
-                new Comparable[firstHeaderConstrainedColumns.size()][];
-            final SegmentBody body = entry.getValue();
-
-            // Copy source value sets into arrays. For axes that are being
-            // projected away, store null.
-            z = 0;
-            for (SortedSet<Comparable> set : body.getAxisValueSets()) {
-                    valueArrays[z] = keepColumns.contains(
-                        firstHeaderConstrainedColumns.get(z).columnExpression)
-                        ? set.toArray(new Comparable[set.size()])
-                        : null;
-                ++z;
-            }
-            Map<CellKey, Object> v = body.getValueMap();
-            entryLoop:
-            for (Map.Entry<CellKey, Object> vEntry : v.entrySet()) {
-                z = 0;
-                for (int i = 0; i < vEntry.getKey().size(); i++) {
-                    final Comparable[] valueArray = valueArrays[i];
-                    if (valueArray == null) {
-                        continue;
-                    }
-                    final int ordinal = vEntry.getKey().getOrdinals()[i];
-                    final int targetOrdinal;
-                    if (axes.get(z).hasNull && ordinal == valueArray.length) {
-                        targetOrdinal = axes.get(z).valueSet.size();
-                    } else {
-                        final Comparable value = valueArray[ordinal];
-                        if (value == null) {
-                            targetOrdinal = axes.get(z).valueSet.size();
-                        } else {
-                            targetOrdinal =
-                                Util.binarySearch(
-                                    axes.get(z).values,
-                                    0, axes.get(z).values.length,
-                                    value);
-                        }
-                    }
-                    if (targetOrdinal >= 0) {
-                        pos[z++] = targetOrdinal;
-                    } else {
-                        // This happens when one of the rollup candidate doesn't
-                        // contain the requested cell.
-                        continue entryLoop;
-                    }
-                }
-                final CellKey ck = CellKey.Generator.newCellKey(pos);
-                if (!cellValues.containsKey(ck)) {
-                    cellValues.put(ck, new ArrayList<Object>());
-                }
-                List<Comparable> colValues =  getColumnValsAtCellKey(
-                    body, vEntry.getKey());
-                if (!addedIntersections.contains(colValues)) {
-                    // only add the cell value if we haven't already.
-                    // there is a potential double add if segments overlap
-                    cellValues.get(ck).add(vEntry.getValue());
-                    addedIntersections.add(colValues);
-                }
-            }
+        final List<SegmentBody> bodies = new ArrayList<SegmentBody>();
+        for (Map.Entry<SegmentHeader, SegmentBody> entry : segments) {
+            bodies.add(entry.getValue());
+        }
+        final int[] targetSrc = new int[axes.size()];
+        final Comparable[][] targetValues = new Comparable[axes.size()][];
+        final boolean[] targetHasNull = new boolean[axes.size()];
+        for (int i = 0; i < axes.size(); i++) {
+            targetSrc[i] = axes.get(i).src;
+            targetValues[i] = axes.get(i).values;
+            targetHasNull[i] = axes.get(i).hasNull;
         }
+        final SegmentRollup.Cells cells =
+            new SegmentRollup(
+                bodies, targetSrc, targetValues, targetHasNull,
+                rollupAggregator, datatype, pool, execution)
+                .run();
 
         // Build the axis list.
         final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
@@ -385,14 +368,12 @@ public class SegmentBuilder {
                 (BigInteger.valueOf(Integer.MAX_VALUE)) > 0
                 || SegmentLoader.useSparse(
                     bigValueCount.doubleValue(),
-                    cellValues.size());
-        final int[] axisMultipliers =
-            computeAxisMultipliers(axisList);
+                    cells.size());
 
-        final SegmentBody body;
+        SegmentBody body;
         // Peak at the values and determine the best way to store them
         // (whether to use a dense native dataset or a sparse one.
-        if (cellValues.size() == 0) {
+        if (cells.size() == 0) {
             // Just store the data into an empty dense object dataset.
             body =
                 new DenseObjectSegmentBody(
@@ -400,17 +381,23 @@ public class SegmentBuilder {
                     axisList);
         } else if (sparse) {
             // The rule says we must use a sparse dataset.
-            // First, aggregate the values of each key.
             final Map<CellKey, Object> data =
                 new HashMap<CellKey, Object>();
-            for (Entry<CellKey, List<Object>> entry
-                : cellValues.entrySet())
-            {
-                data.put(
-                    CellKey.Generator.newCellKey(entry.getKey().getOrdinals()),
-                    rollupAggregator.aggregate(
-                        entry.getValue(),
-                        datatype));
+            final long[] multipliers = new long[axes.size()];
+            long multiplier = 1;
+            for (int i = axes.size() - 1; i >= 0; --i) {
+                multipliers[i] = multiplier;
+                multiplier *=
+                    axes.get(i).values.length + (axes.get(i).hasNull ? 1 : 0);
+            }
+            final int[] pos = new int[axes.size()];
+            for (int i = 0; i < cells.size(); i++) {
+                long offset = cells.offset(i);
+                for (int k = 0; k < pos.length; k++) {
+                    pos[k] = (int) (offset / multipliers[k]);
+                    offset %= multipliers[k];
+                }
+                data.put(CellKey.Generator.newCellKey(pos), cells.value(i));
             }
             body =
                 new SparseSegmentBody(
@@ -419,20 +406,17 @@ public class SegmentBuilder {
         } else {
             final BitSet nullValues;
             final int valueCount = bigValueCount.intValue();
-            switch (datatype) {
+            // Sketches are objects, whatever the measure's datatype.
+            final boolean sketch =
+                rollupAggregator instanceof RolapAggregator
+                && ((RolapAggregator) rollupAggregator).isSketch();
+            switch (sketch ? Datatype.String : datatype) {
             case Integer:
                 final int[] ints = new int[valueCount];
                 nullValues = Util.bitSetBetween(0, valueCount);
-                for (Entry<CellKey, List<Object>> entry
-                    : cellValues.entrySet())
-                {
-                    final int offset =
-                        CellKey.Generator.getOffset(
-                            entry.getKey().getOrdinals(), axisMultipliers);
-                    final Object value =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                for (int i = 0; i < cells.size(); i++) {
+                    final int offset = (int) cells.offset(i);
+                    final Object value = cells.value(i);
                     if (value != null) {
                         ints[offset] = (Integer) value;
                         nullValues.clear(offset);
@@ -447,16 +431,9 @@ public class SegmentBuilder {
             case Numeric:
                 final double[] doubles = new double[valueCount];
                 nullValues = Util.bitSetBetween(0, valueCount);
-                for (Entry<CellKey, List<Object>> entry
-                    : cellValues.entrySet())
-                {
-                    final int offset =
-                        CellKey.Generator.getOffset(
-                            entry.getKey().getOrdinals(), axisMultipliers);
-                    final Object value =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                for (int i = 0; i < cells.size(); i++) {
+                    final int offset = (int) cells.offset(i);
+                    final Object value = cells.value(i);
                     if (value != null) {
                         doubles[offset] = (Double) value;
                         nullValues.clear(offset);
@@ -470,16 +447,8 @@ public class SegmentBuilder {
                 break;
             default:
                 final Object[] objects = new Object[valueCount];
-                for (Entry<CellKey, List<Object>> entry
-                    : cellValues.entrySet())
-                {
-                    final int offset =
-                        CellKey.Generator.getOffset(
-                            entry.getKey().getOrdinals(), axisMultipliers);
-                    objects[offset] =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                for (int i = 0; i < cells.size(); i++) {
+                    objects[(int) cells.offset(i)] = cells.value(i);
                 }
                 body =
                     new DenseObjectSegmentBody(
@@ -512,7 +481,16 @@ public class SegmentBuilder {
                 firstHeader.compoundPredicates,
                 firstHeader.rolapStarFactTableName,
                 targetBitkey,
-                Collections.<SegmentColumn>emptyList());
+                Collections.<SegmentColumn>emptyList(),
+                firstHeader.sampleTableName);
+
+        // If all of the source segments were estimated from samples, roll up
+        // their variances too.
+        final SegmentBody varianceBody =
+            rollupVariances(map, keepColumns, targetBitkey, rollupAggregator);
+        if (varianceBody != null) {
+            body = new SampledSegmentBody(body, varianceBody);
+        }
         if (LOGGER.isDebugEnabled()) {
             StringBuilder builder = new StringBuilder();
             builder.append("Rolling up segments with parameters: \n");
@@ -556,23 +534,46 @@ public class SegmentBuilder {
         return Pair.of(header, body);
     }
 
-    private static List<Comparable> getColumnValsAtCellKey(
-        SegmentBody body, CellKey cellKey)
+    /**
+     * Rolls up the estimated variances of a collection of segments that were
+     * estimated from samples.
+     *
+     * <p>Estimates of distinct cells are computed from disjoint sets of sample
+     * rows, so the variance of their sum is the sum of their variances.
+     * Returns null if any of the segments is exact, or if the aggregator is
+     * not <code>sum</code>.
+     *
+     * @param map Source segment headers and bodies
+     * @param keepColumns Columns to keep
+     * @param targetBitkey Column bit key of the rolled up segment
+     * @param rollupAggregator Aggregator used to roll up the values
+     * @return Body containing the rolled up variances, or null
+     */
+    private static SegmentBody rollupVariances(
+        Map<SegmentHeader, SegmentBody> map,
+        Set<String> keepColumns,
+        BitKey targetBitkey,
+        Aggregator rollupAggregator)
     {
-        List<Comparable> columnValues = new ArrayList<Comparable>();
-        for (int i = 0; i < body.getAxisValueSets().length; i++) {
-            List<Comparable> columnVals = new ArrayList<Comparable>();
-            columnVals.addAll(body.getAxisValueSets()[i]);
-            int valCoord = body.getNullAxisFlags()[i]
-                ? cellKey.getAxis(i) - 1
-                : cellKey.getAxis(i);
-            if (valCoord >= 0) {
-                columnValues.add(columnVals.get(valCoord));
-            } else {
-                columnValues.add(null);
-            }
+        if (rollupAggregator != RolapAggregator.Sum) {
+            return null;
         }
-        return columnValues;
+        final Map<SegmentHeader, SegmentBody> varianceMap =
+            new LinkedHashMap<SegmentHeader, SegmentBody>();
+        for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
+            if (!(entry.getValue() instanceof SampledSegmentBody)) {
+                return null;
+            }
+            varianceMap.put(
+                entry.getKey(),
+                ((SampledSegmentBody) entry.getValue()).getVarianceBody());
+        }
+        return rollup(
+            varianceMap,
+            keepColumns,
+            targetBitkey,
+            RolapAggregator.Sum,
+            Datatype.Numeric).right;
     }
 
     private static boolean allHeadersHaveSameDimensionality(
@@ -590,18 +591,23 @@ public class SegmentBuilder {
         return true;
     }
 
-    private static int[] computeAxisMultipliers(
-        List<Pair<SortedSet<Comparable>, Boolean>> axes)
+    /**
+     * Returns whether all headers were estimated from the same sample, or
+     * are all exact. Estimates must never be combined with exact values.
+     */
+    private static boolean allHeadersHaveSameSample(
+        Set<SegmentHeader> headers)
     {
-        final int[] axisMultipliers = new int[axes.size()];
-        int multiplier = 1;
-        for (int i = axes.size() - 1; i >= 0; --i) {
-            axisMultipliers[i] = multiplier;
-            // if the nullAxisFlag is set we need to offset by 1.
-            int nullAxisAdjustment = axes.get(i).right ? 1 : 0;
-            multiplier *= (axes.get(i).left.size() + nullAxisAdjustment);
-        }
-        return axisMultipliers;
+        final Iterator<SegmentHeader> headerIter = headers.iterator();
+        final String sampleTableName = headerIter.next().sampleTableName;
+        while (headerIter.hasNext()) {
+            if (!Util.equals(
+                    sampleTableName, headerIter.next().sampleTableName))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static class ExcludedRegionList
@@ -756,6 +762,7 @@ public class SegmentBuilder {
             SqlQuery query =
                 new SqlQuery(
                     segment.star.getSqlQueryDialect());
+            query.setGenerateParameterizedSql(false);
             compoundPredicate.toSql(query, buf);
             cp.add(buf.toString());
         }
@@ -769,7 +776,67 @@ public class SegmentBuilder {
             cp,
             segment.star.getFactTable().getAlias(),
             segment.constrainedColumnsBitKey,
-            Collections.<SegmentColumn>emptyList());
+            Collections.<SegmentColumn>emptyList(),
+            segment.sampleTableName);
+    }
+
+    /**
+     * Converts a segment body into one whose values are stored outside the
+     * Java heap, if possible.
+     *
+     * <p>Dense bodies of {@code double} and {@code int} values are copied
+     * into direct buffers; see {@link DirectSegmentBody}. A sampled body is
+     * converted along with its variances. Other bodies are returned
+     * unchanged.</p>
+     *
+     * @param body Segment body
+     * @return Equivalent body, off the heap if possible
+     */
+    public static SegmentBody toDirectBody(SegmentBody body) {
+        if (body instanceof DenseDoubleSegmentBody
+            || body instanceof DenseIntSegmentBody)
+        {
+            return DirectSegmentBody.of((AbstractSegmentBody) body);
+        }
+        if (body instanceof SampledSegmentBody) {
+            final SampledSegmentBody sampledBody = (SampledSegmentBody) body;
+            return new SampledSegmentBody(
+                toDirectBody(sampledBody.getBody()),
+                toDirectBody(sampledBody.getVarianceBody()));
+        }
+        return body;
+    }
+
+    /**
+     * Estimates the number of bytes of memory occupied by a segment body.
+     *
+     * <p>The estimate depends on the kind of body: a dense body of doubles
+     * costs 8 bytes per cell plus a null bit, a sparse body costs a cell key
+     * and a boxed value per non-null cell, and so forth. Bodies of unknown
+     * implementations are estimated from their value map. For a body stored
+     * off the heap, includes the bytes of its direct buffer.</p>
+     *
+     * @param body Segment body
+     * @return Estimated size in bytes
+     */
+    public static long estimateByteCount(SegmentBody body) {
+        if (body instanceof AbstractSegmentBody) {
+            return ((AbstractSegmentBody) body).getByteCount();
+        }
+        if (body instanceof SampledSegmentBody) {
+            final SampledSegmentBody sampledBody = (SampledSegmentBody) body;
+            return AbstractSegmentBody.OBJECT_OVERHEAD
+                + estimateByteCount(sampledBody.getBody())
+                + estimateByteCount(sampledBody.getVarianceBody());
+        }
+        long n = AbstractSegmentBody.OBJECT_OVERHEAD
+            + AbstractSegmentBody.estimateAxisByteCount(
+                body.getAxisValueSets());
+        for (Object value : body.getValueMap().values()) {
+            n += 2 * AbstractSegmentBody.OBJECT_OVERHEAD
+                + AbstractSegmentBody.estimateByteCount(value);
+        }
+        return n;
     }
 
     private static RolapStar.Column[] getConstrainedColumns(
@@ -31,6 +31,13 @@ import java.util.concurrent.*;
  * connections using a particular schema) and "external cache" (as implemented
  * by a {@link mondrian.spi.SegmentCache}.
  *
+ * <p>Commands, such as {@link #peek} and {@link FlushCommand}, run in the
+ * calling thread; the index of each schema is thread-safe, and lookups do not
+ * block each other. Events, such as the arrival of a segment loaded by SQL,
+ * are asynchronous. They are spread over several actors, each with its own
+ * thread and queue; all events about a given segment go to the same actor,
+ * so are handled in order.</p>
+ *
  * <p>Segment states</p>
  *
  * <table>
@@ -208,7 +215,16 @@ import java.util.concurrent.*;
  */
 public class SegmentCacheManager {
     private final Handler handler = new Handler();
-    private final Actor ACTOR;
+    private final Actor[] actors;
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    /**
+     * Thread of the first actor.
+     *
+     * @deprecated Events are spread over several actors, and commands run in
+     * the calling thread, so no single thread owns the cache manager. Will be
+     * removed in mondrian-4.
+     */
     public final Thread thread;
 
     /**
@@ -262,12 +278,50 @@ public class SegmentCacheManager {
                 }
             });
 
+    /**
+     * Executor with which to re-execute queries exactly after they were
+     * answered from samples.
+     *
+     * <p>A refresh blocks until the segments it needs have been loaded by
+     * {@link #sqlExecutor}, so it must not run on that executor: once every
+     * SQL thread was waiting for a refresh, no segment could be loaded.
+     */
+    public final ExecutorService refreshExecutor =
+        Util.getExecutorService(
+            MondrianProperties.instance()
+                .SegmentCacheManagerNumberRefreshThreads.get(),
+            MondrianProperties.instance()
+                .SegmentCacheManagerNumberRefreshThreads.get(),
+            1,
+            "mondrian.rolap.agg.SegmentCacheManager$refreshExecutor",
+            null);
+
+    /**
+     * Pool in which large segments are rolled up in parallel. Its threads
+     * are daemon threads.
+     */
+    public final ForkJoinPool rollupPool = new ForkJoinPool();
+
+    /**
+     * Executor with which to run the queries of sample builds in parallel;
+     * see {@link mondrian.sampling.SampleDatabase#submit}.
+     */
+    public final ExecutorService samplingExecutor =
+        Util.getExecutorService(
+            MondrianProperties.instance().SamplingBuildThreads.get(),
+            MondrianProperties.instance().SamplingBuildThreads.get(),
+            1,
+            "mondrian.rolap.agg.SegmentCacheManager$samplingExecutor",
+            null);
+
     // NOTE: This list is only mutable for testing purposes. Would rather it
     // were immutable.
     public final List<SegmentCacheWorker> segmentCacheWorkers =
         new CopyOnWriteArrayList<SegmentCacheWorker>();
 
     public final SegmentCache compositeCache;
+    private final MemorySegmentCache localCache;
+    private final DiskSegmentCache diskCache;
     private final SegmentCacheIndexRegistry indexRegistry;
 
     private static final Logger LOGGER =
@@ -276,11 +330,22 @@ public class SegmentCacheManager {
 
     public SegmentCacheManager(MondrianServer server) {
         this.server = server;
-        ACTOR = new Actor();
-        thread = new Thread(
-            ACTOR, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
-        thread.setDaemon(true);
-        thread.start();
+        actors =
+            new Actor[
+                Math.max(
+                    1,
+                    MondrianProperties.instance()
+                        .SegmentCacheManagerNumberEventThreads.get())];
+        for (int i = 0; i < actors.length; i++) {
+            actors[i] = new Actor();
+            final Thread actorThread = new Thread(
+                actors[i],
+                "mondrian.rolap.agg.SegmentCacheManager$ACTOR-" + i);
+            actorThread.setDaemon(true);
+            actorThread.start();
+            threads.add(actorThread);
+        }
+        thread = threads.get(0);
 
         // Create the index registry.
         this.indexRegistry = new SegmentCacheIndexRegistry();
@@ -289,9 +354,27 @@ public class SegmentCacheManager {
         if (!MondrianProperties.instance().DisableLocalSegmentCache.get()
             && !MondrianProperties.instance().DisableCaching.get())
         {
-            final MemorySegmentCache cache = new MemorySegmentCache();
+            localCache =
+                MondrianProperties.instance().LocalSegmentCacheOffHeap.get()
+                    ? new OffHeapSegmentCache()
+                    : new MemorySegmentCache();
             segmentCacheWorkers.add(
-                new SegmentCacheWorker(cache, thread));
+                new SegmentCacheWorker(localCache, threads));
+        } else {
+            localCache = null;
+        }
+
+        // Add a cache on disk, if configured. It comes after the local cache,
+        // so that segments in memory are found first.
+        if (!Util.isEmpty(
+                MondrianProperties.instance().DiskSegmentCacheDirectory.get())
+            && !MondrianProperties.instance().DisableCaching.get())
+        {
+            diskCache = new DiskSegmentCache();
+            segmentCacheWorkers.add(
+                new SegmentCacheWorker(diskCache, threads));
+        } else {
+            diskCache = null;
         }
 
         // Add an external cache, if configured.
@@ -299,7 +382,7 @@ public class SegmentCacheManager {
         for (SegmentCache cache : externalCache) {
             // Create a worker for this external cache
             segmentCacheWorkers.add(
-                new SegmentCacheWorker(cache, thread));
+                new SegmentCacheWorker(cache, threads));
             // Hook up a listener so it can update
             // the segment index.
             cache.addListener(
@@ -309,14 +392,78 @@ public class SegmentCacheManager {
         compositeCache = new CompositeSegmentCache(segmentCacheWorkers);
     }
 
+    /**
+     * Executes a command in the calling thread.
+     *
+     * <p>The indexes are thread-safe, so a command does not need to be
+     * handed to an actor; the caller does not wait for a queue, and commands
+     * from different queries run in parallel.</p>
+     *
+     * @param command Command
+     * @return Result of command
+     */
     public <T> T execute(Command<T> command) {
-        return ACTOR.execute(handler, command);
+        Locus.push(command.getLocus());
+        try {
+            return command.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Locus.pop(command.getLocus());
+        }
+    }
+
+    /**
+     * Sends an event to the actor that looks after a segment.
+     *
+     * <p>All events about a given segment go to the same actor, and are
+     * therefore handled in the order they were sent. Events about different
+     * segments are handled in parallel.</p>
+     *
+     * @param header Segment header
+     * @param event Event
+     */
+    private void event(SegmentHeader header, Event event) {
+        actors[(header.hashCode() & Integer.MAX_VALUE) % actors.length]
+            .event(handler, event);
     }
 
     public SegmentCacheIndexRegistry getIndexRegistry() {
         return indexRegistry;
     }
 
+    /**
+     * Returns the cache that holds segments in this JVM's memory, or null if
+     * local caching is disabled.
+     *
+     * @return Local segment cache, or null
+     */
+    public MemorySegmentCache getLocalCache() {
+        return localCache;
+    }
+
+    /**
+     * Places a segment that has just been loaded from SQL into all segment
+     * caches.
+     *
+     * <p>Unlike {@code compositeCache.put}, tells the caches how long the
+     * segment took to load, so that the local cache can prefer to keep
+     * segments that are expensive to load again.</p>
+     *
+     * @param header Segment header
+     * @param body Segment body
+     * @param loadNanos Time it took to load the segment, in nanoseconds
+     */
+    public void putLoadedSegment(
+        SegmentHeader header,
+        SegmentBody body,
+        long loadNanos)
+    {
+        ((CompositeSegmentCache) compositeCache).put(header, body, loadNanos);
+    }
+
     /**
      * Adds a segment to segment index.
      *
@@ -334,8 +481,8 @@ public class SegmentCacheManager {
         SegmentBody body)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
-            handler,
+        event(
+            header,
             new SegmentLoadSucceededEvent(
                 System.currentTimeMillis(),
                 locus.getServer().getMonitor(),
@@ -364,8 +511,8 @@ public class SegmentCacheManager {
         Throwable throwable)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
-            handler,
+        event(
+            header,
             new SegmentLoadFailedEvent(
                 System.currentTimeMillis(),
                 locus.getServer().getMonitor(),
@@ -393,8 +540,8 @@ public class SegmentCacheManager {
         SegmentHeader header)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
-            handler,
+        event(
+            header,
             new SegmentRemoveEvent(
                 System.currentTimeMillis(),
                 locus.getServer().getMonitor(),
@@ -419,8 +566,8 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
-            handler,
+        event(
+            header,
             new ExternalSegmentCreatedEvent(
                 System.currentTimeMillis(),
                 server.getMonitor(),
@@ -444,8 +591,8 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
-            handler,
+        event(
+            header,
             new ExternalSegmentDeletedEvent(
                 System.currentTimeMillis(),
                 server.getMonitor(),
@@ -462,18 +609,21 @@ public class SegmentCacheManager {
         PrintWriter pw,
         Locus locus)
     {
-        ACTOR.execute(
-            handler,
-            new PrintCacheStateCommand(region, pw, locus));
+        execute(new PrintCacheStateCommand(region, pw, locus));
     }
 
     /**
      * Shuts down this cache manager and all active threads and indexes.
      */
     public void shutdown() {
-        execute(new ShutdownCommand());
+        for (Actor actor : actors) {
+            actor.event(handler, SHUTDOWN_EVENT);
+        }
         cacheExecutor.shutdown();
         sqlExecutor.shutdown();
+        refreshExecutor.shutdown();
+        rollupPool.shutdown();
+        samplingExecutor.shutdown();
     }
 
     public SegmentBuilder.SegmentConverter getConverter(
@@ -494,8 +644,9 @@ public class SegmentCacheManager {
      * Makes a quick request to the aggregation manager to see whether the
      * cell value required by a particular cell request is in external cache.
      *
-     * <p>'Quick' is relative. It is an asynchronous request (due to
-     * the aggregation manager being an actor) and therefore somewhat slow. If
+     * <p>The index is read in the calling thread, without a round trip to
+     * an actor, so the request is quick unless a segment body has to be
+     * fetched from an external cache. If
      * the segment is in cache, will save batching up future requests and
      * re-executing the query. Win should be particularly noticeable for queries
      * running on a populated cache. Without this feature, every query would
@@ -696,17 +847,40 @@ public class SegmentCacheManager {
         private final CacheControlImpl cacheControlImpl;
         private final Locus locus;
         private final SegmentCacheManager cacheMgr;
+        private final String sampleTable;
 
         public FlushCommand(
             Locus locus,
             SegmentCacheManager mgr,
             CellRegion region,
             CacheControlImpl cacheControlImpl)
+        {
+            this(locus, mgr, region, cacheControlImpl, null);
+        }
+
+        /**
+         * Creates a FlushCommand that only flushes segments read from a given
+         * sample table.
+         *
+         * @param locus Locus
+         * @param mgr Cache manager
+         * @param region Region to flush
+         * @param cacheControlImpl Cache control
+         * @param sampleTable Name of sample table whose segments to flush, or
+         *   null to flush segments regardless of where they were read from
+         */
+        public FlushCommand(
+            Locus locus,
+            SegmentCacheManager mgr,
+            CellRegion region,
+            CacheControlImpl cacheControlImpl,
+            String sampleTable)
         {
             this.locus = locus;
             this.cacheMgr = mgr;
             this.region = region;
             this.cacheControlImpl = cacheControlImpl;
+            this.sampleTable = sampleTable;
         }
 
         public Locus getLocus() {
@@ -759,6 +933,19 @@ public class SegmentCacheManager {
                 }
             }
 
+            // When flushing a sample, leave exact segments and segments
+            // estimated from other samples alone.
+            if (sampleTable != null) {
+                for (Iterator<SegmentHeader> iterator = headers.iterator();
+                    iterator.hasNext();)
+                {
+                    final SegmentHeader header = iterator.next();
+                    if (!sampleTable.equalsIgnoreCase(header.sampleTableName)) {
+                        iterator.remove();
+                    }
+                }
+            }
+
             // If flushRegion is empty, this means we must clear all
             // segments for the region's measures.
             if (flushRegion.length == 0) {
@@ -909,26 +1096,13 @@ public class SegmentCacheManager {
     }
 
     /**
-     * Special exception, thrown only by {@link ShutdownCommand}, telling
-     * the actor to shut down.
+     * Event that tells an actor to shut down.
      */
-    private static class PleaseShutdownException extends RuntimeException {
-        private PleaseShutdownException() {
-        }
-    }
-
-    private static class ShutdownCommand implements Command<String> {
-        public ShutdownCommand() {
-        }
-
-        public String call() throws Exception {
-            throw new PleaseShutdownException();
-        }
-
-        public Locus getLocus() {
-            return null;
-        }
-    }
+    private static final Event SHUTDOWN_EVENT =
+        new Event() {
+            public void acceptWithoutResponse(Visitor visitor) {
+            }
+        };
 
     private static abstract class Event implements Message {
         /**
@@ -941,59 +1115,31 @@ public class SegmentCacheManager {
     }
 
     /**
-     * Copy-pasted from {@link mondrian.server.monitor.Monitor}. Consider
-     * abstracting common code.
+     * Actor that handles events. Each actor has its own thread and queue;
+     * the cache manager spreads events over several actors.
+     *
+     * <p>Copy-pasted from {@link mondrian.server.monitor.Monitor}. Consider
+     * abstracting common code.</p>
      */
     private static class Actor implements Runnable {
 
-        private final BlockingQueue<Pair<Handler, Message>> eventQueue =
-            new ArrayBlockingQueue<Pair<Handler, Message>>(1000);
-
-        private final BlockingHashMap<Command<?>, Pair<Object, Throwable>>
-            responseMap =
-            new BlockingHashMap<Command<?>, Pair<Object, Throwable>>(1000);
+        private final BlockingQueue<Pair<Handler, Event>> eventQueue =
+            new ArrayBlockingQueue<Pair<Handler, Event>>(1000);
 
         public void run() {
             try {
                 for (;;) {
-                    final Pair<Handler, Message> entry = eventQueue.take();
+                    final Pair<Handler, Event> entry = eventQueue.take();
                     final Handler handler = entry.left;
-                    final Message message = entry.right;
+                    final Event event = entry.right;
+                    if (event == SHUTDOWN_EVENT) {
+                        return; // exit event loop
+                    }
                     try {
-                        // A message is either a command or an event.
-                        // A command returns a value that must be read by
-                        // the caller.
-                        if (message instanceof Command<?>) {
-                            Command<?> command = (Command<?>) message;
-                            try {
-                                Locus.push(command.getLocus());
-                                Object result = command.call();
-                                responseMap.put(
-                                    command,
-                                    Pair.of(result, (Throwable) null));
-                            } catch (AbortException e) {
-                                responseMap.put(
-                                    command,
-                                    Pair.of(null, (Throwable) e));
-                            } catch (PleaseShutdownException e) {
-                                responseMap.put(
-                                    command,
-                                    Pair.of(null, (Throwable) null));
-                                return; // exit event loop
-                            } catch (Throwable e) {
-                                responseMap.put(
-                                    command,
-                                    Pair.of(null, e));
-                            } finally {
-                                Locus.pop(command.getLocus());
-                            }
-                        } else {
-                            Event event = (Event) message;
-                            event.acceptWithoutResponse(handler);
+                        event.acceptWithoutResponse(handler);
 
-                            // Broadcast the event to anyone who is interested.
-                            RolapUtil.MONITOR_LOGGER.debug(message);
-                        }
+                        // Broadcast the event to anyone who is interested.
+                        RolapUtil.MONITOR_LOGGER.debug(event);
                     } catch (Throwable e) {
                         // REVIEW: Somewhere better to send it?
                         e.printStackTrace();
@@ -1007,34 +1153,9 @@ public class SegmentCacheManager {
             }
         }
 
-        <T> T execute(Handler handler, Command<T> command) {
-            try {
-                eventQueue.put(Pair.<Handler, Message>of(handler, command));
-            } catch (InterruptedException e) {
-                throw Util.newError(e, "Exception while executing " + command);
-            }
-            try {
-                final Pair<Object, Throwable> pair =
-                    responseMap.get(command);
-                if (pair.right != null) {
-                    if (pair.right instanceof RuntimeException) {
-                        throw (RuntimeException) pair.right;
-                    } else if (pair.right instanceof Error) {
-                        throw (Error) pair.right;
-                    } else {
-                        throw new RuntimeException(pair.right);
-                    }
-                } else {
-                    return (T) pair.left;
-                }
-            } catch (InterruptedException e) {
-                throw Util.newError(e, "Exception while executing " + command);
-            }
-        }
-
         public void event(Handler handler, Event event) {
             try {
-                eventQueue.put(Pair.<Handler, Message>of(handler, event));
+                eventQueue.put(Pair.of(handler, event));
             } catch (InterruptedException e) {
                 throw Util.newError(e, "Exception while executing " + event);
             }
@@ -1357,11 +1478,19 @@ public class SegmentCacheManager {
         }
 
         public boolean put(SegmentHeader header, SegmentBody body) {
+            return put(header, body, 0);
+        }
+
+        public boolean put(
+            SegmentHeader header,
+            SegmentBody body,
+            long loadNanos)
+        {
             if (MondrianProperties.instance().DisableCaching.get()) {
                 return true;
             }
             for (SegmentCacheWorker worker : workers) {
-                worker.put(header, body);
+                worker.put(header, body, loadNanos);
             }
             return true;
         }
@@ -1470,8 +1599,7 @@ public class SegmentCacheManager {
                         && star.getChangeListener().isAggregationChanged(key))
                     {
                         // We can't satisfy this request, and we must clear the
-                        // data from our cache. This must be in sync with the
-                        // actor thread to maintain consistency.
+                        // data from our cache.
                         indexRegistry.getIndex(star).remove(header);
                         Util.safeGet(
                             cacheExecutor.submit(
@@ -1526,9 +1654,8 @@ public class SegmentCacheManager {
      * The index is based off the checksum of the schema.
      */
     public class SegmentCacheIndexRegistry {
-        private final Map<ByteString, SegmentCacheIndex> indexes =
-            Collections.synchronizedMap(
-                new HashMap<ByteString, SegmentCacheIndex>());
+        private final ConcurrentMap<ByteString, SegmentCacheIndex> indexes =
+            new ConcurrentHashMap<ByteString, SegmentCacheIndex>();
 
         /**
          * Returns the {@link SegmentCacheIndex} for a given
@@ -1541,12 +1668,18 @@ public class SegmentCacheManager {
 
             if (!indexes.containsKey(star.getSchema().getChecksum())) {
                 final SegmentCacheIndexImpl index =
-                    new SegmentCacheIndexImpl(thread);
-                LOGGER.trace(
-                    "SegmentCacheManager.SegmentCacheIndexRegistry.getIndex:"
-                    + "Creating New Index "
-                    + System.identityHashCode(index));
-                indexes.put(star.getSchema().getChecksum(), index);
+                    new SegmentCacheIndexImpl();
+                // Another thread may be creating the same index. Only the
+                // thread that wins the race recovers segments.
+                if (indexes.putIfAbsent(star.getSchema().getChecksum(), index)
+                    == null)
+                {
+                    LOGGER.trace(
+                        "SegmentCacheManager.SegmentCacheIndexRegistry"
+                        + ".getIndex:Creating New Index "
+                        + System.identityHashCode(index));
+                    recoverPersistedSegments(star.getSchema());
+                }
             }
             final SegmentCacheIndex index =
                 indexes.get(star.getSchema().getChecksum());
@@ -1588,6 +1721,41 @@ public class SegmentCacheManager {
         }
     }
 
+    /**
+     * Adds the segments that the cache on disk holds for a schema to the
+     * schema's index. Called when the index is created; that is, the first
+     * time that the schema is used.
+     *
+     * <p>The headers are read in a cache thread, and each segment is
+     * registered as if it had just been created in an external cache. Only
+     * segments with the schema's checksum are recovered.</p>
+     *
+     * @param schema Schema
+     */
+    private void recoverPersistedSegments(final RolapSchema schema) {
+        if (diskCache == null) {
+            return;
+        }
+        cacheExecutor.submit(
+            new Runnable() {
+                public void run() {
+                    try {
+                        for (SegmentHeader header
+                            : diskCache.recoverSegmentHeaders(
+                                schema.getName(), schema.getChecksum()))
+                        {
+                            externalSegmentCreated(header, server);
+                        }
+                    } catch (Throwable e) {
+                        LOGGER.warn(
+                            "Failed to recover segments of schema "
+                            + schema.getName(),
+                            e);
+                    }
+                }
+            });
+    }
+
     static RolapStar getStar(SegmentHeader header) {
         for (RolapSchema schema : RolapSchema.getRolapSchemas()) {
             if (!schema.getChecksum().equals(header.schemaChecksum)) {
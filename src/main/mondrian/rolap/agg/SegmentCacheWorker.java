@@ -11,6 +11,7 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.cache.MemorySegmentCache;
 import mondrian.spi.*;
 import mondrian.util.ClassResolver;
 import mondrian.util.ServiceDiscovery;
@@ -31,21 +32,25 @@ public final class SegmentCacheWorker {
         Logger.getLogger(SegmentCacheWorker.class);
 
     final SegmentCache cache;
-    private final Thread cacheMgrThread;
+    private final List<Thread> cacheMgrThreads;
     private final boolean supportsRichIndex;
 
     /**
      * Creates a worker.
      *
      * @param cache Cache managed by this worker
-     * @param cacheMgrThread Thread that the cache manager actor is running on,
-     *                       and which therefore should not be used for
-     *                       potentially long-running calls this this cache.
-     *                       Pass null if methods can be called from any thread.
+     * @param cacheMgrThreads Threads that the cache manager actors are
+     *                       running on, and which therefore should not be used
+     *                       for potentially long-running calls this this
+     *                       cache. Pass null if methods can be called from any
+     *                       thread.
      */
-    public SegmentCacheWorker(SegmentCache cache, Thread cacheMgrThread) {
+    public SegmentCacheWorker(
+        SegmentCache cache,
+        List<Thread> cacheMgrThreads)
+    {
         this.cache = cache;
-        this.cacheMgrThread = cacheMgrThread;
+        this.cacheMgrThreads = cacheMgrThreads;
 
         // no need to call checkThread(): supportsRichIndex is a fast call
         this.supportsRichIndex = cache.supportsRichIndex();
@@ -55,6 +60,25 @@ public final class SegmentCacheWorker {
             + cache.getClass().getName());
     }
 
+    /**
+     * Creates a worker.
+     *
+     * @param cache Cache managed by this worker
+     * @param cacheMgrThread Thread that the cache manager actor is running on,
+     *                       or null if methods can be called from any thread
+     *
+     * @deprecated The cache manager has several actor threads; use
+     * {@link #SegmentCacheWorker(SegmentCache, List)}. Will be removed in
+     * mondrian-4.
+     */
+    public SegmentCacheWorker(SegmentCache cache, Thread cacheMgrThread) {
+        this(
+            cache,
+            cacheMgrThread == null
+                ? null
+                : Collections.singletonList(cacheMgrThread));
+    }
+
     /**
      * Instantiates a cache. Returns null if there is no external cache defined.
      *
@@ -150,9 +174,25 @@ public final class SegmentCacheWorker {
      * @param body The segment body to cache.
      */
     public void put(SegmentHeader header, SegmentBody body) {
+        put(header, body, 0);
+    }
+
+    /**
+     * Places a segment in the cache, telling the cache how long the segment
+     * took to load, if the cache is interested.
+     *
+     * @param header A header to search for in the segment cache.
+     * @param body The segment body to cache.
+     * @param loadNanos Time it took to load the segment, in nanoseconds, or
+     *   0 if not known
+     */
+    public void put(SegmentHeader header, SegmentBody body, long loadNanos) {
         checkThread();
         try {
-            final boolean result = cache.put(header, body);
+            final boolean result =
+                cache instanceof MemorySegmentCache
+                    ? ((MemorySegmentCache) cache).put(header, body, loadNanos)
+                    : cache.put(header, body);
             if (!result) {
                 LOGGER.error(
                     MondrianResource.instance()
@@ -219,9 +259,10 @@ public final class SegmentCacheWorker {
     }
 
     private void checkThread() {
-        assert cacheMgrThread != Thread.currentThread()
+        assert cacheMgrThreads == null
+            || !cacheMgrThreads.contains(Thread.currentThread())
             : "this method is potentially slow; you should not call it from "
-            + "the cache manager thread, " + cacheMgrThread;
+            + "a cache manager thread, " + Thread.currentThread();
     }
 }
 
@@ -188,9 +188,10 @@ public class SegmentLoader {
         final Map<Segment, SegmentWithData> segmentMap =
             new HashMap<Segment, SegmentWithData>();
         Throwable throwable = null;
+        final long startNanos = System.nanoTime();
         try {
             int arity = defaultColumns.length;
-            SortedSet<Comparable>[] axisValueSets =
+            DistinctValueSet[] axisValueSets =
                 getDistinctValueWorkspace(arity);
 
             stmt = createExecuteSql(
@@ -219,20 +220,29 @@ public class SegmentLoader {
                     groupingSetsList,
                     rows);
 
+            // If the query read a sample, variance columns come last, or
+            // just before the weight of sketch rows; see processData.
+            final boolean sampled =
+                rows.getTypes().size()
+                - (hasSketchWeight(groupingSetsList) ? 1 : 0)
+                > getVarianceColumnStart(groupingSetsList, 1);
+
             final Map<BitKey, GroupingSetsList.Cohort> groupingDataSetsMap =
                 createDataSetsForGroupingSets(
                     groupingSetsList,
                     sparse,
+                    sampled,
                     rows.getTypes().subList(
                         arity, rows.getTypes().size()));
 
             loadDataToDataSets(
-                groupingSetsList, rows, groupingDataSetsMap);
+                groupingSetsList, axisValueSets, rows, groupingDataSetsMap);
 
             setDataToSegments(
                 groupingSetsList,
                 groupingDataSetsMap,
-                segmentMap);
+                segmentMap,
+                System.nanoTime() - startNanos);
 
             return segmentMap;
         } catch (Throwable e) {
@@ -256,11 +266,14 @@ public class SegmentLoader {
      *
      * @param header Segment header
      * @param body Segment body
+     * @param loadNanos Time taken to execute the SQL statement and read its
+     *   results, in nanoseconds
      */
     private void cacheSegment(
         RolapStar star,
         SegmentHeader header,
-        SegmentBody body)
+        SegmentBody body,
+        long loadNanos)
     {
         // Write the segment into external cache.
         //
@@ -272,7 +285,7 @@ public class SegmentLoader {
         // called cacheMgr.loadSucceeded. That call will allow the current
         // query to proceed.
         if (!MondrianProperties.instance().DisableCaching.get()) {
-            cacheMgr.compositeCache.put(header, body);
+            cacheMgr.putLoadedSegment(header, body, loadNanos);
             cacheMgr.loadSucceeded(star, header, body);
         }
     }
@@ -307,9 +320,13 @@ public class SegmentLoader {
      * dataset is fetched from groupingDataSetMap using grouping bit keys of
      * the row data. If grouping sets is not used, data is loaded on to
      * nonGroupingDataSets.
+     *
+     * <p>Axis columns of the rows hold ordinals of values in
+     * {@code axisValueSets}; see {@link #processData}.</p>
      */
     private void loadDataToDataSets(
         GroupingSetsList groupingSetsList,
+        DistinctValueSet[] axisValueSets,
         RowList rows,
         Map<BitKey, GroupingSetsList.Cohort> groupingDataSetMap)
     {
@@ -317,8 +334,9 @@ public class SegmentLoader {
         SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
         int segmentLength = groupingSetsList.getDefaultSegments().size();
 
-        final List<SqlStatement.Type> types = rows.getTypes();
         final boolean useGroupingSet = groupingSetsList.useGroupingSets();
+        final int varianceColumnStart =
+            getVarianceColumnStart(groupingSetsList, 1);
         for (rows.first(); rows.next();) {
             final BitKey groupingBitKey;
             final GroupingSetsList.Cohort cohort;
@@ -333,34 +351,17 @@ public class SegmentLoader {
             }
             final int[] pos = cohort.pos;
             for (int j = 0, k = 0; j < arity; j++) {
-                final SqlStatement.Type type = types.get(j);
-                switch (type) {
-                // TODO: different treatment for INT, LONG, DOUBLE
-                case OBJECT:
-                case STRING:
-                case INT:
-                case LONG:
-                case DOUBLE:
-                    Object o = rows.getObject(j);
+                if (rows.isNull(j)) {
                     if (useGroupingSet
-                        && (o == null || o == RolapUtil.sqlNullValue)
                         && groupingBitKey.get(
                             groupingSetsList.findGroupingFunctionIndex(j)))
                     {
                         continue;
                     }
-                    SegmentAxis axis = axes[j];
-                    if (o == null) {
-                        o = RolapUtil.sqlNullValue;
-                    }
-                    // Note: We believe that all value types are Comparable.
-                    // In JDK 1.4, Boolean did not implement Comparable, but
-                    // that's too minor/long ago to worry about.
-                    int offset = axis.getOffset((Comparable) o);
-                    pos[k++] = offset;
-                    break;
-                default:
-                    throw Util.unexpected(type);
+                    pos[k++] = axes[j].getOffset(RolapUtil.sqlNullValue);
+                } else {
+                    pos[k++] =
+                        axisValueSets[j].offsetOfOrdinal(rows.getInt(j));
                 }
             }
 
@@ -368,11 +369,19 @@ public class SegmentLoader {
                 cohort.segmentDatasetList.get(j).populateFrom(
                     pos, rows, arity + j);
             }
+
+            for (int j = 0, k = varianceColumnStart; j < segmentLength; j++) {
+                final SegmentDataset varianceDataset =
+                    cohort.varianceDatasetList.get(j);
+                if (varianceDataset != null) {
+                    varianceDataset.populateFrom(pos, rows, k++);
+                }
+            }
         }
     }
 
     private boolean setAxisDataAndDecideSparseUse(
-        SortedSet<Comparable>[] axisValueSets,
+        DistinctValueSet[] axisValueSets,
         boolean[] axisContainsNull,
         GroupingSetsList groupingSetsList,
         RowList rows)
@@ -384,7 +393,7 @@ public class SegmentLoader {
         boolean sparse = false;
         int n = 1;
         for (int i = 0; i < axes.length; i++) {
-            SortedSet<Comparable> valueSet = axisValueSets[i];
+            SortedSet<Comparable> valueSet = axisValueSets[i].toSortedSet();
             axes[i] =
                 new SegmentAxis(
                     groupingSetsList.getDefaultPredicates()[i],
@@ -415,7 +424,8 @@ public class SegmentLoader {
     private void setDataToSegments(
         GroupingSetsList groupingSetsList,
         Map<BitKey, GroupingSetsList.Cohort> datasetsMap,
-        Map<Segment, SegmentWithData> segmentSlotMap)
+        Map<Segment, SegmentWithData> segmentSlotMap,
+        long loadNanos)
     {
         List<GroupingSet> groupingSets = groupingSetsList.getGroupingSets();
         for (int i = 0; i < groupingSets.size(); i++) {
@@ -427,35 +437,43 @@ public class SegmentLoader {
                 Segment segment = segments.get(j);
                 final SegmentDataset segmentDataset =
                     cohort.segmentDatasetList.get(j);
+                final SegmentDataset varianceDataset =
+                    cohort.varianceDatasetList.get(j);
                 final SegmentWithData segmentWithData =
                     new SegmentWithData(
                         segment,
                         segmentDataset,
+                        varianceDataset,
                         cohort.axes);
 
                 segmentSlotMap.put(segment, segmentWithData);
 
                 final SegmentHeader header = segmentWithData.getHeader();
-                final SegmentBody body =
-                    segmentWithData.getData().createSegmentBody(
-                        new AbstractList<
-                                Pair<SortedSet<Comparable>, Boolean>>()
+                final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+                    new AbstractList<Pair<SortedSet<Comparable>, Boolean>>() {
+                        public Pair<SortedSet<Comparable>, Boolean> get(
+                            int index)
                         {
-                            public Pair<SortedSet<Comparable>, Boolean> get(
-                                int index)
-                            {
-                                return segmentWithData.axes[index]
-                                    .getValuesAndIndicator();
-                            }
+                            return segmentWithData.axes[index]
+                                .getValuesAndIndicator();
+                        }
 
-                            public int size() {
-                                return segmentWithData.axes.length;
-                            }
-                        });
+                        public int size() {
+                            return segmentWithData.axes.length;
+                        }
+                    };
+                SegmentBody body =
+                    segmentWithData.getData().createSegmentBody(axisList);
+                if (varianceDataset != null) {
+                    body =
+                        new SampledSegmentBody(
+                            body,
+                            varianceDataset.createSegmentBody(axisList));
+                }
 
                 // Send a message to the agg manager. It will place the segment
                 // in the index.
-                cacheSegment(segment.star, header, body);
+                cacheSegment(segment.star, header, body, loadNanos);
             }
         }
     }
@@ -463,11 +481,13 @@ public class SegmentLoader {
     private Map<BitKey, GroupingSetsList.Cohort> createDataSetsForGroupingSets(
         GroupingSetsList groupingSetsList,
         boolean sparse,
+        boolean sampled,
         List<SqlStatement.Type> types)
     {
         if (!groupingSetsList.useGroupingSets()) {
             final GroupingSetsList.Cohort datasets = createDataSets(
                 sparse,
+                sampled,
                 groupingSetsList.getDefaultSegments(),
                 groupingSetsList.getDefaultAxes(),
                 types);
@@ -483,6 +503,7 @@ public class SegmentLoader {
             GroupingSetsList.Cohort cohort =
                 createDataSets(
                     sparse,
+                    sampled,
                     groupingSet.getSegments(),
                     groupingSet.getAxes(),
                     types);
@@ -501,12 +522,15 @@ public class SegmentLoader {
 
     private GroupingSetsList.Cohort createDataSets(
         boolean sparse,
+        boolean sampled,
         List<Segment> segments,
         SegmentAxis[] axes,
         List<SqlStatement.Type> types)
     {
         final List<SegmentDataset> datasets =
             new ArrayList<SegmentDataset>(segments.size());
+        final List<SegmentDataset> varianceDatasets =
+            new ArrayList<SegmentDataset>(segments.size());
         final int n;
         if (sparse) {
             n = 0;
@@ -515,9 +539,94 @@ public class SegmentLoader {
         }
         for (int i = 0; i < segments.size(); i++) {
             final Segment segment = segments.get(i);
-            datasets.add(segment.createDataset(axes, sparse, types.get(i), n));
+            final RolapAggregator aggregator = segment.measure.getAggregator();
+            datasets.add(
+                aggregator.isSketch()
+                    ? new SketchSegmentDataset(
+                        (RolapAggregator.SketchAggor) aggregator)
+                    : segment.createDataset(axes, sparse, types.get(i), n));
+            varianceDatasets.add(
+                sampled && hasVariance(segment)
+                    ? segment.createDataset(
+                        axes, sparse, SqlStatement.Type.DOUBLE, n)
+                    : null);
+        }
+        return new GroupingSetsList.Cohort(datasets, varianceDatasets, axes);
+    }
+
+    /**
+     * Returns whether a query that reads a sample returns the estimated
+     * variance of a segment's values.
+     *
+     * @see AbstractQuerySpec#addSampleVariances
+     */
+    private static boolean hasVariance(Segment segment) {
+        return segment.measure.getAggregator().supportsErrorEstimate();
+    }
+
+    /**
+     * Returns the ordinal of the first variance column. Variance columns
+     * follow the constraining columns, the measures, and the columns that
+     * hold the grouping set of each row.
+     *
+     * @param groupingSetsList Grouping sets
+     * @param groupingColumnCount Number of columns that hold the grouping set
+     *     of a row, if grouping sets are used
+     * @return Ordinal of first variance column
+     */
+    private static int getVarianceColumnStart(
+        GroupingSetsList groupingSetsList,
+        int groupingColumnCount)
+    {
+        return groupingSetsList.getDefaultColumns().length
+            + groupingSetsList.getDefaultSegments().size()
+            + (groupingSetsList.useGroupingSets() ? groupingColumnCount : 0);
+    }
+
+    /**
+     * Returns whether the last column of a query holds the number of rows in
+     * each group, because it loads sketch measures.
+     *
+     * @see AbstractQuerySpec#addSketchWeight
+     * @see SketchSegmentDataset
+     */
+    private static boolean hasSketchWeight(GroupingSetsList groupingSetsList) {
+        for (Segment segment : groupingSetsList.getDefaultSegments()) {
+            if (segment.measure.getAggregator().isSketch()) {
+                return true;
+            }
         }
-        return new GroupingSetsList.Cohort(datasets, axes);
+        return false;
+    }
+
+    /**
+     * Checks that the number of variance columns returned by a query matches
+     * the measures that support error estimates. There are either none (the
+     * query read the full table) or one for each such measure.
+     *
+     * @param groupingSetsList Grouping sets
+     * @param varianceCount Number of columns after the measures and grouping
+     *     columns
+     * @return Number of variance columns
+     */
+    private static int checkVarianceCount(
+        GroupingSetsList groupingSetsList,
+        int varianceCount)
+    {
+        if (varianceCount == 0) {
+            return 0;
+        }
+        int n = 0;
+        for (Segment segment : groupingSetsList.getDefaultSegments()) {
+            if (hasVariance(segment)) {
+                ++n;
+            }
+        }
+        if (n != varianceCount) {
+            throw Util.newInternal(
+                "Expected " + n + " variance columns, got " + varianceCount);
+        }
+        return n;
     }
 
     private void setAxisDataToGroupableList(
@@ -648,10 +757,21 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Reads the rows of a segment query, collecting the distinct values of
+     * each axis column.
+     *
+     * <p>Axis values are not kept for each row. The column of an axis in the
+     * returned list holds, for each row, the ordinal of the row's value in
+     * that axis's {@link DistinctValueSet} (or null); so the list holds four
+     * bytes per axis per row, plus the measures, rather than a copy of every
+     * value read. {@link #loadDataToDataSets} converts ordinals to offsets
+     * once the axes are sorted.</p>
+     */
     RowList processData(
         SqlStatement stmt,
         final boolean[] axisContainsNull,
-        final SortedSet<Comparable>[] axisValueSets,
+        final DistinctValueSet[] axisValueSets,
         final GroupingSetsList groupingSetsList) throws SQLException
     {
         List<Segment> segments = groupingSetsList.getDefaultSegments();
@@ -662,17 +782,40 @@ public class SegmentLoader {
         int arity = axisValueSets.length;
         final int groupingColumnStartIndex = arity + measureCount;
 
-        // If we're using grouping sets, the SQL query will have a number of
-        // indicator columns, and we roll these into a single BitSet column in
-        // the processed data set.
-        final List<SqlStatement.Type> processedTypes;
+        // If the query reads a sample, the estimated variances of the
+        // measures follow all other columns.
+        final int varianceColumnStartIndex =
+            getVarianceColumnStart(
+                groupingSetsList,
+                groupingSetsList.getRollupColumns().size());
+        // A query that loads sketch measures returns the number of rows in
+        // each group in its last column.
+        final boolean weighted = hasSketchWeight(groupingSetsList);
+        final int weightColumnIndex = weighted ? types.size() - 1 : -1;
+        final int varianceCount =
+            checkVarianceCount(
+                groupingSetsList,
+                types.size() - varianceColumnStartIndex - (weighted ? 1 : 0));
+        final int processedVarianceColumnStartIndex =
+            getVarianceColumnStart(groupingSetsList, 1);
+
+        // Axis columns hold the ordinals of values. If we're using grouping
+        // sets, the SQL query will have a number of indicator columns, and we
+        // roll these into a single BitSet column in the processed data set.
+        final List<SqlStatement.Type> processedTypes =
+            new ArrayList<SqlStatement.Type>();
+        for (int i = 0; i < arity; i++) {
+            processedTypes.add(SqlStatement.Type.INT);
+        }
+        processedTypes.addAll(types.subList(arity, groupingColumnStartIndex));
         if (groupingSetsList.useGroupingSets()) {
-            processedTypes =
-                new ArrayList<SqlStatement.Type>(
-                    types.subList(0, groupingColumnStartIndex));
             processedTypes.add(SqlStatement.Type.OBJECT);
-        } else {
-            processedTypes = types;
+        }
+        for (int i = 0; i < varianceCount; i++) {
+            processedTypes.add(SqlStatement.Type.DOUBLE);
+        }
+        if (weighted) {
+            processedTypes.add(SqlStatement.Type.LONG);
         }
         final RowList processedRows = new RowList(processedTypes, 100);
 
@@ -696,7 +839,6 @@ public class SegmentLoader {
                 case STRING:
                     Object o = rawRows.getObject(columnIndex + 1);
                     if (o == null) {
-                        o = RolapUtil.sqlNullValue;
                         if (!groupingSetsList.useGroupingSets()
                             || !isAggregateNull(
                                 rawRows, groupingColumnStartIndex,
@@ -705,13 +847,15 @@ public class SegmentLoader {
                         {
                             axisContainsNull[axisIndex] = true;
                         }
+                        processedRows.setNull(columnIndex, true);
                     } else {
                         // We assume that all values are Comparable. Boolean
                         // wasn't Comparable until JDK 1.5, but we can live with
                         // that bug because JDK 1.4 is no longer important.
-                        axisValueSets[axisIndex].add((Comparable) o);
+                        processedRows.setInt(
+                            columnIndex,
+                            axisValueSets[axisIndex].put((Comparable) o));
                     }
-                    processedRows.setObject(columnIndex, o);
                     break;
                 case INT:
                     final int intValue = rawRows.getInt(columnIndex + 1);
@@ -726,8 +870,9 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(intValue);
-                        processedRows.setInt(columnIndex, intValue);
+                        processedRows.setInt(
+                            columnIndex,
+                            axisValueSets[axisIndex].put(intValue));
                     }
                     break;
                 case LONG:
@@ -744,8 +889,9 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(longValue);
-                        processedRows.setLong(columnIndex, longValue);
+                        processedRows.setInt(
+                            columnIndex,
+                            axisValueSets[axisIndex].put(longValue));
                     }
                     break;
                 case DOUBLE:
@@ -762,8 +908,9 @@ public class SegmentLoader {
                         }
                         processedRows.setNull(columnIndex, true);
                     } else {
-                        axisValueSets[axisIndex].add(doubleValue);
-                        processedRows.setDouble(columnIndex, doubleValue);
+                        processedRows.setInt(
+                            columnIndex,
+                            axisValueSets[axisIndex].put(doubleValue));
                     }
                     break;
                 default:
@@ -775,7 +922,9 @@ public class SegmentLoader {
             final boolean[] numeric = new boolean[measureCount];
             int k = 0;
             for (Segment segment : segments) {
-                numeric[k++] = segment.measure.getDatatype().isNumeric();
+                // Sketch measures read raw values or serialized sketches.
+                numeric[k++] = segment.measure.getDatatype().isNumeric()
+                    && !segment.measure.getAggregator().isSketch();
             }
 
             // get the measure
@@ -837,6 +986,25 @@ public class SegmentLoader {
                         groupingSetsList.getRollupColumns().size(),
                         rawRows, columnIndex));
             }
+
+            // get the estimated variances
+            for (int i = 0; i < varianceCount; i++) {
+                final double variance =
+                    rawRows.getDouble(varianceColumnStartIndex + i + 1);
+                processedRows.setDouble(
+                    processedVarianceColumnStartIndex + i, variance);
+                if (variance == 0 && rawRows.wasNull()) {
+                    processedRows.setNull(
+                        processedVarianceColumnStartIndex + i, true);
+                }
+            }
+
+            // get the number of rows in the group
+            if (weighted) {
+                processedRows.setLong(
+                    processedTypes.size() - 1,
+                    rawRows.getLong(weightColumnIndex + 1));
+            }
         }
         return processedRows;
     }
@@ -891,16 +1059,18 @@ public class SegmentLoader {
         int measureCount = groupingSetsList.getDefaultSegments().size();
         int groupingFunctionsCount = groupingSetsList.getRollupColumns().size();
         List<SqlStatement.Type> types = stmt.guessTypes();
-        assert arity + measureCount + groupingFunctionsCount == types.size();
+        assert arity + measureCount + groupingFunctionsCount <= types.size();
 
         return stmt.getResultSet();
     }
 
-    SortedSet<Comparable>[] getDistinctValueWorkspace(int arity) {
+    DistinctValueSet[] getDistinctValueWorkspace(int arity) {
         // Workspace to build up lists of distinct values for each axis.
-        SortedSet<Comparable>[] axisValueSets = new SortedSet[arity];
+        // Primitive values are collected without boxing, and sorted once
+        // when the axes are built.
+        DistinctValueSet[] axisValueSets = new DistinctValueSet[arity];
         for (int i = 0; i < axisValueSets.length; i++) {
-            axisValueSets[i] = new TreeSet<Comparable>();
+            axisValueSets[i] = new DistinctValueSet();
         }
         return axisValueSets;
     }
@@ -0,0 +1,865 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Aggregator;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.server.Execution;
+import mondrian.spi.Dialect.Datatype;
+import mondrian.spi.SegmentBody;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Aggregates the cells of a collection of segment bodies into the cells of a
+ * segment that has fewer columns. Used by
+ * {@link SegmentBuilder#rollup}.
+ *
+ * <p>Source axis ordinals are mapped to target axis ordinals through int
+ * arrays computed once per source segment, so a source cell is placed by a
+ * few array lookups rather than by looking up its values. Dense bodies are
+ * read from their arrays, without creating a {@link CellKey} or boxing a
+ * value per cell. The aggregators {@code sum}, {@code min} and {@code max}
+ * (and {@code count}, whose rollup is {@code sum}) accumulate numeric values
+ * in primitive arrays; other aggregators collect values into a list for each
+ * target cell, and are called once per target cell.</p>
+ *
+ * <p>If the source segments overlap, a cell present in more than one of them
+ * is counted only the first time it is seen. If they do not overlap, which
+ * is the usual case (say rolling up the segments of individual days to
+ * months), and together have at least
+ * {@link MondrianProperties#RollupParallelThreshold} cells, the cells are
+ * split into chunks, which are aggregated in parallel in a fork-join pool
+ * and then merged. The pool belongs to the
+ * {@link SegmentCacheManager} of the server, and is shut down with it.</p>
+ *
+ * <p>Before aggregating each chunk, the rollup checks whether the statement
+ * that requested it has been canceled or has timed out.</p>
+ */
+class SegmentRollup {
+    /**
+     * Number of cells of a dense body in one unit of parallel work.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final List<SegmentBody> bodies;
+    private final int[] targetSrc;
+    private final Op op;
+    private final Aggregator aggregator;
+    private final Datatype datatype;
+    private final ForkJoinPool pool;
+    private final Execution execution;
+
+    /**
+     * For each source body, for each target axis, the contribution of each
+     * source ordinal to the target offset; -1 if the source value does not
+     * occur in the target axis.
+     */
+    private final long[][][] contributions;
+
+    /**
+     * Whether a cell may be present in more than one source body, and
+     * therefore cells must be checked for duplicates.
+     */
+    private final boolean overlap;
+
+    /**
+     * For each source body, for each source column, the ordinal of each
+     * source value in the union of the columns' values, multiplied by the
+     * column's multiplier; or null if the bodies do not overlap, or if there
+     * are too many combinations of values to number with a {@code long}.
+     */
+    private final long[][][] coordinates;
+
+    /**
+     * Creates a SegmentRollup.
+     *
+     * @param bodies Source segment bodies; all have the same columns
+     * @param targetSrc For each target axis, the ordinal of its column among
+     *   the source columns
+     * @param targetValues For each target axis, its sorted values
+     * @param targetHasNull For each target axis, whether it has a null value
+     * @param aggregator Rollup aggregator
+     * @param datatype Datatype of the measure
+     * @param pool Pool in which to aggregate in parallel, or null to
+     *   aggregate in the calling thread
+     * @param execution Execution to check for cancellation and timeout, or
+     *   null
+     */
+    SegmentRollup(
+        List<SegmentBody> bodies,
+        int[] targetSrc,
+        Comparable[][] targetValues,
+        boolean[] targetHasNull,
+        Aggregator aggregator,
+        Datatype datatype,
+        ForkJoinPool pool,
+        Execution execution)
+    {
+        this.bodies = bodies;
+        this.targetSrc = targetSrc;
+        this.aggregator = aggregator;
+        this.datatype = datatype;
+        this.pool = pool;
+        this.execution = execution;
+        this.op = Op.of(aggregator, datatype);
+
+        // Multipliers of the target axes. As in dense segment bodies, the
+        // last axis varies fastest, so an offset is an index into the
+        // target's value array if the target is dense.
+        final long[] multipliers = new long[targetSrc.length];
+        long multiplier = 1;
+        for (int i = targetSrc.length - 1; i >= 0; --i) {
+            multipliers[i] = multiplier;
+            multiplier *=
+                targetValues[i].length + (targetHasNull[i] ? 1 : 0);
+        }
+
+        contributions = new long[bodies.size()][][];
+        for (int b = 0; b < bodies.size(); b++) {
+            final SegmentBody body = bodies.get(b);
+            contributions[b] = new long[targetSrc.length][];
+            for (int t = 0; t < targetSrc.length; t++) {
+                final Comparable[] sourceValues =
+                    toArray(body.getAxisValueSets()[targetSrc[t]]);
+                final boolean sourceHasNull =
+                    body.getNullAxisFlags()[targetSrc[t]];
+                final long[] c =
+                    new long[sourceValues.length + (sourceHasNull ? 1 : 0)];
+                for (int o = 0; o < sourceValues.length; o++) {
+                    final int targetOrdinal =
+                        sourceValues[o] == null
+                            ? targetValues[t].length
+                            : Util.binarySearch(
+                                targetValues[t], 0, targetValues[t].length,
+                                sourceValues[o]);
+                    c[o] = targetOrdinal < 0
+                        ? -1
+                        : targetOrdinal * multipliers[t];
+                }
+                if (sourceHasNull) {
+                    c[sourceValues.length] = targetHasNull[t]
+                        ? targetValues[t].length * multipliers[t]
+                        : -1;
+                }
+                contributions[b][t] = c;
+            }
+        }
+        overlap = mayOverlap(bodies);
+        coordinates = overlap ? computeCoordinates(bodies) : null;
+    }
+
+    /**
+     * Returns whether any two bodies may have a cell in common; that is,
+     * whether in every column they have a value in common.
+     */
+    private static boolean mayOverlap(List<SegmentBody> bodies) {
+        for (int b = 1; b < bodies.size(); b++) {
+            final SegmentBody body = bodies.get(b);
+            for (int a = 0; a < b; a++) {
+                final SegmentBody other = bodies.get(a);
+                boolean overlap = true;
+                for (int c = 0;
+                    c < body.getAxisValueSets().length && overlap;
+                    c++)
+                {
+                    overlap =
+                        body.getNullAxisFlags()[c]
+                        && other.getNullAxisFlags()[c]
+                        || !Collections.disjoint(
+                            body.getAxisValueSets()[c],
+                            other.getAxisValueSets()[c]);
+                }
+                if (overlap) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes, for each body and column, the coordinate of each of its
+     * values in the space of all values of all bodies; returns null if the
+     * space is too large to number with a {@code long}.
+     */
+    private static long[][][] computeCoordinates(List<SegmentBody> bodies) {
+        final int columnCount = bodies.get(0).getAxisValueSets().length;
+        final long[][][] coordinates = new long[bodies.size()][][];
+        long multiplier = 1;
+        for (int b = 0; b < bodies.size(); b++) {
+            coordinates[b] = new long[columnCount][];
+        }
+        for (int c = columnCount - 1; c >= 0; --c) {
+            final SortedSet<Comparable> union = new TreeSet<Comparable>();
+            for (SegmentBody body : bodies) {
+                union.addAll(body.getAxisValueSets()[c]);
+            }
+            final Comparable[] unionValues = toArray(union);
+            for (int b = 0; b < bodies.size(); b++) {
+                final SegmentBody body = bodies.get(b);
+                final Comparable[] values =
+                    toArray(body.getAxisValueSets()[c]);
+                final boolean hasNull = body.getNullAxisFlags()[c];
+                final long[] coordinate =
+                    new long[values.length + (hasNull ? 1 : 0)];
+                for (int o = 0; o < values.length; o++) {
+                    final int u =
+                        Util.binarySearch(
+                            unionValues, 0, unionValues.length, values[o]);
+                    coordinate[o] = u * multiplier;
+                }
+                if (hasNull) {
+                    coordinate[values.length] =
+                        unionValues.length * multiplier;
+                }
+                coordinates[b][c] = coordinate;
+            }
+            final long size = unionValues.length + 1;
+            if (multiplier > Long.MAX_VALUE / size) {
+                return null;
+            }
+            multiplier *= size;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Aggregates the cells of the source bodies.
+     *
+     * @return Target cells
+     */
+    Cells run() {
+        final List<Unit> units = new ArrayList<Unit>();
+        long cellCount = 0;
+        for (int b = 0; b < bodies.size(); b++) {
+            final SegmentBody body = bodies.get(b);
+            final DenseReader reader = DenseReader.of(body);
+            if (reader == null) {
+                units.add(new Unit(b, null, 0, 0));
+                cellCount += body.getValueMap().size();
+            } else {
+                for (int i = 0; i < reader.size; i += CHUNK_SIZE) {
+                    final int end = Math.min(reader.size, i + CHUNK_SIZE);
+                    units.add(new Unit(b, reader, i, end));
+                }
+                cellCount += reader.size;
+            }
+        }
+        final int threshold =
+            MondrianProperties.instance().RollupParallelThreshold.get();
+        if (!overlap
+            && pool != null
+            && threshold > 0
+            && cellCount >= threshold
+            && units.size() > 1)
+        {
+            return pool.invoke(new RollupTask(units, 0, units.size()));
+        }
+        final Cells cells = new Cells(this);
+        final Deduplicator deduplicator;
+        if (!overlap) {
+            deduplicator = null;
+        } else if (coordinates != null) {
+            deduplicator = new LongDeduplicator();
+        } else {
+            deduplicator = new ValueDeduplicator();
+        }
+        for (Unit unit : units) {
+            process(unit, cells, deduplicator);
+        }
+        return cells;
+    }
+
+    /**
+     * Adds the cells of a unit of work to an accumulator.
+     *
+     * @throws mondrian.olap.MondrianException if the execution has been
+     *   canceled, has failed, or has timed out
+     */
+    private void process(Unit unit, Cells cells, Deduplicator deduplicator) {
+        if (execution != null) {
+            execution.checkCancelOrTimeout();
+        }
+        final long[][] contribution = contributions[unit.body];
+        if (unit.reader == null) {
+            for (Map.Entry<CellKey, Object> entry
+                : bodies.get(unit.body).getValueMap().entrySet())
+            {
+                final int[] ordinals = entry.getKey().getOrdinals();
+                final long offset = offset(contribution, ordinals);
+                if (offset < 0
+                    || deduplicator != null
+                    && !deduplicator.add(unit.body, ordinals))
+                {
+                    continue;
+                }
+                cells.add(offset, entry.getValue());
+            }
+            return;
+        }
+        final DenseReader reader = unit.reader;
+        final int[] sizes = reader.axisSizes;
+        final int[] ordinals = new int[sizes.length];
+        // Ordinals of the first cell of the unit; the last axis varies
+        // fastest.
+        for (int i = sizes.length - 1, r = unit.start; i >= 0; --i) {
+            ordinals[i] = r % sizes[i];
+            r /= sizes[i];
+        }
+        for (int i = unit.start; i < unit.end; i++) {
+            if (!reader.isNull(i)) {
+                final long offset = offset(contribution, ordinals);
+                if (offset >= 0
+                    && (deduplicator == null
+                        || deduplicator.add(unit.body, ordinals)))
+                {
+                    switch (op) {
+                    case LIST:
+                        cells.add(offset, reader.getObject(i));
+                        break;
+                    default:
+                        if (op.ints) {
+                            cells.add(offset, reader.getInt(i));
+                        } else {
+                            cells.add(offset, reader.getDouble(i));
+                        }
+                    }
+                }
+            }
+            // Move to the next cell.
+            for (int k = sizes.length - 1; k >= 0; --k) {
+                if (++ordinals[k] < sizes[k]) {
+                    break;
+                }
+                ordinals[k] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of a source cell in the target, or -1 if it is not
+     * in the target.
+     */
+    private long offset(long[][] contribution, int[] ordinals) {
+        long offset = 0;
+        for (int t = 0; t < contribution.length; t++) {
+            final long c = contribution[t][ordinals[targetSrc[t]]];
+            if (c < 0) {
+                return -1;
+            }
+            offset += c;
+        }
+        return offset;
+    }
+
+    private static Comparable[] toArray(SortedSet<Comparable> set) {
+        return set.toArray(new Comparable[set.size()]);
+    }
+
+    /**
+     * Aggregates a contiguous range of units, splitting the range in two and
+     * aggregating the halves in parallel if it has more than one unit.
+     */
+    private class RollupTask extends RecursiveTask<Cells> {
+        private final List<Unit> units;
+        private final int start;
+        private final int end;
+
+        RollupTask(List<Unit> units, int start, int end) {
+            this.units = units;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected Cells compute() {
+            if (end - start == 1) {
+                final Cells cells = new Cells(SegmentRollup.this);
+                process(units.get(start), cells, null);
+                return cells;
+            }
+            final int mid = (start + end) >>> 1;
+            final RollupTask left = new RollupTask(units, start, mid);
+            left.fork();
+            final Cells right = new RollupTask(units, mid, end).compute();
+            return Cells.merge(left.join(), right);
+        }
+    }
+
+    /**
+     * Unit of work: a range of the cells of a dense body, or all cells of a
+     * body that is read as a map.
+     */
+    private static class Unit {
+        final int body;
+        final DenseReader reader;
+        final int start;
+        final int end;
+
+        Unit(int body, DenseReader reader, int start, int end) {
+            this.body = body;
+            this.reader = reader;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Remembers which source cells have been seen, so that a cell that is
+     * present in more than one source body is counted once.
+     */
+    private interface Deduplicator {
+        /**
+         * Records a cell, and returns whether it has not been seen before.
+         *
+         * @param body Ordinal of the body
+         * @param ordinals Ordinals of the cell in its body
+         * @return Whether the cell is new
+         */
+        boolean add(int body, int[] ordinals);
+    }
+
+    /**
+     * Deduplicator that identifies a cell by its coordinate in the space of
+     * all values of all bodies.
+     */
+    private class LongDeduplicator implements Deduplicator {
+        private final LongIntMap seen = new LongIntMap();
+
+        public boolean add(int body, int[] ordinals) {
+            final long[][] coordinate = coordinates[body];
+            long key = 0;
+            for (int c = 0; c < ordinals.length; c++) {
+                key += coordinate[c][ordinals[c]];
+            }
+            final int n = seen.size();
+            seen.slot(key);
+            return seen.size() > n;
+        }
+    }
+
+    /**
+     * Deduplicator that identifies a cell by its list of values; for when
+     * there are too many combinations of values to number cells with a
+     * {@code long}.
+     */
+    private class ValueDeduplicator implements Deduplicator {
+        private final Set<List<Comparable>> seen =
+            new HashSet<List<Comparable>>();
+        private final List<Comparable[]> values = new ArrayList<Comparable[]>();
+        private int currentBody = -1;
+
+        public boolean add(int body, int[] ordinals) {
+            if (body != currentBody) {
+                currentBody = body;
+                values.clear();
+                for (SortedSet<Comparable> set
+                    : bodies.get(body).getAxisValueSets())
+                {
+                    values.add(toArray(set));
+                }
+            }
+            final List<Comparable> key =
+                new ArrayList<Comparable>(ordinals.length);
+            for (int c = 0; c < ordinals.length; c++) {
+                final Comparable[] columnValues = values.get(c);
+                key.add(
+                    ordinals[c] < columnValues.length
+                        ? columnValues[ordinals[c]]
+                        : null);
+            }
+            return seen.add(key);
+        }
+    }
+
+    /**
+     * Reads the cells of a dense body without boxing.
+     */
+    private abstract static class DenseReader {
+        final int size;
+        final int[] axisSizes;
+
+        DenseReader(SegmentBody body, int size) {
+            this.size = size;
+            final SortedSet<Comparable>[] sets = body.getAxisValueSets();
+            final boolean[] nullFlags = body.getNullAxisFlags();
+            axisSizes = new int[sets.length];
+            for (int i = 0; i < sets.length; i++) {
+                axisSizes[i] = sets[i].size() + (nullFlags[i] ? 1 : 0);
+            }
+        }
+
+        /**
+         * Returns a reader for a body, or null if the body is not dense or
+         * not of a known type.
+         */
+        static DenseReader of(SegmentBody body) {
+            if (body instanceof DenseDoubleSegmentBody) {
+                final double[] values = (double[]) body.getValueArray();
+                final BitSet nullValues = body.getNullValueIndicators();
+                return new DenseReader(body, values.length) {
+                    boolean isNull(int i) {
+                        return values[i] == 0d && nullValues.get(i);
+                    }
+
+                    double getDouble(int i) {
+                        return values[i];
+                    }
+
+                    int getInt(int i) {
+                        return (int) values[i];
+                    }
+
+                    Object getObject(int i) {
+                        return values[i];
+                    }
+                };
+            }
+            if (body instanceof DenseIntSegmentBody) {
+                final int[] values = (int[]) body.getValueArray();
+                final BitSet nullValues = body.getNullValueIndicators();
+                return new DenseReader(body, values.length) {
+                    boolean isNull(int i) {
+                        return values[i] == 0 && nullValues.get(i);
+                    }
+
+                    double getDouble(int i) {
+                        return values[i];
+                    }
+
+                    int getInt(int i) {
+                        return values[i];
+                    }
+
+                    Object getObject(int i) {
+                        return values[i];
+                    }
+                };
+            }
+            if (body instanceof DirectSegmentBody) {
+                final DirectSegmentBody direct = (DirectSegmentBody) body;
+                return new DenseReader(body, direct.getSize()) {
+                    boolean isNull(int i) {
+                        return direct.isNull(i);
+                    }
+
+                    double getDouble(int i) {
+                        return direct.getDouble(i);
+                    }
+
+                    int getInt(int i) {
+                        return direct.getInt(i);
+                    }
+
+                    Object getObject(int i) {
+                        return direct.getObject(i);
+                    }
+                };
+            }
+            return null;
+        }
+
+        abstract boolean isNull(int i);
+
+        abstract double getDouble(int i);
+
+        abstract int getInt(int i);
+
+        abstract Object getObject(int i);
+    }
+
+    /**
+     * How values are accumulated.
+     */
+    private enum Op {
+        SUM(false),
+        SUM_INT(true),
+        MIN(false),
+        MIN_INT(true),
+        MAX(false),
+        MAX_INT(true),
+        LIST(false);
+
+        final boolean ints;
+
+        Op(boolean ints) {
+            this.ints = ints;
+        }
+
+        static Op of(Aggregator aggregator, Datatype datatype) {
+            final boolean ints;
+            switch (datatype) {
+            case Integer:
+                ints = true;
+                break;
+            case Numeric:
+                ints = false;
+                break;
+            default:
+                return LIST;
+            }
+            if (aggregator == RolapAggregator.Sum) {
+                return ints ? SUM_INT : SUM;
+            } else if (aggregator == RolapAggregator.Min) {
+                return ints ? MIN_INT : MIN;
+            } else if (aggregator == RolapAggregator.Max) {
+                return ints ? MAX_INT : MAX;
+            } else {
+                return LIST;
+            }
+        }
+    }
+
+    /**
+     * Cells of the target segment, each identified by its offset, with the
+     * accumulated values of the source cells that map to it.
+     */
+    static class Cells {
+        private final SegmentRollup rollup;
+        private final Op op;
+        private final LongIntMap index = new LongIntMap();
+        private long[] offsets = new long[16];
+        private double[] doubles;
+        private int[] ints;
+        private final BitSet hasValue = new BitSet();
+        private List<Object>[] lists;
+
+        Cells(SegmentRollup rollup) {
+            this.rollup = rollup;
+            this.op = rollup.op;
+            if (op == Op.LIST) {
+                //noinspection unchecked
+                lists = new List[16];
+            } else if (op.ints) {
+                ints = new int[16];
+            } else {
+                doubles = new double[16];
+            }
+        }
+
+        /**
+         * Returns the number of target cells.
+         *
+         * @return Number of cells
+         */
+        int size() {
+            return index.size();
+        }
+
+        /**
+         * Returns the offset of the {@code i}th cell in the target.
+         *
+         * @param i Ordinal of cell
+         * @return Offset
+         */
+        long offset(int i) {
+            return offsets[i];
+        }
+
+        /**
+         * Returns the aggregated value of the {@code i}th cell, or null.
+         *
+         * @param i Ordinal of cell
+         * @return Value
+         */
+        Object value(int i) {
+            switch (op) {
+            case LIST:
+                return rollup.aggregator.aggregate(lists[i], rollup.datatype);
+            default:
+                if (!hasValue.get(i)) {
+                    return null;
+                }
+                return op.ints ? (Object) ints[i] : (Object) doubles[i];
+            }
+        }
+
+        private int slot(long offset) {
+            final int n = index.size();
+            final int slot = index.slot(offset);
+            if (slot == n) {
+                if (slot == offsets.length) {
+                    final int capacity = slot * 2;
+                    offsets = Util.copyOf(offsets, capacity);
+                    if (lists != null) {
+                        lists = Util.copyOf(lists, capacity);
+                    } else if (ints != null) {
+                        ints = Util.copyOf(ints, capacity);
+                    } else {
+                        doubles = Util.copyOf(doubles, capacity);
+                    }
+                }
+                offsets[slot] = offset;
+                if (lists != null) {
+                    lists[slot] = new ArrayList<Object>(2);
+                }
+            }
+            return slot;
+        }
+
+        void add(long offset, Object value) {
+            final int slot = slot(offset);
+            if (op == Op.LIST) {
+                lists[slot].add(value);
+            } else if (value != null) {
+                if (op.ints) {
+                    accumulate(slot, ((Number) value).intValue());
+                } else {
+                    accumulate(slot, ((Number) value).doubleValue());
+                }
+            }
+        }
+
+        void add(long offset, int value) {
+            accumulate(slot(offset), value);
+        }
+
+        void add(long offset, double value) {
+            accumulate(slot(offset), value);
+        }
+
+        private void accumulate(int slot, int value) {
+            if (!hasValue.get(slot)) {
+                hasValue.set(slot);
+                ints[slot] = value;
+                return;
+            }
+            switch (op) {
+            case SUM_INT:
+                ints[slot] += value;
+                break;
+            case MIN_INT:
+                ints[slot] = Math.min(ints[slot], value);
+                break;
+            case MAX_INT:
+                ints[slot] = Math.max(ints[slot], value);
+                break;
+            default:
+                throw Util.unexpected(op);
+            }
+        }
+
+        private void accumulate(int slot, double value) {
+            if (!hasValue.get(slot)) {
+                hasValue.set(slot);
+                doubles[slot] = value;
+                return;
+            }
+            switch (op) {
+            case SUM:
+                doubles[slot] += value;
+                break;
+            case MIN:
+                doubles[slot] = Math.min(doubles[slot], value);
+                break;
+            case MAX:
+                doubles[slot] = Math.max(doubles[slot], value);
+                break;
+            default:
+                throw Util.unexpected(op);
+            }
+        }
+
+        /**
+         * Merges two sets of cells, and returns the result; modifies the
+         * larger.
+         */
+        static Cells merge(Cells a, Cells b) {
+            if (a.size() < b.size()) {
+                final Cells t = a;
+                a = b;
+                b = t;
+            }
+            for (int i = 0; i < b.size(); i++) {
+                final int slot = a.slot(b.offsets[i]);
+                if (a.op == Op.LIST) {
+                    a.lists[slot].addAll(b.lists[i]);
+                } else if (b.hasValue.get(i)) {
+                    if (a.op.ints) {
+                        a.accumulate(slot, b.ints[i]);
+                    } else {
+                        a.accumulate(slot, b.doubles[i]);
+                    }
+                }
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Open-addressed map from non-negative {@code long} keys to slots, which
+     * are allocated consecutively from 0.
+     */
+    private static class LongIntMap {
+        /** Key + 1 of each entry; 0 if the entry is empty. */
+        private long[] keys = new long[32];
+        private int[] slots = new int[32];
+        private int mask = 31;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the slot of a key, allocating the next slot if the key is
+         * new.
+         */
+        int slot(long key) {
+            final long k = key + 1;
+            int i = hash(k) & mask;
+            for (;;) {
+                final long existing = keys[i];
+                if (existing == k) {
+                    return slots[i];
+                }
+                if (existing == 0) {
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            slots[i] = size;
+            if (++size * 2 > keys.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            final long[] oldKeys = keys;
+            final int[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new int[oldKeys.length * 2];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int j = hash(oldKeys[i]) & mask;
+                    while (keys[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    slots[j] = oldSlots[i];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
+
+// End SegmentRollup.java
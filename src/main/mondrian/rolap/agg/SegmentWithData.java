@@ -52,6 +52,13 @@ public class SegmentWithData extends Segment {
      */
     private final SegmentDataset data;
 
+    /**
+     * Estimated sampling variance of each cell, if the cell values were
+     * estimated from a sample of the fact table; otherwise null. Same
+     * threadsafety rules as {@link #data}.
+     */
+    private final SegmentDataset varianceData;
+
     /**
      * Creates a SegmentWithData from an existing Segment.
      *
@@ -62,6 +69,24 @@ public class SegmentWithData extends Segment {
         Segment segment,
         SegmentDataset data,
         SegmentAxis[] axes)
+    {
+        this(segment, data, null, axes);
+    }
+
+    /**
+     * Creates a SegmentWithData from an existing Segment, with the estimated
+     * variance of its values.
+     *
+     * @param segment Segment (without data)
+     * @param data Data set
+     * @param varianceData Estimated variance of each value in the data set,
+     *     or null if the values are exact
+     */
+    public SegmentWithData(
+        Segment segment,
+        SegmentDataset data,
+        SegmentDataset varianceData,
+        SegmentAxis[] axes)
     {
         this(
             segment.getStar(),
@@ -71,7 +96,9 @@ public class SegmentWithData extends Segment {
             segment.predicates,
             segment.getExcludedRegions(),
             segment.compoundPredicateList,
+            segment.sampleTableName,
             data,
+            varianceData,
             axes);
         if (segment instanceof SegmentWithData) {
             throw new AssertionError();
@@ -86,6 +113,7 @@ public class SegmentWithData extends Segment {
      * @param predicates List of axes; each is a constraint plus a list of
      *     values.
      * @param excludedRegions List of regions which are not in this segment.
+     * @param sampleTableName Name of the sample table, or null
      */
     private SegmentWithData(
         RolapStar star,
@@ -95,7 +123,9 @@ public class SegmentWithData extends Segment {
         StarColumnPredicate[] predicates,
         List<ExcludedRegion> excludedRegions,
         final List<StarPredicate> compoundPredicateList,
+        String sampleTableName,
         SegmentDataset data,
+        SegmentDataset varianceData,
         SegmentAxis[] axes)
     {
         super(
@@ -105,9 +135,11 @@ public class SegmentWithData extends Segment {
             measure,
             predicates,
             excludedRegions,
-            compoundPredicateList);
+            compoundPredicateList,
+            sampleTableName);
         this.axes = axes;
         this.data = data;
+        this.varianceData = varianceData;
     }
 
     @Override
@@ -184,6 +216,35 @@ public class SegmentWithData extends Segment {
         }
     }
 
+    /**
+     * Returns the estimated sampling variance of the value at the location
+     * identified by <code>keys</code>.
+     *
+     * <p>Returns null if this segment's values are exact, if the cell is not
+     * in this segment, or if the cell value is null.
+     *
+     * @param keys Cell coordinates
+     * @return Estimated variance, or null
+     */
+    public Double getCellVariance(Object[] keys) {
+        assert keys.length == axes.length;
+        if (varianceData == null || isExcluded(keys)) {
+            return null;
+        }
+        CellKey cellKey = CellKey.Generator.newCellKey(axes.length);
+        for (int i = 0; i < keys.length; i++) {
+            int offset = axes[i].getOffset((Comparable) keys[i]);
+            if (offset < 0) {
+                return null;
+            }
+            cellKey.setAxis(i, offset);
+        }
+        Object o = varianceData.getObject(cellKey);
+        return o instanceof Number
+            ? ((Number) o).doubleValue()
+            : null;
+    }
+
     /**
      * Returns whether the given set of key values will be in this segment
      * when it finishes loading.
@@ -296,6 +357,35 @@ public class SegmentWithData extends Segment {
         // (We could be smarter - sometimes a subset of a sparse dataset will
         // be dense and VERY occasionally a subset of a relatively dense dataset
         // will be sparse.)
+        SegmentDataset newData =
+            createSubDataset(data, axisPosMaps, valueCount);
+        SegmentDataset newVarianceData =
+            varianceData == null
+                ? null
+                : createSubDataset(varianceData, axisPosMaps, valueCount);
+
+        // Create a segment with the new data set.
+        return new SegmentWithData(
+            star, constrainedColumnsBitKey, columns, measure,
+            newPredicates, excludedRegions, compoundPredicateList,
+            sampleTableName, newData, newVarianceData, newAxes);
+    }
+
+    /**
+     * Creates a dataset containing the subset of a dataset of this segment
+     * that is described by a set of axis position maps.
+     *
+     * @param data Source data set
+     * @param axisPosMaps For each axis, map from old position to new
+     *     position, or null to keep all positions
+     * @param valueCount Number of values in the new data set
+     * @return Subset of the data set
+     */
+    private SegmentDataset createSubDataset(
+        SegmentDataset data,
+        Map<Integer, Integer>[] axisPosMaps,
+        int valueCount)
+    {
         SegmentDataset newData =
             createDataset(
                 axes,
@@ -329,12 +419,7 @@ public class SegmentWithData extends Segment {
             }
             newData.populateFrom(pos, data, key);
         }
-
-        // Create a segment with the new data set.
-        return new SegmentWithData(
-            star, constrainedColumnsBitKey, columns, measure,
-            newPredicates, excludedRegions, compoundPredicateList,
-            newData, newAxes);
+        return newData;
     }
 
     /**
@@ -348,6 +433,18 @@ public class SegmentWithData extends Segment {
     public final SegmentDataset getData() {
         return data;
     }
+
+    /**
+     * Returns the estimated variance of each value in the data set, or null
+     * if the values are exact.
+     *
+     * <p>The same restrictions apply as for {@link #getData()}.</p>
+     *
+     * @return Variance data set, or null
+     */
+    public final SegmentDataset getVarianceData() {
+        return varianceData;
+    }
 }
 
 // End SegmentWithData.java
@@ -0,0 +1,57 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.rolap.RolapUtil;
+import mondrian.util.Sketch;
+
+/**
+ * Segment dataset whose values are {@link Sketch sketches}, for a measure
+ * whose aggregator is a {@link RolapAggregator.SketchAggor}.
+ *
+ * <p>The query that loads the segment groups by the measure's operand, so
+ * each cell may receive several rows. Rather than overwriting the cell,
+ * each row is folded into the cell's sketch. The last column of the query
+ * holds the number of rows that each row stands for; see
+ * {@link AbstractQuerySpec#addSketchWeight}.</p>
+ */
+class SketchSegmentDataset extends SparseSegmentDataset {
+    private final RolapAggregator.SketchAggor aggregator;
+
+    /**
+     * Creates an empty SketchSegmentDataset.
+     *
+     * @param aggregator Aggregator of the measure
+     */
+    SketchSegmentDataset(RolapAggregator.SketchAggor aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    public void populateFrom(
+        int[] pos, SegmentLoader.RowList rowList, int column)
+    {
+        final Object o = rowList.getObject(column);
+        if (o == null || o == Util.nullValue || o == RolapUtil.sqlNullValue) {
+            return;
+        }
+        final int weightColumn = rowList.getTypes().size() - 1;
+        final long weight =
+            rowList.isNull(weightColumn)
+                ? 1L
+                : ((Number) rowList.getObject(weightColumn)).longValue();
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        put(key, aggregator.fold((Sketch) getObject(key), o, weight));
+    }
+}
+
+// End SketchSegmentDataset.java
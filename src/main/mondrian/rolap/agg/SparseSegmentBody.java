@@ -51,6 +51,15 @@ class SparseSegmentBody extends AbstractSegmentBody {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    protected long getValueByteCount() {
+        // Each cell key holds one ordinal per axis.
+        final long keyByteCount =
+            OBJECT_OVERHEAD + ARRAY_OVERHEAD + 4L * axisValueSets.length;
+        return ARRAY_OVERHEAD + (REFERENCE_SIZE + keyByteCount) * keys.length
+            + estimateByteCount(data);
+    }
+
     @Override
     public Map<CellKey, Object> getValueMap() {
         final Map<CellKey, Object> map =
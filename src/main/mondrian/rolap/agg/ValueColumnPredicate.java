@@ -157,7 +157,7 @@ public class ValueColumnPredicate
             buf.append(" is null");
         } else {
             buf.append(" = ");
-            sqlQuery.getDialect().quote(buf, key, column.getDatatype());
+            sqlQuery.quote(buf, key, column.getDatatype());
         }
     }
 
@@ -179,8 +179,7 @@ public class ValueColumnPredicate
     }
 
     public void toInListSql(SqlQuery sqlQuery, StringBuilder buf) {
-        sqlQuery.getDialect().quote(
-            buf, value, getConstrainedColumn().getDatatype());
+        sqlQuery.quote(buf, value, getConstrainedColumn().getDatatype());
     }
 }
 
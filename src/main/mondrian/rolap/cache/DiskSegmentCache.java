@@ -0,0 +1,598 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.*;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that persists segments
+ * in a local directory, so that they survive a restart of the server.
+ *
+ * <p>Segments are stored in a single append-only file,
+ * <code>segments.dat</code>. The file starts with a magic number and a
+ * format version; a file written in another format is discarded. It is
+ * followed by a sequence of records:</p>
+ *
+ * <pre>
+ * record  ::= kind:byte headerLength:int bodyLength:int bodyCrc:int
+ *             header:byte[headerLength] body:byte[bodyLength]
+ * kind    ::= 1 (put) | 2 (remove; bodyLength is 0)</pre>
+ *
+ * <p>The header is a serialized {@link SegmentHeader}; the body is a
+ * serialized {@link SegmentBody}, compressed with deflate. A later record for
+ * the same header supersedes an earlier one.</p>
+ *
+ * <p>When the cache is opened, it reads the headers but skips over the
+ * bodies, so startup is fast even if the file is large. A record that was
+ * only partly written, because the server stopped, is truncated. Bodies are
+ * read when requested, and checked against their CRC.</p>
+ *
+ * <p>A schema's segments become visible to queries when the schema is first
+ * used; see {@link #recoverSegmentHeaders(String, ByteString)}. Only
+ * segments with the schema's checksum are recovered. Several versions of a
+ * schema with the same name may be in use at once, so segments with another
+ * checksum are kept for those versions; if no version uses them, they are
+ * eventually evicted.</p>
+ *
+ * <p>The file is compacted when more than half of it is superseded records.
+ * The live segments are limited to a budget of bytes (see
+ * {@link MondrianProperties#DiskSegmentCacheSize}); when it is exceeded, the
+ * oldest segments are discarded.</p>
+ */
+public class DiskSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(DiskSegmentCache.class);
+
+    /** Magic number at the start of the file, "MSEG". */
+    static final int MAGIC = 0x4d534547;
+
+    /**
+     * Version of the file format. Increment it when the format of records,
+     * or the serialized form of segments, changes incompatibly.
+     */
+    static final int VERSION = 1;
+
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 13;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String FILE_NAME = "segments.dat";
+
+    /** The file is never compacted while it is smaller than this. */
+    private static final long MIN_COMPACT_BYTES = 1024L * 1024L;
+
+    private final File directory;
+    private final long byteLimit;
+
+    // Guarded by "this". Entries are in the order they were written, oldest
+    // first.
+    private final Map<SegmentHeader, Entry> map =
+        new LinkedHashMap<SegmentHeader, Entry>();
+    private RandomAccessFile file;
+    private long length;
+    private long liveByteCount;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates a DiskSegmentCache in the directory given by the
+     * {@link MondrianProperties#DiskSegmentCacheDirectory} property.
+     */
+    public DiskSegmentCache() {
+        this(
+            new File(
+                MondrianProperties.instance().DiskSegmentCacheDirectory.get()),
+            MondrianProperties.instance().DiskSegmentCacheSize.get()
+                * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a DiskSegmentCache, and reads the headers of the segments that
+     * are already in the directory.
+     *
+     * @param directory Directory in which to store segments; created if it
+     *   does not exist
+     * @param byteLimit Maximum number of bytes of live segments
+     */
+    public DiskSegmentCache(File directory, long byteLimit) {
+        assert byteLimit > 0;
+        this.directory = directory;
+        this.byteLimit = byteLimit;
+        try {
+            open();
+        } catch (IOException e) {
+            throw Util.newError(
+                e, "Failed to open segment cache in " + directory);
+        }
+    }
+
+    private synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+        if (file.length() < FILE_HEADER_LENGTH
+            || file.readInt() != MAGIC
+            || file.readInt() != VERSION)
+        {
+            if (file.length() > 0) {
+                LOGGER.warn(
+                    "Discarding segment cache in " + directory
+                    + "; it was written in a different format");
+            }
+            file.setLength(0);
+            file.seek(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+        }
+        length = scan();
+        if (length < file.length()) {
+            LOGGER.warn(
+                "Truncating segment cache in " + directory
+                + " from " + file.length() + " to " + length + " bytes");
+            file.setLength(length);
+        }
+        LOGGER.debug(
+            "Opened segment cache in " + directory + " with "
+            + map.size() + " segments");
+        evict();
+        compactIfNeeded();
+    }
+
+    /**
+     * Reads the headers of the records in the file, and returns the offset
+     * of the end of the last complete record.
+     */
+    private long scan() throws IOException {
+        final long end = file.length();
+        final byte[] recordHeader = new byte[RECORD_HEADER_LENGTH];
+        long offset = FILE_HEADER_LENGTH;
+        while (offset + RECORD_HEADER_LENGTH <= end) {
+            file.seek(offset);
+            file.readFully(recordHeader);
+            final ByteBuffer buffer = ByteBuffer.wrap(recordHeader);
+            final byte kind = buffer.get();
+            final int headerLength = buffer.getInt();
+            final int bodyLength = buffer.getInt();
+            final int bodyCrc = buffer.getInt();
+            final long next =
+                offset + RECORD_HEADER_LENGTH + headerLength + bodyLength;
+            if (kind != PUT && kind != REMOVE
+                || headerLength <= 0
+                || bodyLength < 0
+                || next > end)
+            {
+                break;
+            }
+            final byte[] headerBytes = new byte[headerLength];
+            file.readFully(headerBytes);
+            final SegmentHeader header;
+            try {
+                header = (SegmentHeader) deserialize(headerBytes, false);
+            } catch (Exception e) {
+                LOGGER.debug("Bad segment header at offset " + offset, e);
+                break;
+            }
+            final Entry previous = map.remove(header);
+            if (previous != null) {
+                liveByteCount -= previous.recordLength;
+            }
+            if (kind == PUT) {
+                final Entry entry =
+                    new Entry(offset, headerLength, bodyLength, bodyCrc);
+                map.put(header, entry);
+                liveByteCount += entry.recordLength;
+            }
+            offset = next;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the segments of a given version of a schema, so that they can
+     * be added to the index of the schema.
+     *
+     * <p>A segment belongs to the version if it has the same schema name and
+     * checksum. Segments of other versions may contain values that are not
+     * valid for this version, so they are not returned; but they are not
+     * discarded either, because another version of the schema, say one
+     * created by a dynamic schema processor, may be using them.</p>
+     *
+     * @param schemaName Schema name
+     * @param schemaChecksum Checksum of the version of the schema
+     * @return Headers of segments that belong to the schema
+     */
+    public synchronized List<SegmentHeader> recoverSegmentHeaders(
+        String schemaName,
+        ByteString schemaChecksum)
+    {
+        final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+        if (file == null) {
+            return headers;
+        }
+        for (SegmentHeader header : map.keySet()) {
+            if (header.schemaName.equals(schemaName)
+                && header.schemaChecksum.equals(schemaChecksum))
+            {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final Entry entry;
+        final byte[] bytes;
+        synchronized (this) {
+            entry = map.get(header);
+            if (entry == null || file == null) {
+                return null;
+            }
+            try {
+                bytes = new byte[entry.bodyLength];
+                file.seek(entry.bodyOffset());
+                file.readFully(bytes);
+            } catch (IOException e) {
+                throw Util.newError(
+                    e, "Failed to read segment from " + directory);
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != entry.bodyCrc) {
+            LOGGER.warn(
+                "Discarding corrupt segment in " + directory + ": " + header);
+            remove(header);
+            return null;
+        }
+        try {
+            return (SegmentBody) deserialize(bytes, true);
+        } catch (Exception e) {
+            LOGGER.warn(
+                "Discarding unreadable segment in " + directory + ": "
+                + header,
+                e);
+            remove(header);
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    public boolean put(SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        // Serialize outside the lock; it is the expensive part.
+        final byte[] headerBytes = serialize(header, false);
+        final byte[] bodyBytes = serialize(body, true);
+        if (RECORD_HEADER_LENGTH + headerBytes.length + bodyBytes.length
+            > byteLimit)
+        {
+            // Too large to keep; do not throw away the other segments.
+            return true;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+        final List<SegmentHeader> evicted;
+        synchronized (this) {
+            if (file == null) {
+                return false;
+            }
+            final Entry previous = map.remove(header);
+            if (previous != null) {
+                liveByteCount -= previous.recordLength;
+            }
+            final Entry entry =
+                new Entry(
+                    length,
+                    headerBytes.length,
+                    bodyBytes.length,
+                    (int) crc.getValue());
+            append(PUT, headerBytes, bodyBytes, entry.bodyCrc);
+            map.put(header, entry);
+            liveByteCount += entry.recordLength;
+            evicted = evict();
+            compactIfNeeded();
+        }
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_CREATED);
+        return true;
+    }
+
+    public boolean remove(SegmentHeader header) {
+        final boolean result;
+        synchronized (this) {
+            result = file != null && removeEntry(header);
+        }
+        if (result) {
+            fireSegmentCacheEvent(
+                header,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
+        return result;
+    }
+
+    /**
+     * Removes a segment from the map, and writes a record so that it stays
+     * removed when the file is next opened.
+     */
+    private boolean removeEntry(SegmentHeader header) {
+        assert Thread.holdsLock(this);
+        final Entry entry = map.remove(header);
+        if (entry == null) {
+            return false;
+        }
+        liveByteCount -= entry.recordLength;
+        append(REMOVE, serialize(header, false), new byte[0], 0);
+        return true;
+    }
+
+    /**
+     * Discards the oldest segments until the live segments are within the
+     * budget.
+     */
+    private List<SegmentHeader> evict() {
+        assert Thread.holdsLock(this);
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        while (liveByteCount > byteLimit) {
+            final SegmentHeader header = map.keySet().iterator().next();
+            removeEntry(header);
+            evicted.add(header);
+        }
+        return evicted;
+    }
+
+    private void append(
+        byte kind,
+        byte[] headerBytes,
+        byte[] bodyBytes,
+        int bodyCrc)
+    {
+        assert Thread.holdsLock(this);
+        final ByteBuffer buffer =
+            ByteBuffer.allocate(
+                RECORD_HEADER_LENGTH + headerBytes.length + bodyBytes.length);
+        buffer.put(kind)
+            .putInt(headerBytes.length)
+            .putInt(bodyBytes.length)
+            .putInt(bodyCrc)
+            .put(headerBytes)
+            .put(bodyBytes);
+        try {
+            file.seek(length);
+            file.write(buffer.array());
+        } catch (IOException e) {
+            throw Util.newError(e, "Failed to write segment to " + directory);
+        }
+        length += buffer.capacity();
+    }
+
+    /**
+     * Rewrites the file without superseded records, if they occupy more than
+     * half of it.
+     */
+    private void compactIfNeeded() {
+        assert Thread.holdsLock(this);
+        final long garbage = length - FILE_HEADER_LENGTH - liveByteCount;
+        if (length < MIN_COMPACT_BYTES || garbage <= liveByteCount) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            throw Util.newError(
+                e, "Failed to compact segment cache in " + directory);
+        }
+    }
+
+    private void compact() throws IOException {
+        final File compactFile = new File(directory, FILE_NAME + ".tmp");
+        final RandomAccessFile newFile =
+            new RandomAccessFile(compactFile, "rw");
+        final long newLength;
+        try {
+            newFile.setLength(0);
+            newFile.writeInt(MAGIC);
+            newFile.writeInt(VERSION);
+            final FileChannel source = file.getChannel();
+            final FileChannel target = newFile.getChannel();
+            long offset = FILE_HEADER_LENGTH;
+            for (Entry entry : map.values()) {
+                long transferred = 0;
+                while (transferred < entry.recordLength) {
+                    transferred +=
+                        source.transferTo(
+                            entry.offset + transferred,
+                            entry.recordLength - transferred,
+                            target.position(offset + transferred));
+                }
+                entry.offset = offset;
+                offset += entry.recordLength;
+            }
+            newLength = offset;
+            // Make sure the records are on disk before the new file replaces
+            // the old one; otherwise a crash could leave a file whose
+            // records were never written.
+            target.force(true);
+        } finally {
+            newFile.close();
+        }
+        file.close();
+        final File dataFile = new File(directory, FILE_NAME);
+        if (!compactFile.renameTo(dataFile)
+            && !(dataFile.delete() && compactFile.renameTo(dataFile)))
+        {
+            file = null;
+            throw new IOException("Cannot rename " + compactFile);
+        }
+        file = new RandomAccessFile(dataFile, "rw");
+        LOGGER.debug(
+            "Compacted segment cache in " + directory + " from " + length
+            + " to " + newLength + " bytes");
+        length = newLength;
+    }
+
+    private static byte[] serialize(Object o, boolean compress) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final OutputStream out =
+                compress ? new DeflaterOutputStream(bytes) : bytes;
+            final ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(o);
+            oos.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw Util.newInternal(e, "Failed to serialize segment");
+        }
+    }
+
+    private static Object deserialize(byte[] bytes, boolean compressed)
+        throws IOException, ClassNotFoundException
+    {
+        final InputStream in =
+            compressed
+                ? new InflaterInputStream(new ByteArrayInputStream(bytes))
+                : new ByteArrayInputStream(bytes);
+        final ObjectInputStream ois = new ObjectInputStream(in);
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Closes the file. The segments remain in the directory, to be read by
+     * the next DiskSegmentCache that is created on it.
+     */
+    public void tearDown() {
+        synchronized (this) {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOGGER.warn(
+                        "Failed to close segment cache in " + directory, e);
+                }
+                file = null;
+            }
+            map.clear();
+            liveByteCount = 0;
+        }
+        listeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    private void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the file, including superseded records.
+     *
+     * @return File length
+     */
+    public synchronized long getFileLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of segments in the cache.
+     *
+     * @return Segment count
+     */
+    public synchronized int getSegmentCount() {
+        return map.size();
+    }
+
+    /**
+     * Location of a live segment's record in the file.
+     */
+    private static class Entry {
+        long offset;
+        final int headerLength;
+        final int bodyLength;
+        final int bodyCrc;
+        final long recordLength;
+
+        Entry(long offset, int headerLength, int bodyLength, int bodyCrc) {
+            this.offset = offset;
+            this.headerLength = headerLength;
+            this.bodyLength = bodyLength;
+            this.bodyCrc = bodyCrc;
+            this.recordLength =
+                RECORD_HEADER_LENGTH + headerLength + bodyLength;
+        }
+
+        long bodyOffset() {
+            return offset + RECORD_HEADER_LENGTH + headerLength;
+        }
+    }
+}
+
+// End DiskSegmentCache.java
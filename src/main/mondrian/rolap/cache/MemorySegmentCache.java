@@ -4,110 +4,218 @@
 * http://www.eclipse.org/legal/epl-v10.html.
 * You must accept the terms of that agreement to use this software.
 *
-* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
 */
 
 package mondrian.rolap.cache;
 
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.agg.SegmentBuilder;
 import mondrian.spi.*;
 
-import java.lang.ref.SoftReference;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
  * in memory.
  *
- * <p>Segments are held via soft references, so the garbage collector can remove
- * them if it sees fit.</p>
+ * <p>The cache has a budget of bytes (see
+ * {@link MondrianProperties#LocalSegmentCacheSize}). The size of each segment
+ * body is estimated from its kind (see
+ * {@link SegmentBuilder#estimateByteCount(SegmentBody)}). When a new segment
+ * would exceed the budget, segments are evicted according to the
+ * GreedyDual-Size-Frequency policy: each segment has a priority
+ *
+ * <blockquote><code>inflation + useCount * loadCost / byteCount</code>
+ * </blockquote>
+ *
+ * <p>and the segment with lowest priority is evicted first. The load cost is
+ * the time it took to load the segment from SQL, so segments that are
+ * large, rarely used and cheap to reload go first. The inflation is the
+ * priority of the most recently evicted segment; it grows over time, so that
+ * segments which were used often long ago eventually age out.</p>
+ *
+ * <p>Counts of hits, misses and evictions, and the number of bytes in use,
+ * are available for monitoring.</p>
  *
  * @author Julian Hyde
  */
 public class MemorySegmentCache implements SegmentCache {
-    // Use a thread-safe map because the SegmentCache
-    // interface requires thread safety.
-    private final Map<SegmentHeader, SoftReference<SegmentBody>> map =
-        new ConcurrentHashMap<SegmentHeader, SoftReference<SegmentBody>>();
+    /**
+     * Load cost assumed for segments whose load time is not known, and the
+     * minimum load cost of any segment, in nanoseconds.
+     */
+    private static final long MIN_LOAD_NANOS = 1000000L;
+
+    // Guarded by "this". Operations on the cache are per segment, not per
+    // cell, so a single lock is not contended.
+    private final Map<SegmentHeader, Entry> map =
+        new HashMap<SegmentHeader, Entry>();
+    private final SortedSet<Entry> evictionQueue = new TreeSet<Entry>();
+    private long byteCount;
+    private double inflation;
+    private long sequence;
+
+    private final long byteLimit;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
     private final List<SegmentCacheListener> listeners =
         new CopyOnWriteArrayList<SegmentCacheListener>();
 
-    public SegmentBody get(SegmentHeader header) {
-        final SoftReference<SegmentBody> ref = map.get(header);
-        if (ref == null) {
-            return null;
-        }
-        final SegmentBody body = ref.get();
-        if (body == null) {
-            map.remove(header);
-        }
-        return body;
+    /**
+     * Creates a MemorySegmentCache whose budget is set by the
+     * {@link MondrianProperties#LocalSegmentCacheSize} property.
+     */
+    public MemorySegmentCache() {
+        this(defaultByteLimit());
     }
 
-    public boolean contains(SegmentHeader header) {
-        final SoftReference<SegmentBody> ref = map.get(header);
-        if (ref == null) {
-            return false;
+    /**
+     * Creates a MemorySegmentCache with a given budget.
+     *
+     * @param byteLimit Maximum number of bytes of segment bodies to hold
+     */
+    public MemorySegmentCache(long byteLimit) {
+        assert byteLimit > 0;
+        this.byteLimit = byteLimit;
+    }
+
+    private static long defaultByteLimit() {
+        final int megabytes =
+            MondrianProperties.instance().LocalSegmentCacheSize.get();
+        if (megabytes > 0) {
+            return megabytes * 1024L * 1024L;
         }
-        final SegmentBody body = ref.get();
-        if (body == null) {
-            map.remove(header);
-            return false;
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public synchronized SegmentBody get(SegmentHeader header) {
+        final Entry entry = map.get(header);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
         }
-        return true;
+        hitCount.incrementAndGet();
+        evictionQueue.remove(entry);
+        ++entry.useCount;
+        prioritize(entry);
+        evictionQueue.add(entry);
+        return entry.body;
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
     }
 
-    public List<SegmentHeader> getSegmentHeaders() {
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
         return new ArrayList<SegmentHeader>(map.keySet());
     }
 
-    public boolean put(final SegmentHeader header, SegmentBody body) {
+    public boolean put(SegmentHeader header, SegmentBody body) {
+        return put(header, body, 0);
+    }
+
+    /**
+     * Places a segment in the cache, recording how long it took to load.
+     *
+     * <p>Segments that took longer to load are kept in preference to those
+     * that are cheap to load again.</p>
+     *
+     * @param header Segment header
+     * @param body Segment body
+     * @param loadNanos Time it took to load the segment, in nanoseconds, or
+     *   0 if not known
+     * @return Whether the operation succeeded
+     */
+    public boolean put(
+        final SegmentHeader header,
+        SegmentBody body,
+        long loadNanos)
+    {
         // REVIEW: What's the difference between returning false
         // and throwing an exception?
         assert header != null;
         assert body != null;
-        map.put(header, new SoftReference<SegmentBody>(body));
+        final Entry entry =
+            new Entry(
+                header,
+                body,
+                Math.max(1L, SegmentBuilder.estimateByteCount(body)),
+                Math.max(MIN_LOAD_NANOS, loadNanos));
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        synchronized (this) {
+            removeEntry(header);
+            if (entry.byteCount > byteLimit) {
+                // The segment would not fit even in an empty cache. Do not
+                // throw away the other segments in a futile attempt.
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            while (byteCount + entry.byteCount > byteLimit) {
+                final Entry victim = evictionQueue.first();
+                removeEntry(victim.header);
+                inflation = victim.priority;
+                evictionCount.incrementAndGet();
+                evicted.add(victim.header);
+            }
+            entry.sequence = sequence++;
+            prioritize(entry);
+            map.put(header, entry);
+            evictionQueue.add(entry);
+            byteCount += entry.byteCount;
+        }
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
         fireSegmentCacheEvent(
-            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
-                public boolean isLocal() {
-                    return true;
-                }
-                public SegmentHeader getSource() {
-                    return header;
-                }
-                public EventType getEventType() {
-                    return SegmentCacheListener.SegmentCacheEvent
-                        .EventType.ENTRY_CREATED;
-                }
-            });
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_CREATED);
         return true; // success
     }
 
     public boolean remove(final SegmentHeader header) {
-        final boolean result =
-            map.remove(header) != null;
+        final boolean result;
+        synchronized (this) {
+            result = removeEntry(header);
+        }
         if (result) {
             fireSegmentCacheEvent(
-                new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
-                    public boolean isLocal() {
-                        return true;
-                    }
-                    public SegmentHeader getSource() {
-                        return header;
-                    }
-                    public EventType getEventType() {
-                        return
-                            SegmentCacheListener.SegmentCacheEvent
-                                .EventType.ENTRY_DELETED;
-                    }
-                });
+                header,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
         }
         return result;
     }
 
+    private boolean removeEntry(SegmentHeader header) {
+        assert Thread.holdsLock(this);
+        final Entry entry = map.remove(header);
+        if (entry == null) {
+            return false;
+        }
+        evictionQueue.remove(entry);
+        byteCount -= entry.byteCount;
+        return true;
+    }
+
+    private void prioritize(Entry entry) {
+        entry.priority =
+            inflation
+            + (double) entry.useCount * entry.loadNanos / entry.byteCount;
+    }
+
     public void tearDown() {
-        map.clear();
+        synchronized (this) {
+            map.clear();
+            evictionQueue.clear();
+            byteCount = 0;
+        }
         listeners.clear();
     }
 
@@ -130,6 +238,120 @@ public class MemorySegmentCache implements SegmentCache {
             listener.handle(evt);
         }
     }
+
+    private void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        fireSegmentCacheEvent(
+            new SegmentCache.SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            });
+    }
+
+    /**
+     * Returns the number of calls to {@link #get} that found a segment.
+     *
+     * @return Hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #get} that did not find a
+     * segment.
+     *
+     * @return Miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of segments that have been evicted, or not
+     * admitted, because the cache was full.
+     *
+     * @return Eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the segments in the
+     * cache.
+     *
+     * @return Byte count
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the maximum number of bytes of segments that the cache will
+     * hold.
+     *
+     * @return Byte limit
+     */
+    public long getByteLimit() {
+        return byteLimit;
+    }
+
+    /**
+     * Returns the number of segments in the cache.
+     *
+     * @return Segment count
+     */
+    public synchronized int getSegmentCount() {
+        return map.size();
+    }
+
+    /**
+     * Segment in the cache, with the statistics that determine when it is
+     * evicted. Entries are ordered by priority, lowest first; ties are
+     * broken in favor of the entry that arrived first.
+     */
+    private static class Entry implements Comparable<Entry> {
+        final SegmentHeader header;
+        final SegmentBody body;
+        final long byteCount;
+        final long loadNanos;
+        long useCount = 1;
+        long sequence;
+        double priority;
+
+        Entry(
+            SegmentHeader header,
+            SegmentBody body,
+            long byteCount,
+            long loadNanos)
+        {
+            this.header = header;
+            this.body = body;
+            this.byteCount = byteCount;
+            this.loadNanos = loadNanos;
+        }
+
+        public int compareTo(Entry o) {
+            final int c = Double.compare(priority, o.priority);
+            if (c != 0) {
+                return c;
+            }
+            return sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0;
+        }
+    }
 }
 
 // End MemorySegmentCache.java
@@ -0,0 +1,65 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.agg.SegmentBuilder;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores the values
+ * of dense segments outside the Java heap.
+ *
+ * <p>Dense bodies of {@code double} and {@code int} values, which make up
+ * most of the memory used by a typical cache, are copied into direct
+ * buffers as they are added (see
+ * {@link SegmentBuilder#toDirectBody(SegmentBody)}). Segments read from the
+ * cache use the buffers in place, so the values never return to the heap,
+ * and the garbage collector does not have to trace or copy them. Other
+ * bodies are stored on the heap.</p>
+ *
+ * <p>The cache's budget covers bytes both on and off the heap. Direct
+ * buffers are released when the garbage collector collects an evicted
+ * body, so the JVM's limit on direct memory
+ * (<code>-XX:MaxDirectMemorySize</code>) should exceed the budget.</p>
+ *
+ * <p>The local cache is of this kind if
+ * {@link MondrianProperties#LocalSegmentCacheOffHeap} is true.</p>
+ */
+public class OffHeapSegmentCache extends MemorySegmentCache {
+    /**
+     * Creates an OffHeapSegmentCache whose budget is set by the
+     * {@link MondrianProperties#LocalSegmentCacheSize} property.
+     */
+    public OffHeapSegmentCache() {
+        super();
+    }
+
+    /**
+     * Creates an OffHeapSegmentCache with a given budget.
+     *
+     * @param byteLimit Maximum number of bytes of segment bodies to hold
+     */
+    public OffHeapSegmentCache(long byteLimit) {
+        super(byteLimit);
+    }
+
+    @Override
+    public boolean put(
+        SegmentHeader header,
+        SegmentBody body,
+        long loadNanos)
+    {
+        return super.put(header, SegmentBuilder.toDirectBody(body), loadNanos);
+    }
+}
+
+// End OffHeapSegmentCache.java
@@ -24,7 +24,11 @@ import java.util.concurrent.Future;
 /**
  * Data structure that identifies which segments contain cells.
  *
- * <p>Not thread-safe.</p>
+ * <p>Implementations must be thread-safe. The
+ * {@link mondrian.rolap.agg.SegmentCacheManager} calls them from the threads
+ * of the queries that look up segments, as well as from its own threads.
+ * Loads of segments into an index synchronize on the index object, so an
+ * implementation must not hold its own monitor while it waits.</p>
  *
  * @author Julian Hyde
  */
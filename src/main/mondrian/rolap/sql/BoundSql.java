@@ -0,0 +1,185 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.sql;
+
+import mondrian.olap.Util;
+import mondrian.spi.Dialect;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL statement whose values are passed to the database as bind variables.
+ *
+ * <p>If {@link mondrian.olap.MondrianProperties#GenerateParameterizedSql} is
+ * true, {@link SqlQuery#quote} writes a value into the SQL text as a marker
+ * that holds the value and its datatype. Until the statement is executed the
+ * text can be treated like any other SQL string: concatenated into a larger
+ * query, used as a key, and so forth. {@link mondrian.rolap.SqlStatement}
+ * calls {@link #parse} to replace each marker with a <code>?</code>
+ * placeholder, and {@link #bind} to set the values on the
+ * {@link PreparedStatement}.</p>
+ *
+ * <p>Statements that differ only in their values have the same
+ * {@link #sql}, so the database, and any pool of prepared statements, need
+ * to parse each shape of statement only once.</p>
+ */
+public class BoundSql {
+    private static final char START = '\u0001';
+    private static final char END = '\u0002';
+
+    /**
+     * SQL text with a <code>?</code> placeholder for each bind variable.
+     */
+    public final String sql;
+
+    /**
+     * SQL text with the values written as literals; for logging.
+     */
+    public final String literalSql;
+
+    private final List<Object> values;
+
+    private BoundSql(String sql, String literalSql, List<Object> values) {
+        this.sql = sql;
+        this.literalSql = literalSql;
+        this.values = values;
+    }
+
+    /**
+     * Appends a marker for a bind variable to a buffer, if the value can be
+     * bound.
+     *
+     * @param buf Buffer
+     * @param value Value
+     * @param datatype Datatype of value
+     * @return Whether a marker was appended; if false, the caller must
+     *   append the value as a literal
+     */
+    static boolean appendBindVariable(
+        StringBuilder buf,
+        Object value,
+        Dialect.Datatype datatype)
+    {
+        if (value == null) {
+            return false;
+        }
+        final String s = value.toString();
+        if (s.indexOf(START) >= 0
+            || s.indexOf(END) >= 0
+            || convert(datatype, s) == null)
+        {
+            return false;
+        }
+        buf.append(START)
+            .append((char) ('0' + datatype.ordinal()))
+            .append(s)
+            .append(END);
+        return true;
+    }
+
+    /**
+     * Converts the SQL text generated with bind variable markers into a
+     * BoundSql; returns null if the text has no markers.
+     *
+     * @param sql SQL text
+     * @return Statement with bind variables, or null
+     */
+    public static BoundSql parse(String sql) {
+        int start = sql.indexOf(START);
+        if (start < 0) {
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder(sql.length());
+        final StringBuilder literalBuf = new StringBuilder(sql.length());
+        final List<Object> values = new ArrayList<Object>();
+        int end = -1;
+        while (start >= 0) {
+            buf.append(sql, end + 1, start);
+            literalBuf.append(sql, end + 1, start);
+            end = sql.indexOf(END, start);
+            final Dialect.Datatype datatype =
+                Dialect.Datatype.values()[sql.charAt(start + 1) - '0'];
+            final Object value =
+                convert(datatype, sql.substring(start + 2, end));
+            values.add(value);
+            buf.append('?');
+            if (value instanceof String) {
+                Util.singleQuoteString((String) value, literalBuf);
+            } else {
+                literalBuf.append(value);
+            }
+            start = sql.indexOf(START, end);
+        }
+        buf.append(sql, end + 1, sql.length());
+        literalBuf.append(sql, end + 1, sql.length());
+        return new BoundSql(buf.toString(), literalBuf.toString(), values);
+    }
+
+    /**
+     * Returns the number of bind variables.
+     *
+     * @return Number of bind variables
+     */
+    public int getBindVariableCount() {
+        return values.size();
+    }
+
+    /**
+     * Sets the values of the bind variables on a statement prepared from
+     * {@link #sql}.
+     *
+     * @param statement Prepared statement
+     * @throws SQLException on error
+     */
+    public void bind(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            final Object value = values.get(i);
+            if (value instanceof String) {
+                statement.setString(i + 1, (String) value);
+            } else if (value instanceof Long) {
+                statement.setLong(i + 1, (Long) value);
+            } else {
+                statement.setBigDecimal(i + 1, (BigDecimal) value);
+            }
+        }
+    }
+
+    /**
+     * Converts the string form of a value to the object that will be bound:
+     * a {@link String}, {@link Long} or {@link BigDecimal}. Returns null if
+     * the value cannot be bound.
+     */
+    private static Object convert(Dialect.Datatype datatype, String s) {
+        try {
+            switch (datatype) {
+            case String:
+                return s;
+            case Integer:
+                try {
+                    return Long.valueOf(s);
+                } catch (NumberFormatException e) {
+                    return new BigDecimal(s);
+                }
+            case Numeric:
+                return new BigDecimal(s);
+            default:
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
+
+// End BoundSql.java
@@ -14,7 +14,6 @@ import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.sampling.SampleContext;
 import mondrian.sampling.SampleInfo;
-import mondrian.sampling.SampleInfoReader;
 import mondrian.spi.Dialect;
 import mondrian.spi.DialectManager;
 import mondrian.util.Pair;
@@ -75,6 +74,9 @@ public class SqlQuery {
     /** Controls the formatting of the sql string. */
     private final boolean generateFormattedSql;
 
+    /** Whether values are written as bind variables; see {@link #quote}. */
+    private boolean generateParameterizedSql;
+
     private boolean distinct;
 
     private final ClauseList select;
@@ -95,6 +97,12 @@ public class SqlQuery {
     /** Is query supported by database vendor. Default is true*/
     private boolean isSupported = true;
 
+    /** Number of rows to skip; see {@link #setLimitOffset}. */
+    private int offset = 0;
+
+    /** Maximum number of rows to return, or -1 if there is no limit. */
+    private int limit = -1;
+
     /**
      * This list is used to keep track of what aliases have been  used in the
      * FROM clause. One might think that a java.util.Set would be a more
@@ -124,6 +132,14 @@ public class SqlQuery {
     private final Map<String, String> columnAliases =
         new HashMap<String, String>();
 
+    /**
+     * Sample tables this query reads in place of their origin tables, keyed
+     * by the lower-case name of the origin table; or null if the query has no
+     * explicit choice and follows the {@link SampleContext} of the current
+     * execution.
+     */
+    private Map<String, SampleInfo> sampleSelection;
+
     private static final String INDENT = "    ";
 
     /**
@@ -136,6 +152,8 @@ public class SqlQuery {
     public SqlQuery(Dialect dialect, boolean formatted) {
         assert dialect != null;
         this.generateFormattedSql = formatted;
+        this.generateParameterizedSql =
+            MondrianProperties.instance().GenerateParameterizedSql.get();
 
         // both select and from allow duplications
         this.select = new ClauseList(true);
@@ -177,7 +195,44 @@ public class SqlQuery {
      */
     public SqlQuery cloneEmpty()
     {
-        return new SqlQuery(dialect);
+        final SqlQuery sqlQuery = new SqlQuery(dialect);
+        sqlQuery.sampleSelection = sampleSelection;
+        return sqlQuery;
+    }
+
+    /**
+     * Fixes which sample tables this query reads in place of their origin
+     * tables, overriding the {@link SampleContext} of the current execution.
+     * An empty collection makes the query read the full tables.
+     *
+     * <p>Must be called before tables are added to the FROM clause.
+     *
+     * @param samples Samples to read
+     */
+    public void setSampleSelection(Collection<SampleInfo> samples) {
+        final Map<String, SampleInfo> map =
+            new HashMap<String, SampleInfo>();
+        for (SampleInfo sample : samples) {
+            map.put(sample.getOriginTable().toLowerCase(), sample);
+        }
+        this.sampleSelection = map;
+    }
+
+    /**
+     * Returns the sample that this query reads in place of a given table,
+     * or null if the query reads the table itself.
+     *
+     * @param tableName Name of origin table; may be null
+     * @return Sample, or null
+     */
+    public SampleInfo getSampleInfo(String tableName) {
+        if (tableName == null) {
+            return null;
+        }
+        if (sampleSelection != null) {
+            return sampleSelection.get(tableName.toLowerCase());
+        }
+        return SampleContext.current().getSampleInfo(tableName);
     }
 
     public void setDistinct(final boolean distinct) {
@@ -194,6 +249,36 @@ public class SqlQuery {
         this.allowHints = t;
     }
 
+    /**
+     * Sets how many rows to skip and the maximum number of rows to return.
+     * They are generated in the dialect's syntax after the ORDER BY clause.
+     *
+     * <p>Call only if {@link Dialect#supportsLimitOffset()} is true.
+     *
+     * @param offset Number of rows to skip
+     * @param limit Maximum number of rows to return, or -1 if there is no
+     *   limit
+     */
+    public void setLimitOffset(int offset, int limit) {
+        assert dialect.supportsLimitOffset();
+        assert offset >= 0 && limit >= -1;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * Sets whether values are written as bind variables. The default is the
+     * value of {@link MondrianProperties#GenerateParameterizedSql}.
+     *
+     * <p>Set to false if the SQL text is used as a description or a key, and
+     * will not be executed.
+     *
+     * @param generateParameterizedSql Whether to write bind variables
+     */
+    public void setGenerateParameterizedSql(boolean generateParameterizedSql) {
+        this.generateParameterizedSql = generateParameterizedSql;
+    }
+
     /**
      * Adds a subquery to the FROM clause of this Query with a given alias.
      * If the query already exists it either, depending on
@@ -274,20 +359,15 @@ public class SqlQuery {
         }
 
         buf.setLength(0);
-        //TODO 以后将这个标志改为需要从样本查询的表集合判断
-        if(SampleContext.getTablesNeededSampling().contains(name.toLowerCase())){
-        	boolean isFinded = false;
-        	for(SampleInfo info : SampleInfoReader.sampleInfos){
-        		if(info.getOriginTable().toLowerCase().equals(name.toLowerCase())){
-        			isFinded = true;
-        			dialect.quoteIdentifier(buf, schema, info.getSampleTable());
-        			break;
-        		}
-        	}
-        	if(!isFinded)
-        		dialect.quoteIdentifier(buf, schema, name);
-        }else
-        	dialect.quoteIdentifier(buf, schema, name);
+        // If the current execution answers this table from a sample, read
+        // the sample table instead; the alias stays the same, so the rest
+        // of the query is unaffected.
+        final SampleInfo sampleInfo = getSampleInfo(name);
+        if (sampleInfo != null) {
+            dialect.quoteIdentifier(buf, schema, sampleInfo.getSampleTable());
+        } else {
+            dialect.quoteIdentifier(buf, schema, name);
+        }
         if (alias != null) {
             Util.assertTrue(alias.length() > 0);
 
@@ -694,6 +774,13 @@ public class SqlQuery {
             buf, generateFormattedSql, prefix, " having ", " and ", "", "");
         orderBy.toBuffer(
             buf, generateFormattedSql, prefix, " order by ", ", ", "", "");
+        if (offset > 0 || limit >= 0) {
+            final String limitOffset =
+                dialect.generateLimitOffset(offset, limit);
+            assert limitOffset != null : "dialect does not support limit";
+            buf.append(generateFormattedSql ? Util.nl + prefix : " ")
+                .append(limitOffset);
+        }
     }
 
     private void groupingFunctionsToBuffer(StringBuilder buf, String prefix) {
@@ -721,6 +808,31 @@ public class SqlQuery {
         return dialect;
     }
 
+    /**
+     * Appends to a buffer a value quoted for its type.
+     *
+     * <p>If {@link MondrianProperties#GenerateParameterizedSql} is true and
+     * the dialect allows values of this datatype to be bind variables,
+     * appends a bind variable (see {@link BoundSql}); otherwise appends a
+     * literal, as {@link Dialect#quote} does.
+     *
+     * @param buf Buffer to append to
+     * @param value Value
+     * @param datatype Datatype of value
+     */
+    public void quote(
+        StringBuilder buf,
+        Object value,
+        Dialect.Datatype datatype)
+    {
+        if (!generateParameterizedSql
+            || !dialect.allowsBindVariable(datatype)
+            || !BoundSql.appendBindVariable(buf, value, datatype))
+        {
+            dialect.quote(buf, value, datatype);
+        }
+    }
+
     public static SqlQuery newQuery(DataSource dataSource, String err) {
         final Dialect dialect =
             DialectManager.createDialect(dataSource, null);
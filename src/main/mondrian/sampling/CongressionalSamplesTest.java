@@ -8,6 +8,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import mondrian.olap.DriverManager;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.RolapConnection;
+
 import org.junit.Test;
 
 import db.DBUtil;
@@ -18,10 +22,15 @@ public class CongressionalSamplesTest {
 	private String sampleTable = "inventory_fact_1997_congress_with_join";
 	private float samplingRate = 0.07f;
 	private String aggregateAttr = "store_invoice";
+	//样本所在的数据库：测试连接串（mondrian.test.connectString）指向的foodmart的数据源
+	private SampleDatabase database = SampleDatabase.of(
+			(RolapConnection) DriverManager.getConnection(
+					MondrianProperties.instance().TestConnectString.get(),
+					null));
 	
 	@Test
 	public void testSampling(){
-		CongressionalSampling cs = new CongressionalSampling();
+		CongressionalSampling cs = new CongressionalSampling(database);
 		cs.house();
 		cs.senate();
 		cs.basicCongress();
@@ -37,7 +46,7 @@ public class CongressionalSamplesTest {
 		groupingAttrs.add("time_id");
 		groupingAttrs.add("warehouse_id");
 		
-		CongressionalSampling cs = new CongressionalSampling(originTable,sampleTable,(ArrayList)groupingAttrs,samplingRate);
+		CongressionalSampling cs = new CongressionalSampling(database, originTable,sampleTable,(ArrayList)groupingAttrs,samplingRate);
 		cs.house();
 		cs.senate();
 		cs.basicCongress();
@@ -60,7 +69,7 @@ public class CongressionalSamplesTest {
 		mappingAttrs.put("inventory_fact_1997.store_id", "store.store_id");
 		
 		
-		CongressionalSampling cs = new CongressionalSampling(originTable,sampleTable,(ArrayList)groupingAttrs,mappingAttrs,samplingRate);
+		CongressionalSampling cs = new CongressionalSampling(database, originTable,sampleTable,(ArrayList)groupingAttrs,mappingAttrs,samplingRate);
 		cs.house();
 		cs.senate();
 		cs.basicCongress();
@@ -185,7 +194,7 @@ public class CongressionalSamplesTest {
 		info.setSampleTable("sample");
 		info.setSamplingRate(0.01f);
 		info.setSamplingSchema(0);
-		SampleInfoWriter.write(info);
+		SampleInfoWriter.write(database, info);
 	}
 	@Test
 	public void test2(){
@@ -6,17 +6,21 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
-import db.DBUtil;
+import mondrian.sampling.SampleDatabase.ResultSetHandler;
 
 /**
  * Congressional Sampling：
@@ -36,6 +40,9 @@ import db.DBUtil;
  * 4)多表连接时连接属性的映射关系
  * 5)抽样率
  * 
+ * 所有查询与DDL都通过{@link SampleDatabase}（schema的数据源与方言）执行，
+ * congress方法中基于各个分组属性子集的计数查询在SampleDatabase的线程池中并行执行。
+ * 
  * TODO 浮点运算的精确度问题、固定样本大小的抽取
  * @Description Congressional Sampling 实现
  * @author zoe
@@ -44,6 +51,8 @@ import db.DBUtil;
  */
 public class CongressionalSampling {
 	
+	private final SampleDatabase database;						//样本所在的数据库
+	
 	//与操作的表相关的信息
 	private String originTable ;								//required
 	private String sampleTable ;								//required
@@ -70,14 +79,16 @@ public class CongressionalSampling {
 	 * 1)基于单表的抽样方案：[attr1, attr2, ..., attrn]
 	 * 2)基于多表的抽样方案：[table.attr,.....]
 	 * 
+	 * @param database		样本所在的数据库
 	 * @param originTable	原始表名(抽样表)
 	 * @param sampleTable	样本表名
 	 * @param groupingAttrs	分组属性集
 	 * @param samplingRate 抽样率
 	 */
-	public CongressionalSampling(String originTable, String sampleTable,  ArrayList<String> groupingAttrs, float samplingRate){
+	public CongressionalSampling(SampleDatabase database, String originTable, String sampleTable,  ArrayList<String> groupingAttrs, float samplingRate){
 		
 		//获取相关表信息
+		this.database = database;
 		this.originTable = originTable;
 		this.sampleTable = sampleTable;
 		this.samplingRate = samplingRate;
@@ -100,15 +111,17 @@ public class CongressionalSampling {
 	 * 1)基于单表的抽样方案：[attr1, attr2, ..., attrn]
 	 * 2)基于多表的抽样方案：[table.attr,.....]
 	 * 
+	 * @param database		样本所在的数据库
 	 * @param originTable	原始表名(抽样表)
 	 * @param sampleTable	样本表名
 	 * @param groupingAttrs	分组属性集
 	 * @param mappingJoinAttrs 抽样表与连接表的连接属性映射关系,如果为null,表示为基于单表的抽样
 	 * @param samplingRate 抽样率
 	 */
-	public CongressionalSampling(String originTable, String sampleTable,  ArrayList<String> groupingAttrs,Map<String, String> mappingJoinAttrs, float samplingRate){
+	public CongressionalSampling(SampleDatabase database, String originTable, String sampleTable,  ArrayList<String> groupingAttrs,Map<String, String> mappingJoinAttrs, float samplingRate){
 		
 		//获取相关表信息
+		this.database = database;
 		this.originTable = originTable;
 		this.sampleTable = sampleTable;
 		this.samplingRate = samplingRate;
@@ -174,7 +187,13 @@ public class CongressionalSampling {
 		this.joinTables.addAll(allTables);
 	}
 	
-	public CongressionalSampling(){
+	/**
+	 * 从配置文件TableInfo.properties读取原始表、抽样率以及分组属性的构造器
+	 * 
+	 * @param database		样本所在的数据库
+	 */
+	public CongressionalSampling(SampleDatabase database){
+		this.database = database;
 		//读取配置文件，获取相关表信息
 		Properties prop = new Properties();
 		try {
@@ -204,61 +223,15 @@ public class CongressionalSampling {
 	 */
 	private void initWithJoin(){
 		StringBuilder attrSet=  new StringBuilder();
-		StringBuilder fromTables = new StringBuilder();
-		StringBuilder whereClause = new StringBuilder();
 		for(String attr : this.groupingAttrs){
-			attrSet.append(attr +",");
-		}
-		for(String table : this.joinTables){
-			fromTables.append(table + ",");
-		}
-		for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
-			whereClause.append(entry.getKey()+"="+entry.getValue() + " AND ");
+			attrSet.append(this.database.quote(attr) +",");
 		}
 		StringBuilder groupingSql = new StringBuilder();
 		groupingSql.append("SELECT "+ attrSet +" count(*) ");
-		groupingSql.append(" FROM "+ fromTables.toString() + this.originTable);
-		groupingSql.append(" WHERE " + whereClause.substring(0,whereClause.lastIndexOf("AND")));
+		groupingSql.append(fromClause(this.joinTables));
 		groupingSql.append(" GROUP BY " +attrSet.substring(0,attrSet.length()-1));
 		
-		System.out.println("grouping sql:" + groupingSql);
-		
-		DBUtil util = new DBUtil();
-		ResultSet rs = util.excuteQuery(groupingSql.toString());
-		ResultSetMetaData meta = null;
-		
-		try {
-			meta = rs.getMetaData();
-			int rowNum = 0;
-			List<String> values = null;
-			int totalTupleNum = 0;
-			
-			/**
-			 * populate grouping attrs' type
-			 */
-			for(int col = 1; col <= this.groupingAttrs.size(); col++ ){
-				this.groupingAttrsType.add(meta.getColumnTypeName(col));
-			}
-			
-			while(rs.next()){
-				values = new ArrayList<String>();
-				for(int col = 1; col <= this.groupingAttrs.size(); col++ ){
-					values.add(rs.getString(col));
-				}
-				//为每种分组情况设置对应的值，以及各个分组的数目
-				this.groupingValues.put(rowNum++, values);
-				int tupleNum = rs.getInt(this.groupingAttrs.size()+1);
-				totalTupleNum += tupleNum;
-				this.tupleNumOfGrouping.add(tupleNum);
-			}
-			//设置分组大小、样本空间
-			this.groupNum = this.groupingValues.size();
-			this.sampleNum = (int) (totalTupleNum * this.samplingRate);
-			System.out.println("total tuples:" + this.tupleNumOfGrouping);
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+		loadGroups(groupingSql.toString());
 	}
 	/**
 	 * 基于单表进行抽样的初始化方法
@@ -269,45 +242,49 @@ public class CongressionalSampling {
 	private void init(){
 		StringBuilder attrSet=  new StringBuilder();
 		for(String attr : this.groupingAttrs){
-			attrSet.append(attr +",");
+			attrSet.append(this.database.quote(attr) +",");
 		}
-		String groupingSql = "SELECT "+ attrSet +" count(*) FROM "+ this.originTable + " GROUP BY "+attrSet.substring(0,attrSet.length()-1);
-		System.out.println("grouping sql:" + groupingSql);
-		DBUtil util = new DBUtil();
-		ResultSet rs = util.excuteQuery(groupingSql);
-		ResultSetMetaData meta = null;
-		try {
-			meta = rs.getMetaData();
-			int rowNum = 0;
-			List<String> values = null;
-			int totalTupleNum = 0;
-			
-			/**
-			 * populate grouping attrs' type
-			 */
-			for(int col = 1; col <= this.groupingAttrs.size(); col++ ){
-				this.groupingAttrsType.add(meta.getColumnTypeName(col));
-			}
-			
-			while(rs.next()){
-				values = new ArrayList<String>();
-				for(int col = 1; col <= this.groupingAttrs.size(); col++ ){
-					values.add(rs.getString(col));
+		String groupingSql = "SELECT "+ attrSet +" count(*) FROM "+ this.database.quote(this.originTable) + " GROUP BY "+attrSet.substring(0,attrSet.length()-1);
+		loadGroups(groupingSql);
+	}
+	/**
+	 * 执行分组计数查询，填充分组属性类型、所有分组取值、各分组元组数、分组数目以及样本空间
+	 * 
+	 * @param groupingSql	SELECT 分组属性..., count(*) ... GROUP BY 分组属性...
+	 */
+	private void loadGroups(String groupingSql){
+		this.database.query(groupingSql, new ResultSetHandler<Void>() {
+			public Void handle(ResultSet rs) throws SQLException {
+				ResultSetMetaData meta = rs.getMetaData();
+				int rowNum = 0;
+				List<String> values = null;
+				int totalTupleNum = 0;
+				
+				/**
+				 * populate grouping attrs' type
+				 */
+				for(int col = 1; col <= groupingAttrs.size(); col++ ){
+					groupingAttrsType.add(meta.getColumnTypeName(col));
+				}
+				
+				while(rs.next()){
+					values = new ArrayList<String>();
+					for(int col = 1; col <= groupingAttrs.size(); col++ ){
+						values.add(rs.getString(col));
+					}
+					//为每种分组情况设置对应的值，以及各个分组的数目
+					groupingValues.put(rowNum++, values);
+					int tupleNum = rs.getInt(groupingAttrs.size()+1);
+					totalTupleNum += tupleNum;
+					tupleNumOfGrouping.add(tupleNum);
 				}
-				//为每种分组情况设置对应的值，以及各个分组的数目
-				this.groupingValues.put(rowNum++, values);
-				int tupleNum = rs.getInt(this.groupingAttrs.size()+1);
-				totalTupleNum += tupleNum;
-				this.tupleNumOfGrouping.add(tupleNum);
+				//设置分组大小、样本空间
+				groupNum = groupingValues.size();
+				sampleNum = (int) (totalTupleNum * samplingRate);
+				System.out.println("total tuples:" + tupleNumOfGrouping);
+				return null;
 			}
-			//设置分组大小、样本空间
-			this.groupNum = this.groupingValues.size();
-			this.sampleNum = (int) (totalTupleNum * this.samplingRate);
-			System.out.println("total tuples:" + this.tupleNumOfGrouping);
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+		});
 	}
 	/**
 	 * 对每个组，按比例分配样本空间
@@ -365,62 +342,33 @@ public class CongressionalSampling {
 		//计算基于分组属性集上的子集的所有分组情形
 		computeSubGroupings();
 		
-		//对每一种分组情形，构造数据库查询，计算空间分配
+		//对每一种分组情形，构造数据库查询；各个分组情形的查询互不依赖，并行执行
+		List<Future<Map<List<String>, Integer>>> parentCounts =
+				new ArrayList<Future<Map<List<String>, Integer>>>();
+		for(final List<Integer> subGrouping : this.subGroupings){
+			parentCounts.add(this.database.submit(new Callable<Map<List<String>, Integer>>() {
+				public Map<List<String>, Integer> call() {
+					return countParentGroups(subGrouping);
+				}
+			}));
+		}
+		
+		//按分组情形的顺序计算空间分配
 		for(int i = 0; i< this.subGroupings.size(); i++){
 			List<Integer> subGrouping = this.subGroupings.get(i);
-			StringBuilder attrs = new StringBuilder();
-			String sql = null;
-			Set<String> fromTables = new HashSet<String>();
-			for(int attrIndex : subGrouping){
-				String attr = this.groupingAttrs.get(attrIndex);
-				//当为多表连接抽样时，收集当前分组情形下需要连接的表
-				if(!(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty()))
-					fromTables.add(attr.split("\\.")[0]);
-				attrs.append(attr + ",");
-			}
-			fromTables.remove(this.originTable);
-			StringBuilder fromClause = new StringBuilder("");
-			for(String table : fromTables){
-				fromClause.append(table+",");
-			}
-			sql = "SELECT " + attrs + " count(*) FROM " + fromClause.toString() +this.originTable + " GROUP BY "+ attrs.substring(0,attrs.length()-1);
-			System.out.println("sub group sql:"+sql);
-			DBUtil util = new DBUtil();
-			ResultSet rs = util.excuteQuery(sql);
-			Map<Integer, Float> ratio = new HashMap<Integer, Float>();
-			try {
-				int parentTupleNum = 0;
-				while(rs.next()){
-					int parentNum = rs.getInt(subGrouping.size()+1);
-					
-					//遍历每一个分组属性值，判断是否为当前父分组的子分组 
-					for(Entry<Integer, List<String>> entry : this.groupingValues.entrySet()){
-						boolean equalFlag = true;
-						
-						for(int attrNum = 0; attrNum < subGrouping.size(); attrNum++){
-							int valueIndex = subGrouping.get(attrNum);
-							if(!entry.getValue().get(valueIndex).equals(rs.getString(attrNum+1))){
-								equalFlag = false;
-								break;
-							}
-						}
-						//如果当前分组是结果集父分组的子分组，计算子分组占父分组的比例
-						if(equalFlag){
-							ratio.put(entry.getKey(),(float)this.tupleNumOfGrouping.get(entry.getKey())/parentNum);
-						}
-					}
-					parentTupleNum++;
-				}
-				//计算父分组在senate方法下分配到的样本空间
-				int parentSpace = this.sampleNum/parentTupleNum;
-				//父分组结果集遍历完毕，遍历具有比例信息的集合，在congress中保持当前最大值
-				for(Entry<Integer, Float> entry : ratio.entrySet()){
-					float temp =  parentSpace*entry.getValue();
-					if(this.congress.get(entry.getKey()) < temp)
-						this.congress.set(entry.getKey(),temp);
-				}
-			} catch (SQLException e) {
-				e.printStackTrace();
+			Map<List<String>, Integer> parents = SampleDatabase.get(parentCounts.get(i));
+			//计算父分组在senate方法下分配到的样本空间
+			int parentSpace = this.sampleNum/parents.size();
+			
+			//对每一个分组，找到其所在的父分组，计算子分组占父分组的比例，在congress中保持当前最大值
+			for(Entry<Integer, List<String>> entry : this.groupingValues.entrySet()){
+				Integer parentNum = parents.get(subValues(entry.getValue(), subGrouping));
+				if(parentNum == null)
+					continue;
+				float ratio = (float)this.tupleNumOfGrouping.get(entry.getKey())/parentNum;
+				float temp =  parentSpace*ratio;
+				if(this.congress.get(entry.getKey()) < temp)
+					this.congress.set(entry.getKey(),temp);
 			}
 		}// outside for
 		
@@ -435,6 +383,76 @@ public class CongressionalSampling {
 		}
 		System.out.println("congress:"+this.congress);
 	}
+	/**
+	 * 基于分组属性的一个子集进行分组计数
+	 * 
+	 * @param subGrouping	子集中各个属性在groupingAttrs中的下标
+	 * @return	父分组（子集上的取值）到其元组数的映射
+	 */
+	private Map<List<String>, Integer> countParentGroups(final List<Integer> subGrouping){
+		StringBuilder attrs = new StringBuilder();
+		Set<String> fromTables = new HashSet<String>();
+		for(int attrIndex : subGrouping){
+			String attr = this.groupingAttrs.get(attrIndex);
+			//当为多表连接抽样时，收集当前分组情形下需要连接的表
+			if(!(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty()))
+				fromTables.add(attr.split("\\.")[0]);
+			attrs.append(this.database.quote(attr) + ",");
+		}
+		fromTables.remove(this.originTable);
+		String sql = "SELECT " + attrs + " count(*)" + fromClause(fromTables) + " GROUP BY "+ attrs.substring(0,attrs.length()-1);
+		return this.database.query(sql, new ResultSetHandler<Map<List<String>, Integer>>() {
+			public Map<List<String>, Integer> handle(ResultSet rs) throws SQLException {
+				Map<List<String>, Integer> parents = new HashMap<List<String>, Integer>();
+				while(rs.next()){
+					List<String> values = new ArrayList<String>();
+					for(int attrNum = 0; attrNum < subGrouping.size(); attrNum++){
+						values.add(rs.getString(attrNum+1));
+					}
+					parents.put(values, rs.getInt(subGrouping.size()+1));
+				}
+				return parents;
+			}
+		});
+	}
+	
+	/**
+	 * 取出分组在子集各个属性上的取值
+	 */
+	private static List<String> subValues(List<String> values, List<Integer> subGrouping){
+		List<String> subValues = new ArrayList<String>();
+		for(int valueIndex : subGrouping){
+			subValues.add(values.get(valueIndex));
+		}
+		return subValues;
+	}
+	
+	/**
+	 * 拼接FROM子句：原始表以及给定的连接表；多表抽样时包含这些连接表与原始表的连接条件
+	 * 
+	 * @param tables	与原始表进行连接的表
+	 */
+	private String fromClause(Collection<String> tables){
+		StringBuilder fromTables = new StringBuilder();
+		for(String table : tables){
+			fromTables.append(this.database.quote(table) + ",");
+		}
+		fromTables.append(this.database.quote(this.originTable));
+		if(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty())
+			return " FROM " + fromTables;
+		StringBuilder whereClause = new StringBuilder();
+		for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
+			if(!tables.contains(entry.getKey().split("\\.")[0])
+					&& !tables.contains(entry.getValue().split("\\.")[0]))
+				continue;
+			if(whereClause.length() > 0)
+				whereClause.append(" AND ");
+			whereClause.append(this.database.quote(entry.getKey())+"="+this.database.quote(entry.getValue()));
+		}
+		return whereClause.length() == 0
+				? " FROM " + fromTables
+				: " FROM " + fromTables + " WHERE " + whereClause;
+	}
 	/**
 	 * 计算分组属性集合子集的所有分组情形，除了空集和全集
 	 */
@@ -473,80 +491,21 @@ public class CongressionalSampling {
 	 * 物化基于单表的congress抽样技术得到的样本。
 	 * 对原始数据进行取样
 	 * 将原始数据存储在数据库当中
-	 * 样本表：(rowID, 原始属性集, scale factor)
+	 * 样本表：(原始属性集, scale factor)
 	 */
 	public void materializeCongress(){
-		//为每一个组构造一个sql语句，来取样
-		String sql = null;
-		StringBuilder attrs = null;
-		
-		new DBUtil().excute("CREATE TABLE " + this.sampleTable + " SELECT * FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute("ALTER TABLE " + this.sampleTable +" ADD COLUMN sf decimal(16,6)");
-		for(int i = 0; i < this.groupNum; i++){
-			attrs = new StringBuilder();
-			// TODO 以后增添分组属性类型的判断，判断值类型的格式应该怎么拼接
-			for(int j = 0; j < this.groupingAttrs.size(); j++){
-				attrs.append(this.groupingAttrs.get(j) + "='" + this.groupingValues.get(i).get(j) + "' AND ");
-			}
-			sql = "INSERT INTO " + this.sampleTable +" ";
-			// TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
-			// 组内的随机抽样
-			sql +=  " SELECT l.*, "+ this.tupleNumOfGrouping.get(i)/this.congress.get(i) + " AS sf"
-					+ " FROM "+ this.originTable + " AS l "
-					+ " WHERE " + attrs.substring(0,attrs.lastIndexOf("AND")) 
-					+ " AND rand() < " + this.congress.get(i)/this.tupleNumOfGrouping.get(i);
-			
-			System.out.println("materializeCongress : "+sql);
-			
-			new DBUtil().excute(sql);
-			
-		}
+		createSampleTable(this.sampleTable);
+		materialize(this.sampleTable, this.congress);
 	}
 	/**
 	 * 物化基于多表的congress抽样技术得到的样本。
 	 * 对原始数据进行取样
 	 * 将原始数据存储在数据库当中
-	 * 样本表：(rowID, 原始属性集, scale factor)
+	 * 样本表：(原始属性集, scale factor)
 	 */
 	public void materializeCongressWithJoin(){
-		//为每一个组构造一个sql语句，来取样
-		String sql = null;
-		StringBuilder attrs = null;
-		StringBuilder fromTables = null;
-		StringBuilder whereClause = null;
-		
-		new DBUtil().excute("CREATE TABLE " + this.sampleTable + " SELECT * FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute("ALTER TABLE " + this.sampleTable +" ADD COLUMN sf decimal(16,6)");
-		for(int i = 0; i < this.groupNum; i++){
-			attrs = new StringBuilder();
-			fromTables = new StringBuilder();
-			whereClause = new StringBuilder();
-			
-			// TODO 以后增添分组属性类型的判断，判断值类型的格式应该怎么拼接
-			for(int j = 0; j < this.groupingAttrs.size(); j++){
-				attrs.append(this.groupingAttrs.get(j) + "='" + this.groupingValues.get(i).get(j) + "' AND ");
-			}
-			sql = "INSERT INTO " + this.sampleTable +" ";
-			
-			for(String table : this.joinTables){
-				fromTables.append(table + ",");
-			}
-			for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
-				whereClause.append(entry.getKey()+"="+entry.getValue() + " AND ");
-			}
-			
-			// TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
-			// 组内的随机抽样
-			sql +=  " SELECT "+this.originTable+".*, "+ this.tupleNumOfGrouping.get(i)/this.congress.get(i) + " AS sf"
-					+ " FROM "+ fromTables.toString()+ this.originTable 
-					+ " WHERE " + whereClause.toString() + attrs.substring(0,attrs.lastIndexOf("AND")) 
-					+ " AND rand() < " + this.congress.get(i)/this.tupleNumOfGrouping.get(i);
-			
-			System.out.println("materializeCongress : "+sql);
-			
-			new DBUtil().excute(sql);
-			
-		}
+		createSampleTable(this.sampleTable);
+		materialize(this.sampleTable, this.congress);
 	}
 	/**
 	 * 物化基于senate抽样技术得到的样本。(just for test)
@@ -555,29 +514,13 @@ public class CongressionalSampling {
 	 * 样本表：原始表名_senate_sample(原始属性集, sf)
 	 */
 	public void materializeSenate(){
-		//为每一个组构造一个sql语句，来取样
-		String sql = null;
-		StringBuilder attrs = null;
-		
-		new DBUtil().excute("CREATE TABLE " + this.originTable +"_senate_sample " + " SELECT * FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute("ALTER TABLE " + this.originTable +"_senate_sample ADD COLUMN sf decimal(16,6)");
+		//senate方法下每个组分配的样本空间相同
+		List<Float> allocation = new ArrayList<Float>();
 		for(int i = 0; i < this.groupNum; i++){
-			attrs = new StringBuilder();
-			// TODO 以后增添分组属性类型的判断，判断值类型的格式应该怎么拼接
-			for(int j = 0; j < this.groupingAttrs.size(); j++){
-				attrs.append(this.groupingAttrs.get(j) + "='" + this.groupingValues.get(i).get(j) + "' AND ");
-			}
-			sql = "INSERT INTO " + this.originTable +"_senate_sample ";
-			// TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
-			// 组内的随机抽样
-			sql +=  "SELECT l.*, "+ this.tupleNumOfGrouping.get(i)/this.senate.get(0) + " AS sf"
-					+ " FROM "+ this.originTable + " AS l "
-					+ " WHERE " + attrs.substring(0,attrs.lastIndexOf("AND")) 
-					+ " AND rand() < " + this.senate.get(0)/this.tupleNumOfGrouping.get(i);
-			
-			System.out.println("materializeSenate : "+sql);
-			new DBUtil().excute(sql);
+			allocation.add(this.senate.get(0));
 		}
+		createSampleTable(this.originTable + "_senate_sample");
+		materialize(this.originTable + "_senate_sample", allocation);
 	}
 	/**
 	 * 物化基于house抽样技术得到的样本。(just for test)
@@ -586,30 +529,8 @@ public class CongressionalSampling {
 	 * 样本表：原始表名_house_sample(原始属性集, sf)
 	 */
 	public void materializeHouse(){
-		//为每一个组构造一个sql语句，来取样
-		String sql = null;
-		StringBuilder attrs = null;
-		
-		new DBUtil().excute("CREATE TABLE " + this.originTable +"_house_sample " + " SELECT * FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute("ALTER TABLE " + this.originTable +"_house_sample ADD COLUMN sf decimal(16,6)");
-		for(int i = 0; i < this.groupNum; i++){
-			attrs = new StringBuilder();
-			// TODO 以后增添分组属性类型的判断，判断值类型的格式应该怎么拼接
-			for(int j = 0; j < this.groupingAttrs.size(); j++){
-				attrs.append(this.groupingAttrs.get(j) + "='" + this.groupingValues.get(i).get(j) + "' AND ");
-			}
-			sql = "INSERT INTO " + this.originTable +"_house_sample ";
-			// TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
-			// 组内的随机抽样
-			sql +=  "SELECT l.*, "+ this.tupleNumOfGrouping.get(i)/this.house.get(i) + " AS sf"
-					+ " FROM "+ this.originTable + " AS l "
-					+ " WHERE " + attrs.substring(0,attrs.lastIndexOf("AND")) 
-					+ " AND rand() < " + this.house.get(i)/this.tupleNumOfGrouping.get(i);
-			
-			System.out.println("materializeHouse : "+sql);
-			new DBUtil().excute(sql);
-			
-		}
+		createSampleTable(this.originTable + "_house_sample");
+		materialize(this.originTable + "_house_sample", this.house);
 	}
 	
 	/**
@@ -619,40 +540,87 @@ public class CongressionalSampling {
 	 * 样本表：原始表名_basic_congress_sample(原始属性集, sf)
 	 */
 	public void materializeBasicCongress(){
-		//为每一个组构造一个sql语句，来取样
-		String sql = null;
-		StringBuilder attrs = null;
-		
-		new DBUtil().excute("CREATE TABLE " + this.originTable +"_basic_congress_sample " + " SELECT * FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute("ALTER TABLE " + this.originTable +"_basic_congress_sample ADD COLUMN sf decimal(16,6)");
-		for(int i = 0; i < this.groupNum; i++){
-			attrs = new StringBuilder();
-			// TODO 以后增添分组属性类型的判断，判断值类型的格式应该怎么拼接
-			for(int j = 0; j < this.groupingAttrs.size(); j++){
-				attrs.append(this.groupingAttrs.get(j) + "='" + this.groupingValues.get(i).get(j) + "' AND ");
-			}
-			sql = "INSERT INTO " + this.originTable +"_basic_congress_sample ";
-			// TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
-			// 组内的随机抽样
-			sql +=  "SELECT l.*, "+ this.tupleNumOfGrouping.get(i)/this.basicCongress.get(i) + " AS sf"
-					+ " FROM "+ this.originTable + " AS l "
-					+ " WHERE " + attrs.substring(0,attrs.lastIndexOf("AND")) 
-					+ " AND rand() < " + this.basicCongress.get(i)/this.tupleNumOfGrouping.get(i);
-			
-			System.out.println("materializeBasicCongress : "+sql);
-			new DBUtil().excute(sql);
-		}
+		createSampleTable(this.originTable + "_basic_congress_sample");
+		materialize(this.originTable + "_basic_congress_sample", this.basicCongress);
 		//将当前样本信息写入样本元数据中
 		write2Meta();
 	}
 	
+	/**
+	 * 创建与原始表结构相同、附加了sf列的空样本表
+	 */
+	private void createSampleTable(String table){
+		this.database.createSampleTable(this.originTable, table, false);
+	}
+	
+	/**
+	 * 单趟物化样本：只扫描一次原始表（多表抽样时为连接结果），
+	 * 根据元组的分组属性取值找到其所在分组，以 分配的样本空间/分组元组数 的概率进行组内随机抽样，
+	 * 选中的元组附加比例因子 分组元组数/分配的样本空间 后批量写入样本表。
+	 * 
+	 * TODO 不论是等距抽样还是随机抽样，都存在样本表中样本量与用户指定的样本大小的一定的出入，如何修正这一点？
+	 * 
+	 * @param table			样本表
+	 * @param allocation	每个分组分配的样本空间，下标与groupingValues一致
+	 */
+	private void materialize(final String table, final List<Float> allocation){
+		//分组属性取值到分组下标的映射
+		final Map<List<String>, Integer> groupIndex = new HashMap<List<String>, Integer>();
+		for(Entry<Integer, List<String>> entry : this.groupingValues.entrySet()){
+			groupIndex.put(entry.getValue(), entry.getKey());
+		}
+		
+		StringBuilder attrs = new StringBuilder();
+		for(String attr : this.groupingAttrs){
+			attrs.append(", " + this.database.quote(attr));
+		}
+		List<String> tables = this.joinTables == null
+				? new ArrayList<String>()
+				: this.joinTables;
+		String sql = "SELECT " + this.database.quote(this.originTable) + ".*" + attrs + fromClause(tables);
+		
+		this.database.query(sql, new ResultSetHandler<Void>() {
+			public Void handle(ResultSet rs) throws SQLException {
+				int originColumnCount = rs.getMetaData().getColumnCount() - groupingAttrs.size();
+				//样本表在原始表的列之后附加了sf列
+				SampleTableWriter writer = new SampleTableWriter(database, table, originColumnCount + 1);
+				try {
+					Random rand = new Random();
+					List<String> values = new ArrayList<String>();
+					while(rs.next()){
+						values.clear();
+						for(int col = 1; col <= groupingAttrs.size(); col++){
+							values.add(rs.getString(originColumnCount + col));
+						}
+						Integer i = groupIndex.get(values);
+						if(i == null)
+							continue;
+						// 组内的随机抽样
+						float sampleSize = allocation.get(i);
+						int tupleNum = tupleNumOfGrouping.get(i);
+						if(rand.nextFloat() < sampleSize/tupleNum){
+							Object[] row = SampleTableWriter.readRow(rs, originColumnCount, 1);
+							row[originColumnCount] = tupleNum/sampleSize;
+							writer.write(row);
+						}
+					}
+				} finally {
+					writer.close();
+				}
+				return null;
+			}
+		});
+	}
+	
 	private void write2Meta(){
 		SampleInfo info = new SampleInfo();
 		boolean isMulti = this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty()?
 				false:true;
 		List<String> joinAttrs = new ArrayList<String>();
-		for(Entry<String, String> entry : this.mappingJoinAttrs.entrySet()){
-			joinAttrs.add(entry.getKey()+":"+entry.getValue());
+		if(isMulti){
+			for(Entry<String, String> entry : this.mappingJoinAttrs.entrySet()){
+				joinAttrs.add(entry.getKey()+":"+entry.getValue());
+			}
 		}
 		info.setGroupingAttrs(this.groupingAttrs);
 		info.setJoinAttrs(joinAttrs);
@@ -661,6 +629,6 @@ public class CongressionalSampling {
 		info.setSampleTable(this.sampleTable);
 		info.setSamplingRate(this.samplingRate);
 		info.setSamplingSchema(SamplingSchema.CONGRESSIONAL_SAMPLING);
-		SampleInfoWriter.write(info);
+		SampleInfoWriter.write(this.database, info);
 	}
 }
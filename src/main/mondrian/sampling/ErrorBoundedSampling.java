@@ -12,7 +12,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Map.Entry;
 
-import db.DBUtil;
+import mondrian.sampling.SampleDatabase.ResultSetHandler;
 
 /**
  * 一、基于单表的抽样
@@ -27,6 +27,8 @@ import db.DBUtil;
  * 二、基于多表的抽样需求
  * 过程与一一致，只是考虑分组属性来源于维表的情况，需要进行连接操作，再针对连接结果进行应用抽样schema
  * 
+ * 所有查询与DDL都通过{@link SampleDatabase}（schema的数据源与方言）执行。
+ * 
  * @Description Error-Bounded Sampling实现
  * @author zoe
  * @date 2017年4月6日 上午11:42:53 
@@ -34,6 +36,8 @@ import db.DBUtil;
  */
 public class ErrorBoundedSampling {
 	
+	private final SampleDatabase database;				//样本所在的数据库
+	
 	/**
 	 * 以下为用户指定的量
 	 */
@@ -58,10 +62,12 @@ public class ErrorBoundedSampling {
 	private Map<Integer,List<Bucket>> groupBuckets;		//每个分组对应的bucket的集合
  	private List<Double> scaleFactors;					//每个分组的比例因子
  	private float samplingRate;							//抽样率
+ 	private boolean loaded;								//以上各量是否已通过扫描原始表得到
  	
  	/**
  	 * 基于单表进行抽样的构造器
  	 * 
+ 	 * @param database			样本所在的数据库
  	 * @param error				误差
  	 * @param confidence		置信度
  	 * @param originTable		原始表
@@ -69,8 +75,9 @@ public class ErrorBoundedSampling {
  	 * @param groupingAttrs		分组属性集={attr1, attr2, attr3, ...}
  	 * @param aggregateAttrs	聚集属性集，虽然定义为集合，但只包含一个元素，总是获取第一个
  	 */
-	public ErrorBoundedSampling(float error, float confidence
+	public ErrorBoundedSampling(SampleDatabase database, float error, float confidence
 			,String originTable,String sampleTable, List<String> groupingAttrs, List<String> aggregateAttrs){
+		this.database = database;
 		this.error = error;
 		this.confidence = confidence;
 		this.originTable = originTable;
@@ -86,11 +93,11 @@ public class ErrorBoundedSampling {
 		//其他属性初始化
 		this.mappingJoinAttrs = new HashMap<String, String>();
 		this.joinTables = new ArrayList<String>();
-		load();
 	}
 	/**
 	 * 基于多表进行抽样的构造器
 	 * 
+	 * @param database			样本所在的数据库
 	 * @param error				误差
 	 * @param confidence		置信度
 	 * @param originTable		原始表
@@ -100,11 +107,12 @@ public class ErrorBoundedSampling {
 	 * 							<originTable.joinAttr1, otherTable.joinAttr1>
 	 * @param aggregateAttrs	聚集属性
 	 */
-	public ErrorBoundedSampling(float error, float confidence
+	public ErrorBoundedSampling(SampleDatabase database, float error, float confidence
 			,String originTable,String sampleTable, List<String> groupingAttrs,
 			 Map<String, String> mappingJoinAttrs, List<String> aggregateAttrs){
 		
 		//设置用户参数
+		this.database = database;
 		this.error = error;
 		this.confidence = confidence;
 		this.originTable = originTable;
@@ -122,7 +130,6 @@ public class ErrorBoundedSampling {
 		this.groupingAttrsType = new ArrayList<String>();
 		this.groupBuckets = new HashMap<Integer, List<Bucket>>();
 		this.scaleFactors = new ArrayList<Double>();
-		loadWithJoin();
 	}
 	/**
 	 * 检查分组属性的来源表与连接属性映射关系的来源表是否一致
@@ -173,271 +180,145 @@ public class ErrorBoundedSampling {
 
 	/**
 	 * 数据加载
-	 * 从table中加载属性，将查询结果按升序排序
-	 * 获取所有分组，初始化groupBuckets
-	 * 根据查询结果计算所有buckets
-	 * 
+	 * 按分组属性、聚集属性的升序对原始表（多表抽样时为连接结果）进行一次扫描，
+	 * 在扫描过程中获取所有分组，并逐个值地计算各个分组的buckets，
+	 * 最后计算scale factor以及抽样率。
+	 * 构造器不扫描原始表：{@link #materialize()}在物化的同一趟扫描中完成加载，
+	 * 只有在物化之前查询buckets、比例因子或抽样率时才单独扫描一次
 	 */
-	private void loadWithJoin(){
-		StringBuilder grpAttrsStr=  new StringBuilder();
-		StringBuilder fromTables = new StringBuilder();
-		StringBuilder whereClause = new StringBuilder();
-		for(String attr : this.groupingAttrs){
-			grpAttrsStr.append(attr +",");
-		}
-		for(String table : this.joinTables){
-			fromTables.append(table + ",");
-		}
-		for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
-			whereClause.append(entry.getKey()+"="+entry.getValue() + " AND ");
-		}
-		
-		StringBuilder loadSql = new StringBuilder();
-		
-		//计算有多少个组，设置每个组对应的分组属性的取值
-		loadSql.append(" SELECT " + grpAttrsStr.substring(0,grpAttrsStr.lastIndexOf(",")));
-		loadSql.append(" FROM "+ fromTables + this.originTable);
-		loadSql.append(" WHERE "+ whereClause.substring(0,whereClause.lastIndexOf("AND")));
-		loadSql.append(" GROUP BY " + grpAttrsStr.substring(0,grpAttrsStr.lastIndexOf(",")));
-		System.out.println("group by sql : "+loadSql.toString());
-		
-		DBUtil db = new DBUtil();
-		ResultSet rs = null;
-		rs = db.excuteQuery(loadSql.toString());
-		ResultSetMetaData meta = null;
-		try {
-			int groupingNum = 0;
-			meta = rs.getMetaData();
-			/**
-			 * 填充各个分组属性的类型
-			 */
-			for(int i = 0 ; i < this.groupingAttrs.size(); i++){
-				String type = meta.getColumnTypeName(i+1);
-				this.groupingAttrsType.add(type);
-			}
-			
-			while(rs.next()){
-				List<String> attrValues = new ArrayList<String>();
-				/**
-				 * 计算每个分组下，每个属性的取值
-				 */
-				for(int i = 0 ; i < this.groupingAttrs.size(); i++){
-					
-					String attrValue = rs.getString(i+1);
-					attrValues.add(attrValue);
-				}
-				this.groupingValues.put(groupingNum++, attrValues);
-			}
-			
-			/**
-			 * 对每一个分组，计算其bucket集合
-			 */
-			calculateBuckets();
-			
-			/**
-			 *	计算scale factor 以及抽样率
-			 */
-			int totalTupleNum = 0;
-			int totalSampleNum = 0;
-			for(int i = 0;i < this.groupBuckets.size(); i++){
-				List<Bucket> bucs = this.getGroupBuckets().get(i);
-				int tupleNum = 0;
-				int sampleNum = bucs.size();
-				for(Bucket buc : bucs){
-					tupleNum += buc.getTupleNum();
-				}
-				totalTupleNum += tupleNum;
-				totalSampleNum += sampleNum;
-				
-				this.scaleFactors.add((double)tupleNum/sampleNum);
-			}
-			
-			this.samplingRate = (float)totalSampleNum/totalTupleNum;
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+	private void load(){
+		if(!this.loaded)
+			scan(false);
 	}
+	
 	/**
-	 * 数据加载
-	 * 从table中加载属性，将查询结果按升序排序
-	 * 获取所有分组，初始化groupBuckets
-	 * 根据查询结果计算所有buckets
+	 * 对原始表进行一次有序扫描，计算各个分组的buckets、比例因子以及抽样率；
+	 * 如果同时物化样本，则在每个bucket内用蓄水池抽样随机选出一个元组，
+	 * 一个分组扫描结束后，其比例因子=元组数/桶数，此时将该分组选中的元组批量写入样本表
 	 * 
+	 * @param materialize	是否同时物化样本，样本表必须已经创建
 	 */
-	private void load(){
+	private void scan(final boolean materialize){
+		StringBuilder scanSql = new StringBuilder();
+		scanSql.append("SELECT ");
+		if(materialize)
+			scanSql.append(this.database.quote(this.originTable) + ".*, ");
+		scanSql.append(attrList(this.groupingAttrs) + ", " + this.database.quote(this.aggregateAttrs.get(0)));
+		scanSql.append(fromClause());
+		scanSql.append(" ORDER BY " + attrList(this.groupingAttrs) + ", " + this.database.quote(this.aggregateAttrs.get(0)) + " ASC");
 		
-		StringBuilder loadSql = new StringBuilder();
-		StringBuilder grpAttrsStr = new StringBuilder();
-		
-		for(String temp:this.groupingAttrs){
-			grpAttrsStr.append(temp+", ");
-		}
-		//计算有多少个组，设置每个组对应的分组属性的取值
-		loadSql.append(" SELECT " + grpAttrsStr.substring(0,grpAttrsStr.lastIndexOf(",")));
-		loadSql.append(" FROM "+ this.originTable);
-		loadSql.append(" GROUP BY " + grpAttrsStr.substring(0,grpAttrsStr.lastIndexOf(",")));
-		System.out.println("group by sql : "+loadSql.toString());
-		
-		DBUtil db = new DBUtil();
-		ResultSet rs = null;
-		rs = db.excuteQuery(loadSql.toString());
-		ResultSetMetaData meta = null;
-		try {
-			int groupingNum = 0;
-			meta = rs.getMetaData();
-			/**
-			 * 填充各个分组属性的类型
-			 */
-			for(int i = 0 ; i < this.groupingAttrs.size(); i++){
-				String type = meta.getColumnTypeName(i+1);
-				this.groupingAttrsType.add(type);
-			}
-			
-			while(rs.next()){
-				List<String> attrValues = new ArrayList<String>();
+		this.groupingValues.clear();
+		this.groupingAttrsType.clear();
+		this.groupBuckets.clear();
+		this.database.query(scanSql.toString(), new ResultSetHandler<Void>() {
+			public Void handle(ResultSet rs) throws SQLException {
+				ResultSetMetaData meta = rs.getMetaData();
+				int columnCount = meta.getColumnCount();
+				//物化时结果集以原始表的所有列开头
+				int originColumnCount = columnCount - groupingAttrs.size() - 1;
 				/**
-				 * 计算每个分组下，每个属性的取值
+				 * 填充各个分组属性的类型
 				 */
-				for(int i = 0 ; i < this.groupingAttrs.size(); i++){
-					
-					String attrValue = rs.getString(i+1);
-					attrValues.add(attrValue);
+				for(int i = 0 ; i < groupingAttrs.size(); i++){
+					String type = meta.getColumnTypeName(originColumnCount+i+1);
+					groupingAttrsType.add(type);
 				}
-				this.groupingValues.put(groupingNum++, attrValues);
-			}
-			
-			/**
-			 * 对每一个分组，计算其bucket集合
-			 */
-			calculateBuckets();
-			
-			/**
-			 *	计算scale factor 以及抽样率
-			 */
-			int totalTupleNum = 0;
-			int totalSampleNum = 0;
-			for(int i = 0;i < this.groupBuckets.size(); i++){
-				List<Bucket> bucs = this.getGroupBuckets().get(i);
-				int tupleNum = 0;
-				int sampleNum = bucs.size();
-				for(Bucket buc : bucs){
-					tupleNum += buc.getTupleNum();
-				}
-				totalTupleNum += tupleNum;
-				totalSampleNum += sampleNum;
 				
-				this.scaleFactors.add((double)tupleNum/sampleNum);
-			}
-			
-			this.samplingRate = (float)totalSampleNum/totalTupleNum;
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-	}
-	
-	/**
-	 * 针对每一个分组，从数据库查询聚集属性集，并按升序排序
-	 * 并计算其bucket
-	 */
-	private void calculateBuckets(){
-		StringBuilder aggAttrSetSql = null;
-		StringBuilder fromTables = new StringBuilder();
-		StringBuilder joinWhere = new StringBuilder();
-		for(String table : this.joinTables){
-			fromTables.append(table + ",");
-		}
-		for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
-			joinWhere.append(entry.getKey()+"="+entry.getValue() + " AND ");
-		}
-		//遍历每个分组，为每个分组计算bucket集合
-		for(int i = 0 ; i < this.groupingValues.size(); i++){
-			aggAttrSetSql = new StringBuilder();
-			aggAttrSetSql.append(" SELECT "+this.aggregateAttrs.get(0));
-			//基于多表的FROM
-			if(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty())
-				aggAttrSetSql.append(" FROM " + this.originTable);
-			else//基于单表的FROM
-				aggAttrSetSql.append(" FROM " + fromTables + this.originTable);
-			aggAttrSetSql.append(" WHERE ");
-			StringBuilder groupWhere = new StringBuilder();
-			
-			List<String> attrValues = this.groupingValues.get(i);
-			
-			for(int j = 0; j < attrValues.size(); j++){
-				groupWhere.append(this.groupingAttrs.get(j) + "="+ attrValues.get(j)+" AND ");
-			}
-			//基于多表的join操作
-			if(this.mappingJoinAttrs != null && !this.mappingJoinAttrs.isEmpty())
-				aggAttrSetSql.append(joinWhere);
-			aggAttrSetSql.append(groupWhere.substring(0, groupWhere.lastIndexOf("AND")));
-			aggAttrSetSql.append(" ORDER BY " + this.aggregateAttrs.get(0)+" ASC");
-			
-			System.out.println("grouping agg sql:"+aggAttrSetSql);
-			
-			ResultSet rs = new DBUtil().excuteQuery(aggAttrSetSql.toString());
-			List<Number> sortedValue = new ArrayList<Number>();
-			try {
-				while(rs.next()){
-					sortedValue.add(rs.getBigDecimal(1));
+				//样本表在原始表的列之后附加了row_id、sf两列
+				SampleTableWriter writer = materialize
+						? new SampleTableWriter(database, sampleTable, originColumnCount + 2)
+						: null;
+				try {
+					Random rand = new Random();
+					List<String> currGroup = null;
+					List<Bucket> buckets = null;
+					List<Object[]> chosen = new ArrayList<Object[]>();		//每个bucket选中的元组
+					int rowId = 0;
+					while(rs.next()){
+						List<String> attrValues = readGroupingValues(rs, originColumnCount+1);
+						//分组属性的取值发生变化，说明进入了一个新的分组
+						if(!attrValues.equals(currGroup)){
+							if(writer != null)
+								writeGroup(writer, chosen, rowId);
+							currGroup = attrValues;
+							buckets = new ArrayList<Bucket>();
+							int groupingNum = groupingValues.size();
+							groupingValues.put(groupingNum, attrValues);
+							groupBuckets.put(groupingNum, buckets);
+							chosen.clear();
+							rowId = 0;
+						}
+						rowId++;
+						boolean newBucket = addToBuckets(buckets, rs.getDouble(columnCount));
+						if(writer == null)
+							continue;
+						if(newBucket){
+							chosen.add(readSampleRow(rs, originColumnCount, rowId));
+						}else{
+							//蓄水池抽样：桶中的第n个元组以1/n的概率替换已选中的元组
+							Bucket curr = buckets.get(buckets.size()-1);
+							if(rand.nextInt(curr.getTupleNum()) == 0)
+								chosen.set(chosen.size()-1, readSampleRow(rs, originColumnCount, rowId));
+						}
+					}
+					if(writer != null)
+						writeGroup(writer, chosen, rowId);
+				} finally {
+					if(writer != null)
+						writer.close();
 				}
-			} catch (SQLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				return null;
 			}
+		});
+		
+		/**
+		 *	计算scale factor 以及抽样率
+		 */
+		this.scaleFactors.clear();
+		int totalTupleNum = 0;
+		int totalSampleNum = 0;
+		for(int i = 0;i < this.groupBuckets.size(); i++){
+			List<Bucket> bucs = this.groupBuckets.get(i);
+			int tupleNum = tupleNum(bucs);
+			int sampleNum = bucs.size();
+			totalTupleNum += tupleNum;
+			totalSampleNum += sampleNum;
 			
-			List<Bucket> buckets = findBuckets(sortedValue);
-			this.groupBuckets.put(i, buckets);
-		}// for end
+			this.scaleFactors.add((double)tupleNum/sampleNum);
+		}
+		
+		this.samplingRate = (float)totalSampleNum/totalTupleNum;
+		this.loaded = true;
 	}
 	
 	/**
-	 * 为某一个组找出一个局部最佳buckets的划分
+	 * 将有序值序列中的下一个值加入当前分组的buckets划分，得到一个局部最佳的划分：
+	 * 尝试将新值合并到当前桶中，
+	 * 如果合并操作增大了当前桶的值范围并且增加了误差下的样本量，则创建一个新的桶
 	 * 
-	 * @param sortedValues 一个已排序的值{x1,...,xN}
-	 * @return 该组值的桶的集合
+	 * @param buckets	当前分组已有的桶，按值升序排列
+	 * @param value		下一个值，不小于已有的所有值
+	 * @return			是否为该值创建了新的桶
 	 */
-	private List<Bucket> findBuckets(List<Number> sortedValues){
-		
-		List<Bucket> buckets = new ArrayList<Bucket>();
-		int tupleNum = sortedValues.size();
-		
-		Bucket curr = new Bucket();
-		curr.setTupleNum(1);
-		curr.setSampleNum(1);
-		curr.setLo(sortedValues.get(0).doubleValue());
-		curr.setHi(sortedValues.get(0).doubleValue());
-		buckets.add(curr);
-		
-		if(tupleNum == 1)
-			return buckets;
-		
-		/*
-		 * 从第二个元素开始计算，尝试将新值合并到当前桶中
-		 * 如果合并操作增大了当前桶的值范围并且增加了误差下的样本量，则创建一个新的桶
-		 */
-		for(int i = 1 ; i < tupleNum; i++){
-			double lo = curr.getLo();
-			double hi = sortedValues.get(i).doubleValue();
-			int sampleSize = calculateSampleSize(curr.getTupleNum(), lo, hi);
-			/*
-			 * 合并后的样本大小>之前的分配，划分到新的桶中
-			 */
-			if(sampleSize > curr.getSampleNum()){
-				Bucket newBucket = new Bucket();
-				newBucket.setTupleNum(1);
-				newBucket.setSampleNum(1);
-				newBucket.setLo(sortedValues.get(i).doubleValue());
-				newBucket.setHi(sortedValues.get(i).doubleValue());
-				buckets.add(newBucket);
-				curr = newBucket;
-			}else{	//否则，合并到当前桶中
-				curr.setHi(hi);
+	private boolean addToBuckets(List<Bucket> buckets, double value){
+		if(!buckets.isEmpty()){
+			Bucket curr = buckets.get(buckets.size()-1);
+			int sampleSize = calculateSampleSize(curr.getTupleNum(), curr.getLo(), value);
+			//合并后的样本大小不超过之前的分配，合并到当前桶中
+			if(sampleSize <= curr.getSampleNum()){
+				curr.setHi(value);
 				curr.setTupleNum(curr.getTupleNum()+1);
+				return false;
 			}
 		}
-		return buckets;
+		//否则，划分到新的桶中
+		Bucket newBucket = new Bucket();
+		newBucket.setTupleNum(1);
+		newBucket.setSampleNum(1);
+		newBucket.setLo(value);
+		newBucket.setHi(value);
+		buckets.add(newBucket);
+		return true;
 	}
 	/**
 	 * 
@@ -455,75 +336,91 @@ public class ErrorBoundedSampling {
 	}
 
 	public Map<Integer, List<Bucket>> getGroupBuckets() {
+		load();
 		return groupBuckets;
 	}
 	/**
-	 * 物化样本数据，针对每一个分组，计算每一个bukcet需要的rowid，将对应的数据插入样本表
-	 * TODO 这个实现非常naive，以后需要进行优化。(存储过程？函数？)
+	 * 物化样本数据。
+	 * 按分组属性、聚集属性的升序对原始表只进行一次扫描：在扫描过程中划分每个分组的buckets，
+	 * 并在每个bucket内用蓄水池抽样随机选出一个元组，详见{@link #scan(boolean)}。
+	 * 样本表：(原始属性集, row_id, sf)，其中row_id为元组在分组内按聚集属性排序后的位置(从1开始)
 	 */
 	public void materialize(){
-		StringBuilder materializeSql = null;
-		StringBuilder createSql = new StringBuilder();
-		createSql.append("CREATE TABLE " + this.sampleTable);
-		createSql.append(" SELECT * ");
-		createSql.append(" FROM " + this.originTable +" LIMIT 0 ");
-		new DBUtil().excute(createSql.toString());
-		new DBUtil().excute("ALTER TABLE " + this.sampleTable +" ADD COLUMN row_id int");
-		new DBUtil().excute("ALTER TABLE " + this.sampleTable +" ADD COLUMN sf decimal(16,6)");
-		//遍历每个分组，为每个分组计算bucket集合
-		for(int i = 0 ; i < this.groupingValues.size(); i++){
-			materializeSql = new StringBuilder();
-			StringBuilder fromTables = new StringBuilder();
-			StringBuilder joinWhere = new StringBuilder();
-			for(String table : this.joinTables){
-				fromTables.append(table + ",");
-			}
-			for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
-				joinWhere.append(entry.getKey()+"="+entry.getValue() + " AND ");
-			}
-			materializeSql.append(" INSERT INTO " + this.sampleTable);
-			materializeSql.append(" SELECT * FROM (");
-			materializeSql.append(" SELECT "+this.originTable+".*, @row_id:= @row_id+1 AS row_id, " + this.scaleFactors.get(i) + " AS sf ");
-			if(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty())
-				materializeSql.append(" FROM " + this.originTable + ", (SELECT @row_id:=0) as row_id");
-			else //基于多表的FROM
-				materializeSql.append(" FROM " + fromTables + this.originTable + ", (SELECT @row_id:=0) as row_id");
-			materializeSql.append(" WHERE ");
-			StringBuilder groupWhere = new StringBuilder();
-			
-			List<String> attrValues = this.groupingValues.get(i);
-			
-			for(int j = 0; j < attrValues.size(); j++){
-				groupWhere.append(this.groupingAttrs.get(j) + "="+ attrValues.get(j)+" AND ");
-			}
-			StringBuilder inClause = new StringBuilder();
-			//TODO 计算in中需要的值有哪些，然后拼接字符串
-			int currentRow = 1;			//当前row_id，从1开始
-			for(int j = 0 ;j <this.groupBuckets.get(i).size();j++){
-				Bucket buc = this.groupBuckets.get(i).get(j);
-				int tupleNum = buc.getTupleNum();
-				int rowID = getRandInt(currentRow, currentRow+tupleNum);
-				inClause.append(rowID+",");
-				currentRow += tupleNum;
-			}
-			if(this.mappingJoinAttrs != null && !this.mappingJoinAttrs.isEmpty())
-				materializeSql.append(joinWhere);
-			materializeSql.append(groupWhere.substring(0, groupWhere.lastIndexOf("AND")));
-			materializeSql.append(" ORDER BY " + this.aggregateAttrs.get(0)+" ASC ) AS tbl ");
-			materializeSql.append(" WHERE row_id IN (" + inClause.substring(0,inClause.length()-1) + ")");
-			
-			
-			System.out.println("materialize sql:"+materializeSql);
-			
-			new DBUtil().excute(materializeSql.toString());
-			
-		}// for end
+		this.database.createSampleTable(this.originTable, this.sampleTable, true);
+		scan(true);
 	}
-
-	private int getRandInt(int lo , int hi){
-		Random rand = new Random();
-			
-		return lo + rand.nextInt(hi-lo+1);
+	
+	/**
+	 * 读取一个元组的原始属性，并填入row_id，sf在分组扫描结束后填入
+	 */
+	private static Object[] readSampleRow(ResultSet rs, int originColumnCount, int rowId) throws SQLException {
+		Object[] row = SampleTableWriter.readRow(rs, originColumnCount, 2);
+		row[originColumnCount] = rowId;
+		return row;
+	}
+	
+	/**
+	 * 将一个分组选中的元组写入样本表，比例因子=分组的元组数/桶数
+	 * 
+	 * @param writer	样本表写入器
+	 * @param chosen	分组中每个bucket选中的元组
+	 * @param tupleNum	分组的元组数
+	 */
+	private static void writeGroup(SampleTableWriter writer, List<Object[]> chosen, int tupleNum) throws SQLException {
+		if(chosen.isEmpty())
+			return;
+		double sf = (double)tupleNum/chosen.size();
+		for(Object[] row : chosen){
+			row[row.length-1] = sf;
+			writer.write(row);
+		}
+	}
+	
+	/**
+	 * 从第start列开始读取分组属性的取值
+	 */
+	private List<String> readGroupingValues(ResultSet rs, int start) throws SQLException {
+		List<String> attrValues = new ArrayList<String>();
+		for(int i = 0 ; i < this.groupingAttrs.size(); i++){
+			attrValues.add(rs.getString(start+i));
+		}
+		return attrValues;
+	}
+	
+	/**
+	 * 拼接FROM子句，多表抽样时包含连接条件
+	 */
+	private String fromClause(){
+		if(this.mappingJoinAttrs == null || this.mappingJoinAttrs.isEmpty())
+			return " FROM " + this.database.quote(this.originTable);
+		StringBuilder fromTables = new StringBuilder();
+		StringBuilder joinWhere = new StringBuilder();
+		for(String table : this.joinTables){
+			fromTables.append(this.database.quote(table) + ",");
+		}
+		for(Entry<String,String> entry : this.mappingJoinAttrs.entrySet()){
+			joinWhere.append(this.database.quote(entry.getKey())+"="+this.database.quote(entry.getValue()) + " AND ");
+		}
+		return " FROM " + fromTables + this.database.quote(this.originTable)
+				+ " WHERE " + joinWhere.substring(0, joinWhere.lastIndexOf("AND"));
+	}
+	
+	private String attrList(List<String> attrs){
+		StringBuilder attrsStr = new StringBuilder();
+		for(String attr : attrs){
+			if(attrsStr.length() > 0)
+				attrsStr.append(", ");
+			attrsStr.append(this.database.quote(attr));
+		}
+		return attrsStr.toString();
+	}
+	
+	private static int tupleNum(List<Bucket> buckets){
+		int tupleNum = 0;
+		for(Bucket buc : buckets){
+			tupleNum += buc.getTupleNum();
+		}
+		return tupleNum;
 	}
 	
 	/**
@@ -548,10 +445,12 @@ public class ErrorBoundedSampling {
 	}
 
 	public List<Double> getScaleFactors() {
+		load();
 		return scaleFactors;
 	}
 
 	public float getSamplingRate() {
+		load();
 		return samplingRate;
 	}
 	
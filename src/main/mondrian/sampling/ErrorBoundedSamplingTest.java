@@ -9,6 +9,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import mondrian.olap.DriverManager;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.RolapConnection;
+
 import org.junit.Test;
 
 import db.DBUtil;
@@ -23,6 +27,11 @@ import db.DBUtil;
 public class ErrorBoundedSamplingTest {
 	String originTable = "inventory_fact_1997";
 	String sampleTable = "inventory_fact_1997_error_bounded";
+	//样本所在的数据库：测试连接串（mondrian.test.connectString）指向的foodmart的数据源
+	private SampleDatabase database = SampleDatabase.of(
+			(RolapConnection) DriverManager.getConnection(
+					MondrianProperties.instance().TestConnectString.get(),
+					null));
 	@Test
 	public void testErrorBoundedSampling(){
 		
@@ -35,7 +44,7 @@ public class ErrorBoundedSamplingTest {
 		float error = 5;
 		float confidence = 0.9f;
 		
-		ErrorBoundedSampling sampling = new ErrorBoundedSampling(error, confidence, originTable, sampleTable, groupingAttrs, aggregateAttrs);
+		ErrorBoundedSampling sampling = new ErrorBoundedSampling(database, error, confidence, originTable, sampleTable, groupingAttrs, aggregateAttrs);
 		Map<Integer,List<Bucket>> bucMap = sampling.getGroupBuckets();
 		sampling.materialize();
 //		int totalTuple = 0;
@@ -73,7 +82,7 @@ public class ErrorBoundedSamplingTest {
 		float error = 5;
 		float confidence = 0.9f;
 		
-		ErrorBoundedSampling sampling = new ErrorBoundedSampling(error, confidence, originTable, originTable+"_error_bounded_join", groupingAttrs,mappingJoinAttrs, aggregateAttrs);
+		ErrorBoundedSampling sampling = new ErrorBoundedSampling(database, error, confidence, originTable, originTable+"_error_bounded_join", groupingAttrs,mappingJoinAttrs, aggregateAttrs);
 		Map<Integer,List<Bucket>> bucMap = sampling.getGroupBuckets();
 		sampling.materialize();
 		int totalTuple = 0;
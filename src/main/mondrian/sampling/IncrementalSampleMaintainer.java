@@ -0,0 +1,459 @@
+package mondrian.sampling;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapCube;
+import mondrian.rolap.RolapStar;
+import mondrian.sampling.SampleDatabase.ResultSetHandler;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 事实表追加数据之后对congressional样本进行增量维护，代替重新构建整个样本。
+ *
+ * <p>维护只扫描新追加的元组（由调用者给出的条件选出），步骤如下：
+ * <ol>
+ * <li>对样本表按分组属性分组，得到每个分层当前的样本量n以及样本对分层大小的估计N = Σsf；</li>
+ * <li>扫描新追加的元组，对每个分层继续进行蓄水池抽样（Algorithm R）：
+ *     分层中的第t个元组以 n/t 的概率进入样本，替换蓄水池中随机的一个元组；
+ *     已有分层的蓄水池容量为其当前的样本量，新出现的分层取已有分层的平均样本量；</li>
+ * <li>对于追加了元组的分层，在一个事务中删除其样本行，写回未被替换的旧样本（从旧样本中随机选取）
+ *     与新选中的元组，比例因子重新计算为 sf = N'/n'；</li>
+ * <li>通过{@link CacheControl#flushSample}只清除基于该样本估计出来的缓存段，
+ *     精确的缓存段以及基于其它样本的缓存段保留在缓存中。</li>
+ * </ol>
+ *
+ * <p>误差有界样本（ErrorBoundedSampling）按分组内的桶组织，蓄水池抽样无法保持桶的结构，
+ * 追加数据后仍需重新构建。
+ *
+ * @Description 基于蓄水池抽样的样本增量维护
+ */
+public class IncrementalSampleMaintainer {
+
+	private static final Logger LOGGER = Logger.getLogger(IncrementalSampleMaintainer.class);
+
+	private final RolapConnection connection;
+	private final SampleDatabase database;
+	private final SampleInfo info;
+	private final Random rand = new Random();
+
+	//多表抽样时分组属性与连接属性涉及的维表（不含原始表）
+	private final Set<String> dimensionTables = new LinkedHashSet<String>();
+	//连接条件：原始表.连接属性 -> 维表.连接属性
+	private final Map<String, String> joinAttrs = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param connection	样本所属cube的连接，用于访问数据库以及清除缓存
+	 * @param info			要维护的样本
+	 */
+	public IncrementalSampleMaintainer(RolapConnection connection, SampleInfo info){
+		if(info.getSamplingSchema() != SamplingSchema.CONGRESSIONAL_SAMPLING)
+			throw new IllegalArgumentException("只支持congressional样本的增量维护，其它样本需要重新构建：" + info.getSampleTable());
+		this.connection = connection;
+		this.database = SampleDatabase.of(connection);
+		this.info = info;
+		if(info.getJoinAttrs() != null){
+			for(String joinAttr : info.getJoinAttrs()){
+				String[] pair = joinAttr.split(":");
+				this.joinAttrs.put(pair[0], pair[1]);
+				addDimensionTable(pair[0]);
+				addDimensionTable(pair[1]);
+			}
+		}
+		if(!this.joinAttrs.isEmpty()){
+			for(String attr : groupingAttrs()){
+				addDimensionTable(attr);
+			}
+		}
+	}
+
+	private void addDimensionTable(String attr){
+		int dot = attr.indexOf('.');
+		if(dot < 0)
+			return;
+		String table = attr.substring(0, dot);
+		if(!table.equals(this.info.getOriginTable()))
+			this.dimensionTables.add(table);
+	}
+
+	private List<String> groupingAttrs(){
+		return this.info.getGroupingAttrs() == null
+				? Collections.<String>emptyList()
+				: this.info.getGroupingAttrs();
+	}
+
+	/**
+	 * 把新追加到原始表中的元组并入样本
+	 *
+	 * @param deltaCondition	选出新追加元组的条件，例如 "time_id" &gt; 1000；标识符由调用者加引号
+	 * @return					样本发生变化的分层数
+	 */
+	public int append(String deltaCondition){
+		final Map<List<String>, Stratum> strata = loadStrata();
+		int capacity = 1;
+		if(!strata.isEmpty()){
+			long sampleSize = 0;
+			for(Stratum stratum : strata.values()){
+				sampleSize += stratum.sampleSize;
+			}
+			capacity = (int) Math.max(1, Math.round((double) sampleSize / strata.size()));
+		}
+		final int originColumnCount = scanDelta(deltaCondition, strata, capacity);
+
+		final Map<List<String>, Stratum> changed = new HashMap<List<String>, Stratum>();
+		for(Map.Entry<List<String>, Stratum> entry : strata.entrySet()){
+			if(entry.getValue().newRows > 0)
+				changed.put(entry.getKey(), entry.getValue());
+		}
+		if(changed.isEmpty())
+			return 0;
+		loadOldRows(changed, originColumnCount);
+		rewrite(changed.values(), originColumnCount);
+		flushCache();
+		return changed.size();
+	}
+
+	/**
+	 * 对样本表按分组属性分组，得到各个分层的样本量以及样本对分层大小的估计
+	 */
+	private Map<List<String>, Stratum> loadStrata(){
+		StringBuilder attrs = new StringBuilder();
+		for(String attr : groupingAttrs()){
+			attrs.append(this.database.quote(attr) + ", ");
+		}
+		String sql = "SELECT " + attrs + "count(*), sum(" + this.database.quote(this.info.getOriginTable() + ".sf") + ")"
+				+ fromClause(true);
+		if(!groupingAttrs().isEmpty())
+			sql += " GROUP BY " + attrs.substring(0, attrs.length() - 2);
+		return this.database.query(sql, new ResultSetHandler<Map<List<String>, Stratum>>() {
+			public Map<List<String>, Stratum> handle(ResultSet rs) throws SQLException {
+				int attrCount = groupingAttrs().size();
+				Map<List<String>, Stratum> strata = new HashMap<List<String>, Stratum>();
+				while(rs.next()){
+					int sampleSize = rs.getInt(attrCount + 1);
+					if(sampleSize == 0)
+						continue;
+					Stratum stratum = new Stratum(readValues(rs, 0), Math.round(rs.getDouble(attrCount + 2)), sampleSize);
+					strata.put(keyOf(stratum.values), stratum);
+				}
+				return strata;
+			}
+		});
+	}
+
+	/**
+	 * 扫描新追加的元组，逐个分层进行蓄水池抽样
+	 *
+	 * @return	原始表的列数
+	 */
+	private int scanDelta(String deltaCondition, final Map<List<String>, Stratum> strata, final int capacity){
+		String sql = "SELECT " + selectList() + fromClause(false);
+		sql += (this.joinAttrs.isEmpty() ? " WHERE (" : " AND (") + deltaCondition + ")";
+		return this.database.query(sql, new ResultSetHandler<Integer>() {
+			public Integer handle(ResultSet rs) throws SQLException {
+				int originColumnCount = rs.getMetaData().getColumnCount() - groupingAttrs().size();
+				while(rs.next()){
+					List<Object> values = readValues(rs, originColumnCount);
+					List<String> key = keyOf(values);
+					Stratum stratum = strata.get(key);
+					if(stratum == null){
+						stratum = new Stratum(values, 0, 0);
+						stratum.capacity = capacity;
+						strata.put(key, stratum);
+					}
+					stratum.offer(rs, originColumnCount, rand);
+				}
+				return originColumnCount;
+			}
+		});
+	}
+
+	/**
+	 * 读出发生变化的分层的旧样本，并从中随机保留未被新元组替换的个数
+	 */
+	private void loadOldRows(final Map<List<String>, Stratum> changed, final int originColumnCount){
+		String sql = "SELECT " + selectList() + fromClause(true);
+		this.database.query(sql, new ResultSetHandler<Void>() {
+			public Void handle(ResultSet rs) throws SQLException {
+				while(rs.next()){
+					Stratum stratum = changed.get(keyOf(readValues(rs, originColumnCount + 1)));
+					if(stratum != null)
+						stratum.oldRows.add(SampleTableWriter.readRow(rs, originColumnCount + 1, 0));
+				}
+				return null;
+			}
+		});
+		for(Stratum stratum : changed.values()){
+			Collections.shuffle(stratum.oldRows, rand);
+			int kept = stratum.keptOldRows();
+			if(stratum.oldRows.size() > kept)
+				stratum.oldRows.subList(kept, stratum.oldRows.size()).clear();
+		}
+	}
+
+	/**
+	 * 在一个事务中删除发生变化的分层的样本行，写回保留的旧样本与新选中的元组，sf = N'/n'
+	 */
+	private void rewrite(Iterable<Stratum> changed, int originColumnCount){
+		Connection con = null;
+		boolean autoCommit = true;
+		try {
+			con = this.database.getConnection();
+			autoCommit = con.getAutoCommit();
+			con.setAutoCommit(false);
+			SampleTableWriter writer = new SampleTableWriter(this.database, con, this.info.getSampleTable(), originColumnCount + 1);
+			try {
+				for(Stratum stratum : changed){
+					delete(con, stratum);
+					List<Object[]> rows = stratum.rows();
+					double sf = (double) (stratum.populationSize + stratum.newRows) / rows.size();
+					for(Object[] row : rows){
+						row[originColumnCount] = sf;
+						writer.write(row);
+					}
+				}
+			} finally {
+				writer.close();
+			}
+			con.commit();
+		} catch (SQLException e) {
+			rollback(con);
+			throw new RuntimeException("增量维护样本失败：" + this.info.getSampleTable(), e);
+		} catch (RuntimeException e) {
+			rollback(con);
+			throw e;
+		} finally {
+			if(con != null){
+				try {
+					con.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					// 连接将被归还给连接池，忽略
+				}
+			}
+			Util.close(null, null, con);
+		}
+	}
+
+	private static void rollback(Connection con){
+		if(con == null)
+			return;
+		try {
+			con.rollback();
+		} catch (SQLException e) {
+			// 保留原来的异常
+		}
+	}
+
+	/**
+	 * 删除一个分层在样本表中的所有元组；
+	 * 多表抽样时分层由维表上的属性确定，通过EXISTS子查询关联维表
+	 */
+	private void delete(Connection con, Stratum stratum) throws SQLException {
+		List<Object> parameters = new ArrayList<Object>();
+		StringBuilder condition = new StringBuilder();
+		List<String> attrs = groupingAttrs();
+		for(int i = 0; i < attrs.size(); i++){
+			if(condition.length() > 0)
+				condition.append(" AND ");
+			Object value = stratum.values.get(i);
+			condition.append(this.database.quote(onSampleTable(attrs.get(i))));
+			if(value == null){
+				condition.append(" IS NULL");
+			} else {
+				condition.append(" = ?");
+				parameters.add(value);
+			}
+		}
+		StringBuilder sql = new StringBuilder("DELETE FROM " + this.database.quote(this.info.getSampleTable()));
+		if(!this.joinAttrs.isEmpty()){
+			StringBuilder tables = new StringBuilder();
+			for(String table : this.dimensionTables){
+				tables.append(tables.length() == 0 ? "" : ", ").append(this.database.quote(table));
+			}
+			StringBuilder joins = new StringBuilder();
+			for(Map.Entry<String, String> join : this.joinAttrs.entrySet()){
+				joins.append(joins.length() == 0 ? "" : " AND ")
+					.append(this.database.quote(onSampleTable(join.getKey())))
+					.append(" = ")
+					.append(this.database.quote(onSampleTable(join.getValue())));
+			}
+			if(condition.length() > 0)
+				joins.append(" AND ").append(condition);
+			sql.append(" WHERE EXISTS (SELECT 1 FROM " + tables + " WHERE " + joins + ")");
+		} else if(condition.length() > 0){
+			sql.append(" WHERE " + condition);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("execute sql : " + sql);
+		}
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+		try {
+			for(int i = 0; i < parameters.size(); i++){
+				stmt.setObject(i + 1, parameters.get(i));
+			}
+			stmt.executeUpdate();
+		} finally {
+			Util.close(null, stmt, null);
+		}
+	}
+
+	/**
+	 * 清除由该样本估计出来的、以原始表为事实表的cube的缓存段
+	 */
+	private void flushCache(){
+		CacheControl cacheControl = this.connection.getCacheControl(null);
+		for(RolapCube cube : this.connection.getSchema().getCubeList()){
+			if(cube.isVirtual())
+				continue;
+			RolapStar star = cube.getStar();
+			if(star == null
+					|| !this.info.getOriginTable().equalsIgnoreCase(star.getFactTable().getTableName()))
+				continue;
+			cacheControl.flushSample(cacheControl.createMeasuresRegion(cube), this.info.getSampleTable());
+		}
+	}
+
+	/**
+	 * 原始表的所有列以及分组属性
+	 */
+	private String selectList(){
+		StringBuilder select = new StringBuilder(this.database.quote(this.info.getOriginTable()) + ".*");
+		for(String attr : groupingAttrs()){
+			select.append(", " + this.database.quote(attr));
+		}
+		return select.toString();
+	}
+
+	/**
+	 * FROM子句以及多表抽样时的连接条件；扫描样本表时样本表以原始表的名字作为别名，
+	 * 使得分组属性与连接属性中对原始表的引用同样适用于样本表
+	 *
+	 * @param sample	是否扫描样本表
+	 */
+	private String fromClause(boolean sample){
+		StringBuilder from = new StringBuilder(" FROM ");
+		if(sample)
+			from.append(this.database.quote(this.info.getSampleTable()) + " ");
+		from.append(this.database.quote(this.info.getOriginTable()));
+		for(String table : this.dimensionTables){
+			from.append(", " + this.database.quote(table));
+		}
+		StringBuilder where = new StringBuilder();
+		for(Map.Entry<String, String> join : this.joinAttrs.entrySet()){
+			where.append(where.length() == 0 ? " WHERE " : " AND ")
+				.append(this.database.quote(join.getKey()))
+				.append(" = ")
+				.append(this.database.quote(join.getValue()));
+		}
+		return from.append(where).toString();
+	}
+
+	/**
+	 * 把对原始表的属性引用改为对样本表的引用
+	 */
+	private String onSampleTable(String attr){
+		String prefix = this.info.getOriginTable() + ".";
+		return attr.startsWith(prefix)
+				? this.info.getSampleTable() + "." + attr.substring(prefix.length())
+				: attr;
+	}
+
+	/**
+	 * 读取从start列之后的分组属性取值
+	 */
+	private List<Object> readValues(ResultSet rs, int start) throws SQLException {
+		List<Object> values = new ArrayList<Object>();
+		for(int col = 1; col <= groupingAttrs().size(); col++){
+			values.add(rs.getObject(start + col));
+		}
+		return values;
+	}
+
+	/**
+	 * 分层的键：分组属性取值的字符串形式，避免样本表与原始表的列类型不同导致取值的Java类型不同
+	 */
+	private static List<String> keyOf(List<Object> values){
+		List<String> key = new ArrayList<String>(values.size());
+		for(Object value : values){
+			key.add(value == null ? null : value.toString());
+		}
+		return key;
+	}
+
+	/**
+	 * 一个分层的蓄水池：前sampleSize个槽位对应旧样本（值为null），其余为新选中的元组
+	 */
+	private static class Stratum {
+		final List<Object> values;		//分组属性取值
+		final long populationSize;		//样本对分层大小的估计N
+		final int sampleSize;			//旧样本量n
+		int capacity;					//蓄水池容量
+		int newRows;					//追加的元组数
+		final List<Object[]> reservoir = new ArrayList<Object[]>();
+		final List<Object[]> oldRows = new ArrayList<Object[]>();
+
+		Stratum(List<Object> values, long populationSize, int sampleSize){
+			this.values = values;
+			this.populationSize = populationSize;
+			this.sampleSize = sampleSize;
+			this.capacity = sampleSize;
+			for(int i = 0; i < sampleSize; i++){
+				this.reservoir.add(null);
+			}
+		}
+
+		/**
+		 * Algorithm R：蓄水池未满时直接放入，否则以 capacity/t 的概率替换随机的一个槽位
+		 */
+		void offer(ResultSet rs, int originColumnCount, Random rand) throws SQLException {
+			newRows++;
+			if(reservoir.size() < capacity){
+				reservoir.add(SampleTableWriter.readRow(rs, originColumnCount, 1));
+				return;
+			}
+			long t = populationSize + newRows;
+			long slot = (long) (rand.nextDouble() * t);
+			if(slot < capacity)
+				reservoir.set((int) slot, SampleTableWriter.readRow(rs, originColumnCount, 1));
+		}
+
+		/**
+		 * 蓄水池中仍为旧样本的槽位数
+		 */
+		int keptOldRows(){
+			int kept = 0;
+			for(Object[] row : reservoir){
+				if(row == null)
+					kept++;
+			}
+			return kept;
+		}
+
+		/**
+		 * 分层的新样本：保留的旧样本以及新选中的元组
+		 */
+		List<Object[]> rows(){
+			List<Object[]> rows = new ArrayList<Object[]>(oldRows);
+			for(Object[] row : reservoir){
+				if(row != null)
+					rows.add(row);
+			}
+			return rows;
+		}
+	}
+}
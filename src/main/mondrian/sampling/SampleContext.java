@@ -1,24 +1,159 @@
 package mondrian.sampling;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EmptyStackException;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import mondrian.olap.Util;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+
+/**
+ * 查询过程中的抽样上下文：哪些原始表需要改为从样本表进行查询。
+ *
+ * <p>抽样上下文是不可变的，由连接串属性
+ * {@link mondrian.rolap.RolapConnectionProperties#SampleTables} 给出连接级别的默认值，
+ * 由 {@link mondrian.server.Statement#setSampleContext(SampleContext)} 给出单个语句的覆盖值，
+ * 并在创建 {@link Execution} 时固定下来，通过 {@link Locus} 传递给 SQL 生成代码。
+ * 因此同一个服务器上的近似查询与精确查询互不影响。
+ *
+ * @Description 按连接/语句/执行划分的抽样上下文
+ */
 public class SampleContext {
-	
-	//查询过程中需要使用样本表的表
-	private static List<String> tablesNeededSampling;
-	
-	static {
-		tablesNeededSampling = new ArrayList<String>();
+
+	/**
+	 * 不使用任何样本表的上下文
+	 */
+	public static final SampleContext NONE =
+			new SampleContext(Collections.<String>emptyList());
+
+	//查询过程中需要使用样本表的表（小写）
+	private final Set<String> tablesNeededSampling;
+
+	public SampleContext(Collection<String> tables){
+		Set<String> set = new LinkedHashSet<String>();
+		for(String table : tables){
+			set.add(table.toLowerCase());
+		}
+		this.tablesNeededSampling = Collections.unmodifiableSet(set);
+	}
+
+	/**
+	 * 解析以逗号分隔的表名列表，例如连接串中的 "SampleTables=sales_fact_1997,inventory_fact_1997"
+	 *
+	 * @param tableList	表名列表，可以为null
+	 * @return	抽样上下文，列表为空时返回{@link #NONE}
+	 */
+	public static SampleContext parse(String tableList){
+		if(tableList == null || tableList.trim().length() == 0){
+			return NONE;
+		}
+		List<String> tables = new ArrayList<String>();
+		for(String table : Util.parseCommaList(tableList)){
+			if(table.trim().length() > 0){
+				tables.add(table.trim());
+			}
+		}
+		return tables.isEmpty() ? NONE : new SampleContext(tables);
 	}
-	
-	public static void setTablesNeededSampling(List<String> tables){
-		for(int i =0 ; i< tables.size(); i++){
-			tables.set(i, tables.get(i).toLowerCase());
+
+	/**
+	 * 返回当前线程正在执行的查询的抽样上下文。
+	 * 如果当前线程不在任何查询的执行过程中，返回{@link #NONE}
+	 */
+	public static SampleContext current(){
+		final Locus locus;
+		try {
+			locus = Locus.peek();
+		} catch (EmptyStackException e) {
+			return NONE;
 		}
-		tablesNeededSampling = tables;
+		final Execution execution = locus.execution;
+		if(execution == null){
+			return NONE;
+		}
+		return execution.getSampleContext();
 	}
-	public static List<String> getTablesNeededSampling(){
+
+	public Set<String> getTablesNeededSampling(){
 		return tablesNeededSampling;
 	}
+
+	public boolean isEmpty(){
+		return tablesNeededSampling.isEmpty();
+	}
+
+	/**
+	 * 判断给定的原始表是否需要从样本表进行查询
+	 */
+	public boolean isSampled(String originTable){
+		return originTable != null
+				&& tablesNeededSampling.contains(originTable.toLowerCase());
+	}
+
+	/**
+	 * 返回用来代替给定原始表的默认样本信息（第一个注册的样本）；
+	 * 如果该表不需要抽样或者没有注册样本，返回null。
+	 * 单元格批量加载时由{@link mondrian.rolap.agg.AggregationManager#findSample}另行选择样本。
+	 */
+	public SampleInfo getSampleInfo(String originTable){
+		final List<SampleInfo> infos = getSampleInfos(originTable);
+		return infos.isEmpty() ? null : infos.get(0);
+	}
+
+	/**
+	 * 返回给定原始表上注册的所有样本；如果该表不需要抽样，返回空列表
+	 */
+	public List<SampleInfo> getSampleInfos(String originTable){
+		if(!isSampled(originTable)){
+			return Collections.emptyList();
+		}
+		List<SampleInfo> infos = new ArrayList<SampleInfo>();
+		for(SampleInfo info : SampleInfoReader.sampleInfos){
+			if(info.getOriginTable().equalsIgnoreCase(originTable)){
+				infos.add(info);
+			}
+		}
+		return infos;
+	}
+
+	/**
+	 * 按样本表名查找本上下文可以使用的样本：该样本必须已注册，并且其原始表在本上下文中需要抽样。
+	 * 基于某个样本估计出来的缓存段，只对能够使用该样本的上下文可见。
+	 *
+	 * @param sampleTable	样本表名
+	 * @return	样本信息；如果本上下文不使用该样本，返回null
+	 */
+	public SampleInfo getSampleInfoBySampleTable(String sampleTable){
+		if(sampleTable == null || isEmpty()){
+			return null;
+		}
+		for(SampleInfo info : SampleInfoReader.sampleInfos){
+			if(info.getSampleTable().equalsIgnoreCase(sampleTable)
+					&& isSampled(info.getOriginTable())){
+				return info;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SampleContext
+				&& ((SampleContext) obj).tablesNeededSampling.equals(tablesNeededSampling);
+	}
+
+	@Override
+	public int hashCode() {
+		return tablesNeededSampling.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "SampleContext" + tablesNeededSampling;
+	}
 }
@@ -0,0 +1,280 @@
+package mondrian.sampling;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.sql.DataSource;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.spi.Dialect;
+import mondrian.spi.DialectManager;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 抽样子系统访问数据库的入口，代替硬编码的单个MySQL连接（db.DBUtil）。
+ *
+ * <p>使用cube所在schema的{@link DataSource}（连接池）与{@link Dialect}：
+ * 每个操作从连接池借一个连接、用完即归还，因此不同样本的构建互不阻塞；
+ * 标识符由Dialect加引号，样本表由与数据库无关的DDL创建，
+ * 因此样本也可以在非MySQL的数据仓库（例如测试用的HSQLDB/Derby FoodMart）上构建。
+ *
+ * <p>相互独立的按分层进行的查询可以通过{@link #submit(Callable)}提交到
+ * 服务器上所有样本构建共享的有界线程池
+ * （{@link SegmentCacheManager#samplingExecutor}）中并行执行，线程数由
+ * {@link MondrianProperties#SamplingBuildThreads}给出；
+ * 该线程池随服务器一起关闭。
+ *
+ * @Description 基于schema数据源的样本数据库访问
+ */
+public class SampleDatabase {
+
+	private static final Logger LOGGER = Logger.getLogger(SampleDatabase.class);
+
+	private final DataSource dataSource;
+	private final Dialect dialect;
+
+	/**
+	 * 构建样本时并行执行分层查询的线程池，属于服务器，不由本对象关闭；
+	 * 为null时任务在调用线程中执行
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * 创建一个不使用线程池的样本数据库，提交的任务在调用线程中执行
+	 *
+	 * @param dataSource	数据源，通常是schema的连接池
+	 * @param dialect		数据源对应的方言
+	 */
+	public SampleDatabase(DataSource dataSource, Dialect dialect){
+		this(dataSource, dialect, null);
+	}
+
+	/**
+	 * @param dataSource	数据源，通常是schema的连接池
+	 * @param dialect		数据源对应的方言
+	 * @param executor		并行执行分层查询的线程池，或null
+	 */
+	public SampleDatabase(DataSource dataSource, Dialect dialect,
+			ExecutorService executor){
+		assert dataSource != null;
+		assert dialect != null;
+		this.dataSource = dataSource;
+		this.dialect = dialect;
+		this.executor = executor;
+	}
+
+	/**
+	 * 使用给定连接的数据源、其schema的方言以及其服务器构建样本的线程池
+	 */
+	public static SampleDatabase of(RolapConnection connection){
+		return new SampleDatabase(
+				connection.getDataSource(),
+				connection.getSchema().getDialect(),
+				connection.getServer().getAggregationManager().cacheMgr
+						.samplingExecutor);
+	}
+
+	/**
+	 * 使用给定的数据源，方言由数据源自动识别
+	 */
+	public static SampleDatabase of(DataSource dataSource){
+		return new SampleDatabase(
+				dataSource,
+				DialectManager.createDialect(dataSource, null));
+	}
+
+	public DataSource getDataSource(){
+		return dataSource;
+	}
+
+	public Dialect getDialect(){
+		return dialect;
+	}
+
+	/**
+	 * 从连接池借一个连接，调用者负责关闭（归还）
+	 */
+	Connection getConnection() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+	/**
+	 * 给标识符加引号；形如table.column的限定名逐段加引号
+	 */
+	public String quote(String identifier){
+		StringBuilder buf = new StringBuilder();
+		for(String name : identifier.split("\\.")){
+			if(buf.length() > 0)
+				buf.append('.');
+			dialect.quoteIdentifier(name, buf);
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * 执行一条不返回结果的SQL语句（DDL、INSERT等）
+	 */
+	public void execute(String sql){
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("execute sql : " + sql);
+		}
+		Connection con = null;
+		Statement stmt = null;
+		try {
+			con = getConnection();
+			stmt = con.createStatement();
+			stmt.execute(sql);
+		} catch (SQLException e) {
+			throw new RuntimeException("执行SQL失败：" + sql, e);
+		} finally {
+			Util.close(null, stmt, con);
+		}
+	}
+
+	/**
+	 * 执行查询，并把只进的结果集交给handler处理。
+	 * 结果集以流的方式读取，以便逐批扫描大表而不把整个结果读入内存：
+	 * 抓取大小由方言根据{@link SampleTableWriter#BATCH_SIZE}给出
+	 * （例如MySQL需要{@link Integer#MIN_VALUE}），
+	 * 如果方言要求（例如PostgreSQL），查询期间关闭连接的自动提交
+	 *
+	 * @param sql		查询语句
+	 * @param handler	结果集的处理器
+	 * @return			处理器的返回值
+	 */
+	public <T> T query(String sql, ResultSetHandler<T> handler){
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("query sql : " + sql);
+		}
+		Connection con = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		boolean restoreAutoCommit = false;
+		try {
+			con = getConnection();
+			if(dialect.requiresAutoCommitOffToStream() && con.getAutoCommit()){
+				con.setAutoCommit(false);
+				restoreAutoCommit = true;
+			}
+			stmt = con.createStatement(
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			int fetchSize = dialect.getFetchSize(SampleTableWriter.BATCH_SIZE, true);
+			if(fetchSize != 0)
+				stmt.setFetchSize(fetchSize);
+			rs = stmt.executeQuery(sql);
+			return handler.handle(rs);
+		} catch (SQLException e) {
+			throw new RuntimeException("查询失败：" + sql, e);
+		} finally {
+			Util.close(rs, stmt, null);
+			if(restoreAutoCommit){
+				//恢复自动提交（同时结束事务）后再把连接还给连接池
+				try {
+					con.setAutoCommit(true);
+				} catch (SQLException e) {
+					LOGGER.warn("恢复自动提交失败", e);
+				}
+			}
+			Util.close(null, null, con);
+		}
+	}
+
+	/**
+	 * 在构建样本的线程池中异步执行一个任务；没有线程池时在调用线程中执行
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException 如果服务器已关闭
+	 */
+	public <T> Future<T> submit(Callable<T> task){
+		if(executor == null){
+			final FutureTask<T> future = new FutureTask<T>(task);
+			future.run();
+			return future;
+		}
+		return executor.submit(task);
+	}
+
+	/**
+	 * 等待一个异步任务完成，并把任务中的异常原样抛出
+	 */
+	public static <T> T get(Future<T> future){
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("构建样本被中断", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException("构建样本失败", cause);
+		}
+	}
+
+	/**
+	 * 创建一个与原始表结构相同的空样本表，并在末尾附加row_id列（可选）和sf列。
+	 * 列的定义由原始表的结果集元数据生成，不依赖MySQL的CREATE TABLE ... SELECT语法。
+	 *
+	 * @param originTable	原始表
+	 * @param sampleTable	样本表
+	 * @param withRowId		是否附加row_id列
+	 */
+	public void createSampleTable(String originTable, String sampleTable, final boolean withRowId){
+		final StringBuilder createSql = new StringBuilder();
+		createSql.append("CREATE TABLE " + quote(sampleTable) + " (");
+		query(
+				"SELECT * FROM " + quote(originTable) + " WHERE 1 = 0",
+				new ResultSetHandler<Void>() {
+					public Void handle(ResultSet rs) throws SQLException {
+						ResultSetMetaData meta = rs.getMetaData();
+						for(int i = 1; i <= meta.getColumnCount(); i++){
+							createSql.append(quote(meta.getColumnName(i)) + " " + columnType(meta, i) + ", ");
+						}
+						return null;
+					}
+				});
+		if(withRowId)
+			createSql.append(quote("row_id") + " INTEGER, ");
+		createSql.append(quote("sf") + " DECIMAL(16,6))");
+		execute(createSql.toString());
+	}
+
+	/**
+	 * 由结果集元数据生成列的类型，字符类型带长度，定点数类型带精度和小数位数
+	 */
+	private static String columnType(ResultSetMetaData meta, int column) throws SQLException {
+		String typeName = meta.getColumnTypeName(column);
+		int precision = meta.getPrecision(column);
+		if(precision <= 0)
+			return typeName;
+		switch(meta.getColumnType(column)){
+		case Types.CHAR:
+		case Types.VARCHAR:
+			return typeName + "(" + precision + ")";
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return typeName + "(" + precision + "," + meta.getScale(column) + ")";
+		default:
+			return typeName;
+		}
+	}
+
+	/**
+	 * 查询结果集的处理器
+	 */
+	public interface ResultSetHandler<T> {
+		T handle(ResultSet rs) throws SQLException;
+	}
+}
@@ -3,12 +3,10 @@ package mondrian.sampling;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.junit.Test;
-
-import db.DBUtil;
+import mondrian.sampling.SampleDatabase.ResultSetHandler;
 
 /**
  * 
@@ -19,56 +17,76 @@ import db.DBUtil;
  */
 public class SampleInfoReader {
 	
+	//查询线程并发读取，加载时整体替换同名样本，因此使用写时复制的列表
 	public static List<SampleInfo> sampleInfos ;
 	
 	static {
-		sampleInfos = new ArrayList<SampleInfo>();
+		sampleInfos = new CopyOnWriteArrayList<SampleInfo>();
 	}
 	
 	public SampleInfoReader(){
 		
 	}
 	/**
-	 * 从数据库加载样本元信息保存到smapleInfo中
+	 * 从样本所在数据库的sample_info表加载样本元信息保存到sampleInfos中；
+	 * 已加载过的同名样本被新读到的信息替换，因此可以重复调用
+	 * 
+	 * @param database	样本所在的数据库，例如{@link SampleDatabase#of(mondrian.rolap.RolapConnection)}
 	 */
-	public static void loadSampleInfo(){
-		DBUtil dbUtil = new DBUtil();
+	public static void loadSampleInfo(SampleDatabase database){
 		StringBuilder sampleInfoQuery = new StringBuilder();
-		sampleInfoQuery.append("SELECT * FROM sample_info");
+		sampleInfoQuery.append("SELECT * FROM " + database.quote("sample_info"));
 		
-		ResultSet rs = null;
-		rs = dbUtil.excuteQuery(sampleInfoQuery.toString());
+		List<SampleInfo> loaded = database.query(sampleInfoQuery.toString(), new ResultSetHandler<List<SampleInfo>>() {
+			public List<SampleInfo> handle(ResultSet rs) throws SQLException {
+				List<SampleInfo> infos = new ArrayList<SampleInfo>();
+				while(rs.next()){
+					String originTable = rs.getString("origin_table");
+					String sampleTable = rs.getString("sample_table");
+					int samplingSchema = rs.getInt("samplingSchema");
+					boolean multiTableSampling = rs.getInt("multi_table_sampling") == 0 ? false:true;
+					String joinAttrs = rs.getString("join_attrs");
+					String groupingAttrs = rs.getString("grouping_attrs");
+					float samplingRate = rs.getFloat("samplingRate");
+					
+					SampleInfo sampleInfo = new SampleInfo();
+					sampleInfo.setOriginTable(originTable);
+					sampleInfo.setSampleTable(sampleTable);
+					sampleInfo.setSamplingRate(samplingRate);
+					sampleInfo.setSamplingSchema(samplingSchema);
+					//与SampleInfoWriter一致，属性之间以逗号分隔
+					sampleInfo.setGroupingAttrs(splitAttrs(groupingAttrs));
+					sampleInfo.setMultiTableSampling(multiTableSampling);
+					sampleInfo.setJoinAttrs(splitAttrs(joinAttrs));
+					infos.add(sampleInfo);
+				}
+				return infos;
+			}
+		});
 		
-		try {
-			while(rs.next()){
-				String originTable = rs.getString("origin_table");
-				String sampleTable = rs.getString("sample_table");
-				int samplingSchema = rs.getInt("samplingSchema");
-				boolean multiTableSampling = rs.getInt("multi_table_sampling") == 0 ? false:true;
-				String joinAttrs = rs.getString("join_attrs");
-				String groupingAttrs = rs.getString("grouping_attrs");
-				float samplingRate = rs.getFloat("samplingRate");
-				
-				SampleInfo sampleInfo = new SampleInfo();
-				sampleInfo.setOriginTable(originTable);
-				sampleInfo.setSampleTable(sampleTable);
-				sampleInfo.setSamplingRate(samplingRate);
-				sampleInfo.setSamplingSchema(samplingSchema);
-				sampleInfo.setGroupingAttrs(Arrays.asList(groupingAttrs.split("\\.")));
-				sampleInfo.setMultiTableSampling(multiTableSampling);
-				sampleInfo.setJoinAttrs(Arrays.asList(joinAttrs.split("\\.")));
-				sampleInfos.add(sampleInfo);
+		for(SampleInfo info : loaded){
+			for(SampleInfo old : sampleInfos){
+				if(old.getSampleTable().equalsIgnoreCase(info.getSampleTable()))
+					sampleInfos.remove(old);
 			}
-			
-		} catch (SQLException e) {
-			e.printStackTrace();
+			sampleInfos.add(info);
 		}
-		
 	}
 	
-	@Test
-	public void test(){
-		SampleInfoReader.loadSampleInfo();
+	/**
+	 * 解析以逗号分隔的属性列表，例如 "time_by_day.the_year,store.store_state"
+	 */
+	static List<String> splitAttrs(String attrs){
+		List<String> list = new ArrayList<String>();
+		if(attrs == null){
+			return list;
+		}
+		for(String attr : attrs.split(",")){
+			if(attr.trim().length() > 0){
+				list.add(attr.trim());
+			}
+		}
+		return list;
 	}
 
 }
@@ -1,8 +1,11 @@
 package mondrian.sampling;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.List;
 
-import db.DBUtil;
+import mondrian.olap.Util;
 
 
 /**
@@ -14,7 +17,13 @@ import db.DBUtil;
  */
 public class SampleInfoWriter {
 	
-	public static void write(SampleInfo info){
+	/**
+	 * 将样本信息写入样本所在数据库的sample_info表，取值以参数的形式传入，不依赖数据库的字符串转义
+	 * 
+	 * @param database	样本所在的数据库
+	 * @param info		样本信息
+	 */
+	public static void write(SampleDatabase database, SampleInfo info){
 		StringBuilder insertMeta = new StringBuilder();
 		List<String> groupingAttrs = info.getGroupingAttrs();
 		List<String> joinAttrs = info.getJoinAttrs();
@@ -28,29 +37,45 @@ public class SampleInfoWriter {
 		for(String attr : joinAttrs){
 			joinAttrsStr.append(attr + ",");
 		}
+		insertMeta.append("insert into " + database.quote("sample_info") + "("
+				+ database.quote("origin_table") + "," + database.quote("sample_table"));
 		if(info.isMultiTableSampling()){
-			insertMeta.append("insert into sample_info("
-					+ "origin_table,sample_table"
-					+ ", join_attrs, sampling_schema"
-					+ ", grouping_attrs, multi_table_sampling"
-					+ ", sampling_rate) ");
-			insertMeta.append(" values('"
-					+ info.getOriginTable()+"','"+info.getSampleTable()+"'"
-					+ ",'"+joinAttrsStr.substring(0,joinAttrsStr.length()-1)+"',"+info.getSamplingSchema()
-					+ ",'" + groupingAttrsStr.substring(0,groupingAttrsStr.length()-1) + "',"+isMulti
-					+ ","+info.getSamplingRate()+")");
-		}else{
-			insertMeta.append("insert into sample_info("
-					+ "origin_table,sample_table"
-					+ ", sampling_schema, multi_table_sampling"
-					+ ", sampling_rate) ");
-			insertMeta.append(" values('"
-					+ info.getOriginTable()+"','"+info.getSampleTable()+"'"
-					+ ","+info.getSamplingSchema()+ "," +isMulti
-					+ ","+info.getSamplingRate()+")");
+			insertMeta.append(", " + database.quote("join_attrs"));
 		}
+		insertMeta.append(", " + database.quote("sampling_schema"));
+		if(info.isMultiTableSampling()){
+			insertMeta.append(", " + database.quote("grouping_attrs"));
+		}
+		insertMeta.append(", " + database.quote("multi_table_sampling")
+				+ ", " + database.quote("sampling_rate") + ") ");
+		insertMeta.append(info.isMultiTableSampling()
+				? " values(?,?,?,?,?,?,?)"
+				: " values(?,?,?,?,?)");
 		System.out.println(insertMeta);
-		new DBUtil().excute(insertMeta.toString());
+		
+		Connection con = null;
+		PreparedStatement stmt = null;
+		try {
+			con = database.getConnection();
+			stmt = con.prepareStatement(insertMeta.toString());
+			int i = 1;
+			stmt.setString(i++, info.getOriginTable());
+			stmt.setString(i++, info.getSampleTable());
+			if(info.isMultiTableSampling()){
+				stmt.setString(i++, joinAttrsStr.substring(0,joinAttrsStr.length()-1));
+			}
+			stmt.setInt(i++, info.getSamplingSchema());
+			if(info.isMultiTableSampling()){
+				stmt.setString(i++, groupingAttrsStr.substring(0,groupingAttrsStr.length()-1));
+			}
+			stmt.setInt(i++, isMulti);
+			stmt.setFloat(i++, info.getSamplingRate());
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException("写入样本元信息失败：" + info.getSampleTable(), e);
+		} finally {
+			Util.close(null, stmt, con);
+		}
 	}
 	
 }
@@ -0,0 +1,116 @@
+package mondrian.sampling;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import mondrian.olap.Util;
+
+/**
+ * 以JDBC批处理的方式向样本表写入元组。
+ * 样本表的列依次为原始表的所有列以及若干附加列（例如row_id、sf），
+ * 每个元组以一个按样本表列顺序排列的数组给出。
+ *
+ * <p>物化样本时只扫描一次原始表：扫描以流的方式读取（见{@link SampleDatabase#query}），
+ * 选中的元组积攒到{@link #BATCH_SIZE}条后一次性提交，
+ * 从而避免按分组逐条生成INSERT ... SELECT语句。
+ * 写入使用从连接池另借的一个连接，不占用扫描原始表的连接。
+ *
+ * @Description 样本表的批量写入
+ */
+class SampleTableWriter {
+
+	/**
+	 * 每批提交的元组数，同时作为扫描原始表时建议的抓取大小
+	 */
+	static final int BATCH_SIZE = 1000;
+
+	private final Connection con;
+	private final boolean ownsConnection;
+	private final PreparedStatement statement;
+	private final int columnCount;
+	private int batchCount;
+
+	/**
+	 * @param database		样本所在的数据库
+	 * @param sampleTable	样本表
+	 * @param columnCount	样本表的列数
+	 */
+	SampleTableWriter(SampleDatabase database, String sampleTable, int columnCount) throws SQLException {
+		this(database, database.getConnection(), true, sampleTable, columnCount);
+	}
+
+	/**
+	 * 在调用者给出的连接上写入，以便与其它语句处于同一个事务中；
+	 * {@link #close()}不关闭该连接
+	 *
+	 * @param database		样本所在的数据库
+	 * @param con			写入使用的连接
+	 * @param sampleTable	样本表
+	 * @param columnCount	样本表的列数
+	 */
+	SampleTableWriter(SampleDatabase database, Connection con, String sampleTable, int columnCount) throws SQLException {
+		this(database, con, false, sampleTable, columnCount);
+	}
+
+	private SampleTableWriter(SampleDatabase database, Connection con, boolean ownsConnection,
+			String sampleTable, int columnCount) throws SQLException {
+		StringBuilder sql = new StringBuilder();
+		sql.append("INSERT INTO ").append(database.quote(sampleTable)).append(" VALUES (");
+		for(int i = 0; i < columnCount; i++){
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(")");
+		this.con = con;
+		this.ownsConnection = ownsConnection;
+		try {
+			this.statement = con.prepareStatement(sql.toString());
+		} catch (SQLException e) {
+			if(ownsConnection)
+				Util.close(null, null, con);
+			throw e;
+		}
+		this.columnCount = columnCount;
+	}
+
+	/**
+	 * 读取当前元组的前originColumnCount列（原始表的列），
+	 * 并为extraColumnCount个附加列预留位置
+	 */
+	static Object[] readRow(ResultSet rs, int originColumnCount, int extraColumnCount) throws SQLException {
+		Object[] row = new Object[originColumnCount + extraColumnCount];
+		for(int i = 0; i < originColumnCount; i++){
+			row[i] = rs.getObject(i + 1);
+		}
+		return row;
+	}
+
+	/**
+	 * 写入一个元组；积攒满一批时提交
+	 */
+	void write(Object[] row) throws SQLException {
+		for(int i = 0; i < columnCount; i++){
+			statement.setObject(i + 1, row[i]);
+		}
+		statement.addBatch();
+		if(++batchCount == BATCH_SIZE){
+			statement.executeBatch();
+			batchCount = 0;
+		}
+	}
+
+	/**
+	 * 提交剩余的元组，释放语句；如果连接是自己借的，则归还连接
+	 */
+	void close() throws SQLException {
+		try {
+			if(batchCount > 0){
+				statement.executeBatch();
+				batchCount = 0;
+			}
+		} finally {
+			Util.close(null, statement, ownsConnection ? con : null);
+		}
+	}
+}
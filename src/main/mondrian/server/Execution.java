@@ -14,6 +14,7 @@ import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapConnection;
 import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.sampling.SampleContext;
 import mondrian.server.monitor.*;
 
 import org.apache.log4j.MDC;
@@ -48,7 +49,12 @@ public class Execution {
     private final Map<Locus, java.sql.Statement> statements =
         new HashMap<Locus, java.sql.Statement>();
 
-    private State state = State.FRESH;
+    /**
+     * State of this execution. Volatile, so that
+     * {@link #checkCancelOrTimeout()} can read it without a lock; changes
+     * are made while holding {@link #stateLock}.
+     */
+    private volatile State state = State.FRESH;
 
     /**
      * Lock monitor for SQL statements. All operations on
@@ -70,8 +76,23 @@ public class Execution {
     private String outOfMemoryMsg;
 
     private long startTimeMillis;
-    private long timeoutTimeMillis;
+    private volatile long timeoutTimeMillis;
     private long timeoutIntervalMillis;
+
+    /**
+     * Value of {@link System#nanoTime()} at which this execution times out,
+     * or 0 if it has no timeout. Computed when the execution starts, so that
+     * checking for a timeout is a single comparison.
+     */
+    private volatile long deadlineNanos;
+
+    /**
+     * Number of loop iterations between checks for cancellation; the value
+     * of {@link MondrianProperties#CheckCancelOrTimeoutInterval} when this
+     * execution was created.
+     */
+    private final int checkInterval;
+
     private final QueryTiming queryTiming = new QueryTiming();
     private int phase;
     private int cellCacheHitCount;
@@ -90,6 +111,25 @@ public class Execution {
 
     private final Execution parent;
 
+    /**
+     * Tables this execution answers from samples. Fixed when the execution
+     * is created, so that changing the statement's or connection's setting
+     * does not affect queries already running.
+     */
+    private final SampleContext sampleContext;
+
+    /**
+     * Whether any cell of this execution's answer was estimated from a
+     * sample.
+     */
+    private volatile boolean approximate;
+
+    /**
+     * Listener to notify when this execution starts, is canceled or fails;
+     * or null.
+     */
+    private volatile Listener listener;
+
     public Execution(
         Statement statement,
         long timeoutIntervalMillis)
@@ -104,6 +144,29 @@ public class Execution {
         this.id = SEQ.getAndIncrement();
         this.statement = (StatementImpl) statement;
         this.timeoutIntervalMillis = timeoutIntervalMillis;
+        this.sampleContext = deriveSampleContext(statement, parentExec);
+        this.checkInterval =
+            MondrianProperties.instance().CheckCancelOrTimeoutInterval.get();
+    }
+
+    /**
+     * Determines the sample context of a new execution. An execution on a
+     * statement that does not ask for samples (typically an internal
+     * statement) inherits the context of the execution it is nested in.
+     */
+    private static SampleContext deriveSampleContext(
+        Statement statement,
+        Execution parent)
+    {
+        final SampleContext sampleContext =
+            statement == null ? null : statement.getSampleContext();
+        if (sampleContext != null && !sampleContext.isEmpty()) {
+            return sampleContext;
+        }
+        if (parent != null) {
+            return parent.sampleContext;
+        }
+        return SampleContext.NONE;
     }
 
     /**
@@ -143,9 +206,50 @@ public class Execution {
             timeoutIntervalMillis > 0
                 ? this.startTimeMillis + timeoutIntervalMillis
                 : 0L;
+        if (timeoutIntervalMillis > 0) {
+            // Zero means "no deadline", so avoid it as a deadline.
+            final long deadline =
+                System.nanoTime() + timeoutIntervalMillis * 1000000L;
+            this.deadlineNanos = deadline == 0 ? 1 : deadline;
+        } else {
+            this.deadlineNanos = 0L;
+        }
+        // Write the state last; a thread that sees RUNNING also sees the
+        // deadline.
         this.state = State.RUNNING;
         this.queryTiming.init(true);
         fireExecutionStartEvent();
+        final Listener listener = this.listener;
+        if (listener != null) {
+            listener.executionStarted(this);
+        }
+    }
+
+    /**
+     * Sets the listener to notify when this execution starts, is canceled
+     * or fails.
+     *
+     * @param listener Listener, or null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the listener to notify when this execution starts, is
+     * canceled or fails.
+     *
+     * @return Listener, or null
+     */
+    public Listener getListener() {
+        return listener;
+    }
+
+    private void fireStopped() {
+        final Listener listener = this.listener;
+        if (listener != null) {
+            listener.executionStopped(this);
+        }
     }
 
     private String getMdx() {
@@ -195,6 +299,7 @@ public class Execution {
             }
             fireExecutionEndEvent();
         }
+        fireStopped();
     }
 
     /**
@@ -211,6 +316,7 @@ public class Execution {
             this.outOfMemoryMsg = msg;
             this.state = State.ERROR;
         }
+        fireStopped();
     }
 
     /**
@@ -218,12 +324,57 @@ public class Execution {
      * if something is wrong. This method should be called by the
      * user thread.
      * <p>It won't throw anything if the query has successfully completed.
+     *
+     * <p>This method is called from inner loops, so it takes no lock unless
+     * the execution has been canceled, has failed, or has timed out.</p>
+     *
      * @throws MondrianException The exception encountered.
      */
-    public synchronized void checkCancelOrTimeout() throws MondrianException {
+    public void checkCancelOrTimeout() throws MondrianException {
         if (parent != null) {
             parent.checkCancelOrTimeout();
         }
+        final State state = this.state;
+        switch (state) {
+        case FRESH:
+        case DONE:
+            return;
+        case RUNNING:
+            if (!isPastDeadline()) {
+                return;
+            }
+            break;
+        }
+        checkStateOrTimeout();
+    }
+
+    /**
+     * Calls {@link #checkCancelOrTimeout()} if the iteration number of a
+     * loop is a multiple of
+     * {@link MondrianProperties#CheckCancelOrTimeoutInterval}.
+     *
+     * @param currentIteration Iteration number of loop
+     * @throws MondrianException if the execution has been canceled, has
+     *   failed, or has timed out
+     */
+    public void checkCancelOrTimeout(int currentIteration)
+        throws MondrianException
+    {
+        if (checkInterval > 0 && currentIteration % checkInterval == 0) {
+            checkCancelOrTimeout();
+        }
+    }
+
+    private boolean isPastDeadline() {
+        final long deadline = deadlineNanos;
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Slow path of {@link #checkCancelOrTimeout()}, taken when the execution
+     * is no longer running normally.
+     */
+    private synchronized void checkStateOrTimeout() throws MondrianException {
         boolean needInterrupt = false;
         switch (this.state) {
         case CANCELED:
@@ -244,14 +395,13 @@ public class Execution {
             throw MondrianResource.instance().QueryCanceled.ex();
         case RUNNING:
         case TIMEOUT:
-            if (timeoutTimeMillis > 0) {
-                long currTime = System.currentTimeMillis();
-                if (currTime > timeoutTimeMillis) {
-                    this.state = State.TIMEOUT;
-                    fireExecutionEndEvent();
-                    throw MondrianResource.instance().QueryTimeout.ex(
-                        timeoutIntervalMillis / 1000);
-                }
+            // Use the same clock as the fast path and the shepherd's timer,
+            // so that an execution they consider timed out always throws.
+            if (isPastDeadline()) {
+                this.state = State.TIMEOUT;
+                fireExecutionEndEvent();
+                throw MondrianResource.instance().QueryTimeout.ex(
+                    timeoutIntervalMillis / 1000);
             }
             break;
         case ERROR:
@@ -285,16 +435,14 @@ public class Execution {
         {
             return true;
         }
-        synchronized (stateLock) {
-            if (state == State.CANCELED
-                || state == State.ERROR
-                || state == State.TIMEOUT
-                || (state == State.RUNNING
-                && timeoutTimeMillis > 0
-                && System.currentTimeMillis() > timeoutTimeMillis))
-            {
-                return true;
-            }
+        switch (state) {
+        case CANCELED:
+        case ERROR:
+        case TIMEOUT:
+            return true;
+        case RUNNING:
+            return isPastDeadline();
+        default:
             return false;
         }
     }
@@ -303,16 +451,14 @@ public class Execution {
      * Tells whether this execution is done executing.
      */
     public boolean isDone() {
-        synchronized (stateLock) {
-            switch (this.state) {
-            case CANCELED:
-            case DONE:
-            case ERROR:
-            case TIMEOUT:
-                return true;
-            default:
-                return false;
-            }
+        switch (this.state) {
+        case CANCELED:
+        case DONE:
+        case ERROR:
+        case TIMEOUT:
+            return true;
+        default:
+            return false;
         }
     }
 
@@ -428,10 +574,79 @@ public class Execution {
         return id;
     }
 
+    /**
+     * Returns the sample context of this execution.
+     *
+     * @return Sample context; never null
+     */
+    public final SampleContext getSampleContext() {
+        return sampleContext;
+    }
+
+    /**
+     * Records that some cells of this execution's answer are estimated from
+     * a sample. Called when a segment estimated from a sample is used.
+     */
+    public void setApproximate() {
+        this.approximate = true;
+        if (parent != null) {
+            parent.setApproximate();
+        }
+    }
+
+    /**
+     * Returns whether some cells of this execution's answer are estimated
+     * from a sample.
+     *
+     * @return Whether the answer is approximate
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
     public final long getElapsedMillis() {
         return System.currentTimeMillis() - startTimeMillis;
     }
 
+    /**
+     * Returns the time at which this execution, or the execution it is
+     * nested in, times out.
+     *
+     * @return Deadline in milliseconds since the epoch, or 0 if there is no
+     *   timeout
+     */
+    public long getDeadlineMillis() {
+        final long parentDeadline =
+            parent == null ? 0L : parent.getDeadlineMillis();
+        if (timeoutTimeMillis <= 0) {
+            return parentDeadline;
+        }
+        if (parentDeadline <= 0) {
+            return timeoutTimeMillis;
+        }
+        return Math.min(timeoutTimeMillis, parentDeadline);
+    }
+
+    /**
+     * Returns the value of {@link System#nanoTime()} at which this execution,
+     * or the execution it is nested in, times out.
+     *
+     * @return Deadline in nanoseconds, or 0 if there is no timeout or the
+     *   execution has not started
+     */
+    public long getDeadlineNanos() {
+        final long parentDeadline =
+            parent == null ? 0L : parent.getDeadlineNanos();
+        final long deadline = deadlineNanos;
+        if (deadline == 0) {
+            return parentDeadline;
+        }
+        if (parentDeadline == 0) {
+            return deadline;
+        }
+        return deadline - parentDeadline < 0 ? deadline : parentDeadline;
+    }
+
     /**
      * This method is typically called by SqlStatement at construction time.
      * It ties all Statement objects to a particular Execution instance
@@ -511,6 +726,32 @@ public class Execution {
         TIMEOUT,
         DONE,
     }
+
+    /**
+     * Receives notice of changes in the state of an execution, so that
+     * whoever waits for the execution need not poll it.
+     *
+     * <p>Methods are called on the thread that changed the state, which may
+     * hold locks; they must return quickly and must not block.</p>
+     *
+     * @see mondrian.rolap.RolapResultShepherd
+     */
+    public interface Listener {
+        /**
+         * Called when an execution starts. Its deadline is now known.
+         *
+         * @param execution Execution
+         */
+        void executionStarted(Execution execution);
+
+        /**
+         * Called when an execution is canceled or fails. Not called when
+         * an execution times out or ends normally.
+         *
+         * @param execution Execution
+         */
+        void executionStopped(Execution execution);
+    }
 }
 
 // End Execution.java
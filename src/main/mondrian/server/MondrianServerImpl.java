@@ -184,8 +184,10 @@ class MondrianServerImpl
         this.lockBox = registry.lockBox;
 
         this.aggMgr = new AggregationManager(this);
+        monitor.setLocalSegmentCache(aggMgr.cacheMgr.getLocalCache());
 
         this.shepherd = new RolapResultShepherd();
+        monitor.setResultShepherd(shepherd);
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("new MondrianServer: id=" + id);
@@ -11,7 +11,9 @@ package mondrian.server;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
+import mondrian.rolap.RolapResultShepherd;
 import mondrian.rolap.RolapUtil;
+import mondrian.rolap.cache.MemorySegmentCache;
 import mondrian.server.monitor.*;
 import mondrian.server.monitor.MonitorMXBean;
 import mondrian.util.*;
@@ -117,6 +119,31 @@ class MonitorImpl
         return (ServerInfo) execute(new ServerCommand());
     }
 
+    /**
+     * Sets the local segment cache whose statistics are reported in
+     * {@link ServerInfo}.
+     *
+     * <p>Unlike other statistics, which are accumulated from events, the
+     * cache's counters are read when the server info is requested, much as
+     * the JVM's heap statistics are.</p>
+     *
+     * @param localSegmentCache Local segment cache, or null
+     */
+    void setLocalSegmentCache(MemorySegmentCache localSegmentCache) {
+        handler.server.localSegmentCache = localSegmentCache;
+    }
+
+    /**
+     * Sets the result shepherd whose statistics are reported in
+     * {@link ServerInfo}. Like the local segment cache's, its counters are
+     * read when the server info is requested.
+     *
+     * @param shepherd Result shepherd, or null
+     */
+    void setResultShepherd(RolapResultShepherd shepherd) {
+        handler.server.shepherd = shepherd;
+    }
+
     public List<ConnectionInfo> getConnections() {
         //noinspection unchecked
         return (List<ConnectionInfo>) execute(new ConnectionsCommand());
@@ -201,6 +228,8 @@ class MonitorImpl
         private final MutableConnectionInfo aggConn =
             new MutableConnectionInfo(null);
         private final String stack;
+        private volatile MemorySegmentCache localSegmentCache;
+        private volatile RolapResultShepherd shepherd;
 
         public MutableServerInfo(String stack) {
             this.stack = stack;
@@ -208,6 +237,8 @@ class MonitorImpl
 
         public ServerInfo fix() {
             Util.MemoryInfo.Usage memoryUsage = MEMORY_INFO.get();
+            final MemorySegmentCache cache = localSegmentCache;
+            final RolapResultShepherd shepherd = this.shepherd;
             return new ServerInfo(
                 stack,
                 aggConn.startCount,
@@ -237,7 +268,16 @@ class MonitorImpl
                 aggExec.cellCacheSegmentCreateViaRollupCount,
                 aggExec.cellCacheSegmentCreateViaSqlCount,
                 aggExec.cellCacheSegmentCellCount,
-                aggExec.cellCacheSegmentCoordinateSum);
+                aggExec.cellCacheSegmentCoordinateSum,
+                cache == null ? 0 : cache.getHitCount(),
+                cache == null ? 0 : cache.getMissCount(),
+                cache == null ? 0 : cache.getEvictionCount(),
+                cache == null ? 0 : cache.getByteCount(),
+                cache == null ? 0 : cache.getByteLimit(),
+                shepherd == null ? 0 : shepherd.getQueueDepth(),
+                shepherd == null ? 0 : shepherd.getActiveCount(),
+                shepherd == null ? 0 : shepherd.getRejectionCount(),
+                shepherd == null ? 0 : shepherd.getCancelCount());
         }
     }
 
@@ -395,27 +435,42 @@ class MonitorImpl
         private int endCount;
         private int cellRequestCount;
         private long executeNanos;
+        private long queueNanos;
         private long rowFetchCount;
         private final String stack;
         private final String sql;
+        private final SqlStatementEvent.Purpose purpose;
 
         public MutableSqlStatementInfo(
             MutableStatementInfo stmt,
             long sqlStatementId,
             String sql,
             String stack)
+        {
+            this(stmt, sqlStatementId, sql, stack, null);
+        }
+
+        public MutableSqlStatementInfo(
+            MutableStatementInfo stmt,
+            long sqlStatementId,
+            String sql,
+            String stack,
+            SqlStatementEvent.Purpose purpose)
         {
             this.sqlStatementId = sqlStatementId;
             this.stmt = stmt;
             this.sql = sql;
             this.stack = stack;
+            this.purpose = purpose;
         }
 
         public SqlStatementInfo fix() {
             return new SqlStatementInfo(
                 stack,
                 sqlStatementId,
-                sql);
+                sql,
+                purpose,
+                queueNanos);
         }
     }
 
@@ -854,7 +909,8 @@ class MonitorImpl
                     stmt,
                     event.sqlStatementId,
                     event.sql,
-                    event.stack);
+                    event.stack,
+                    event.purpose);
             sqlStatementMap.put(event.sqlStatementId, sql);
             foo(sql, event);
             foo(sql.stmt.aggSql, event);
@@ -876,6 +932,7 @@ class MonitorImpl
         {
             ++sql.startCount;
             sql.cellRequestCount += event.cellRequestCount;
+            sql.queueNanos += event.queueNanos;
         }
 
         public Object visit(SqlStatementExecuteEvent event) {
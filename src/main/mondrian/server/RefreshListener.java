@@ -0,0 +1,53 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.server;
+
+import mondrian.olap.Result;
+
+/**
+ * Callback by which a client learns that the exact answer to a query is
+ * available, after the query was first answered approximately from samples.
+ *
+ * <p>Registering a listener on a statement (see
+ * {@link Statement#setRefreshListener(RefreshListener)}) switches the
+ * statement to progressive mode. If an execution of the statement reads any
+ * cells from samples, it returns its approximate result immediately; then the
+ * same query is executed again in the background without samples, which
+ * loads the exact segments into the cache, and the listener is called with
+ * the exact result.
+ *
+ * <p>Estimated and exact segments are cached separately, so once the
+ * listener has been called, re-executing the query without samples (for
+ * example through olap4j, with {@link Statement#setSampleContext} set to
+ * {@link mondrian.sampling.SampleContext#NONE}) is answered from the cache.
+ *
+ * <p>Methods are called on a background thread, and must not block for long.
+ */
+public interface RefreshListener {
+    /**
+     * Called when the exact result of a query that was answered
+     * approximately is available.
+     *
+     * @param statement Statement whose execution was approximate
+     * @param result Exact result of the same query
+     */
+    void refreshed(Statement statement, Result result);
+
+    /**
+     * Called if the exact result of a query that was answered approximately
+     * could not be computed.
+     *
+     * @param statement Statement whose execution was approximate
+     * @param throwable Error
+     */
+    void refreshFailed(Statement statement, Throwable throwable);
+}
+
+// End RefreshListener.java
@@ -13,6 +13,7 @@ import mondrian.olap.Query;
 import mondrian.olap.SchemaReader;
 import mondrian.rolap.RolapConnection;
 import mondrian.rolap.RolapSchema;
+import mondrian.sampling.SampleContext;
 import mondrian.spi.ProfileHandler;
 
 import java.sql.SQLException;
@@ -99,6 +100,45 @@ public interface Statement {
      */
     long getQueryTimeoutMillis();
 
+    /**
+     * Sets which tables executions of this statement answer from their
+     * sample tables, overriding the connection's
+     * {@link mondrian.rolap.RolapConnectionProperties#SampleTables}.
+     *
+     * <p>Null means inherit the connection's setting;
+     * {@link SampleContext#NONE} forces an exact answer.
+     *
+     * @param sampleContext Sample context, or null
+     */
+    void setSampleContext(SampleContext sampleContext);
+
+    /**
+     * Returns the sample context that executions of this statement will use.
+     * If no override has been set, returns the connection's.
+     *
+     * @return Sample context; never null
+     */
+    SampleContext getSampleContext();
+
+    /**
+     * Sets the listener to be told when the exact answer to an execution of
+     * this statement that was answered from samples is available. A
+     * non-null listener puts the statement in progressive mode; see
+     * {@link RefreshListener}.
+     *
+     * @param refreshListener Listener, or null
+     */
+    void setRefreshListener(RefreshListener refreshListener);
+
+    /**
+     * Returns the listener to be told when the exact answer to an
+     * approximate execution of this statement is available, or null if the
+     * statement is not in progressive mode.
+     *
+     * @return Listener, or null
+     */
+    RefreshListener getRefreshListener();
+
     /**
      * Checks if either a cancel request has been issued on the query or
      * the execution time has exceeded the timeout value (if one has been
@@ -11,6 +11,7 @@ package mondrian.server;
 
 import mondrian.olap.*;
 import mondrian.rolap.RolapSchema;
+import mondrian.sampling.SampleContext;
 import mondrian.spi.ProfileHandler;
 
 import java.sql.SQLException;
@@ -52,6 +53,16 @@ public abstract class StatementImpl implements Statement {
      */
     private boolean cancelBeforeStart;
 
+    /**
+     * Per-statement sample context, or null to use the connection's.
+     */
+    private volatile SampleContext sampleContext;
+
+    /**
+     * Listener for exact answers in progressive mode, or null.
+     */
+    private volatile RefreshListener refreshListener;
+
     private final long id;
 
     /**
@@ -113,6 +124,26 @@ public abstract class StatementImpl implements Statement {
         return queryTimeout;
     }
 
+    public void setSampleContext(SampleContext sampleContext) {
+        this.sampleContext = sampleContext;
+    }
+
+    public SampleContext getSampleContext() {
+        final SampleContext sampleContext0 = sampleContext;
+        if (sampleContext0 != null) {
+            return sampleContext0;
+        }
+        return getMondrianConnection().getSampleContext();
+    }
+
+    public void setRefreshListener(RefreshListener refreshListener) {
+        this.refreshListener = refreshListener;
+    }
+
+    public RefreshListener getRefreshListener() {
+        return refreshListener;
+    }
+
     public void checkCancelOrTimeout() {
         final Execution execution0 = execution;
         if (execution0 == null) {
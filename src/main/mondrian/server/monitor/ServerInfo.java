@@ -102,6 +102,58 @@ public class ServerInfo extends Info {
      */
     public final int cellCoordinateCount;
 
+    /**
+     * The number of times a segment was found in the local segment cache.
+     */
+    public final long segmentCacheHitCount;
+
+    /**
+     * The number of times a segment was looked for in the local segment cache
+     * but was not there, for example because it had been evicted.
+     */
+    public final long segmentCacheMissCount;
+
+    /**
+     * The number of segments evicted from the local segment cache, or not
+     * admitted, because the cache was full.
+     */
+    public final long segmentCacheEvictionCount;
+
+    /**
+     * The estimated number of bytes used by segments in the local segment
+     * cache.
+     */
+    public final long segmentCacheByteCount;
+
+    /**
+     * The maximum number of bytes of segments that the local segment cache
+     * will hold.
+     */
+    public final long segmentCacheByteLimit;
+
+    /**
+     * The number of MDX executions waiting for a query thread.
+     */
+    public final int shepherdQueueDepth;
+
+    /**
+     * The number of MDX executions running on query threads.
+     */
+    public final int shepherdActiveCount;
+
+    /**
+     * The number of MDX executions that have been refused a query thread
+     * since the server started.
+     */
+    public final long shepherdRejectionCount;
+
+    /**
+     * The number of MDX executions whose query thread has been released
+     * because the execution was canceled, failed, or timed out, since the
+     * server started.
+     */
+    public final long shepherdCancelCount;
+
     public ServerInfo(
         String stack,
         int connectionStartCount,
@@ -130,7 +182,16 @@ public class ServerInfo extends Info {
         int segmentCreateViaRollupCount,
         int segmentCreateViaSqlCount,
         int cellCount,
-        int cellCoordinateCount)
+        int cellCoordinateCount,
+        long segmentCacheHitCount,
+        long segmentCacheMissCount,
+        long segmentCacheEvictionCount,
+        long segmentCacheByteCount,
+        long segmentCacheByteLimit,
+        int shepherdQueueDepth,
+        int shepherdActiveCount,
+        long shepherdRejectionCount,
+        long shepherdCancelCount)
     {
         super(stack);
         this.connectionStartCount = connectionStartCount;
@@ -160,6 +221,15 @@ public class ServerInfo extends Info {
         this.segmentCreateViaSqlCount = segmentCreateViaSqlCount;
         this.cellCount = cellCount;
         this.cellCoordinateCount = cellCoordinateCount;
+        this.segmentCacheHitCount = segmentCacheHitCount;
+        this.segmentCacheMissCount = segmentCacheMissCount;
+        this.segmentCacheEvictionCount = segmentCacheEvictionCount;
+        this.segmentCacheByteCount = segmentCacheByteCount;
+        this.segmentCacheByteLimit = segmentCacheByteLimit;
+        this.shepherdQueueDepth = shepherdQueueDepth;
+        this.shepherdActiveCount = shepherdActiveCount;
+        this.shepherdRejectionCount = shepherdRejectionCount;
+        this.shepherdCancelCount = shepherdCancelCount;
     }
 
     public int getCellCacheMissCount() {
@@ -297,6 +367,42 @@ public class ServerInfo extends Info {
     public int getCellCoordinateCount() {
         return cellCoordinateCount;
     }
+
+    public long getSegmentCacheHitCount() {
+        return segmentCacheHitCount;
+    }
+
+    public long getSegmentCacheMissCount() {
+        return segmentCacheMissCount;
+    }
+
+    public long getSegmentCacheEvictionCount() {
+        return segmentCacheEvictionCount;
+    }
+
+    public long getSegmentCacheByteCount() {
+        return segmentCacheByteCount;
+    }
+
+    public long getSegmentCacheByteLimit() {
+        return segmentCacheByteLimit;
+    }
+
+    public int getShepherdQueueDepth() {
+        return shepherdQueueDepth;
+    }
+
+    public int getShepherdActiveCount() {
+        return shepherdActiveCount;
+    }
+
+    public long getShepherdRejectionCount() {
+        return shepherdRejectionCount;
+    }
+
+    public long getShepherdCancelCount() {
+        return shepherdCancelCount;
+    }
 }
 
 // End ServerInfo.java
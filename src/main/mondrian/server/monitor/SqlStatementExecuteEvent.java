@@ -17,6 +17,29 @@ import mondrian.server.Locus;
 public class SqlStatementExecuteEvent extends SqlStatementEvent {
     public final long executeNanos;
 
+    /**
+     * Number of bind variables; 0 if the statement was not parameterized.
+     */
+    public final int bindVariableCount;
+
+    /**
+     * Whether the statement was parameterized and its SQL had been prepared
+     * before.
+     */
+    public final boolean preparedStatementCacheHit;
+
+    /**
+     * Number of parameterized statements executed, up to and including this
+     * one, whose SQL had been prepared before.
+     */
+    public final long preparedStatementHitCount;
+
+    /**
+     * Number of parameterized statements executed, up to and including this
+     * one, whose SQL had not been prepared before.
+     */
+    public final long preparedStatementMissCount;
+
     /**
      * Creates a SqlStatementExecuteEvent.
      *
@@ -34,9 +57,48 @@ public class SqlStatementExecuteEvent extends SqlStatementEvent {
         String sql,
         Purpose purpose,
         long executeNanos)
+    {
+        this(
+            timestamp, statementId, locus, sql, purpose, executeNanos, 0,
+            false, 0, 0);
+    }
+
+    /**
+     * Creates a SqlStatementExecuteEvent for a statement that may have bind
+     * variables.
+     *
+     * @param timestamp Timestamp
+     * @param statementId Statement id
+     * @param locus Locus of event
+     * @param sql SQL
+     * @param purpose Why Mondrian is executing this statement
+     * @param executeNanos Execution time
+     * @param bindVariableCount Number of bind variables
+     * @param preparedStatementCacheHit Whether the SQL had been prepared
+     *     before
+     * @param preparedStatementHitCount Number of parameterized statements
+     *     whose SQL had been prepared before
+     * @param preparedStatementMissCount Number of parameterized statements
+     *     whose SQL had not been prepared before
+     */
+    public SqlStatementExecuteEvent(
+        long timestamp,
+        long statementId,
+        Locus locus,
+        String sql,
+        Purpose purpose,
+        long executeNanos,
+        int bindVariableCount,
+        boolean preparedStatementCacheHit,
+        long preparedStatementHitCount,
+        long preparedStatementMissCount)
     {
         super(timestamp, statementId, locus, sql, purpose);
         this.executeNanos = executeNanos;
+        this.bindVariableCount = bindVariableCount;
+        this.preparedStatementCacheHit = preparedStatementCacheHit;
+        this.preparedStatementHitCount = preparedStatementHitCount;
+        this.preparedStatementMissCount = preparedStatementMissCount;
     }
 
     public String toString() {
@@ -18,15 +18,40 @@ package mondrian.server.monitor;
 public class SqlStatementInfo extends Info {
     public final long sqlStatementId;
     public final String sql;
+    public final SqlStatementEvent.Purpose purpose;
+    public final long queueNanos;
 
     public SqlStatementInfo(
         String stack,
         long sqlStatementId,
         String sql)
+    {
+        this(stack, sqlStatementId, sql, null, 0L);
+    }
+
+    /**
+     * Creates a SqlStatementInfo.
+     *
+     * @param stack Stack trace
+     * @param sqlStatementId SQL statement id
+     * @param sql SQL
+     * @param purpose Why Mondrian executed the statement, or null if not
+     *   known
+     * @param queueNanos Time the statement waited before it was allowed to
+     *   start, in nanoseconds
+     */
+    public SqlStatementInfo(
+        String stack,
+        long sqlStatementId,
+        String sql,
+        SqlStatementEvent.Purpose purpose,
+        long queueNanos)
     {
         super(stack);
         this.sqlStatementId = sqlStatementId;
         this.sql = sql;
+        this.purpose = purpose;
+        this.queueNanos = queueNanos;
     }
 
     public long getSqlStatementId() {
@@ -37,6 +62,14 @@ public class SqlStatementInfo extends Info {
         return sql;
     }
 
+    public SqlStatementEvent.Purpose getPurpose() {
+        return purpose;
+    }
+
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
 }
 
 // End SqlStatementInfo.java
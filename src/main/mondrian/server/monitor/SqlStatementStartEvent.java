@@ -17,6 +17,12 @@ import mondrian.server.Locus;
 public class SqlStatementStartEvent extends SqlStatementEvent {
     public final int cellRequestCount;
 
+    /**
+     * Time, in nanoseconds, that the statement waited before it was allowed
+     * to start, because other statements were using its data source.
+     */
+    public final long queueNanos;
+
     /**
      * Creates a SqlStatementStartEvent.
      *
@@ -34,9 +40,36 @@ public class SqlStatementStartEvent extends SqlStatementEvent {
         String sql,
         Purpose purpose,
         int cellRequestCount)
+    {
+        this(
+            timestamp, sqlStatementId, locus, sql, purpose, cellRequestCount,
+            0L);
+    }
+
+    /**
+     * Creates a SqlStatementStartEvent with the time the statement spent
+     * waiting to start.
+     *
+     * @param timestamp Timestamp
+     * @param sqlStatementId SQL Statement id
+     * @param locus Locus of event
+     * @param sql SQL
+     * @param purpose Why Mondrian is executing this statement
+     * @param cellRequestCount Number of missed cells that led to this request
+     * @param queueNanos Time spent waiting to start, in nanoseconds
+     */
+    public SqlStatementStartEvent(
+        long timestamp,
+        long sqlStatementId,
+        Locus locus,
+        String sql,
+        Purpose purpose,
+        int cellRequestCount,
+        long queueNanos)
     {
         super(timestamp, sqlStatementId, locus, sql, purpose);
         this.cellRequestCount = cellRequestCount;
+        this.queueNanos = queueNanos;
     }
 
     public String toString() {
@@ -408,6 +408,48 @@ public interface Dialect {
         Object value,
         Datatype datatype);
 
+    /**
+     * Returns whether values of a given datatype can be passed to the
+     * database as bind variables, that is, as a <code>?</code> placeholder
+     * in the SQL text and a value set on a
+     * {@link java.sql.PreparedStatement}, rather than as a literal.
+     *
+     * <p>Used only if
+     * {@link mondrian.olap.MondrianProperties#GenerateParameterizedSql} is
+     * true.
+     *
+     * @param datatype Datatype of value
+     * @return whether values of this datatype can be bind variables
+     */
+    boolean allowsBindVariable(Datatype datatype);
+
+    /**
+     * Returns the value to pass to {@link java.sql.Statement#setFetchSize}
+     * for a statement that is expected to return a given number of rows.
+     *
+     * <p>If <code>stream</code> is true, the result is large and the caller
+     * wants the driver to read it in batches rather than hold it all in
+     * memory. Some drivers need a special value to do that; for example,
+     * MySQL streams rows only if the fetch size is
+     * {@link Integer#MIN_VALUE}.
+     *
+     * @param fetchSize Suggested fetch size, greater than zero
+     * @param stream Whether the driver should stream the result
+     * @return Fetch size, or 0 to leave the driver's default
+     */
+    int getFetchSize(int fetchSize, boolean stream);
+
+    /**
+     * Returns whether the driver honors the fetch size only if the
+     * connection's auto-commit mode is off.
+     *
+     * <p>For example, PostgreSQL reads a result through a cursor, rather
+     * than all at once, only inside a transaction.
+     *
+     * @return whether auto-commit must be off to stream a result
+     */
+    boolean requiresAutoCommitOffToStream();
+
     /**
      * Returns whether this dialect supports common SQL Data Definition
      * Language (DDL) statements such as <code>CREATE TABLE</code> and
@@ -441,6 +483,32 @@ public interface Dialect {
         boolean ascending,
         boolean collateNullsLast);
 
+    /**
+     * Returns whether this Dialect can restrict the rows returned by an
+     * ordered query to a range, using the clause generated by
+     * {@link #generateLimitOffset(int, int)}.
+     *
+     * <p>Mondrian asks for the clause only if this method returns true.
+     * {@link mondrian.spi.impl.JdbcDialectImpl}, which dialects usually
+     * extend, returns false.</p>
+     *
+     * @return Whether this Dialect supports LIMIT and OFFSET
+     */
+    boolean supportsLimitOffset();
+
+    /**
+     * Generates a clause that, placed after the ORDER BY clause of a query,
+     * skips a number of rows and returns at most a given number of the
+     * rows that follow; for example, "limit 10 offset 20".
+     *
+     * @param offset Number of rows to skip, zero or greater
+     * @param limit Maximum number of rows to return, or -1 for no limit
+     *
+     * @return LIMIT/OFFSET clause, or null if this Dialect does not
+     *   {@link #supportsLimitOffset() support LIMIT and OFFSET}
+     */
+    String generateLimitOffset(int offset, int limit);
+
     /**
      * Returns whether this Dialect supports expressions in the GROUP BY
      * clause. Derby/Cloudscape and Infobright do not.
@@ -39,8 +39,13 @@ import java.util.*;
  *     <code>String.valueof([value object])</code></li>
  *     </ul>
  *   </ul>
+ * <li>Sample table name, if the segment was estimated from a sample</li>
  * </ul>
  *
+ * <p>A segment whose values were estimated from a sample of the fact table
+ * never has the same identity as the exact segment with the same
+ * coordinates, so the two can be cached side by side.
+ *
  * @author LBoudreau
  */
 public class SegmentHeader implements Serializable {
@@ -54,6 +59,11 @@ public class SegmentHeader implements Serializable {
     public final String schemaName;
     public final String rolapStarFactTableName;
     public final BitKey constrainedColsBitKey;
+    /**
+     * Name of the sample table whose rows the segment's values were
+     * estimated from, or null if the values are exact.
+     */
+    public final String sampleTableName;
     private final int hashCode;
     private ByteString uniqueID;
     private String description;
@@ -86,6 +96,51 @@ public class SegmentHeader implements Serializable {
         String rolapStarFactTableName,
         BitKey constrainedColsBitKey,
         List<SegmentColumn> excludedRegions)
+    {
+        this(
+            schemaName,
+            schemaChecksum,
+            cubeName,
+            measureName,
+            constrainedColumns,
+            compoundPredicates,
+            rolapStarFactTableName,
+            constrainedColsBitKey,
+            excludedRegions,
+            null);
+    }
+
+    /**
+     * Creates a segment header, possibly of a segment estimated from a
+     * sample.
+     *
+     * @param schemaName The name of the schema which this
+     * header belongs to.
+     * @param schemaChecksum Schema checksum
+     * @param cubeName The name of the cube this segment belongs to.
+     * @param measureName The name of the measure which defines
+     * this header.
+     * @param constrainedColumns An array of constrained columns
+     * objects which define the predicated of this segment header.
+     * @param compoundPredicates Compound predicates (Must not be null, but
+     * typically empty.)
+     * @param rolapStarFactTableName Star fact table name
+     * @param constrainedColsBitKey Constrained columns bit key
+     * @param excludedRegions Excluded regions. (Must not be null, but typically
+     * @param sampleTableName Name of the sample table the values are
+     * estimated from, or null if they are exact
+     */
+    public SegmentHeader(
+        String schemaName,
+        ByteString schemaChecksum,
+        String cubeName,
+        String measureName,
+        List<SegmentColumn> constrainedColumns,
+        List<String> compoundPredicates,
+        String rolapStarFactTableName,
+        BitKey constrainedColsBitKey,
+        List<SegmentColumn> excludedRegions,
+        String sampleTableName)
     {
         this.constrainedColumns = constrainedColumns;
         this.excludedRegions = excludedRegions;
@@ -97,6 +152,7 @@ public class SegmentHeader implements Serializable {
         this.compoundPredicates = compoundPredicates;
         this.rolapStarFactTableName = rolapStarFactTableName;
         this.constrainedColsBitKey = constrainedColsBitKey;
+        this.sampleTableName = sampleTableName;
         this.arity = constrainedColumns.size();
         // Hash code might be used extensively. Better compute
         // it up front.
@@ -122,6 +178,7 @@ public class SegmentHeader implements Serializable {
             }
         }
         hash = Util.hash(hash, compoundPredicates);
+        hash = Util.hash(hash, sampleTableName);
         return hash;
     }
 
@@ -164,7 +221,8 @@ public class SegmentHeader implements Serializable {
                 Collections.<String>emptyList(),
                 rolapStarFactTableName,
                 constrainedColsBitKey,
-                Collections.<SegmentColumn>emptyList());
+                Collections.<SegmentColumn>emptyList(),
+                sampleTableName);
     }
 
     /**
@@ -251,7 +309,8 @@ public class SegmentHeader implements Serializable {
                 compoundPredicates,
                 rolapStarFactTableName,
                 constrainedColsBitKey,
-                new ArrayList<SegmentColumn>(newRegions.values()));
+                new ArrayList<SegmentColumn>(newRegions.values()),
+                sampleTableName);
     }
 
     public String toString() {
@@ -312,12 +371,22 @@ public class SegmentHeader implements Serializable {
         return this.constrainedColsBitKey.copy();
     }
 
+    /**
+     * Returns whether the values of the segment were estimated from a
+     * sample of the fact table.
+     *
+     * @return Whether the segment is approximate
+     */
+    public boolean isSampled() {
+        return sampleTableName != null;
+    }
+
     /**
      * Returns a unique identifier for this header. The identifier
      * can be used for storage and will be the same across segments
      * which have the same schema name, cube name, measure name,
      * and for each constrained column, the same column name, table name,
-     * and predicate values.
+     * and predicate values, and the same sample table, if any.
      * @return A unique identification string.
      */
     public ByteString getUniqueID() {
@@ -346,6 +415,11 @@ public class SegmentHeader implements Serializable {
             for (String c : compoundPredicates) {
                 hashSB.append(c);
             }
+            if (sampleTableName != null) {
+                // Exact headers keep the ID they had before samples were
+                // introduced, so that external caches remain valid.
+                hashSB.append("sample:").append(sampleTableName);
+            }
             this.uniqueID =
                 new ByteString(Util.digestSha256(hashSB.toString()));
         }
@@ -411,8 +485,14 @@ public class SegmentHeader implements Serializable {
                 descriptionSB.append("\n\t{");
                 descriptionSB.append(c);
             }
+            descriptionSB.append("]\n");
+            if (sampleTableName != null) {
+                descriptionSB
+                    .append("Sample:[")
+                    .append(sampleTableName)
+                    .append("]\n");
+            }
             descriptionSB
-                .append("]\n")
                 .append("ID:[")
                 .append(getUniqueID())
                 .append("]\n");
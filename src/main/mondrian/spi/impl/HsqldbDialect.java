@@ -57,6 +57,19 @@ public class HsqldbDialect extends JdbcDialectImpl {
             columnNames, columnTypes, valueList,
             " from \"days\" where \"day\" = 1", false);
     }
+
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public String generateLimitOffset(int offset, int limit) {
+        // In HSQLDB, "limit 0" means no limit.
+        return limit < 0
+            ? "limit 0 offset " + offset
+            : "limit " + limit + " offset " + offset;
+    }
 }
 
 // End HsqldbDialect.java
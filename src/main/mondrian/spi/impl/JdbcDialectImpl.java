@@ -732,6 +732,28 @@ public class JdbcDialectImpl implements Dialect {
         }
     }
 
+    public boolean allowsBindVariable(Datatype datatype) {
+        // Date and time literals are written differently by each dialect,
+        // and JDBC drivers disagree about how to bind them; keep them
+        // literal.
+        switch (datatype) {
+        case String:
+        case Numeric:
+        case Integer:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public int getFetchSize(int fetchSize, boolean stream) {
+        return fetchSize;
+    }
+
+    public boolean requiresAutoCommitOffToStream() {
+        return false;
+    }
+
     public boolean allowsDdl() {
         return !readOnly;
     }
@@ -830,6 +852,14 @@ public class JdbcDialectImpl implements Dialect {
         }
     }
 
+    public boolean supportsLimitOffset() {
+        return false;
+    }
+
+    public String generateLimitOffset(int offset, int limit) {
+        return null;
+    }
+
     public boolean supportsGroupByExpressions() {
         return true;
     }
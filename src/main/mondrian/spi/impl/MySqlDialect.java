@@ -349,6 +349,27 @@ public class MySqlDialect extends JdbcDialectImpl {
     public boolean requiresOrderByAlias() {
         return productVersion.compareTo("5.7") >= 0;
     }
+
+    @Override
+    public int getFetchSize(int fetchSize, boolean stream) {
+        // Connector/J reads the whole result into memory unless the fetch
+        // size is Integer.MIN_VALUE, in which case it reads a row at a time.
+        return stream ? Integer.MIN_VALUE : fetchSize;
+    }
+
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public String generateLimitOffset(int offset, int limit) {
+        // MySQL does not allow an offset without a limit; the manual
+        // recommends the largest unsigned BIGINT.
+        return "limit "
+            + (limit < 0 ? "18446744073709551615" : String.valueOf(limit))
+            + " offset " + offset;
+    }
 }
 
 // End MySqlDialect.java
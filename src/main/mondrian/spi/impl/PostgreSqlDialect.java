@@ -50,6 +50,13 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         return true;
     }
 
+    @Override
+    public boolean requiresAutoCommitOffToStream() {
+        // The driver reads a result through a cursor, fetch size rows at a
+        // time, only inside a transaction.
+        return true;
+    }
+
     @Override
     protected String generateOrderByNulls(
         String expr,
@@ -121,6 +128,17 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         return super.getType(metaData, columnIndex);
     }
 
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public String generateLimitOffset(int offset, int limit) {
+        return limit < 0
+            ? "offset " + offset
+            : "limit " + limit + " offset " + offset;
+    }
 }
 
 // End PostgreSqlDialect.java
@@ -129,6 +129,18 @@ public class VerticaDialect extends JdbcDialectImpl {
     public boolean supportsMultiValueInExpr() {
         return true;
     }
+
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public String generateLimitOffset(int offset, int limit) {
+        return limit < 0
+            ? "offset " + offset
+            : "limit " + limit + " offset " + offset;
+    }
 }
 
 // End VerticaDialect.java
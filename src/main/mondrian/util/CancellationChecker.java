@@ -9,12 +9,14 @@
 */
 package mondrian.util;
 
-import mondrian.olap.MondrianProperties;
 import mondrian.server.Execution;
 
 /**
  * Encapsulates cancel and timeouts checks
  *
+ * <p>Called from inner loops, so it takes no locks and does not read
+ * properties; see {@link Execution#checkCancelOrTimeout(int)}.
+ *
  * @author Yury_Bakhmutski
  * @since Jan 18, 2016
  */
@@ -23,16 +25,8 @@ public class CancellationChecker {
   public static void checkCancelOrTimeout(
       int currentIteration, Execution execution)
   {
-    int checkCancelOrTimeoutInterval =
-        MondrianProperties.instance().CheckCancelOrTimeoutInterval.get();
     if (execution != null) {
-      synchronized (execution) {
-        if (checkCancelOrTimeoutInterval > 0
-            && currentIteration % checkCancelOrTimeoutInterval == 0)
-        {
-          execution.checkCancelOrTimeout();
-        }
-    }
+      execution.checkCancelOrTimeout(currentIteration);
     }
   }
 }
@@ -25,6 +25,16 @@ public abstract class Counters {
     /** Number of times {@code SqlStatement.close} has been called. */
     public static final AtomicLong SQL_STATEMENT_CLOSE_COUNT = new AtomicLong();
 
+    /** Number of parameterized statements executed whose SQL had been
+     * prepared before. */
+    public static final AtomicLong PREPARED_STATEMENT_HIT_COUNT =
+        new AtomicLong();
+
+    /** Number of parameterized statements executed whose SQL had not been
+     * prepared before. */
+    public static final AtomicLong PREPARED_STATEMENT_MISS_COUNT =
+        new AtomicLong();
+
     /** Ids of all {@code SqlStatement} instances that are executing. */
     public static final Set<Long> SQL_STATEMENT_EXECUTING_IDS =
         Collections.synchronizedSet(new HashSet<Long>());
@@ -0,0 +1,229 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import java.math.BigInteger;
+
+/**
+ * Sketch that estimates the number of distinct values in a multiset, using
+ * the HyperLogLog algorithm of Flajolet, Fusy, Gandouet and Meunier.
+ *
+ * <p>Each value is hashed to 64 bits. The first <code>precision</code> bits
+ * choose one of 2<sup>precision</sup> registers, and the register keeps the
+ * largest position of the first 1-bit among the remaining bits. The
+ * relative standard error of the estimate is about
+ * 1.04 / sqrt(2<sup>precision</sup>); 1.6% for the default precision, 12.
+ * Merging two sketches takes the maximum of each register, so the result is
+ * the same as if all values had been added to one sketch.</p>
+ *
+ * <p>Values are hashed by their string representation; integral numbers are
+ * hashed the same whatever their Java type, so that a value read as an
+ * {@link Integer} from one table and as a {@link Double} from another count
+ * as one value.</p>
+ */
+public class HyperLogLog extends Sketch {
+    /** Default number of bits used to choose a register. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final byte FORMAT = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param precision Number of bits used to choose a register, between 4
+     *   and 16
+     */
+    public HyperLogLog(int precision) {
+        this(precision, new byte[1 << checkPrecision(precision)]);
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    private static int checkPrecision(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException(
+                "precision must be between 4 and 16: " + precision);
+        }
+        return precision;
+    }
+
+    /**
+     * Reads a sketch written by {@link #toBytes()}.
+     *
+     * @param bytes Bytes
+     * @return Sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes.length < 2 || bytes[0] != FORMAT) {
+            throw new IllegalArgumentException("not a HyperLogLog sketch");
+        }
+        final int precision = checkPrecision(bytes[1]);
+        if (bytes.length != 2 + (1 << precision)) {
+            throw new IllegalArgumentException(
+                "HyperLogLog sketch has wrong length: " + bytes.length);
+        }
+        final byte[] registers = new byte[1 << precision];
+        System.arraycopy(bytes, 2, registers, 0, registers.length);
+        return new HyperLogLog(precision, registers);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Repeated values do not change the number of distinct values, so
+     * the value is added once.</p>
+     */
+    public void add(Object value, long weight) {
+        if (weight > 0) {
+            add(value);
+        }
+    }
+
+    void addHash(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        final long w = hash << precision;
+        final int rank =
+            w == 0
+                ? 64 - precision + 1
+                : Long.numberOfLeadingZeros(w) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(Sketch sketch) {
+        final HyperLogLog that = (HyperLogLog) sketch;
+        if (that.precision != precision) {
+            throw new IllegalArgumentException(
+                "cannot merge HyperLogLog sketches of precision "
+                + precision + " and " + that.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (that.registers[i] > registers[i]) {
+                registers[i] = that.registers[i];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Merging is idempotent, so the sketch is merged once.</p>
+     */
+    public void merge(Sketch sketch, long weight) {
+        if (weight > 0) {
+            merge(sketch);
+        }
+    }
+
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision, registers.clone());
+    }
+
+    public byte[] toBytes() {
+        final byte[] bytes = new byte[2 + registers.length];
+        bytes[0] = FORMAT;
+        bytes[1] = (byte) precision;
+        System.arraycopy(registers, 0, bytes, 2, registers.length);
+        return bytes;
+    }
+
+    public double getEstimate() {
+        final int m = registers.length;
+        double sum = 0d;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                ++zeros;
+            }
+        }
+        final double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673d;
+            break;
+        case 32:
+            alpha = 0.697d;
+            break;
+        case 64:
+            alpha = 0.709d;
+            break;
+        default:
+            alpha = 0.7213d / (1d + 1.079d / m);
+        }
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5d * m && zeros > 0) {
+            // Small range correction: linear counting.
+            return m * Math.log((double) m / zeros);
+        }
+        return estimate;
+    }
+
+    /**
+     * Hashes a value to 64 bits.
+     *
+     * @param value Value
+     * @return Hash
+     */
+    static long hash(Object value) {
+        final String s;
+        if (value instanceof Integer
+            || value instanceof Long
+            || value instanceof Short
+            || value instanceof Byte
+            || value instanceof BigInteger)
+        {
+            s = value.toString();
+        } else if (value instanceof Number) {
+            final double d = ((Number) value).doubleValue();
+            s = d == Math.rint(d) && Math.abs(d) < 9.007199254740992E15
+                ? Long.toString((long) d)
+                : Double.toString(d);
+        } else {
+            s = value.toString();
+        }
+        // 64-bit FNV-1a, then the MurmurHash3 finalizer to spread the bits.
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+// End HyperLogLog.java
@@ -0,0 +1,339 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sketch that estimates a quantile of a multiset of numbers.
+ *
+ * <p>The sketch is a stack of compactors, in the style of the KLL sketch of
+ * Karnin, Lang and Liberty. Values are added to level 0. When a level holds
+ * <code>capacity</code> values, it is sorted, and every other value is
+ * promoted to the next level, where it stands for twice as many values. The
+ * sketch therefore holds O(capacity * log(n / capacity)) values, and the
+ * rank error of an estimated quantile is about
+ * log(n / capacity) / capacity. The minimum and maximum are kept exactly.
+ * Merging two sketches adds the values of each level of one sketch to the
+ * same level of the other, compacting as necessary.</p>
+ *
+ * <p>The quantile that the sketch {@link #getEstimate() estimates} is a
+ * property of the sketch, not of its serialized form: the same stored
+ * sketch can be read as a minimum (rank 0), a median (rank 0.5) or a
+ * maximum (rank 1).</p>
+ */
+public class QuantileSketch extends Sketch {
+    /** Default number of values a level holds before it is compacted. */
+    public static final int DEFAULT_CAPACITY = 200;
+
+    private static final byte FORMAT = 2;
+
+    private final double rank;
+    private final int capacity;
+    private double[][] levels;
+    private int[] sizes;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private int compactions;
+
+    /**
+     * Creates an empty sketch with the default capacity.
+     *
+     * @param rank Quantile to estimate, between 0 (minimum) and 1 (maximum)
+     */
+    public QuantileSketch(double rank) {
+        this(rank, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param rank Quantile to estimate, between 0 (minimum) and 1 (maximum)
+     * @param capacity Number of values a level holds before it is compacted;
+     *   an even number, at least 2
+     */
+    public QuantileSketch(double rank, int capacity) {
+        if (rank < 0d || rank > 1d) {
+            throw new IllegalArgumentException(
+                "rank must be between 0 and 1: " + rank);
+        }
+        if (capacity < 2 || capacity % 2 != 0) {
+            throw new IllegalArgumentException(
+                "capacity must be even and at least 2: " + capacity);
+        }
+        this.rank = rank;
+        this.capacity = capacity;
+        this.levels = new double[0][];
+        this.sizes = new int[0];
+    }
+
+    /**
+     * Reads a sketch written by {@link #toBytes()}.
+     *
+     * @param bytes Bytes
+     * @param rank Quantile to estimate
+     * @return Sketch
+     */
+    public static QuantileSketch fromBytes(byte[] bytes, double rank) {
+        try {
+            final DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != FORMAT) {
+                throw new IllegalArgumentException("not a quantile sketch");
+            }
+            final QuantileSketch sketch =
+                new QuantileSketch(rank, in.readInt());
+            sketch.count = in.readLong();
+            sketch.min = in.readDouble();
+            sketch.max = in.readDouble();
+            sketch.compactions = in.readInt();
+            final int levelCount = in.readInt();
+            sketch.levels = new double[levelCount][];
+            sketch.sizes = new int[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                final int size = in.readInt();
+                sketch.levels[level] = new double[sketch.capacity];
+                sketch.sizes[level] = size;
+                for (int i = 0; i < size; i++) {
+                    sketch.levels[level][i] = in.readDouble();
+                }
+            }
+            return sketch;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                "quantile sketch is truncated", e);
+        }
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    /**
+     * Returns the number of values summarized by this sketch.
+     *
+     * @return Number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public void add(Object value) {
+        final double d =
+            value instanceof Number
+                ? ((Number) value).doubleValue()
+                : Double.parseDouble(value.toString());
+        ++count;
+        min = Math.min(min, d);
+        max = Math.max(max, d);
+        insert(0, d);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A value at level <i>k</i> stands for 2<sup>k</sup> values, so the
+     * value is inserted once at each level whose bit is set in the weight,
+     * rather than once per occurrence.</p>
+     */
+    public void add(Object value, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        final double d =
+            value instanceof Number
+                ? ((Number) value).doubleValue()
+                : Double.parseDouble(value.toString());
+        count += weight;
+        min = Math.min(min, d);
+        max = Math.max(max, d);
+        for (int level = 0; weight != 0; level++, weight >>>= 1) {
+            if ((weight & 1) != 0) {
+                insert(level, d);
+            }
+        }
+    }
+
+    private void insert(int level, double d) {
+        while (level >= levels.length) {
+            final int n = levels.length;
+            levels = Arrays.copyOf(levels, n + 1);
+            levels[n] = new double[capacity];
+            sizes = Arrays.copyOf(sizes, n + 1);
+        }
+        levels[level][sizes[level]++] = d;
+        if (sizes[level] == capacity) {
+            compact(level);
+        }
+    }
+
+    private void compact(int level) {
+        final double[] values = levels[level];
+        final int size = sizes[level];
+        sizes[level] = 0;
+        Arrays.sort(values, 0, size);
+        // Alternate between keeping the odd and even values, so that the
+        // errors of successive compactions cancel out.
+        for (int i = compactions++ & 1; i < size; i += 2) {
+            insert(level + 1, values[i]);
+        }
+    }
+
+    public void merge(Sketch sketch) {
+        final QuantileSketch that = (QuantileSketch) sketch;
+        if (that.capacity != capacity) {
+            throw new IllegalArgumentException(
+                "cannot merge quantile sketches of capacity "
+                + capacity + " and " + that.capacity);
+        }
+        count += that.count;
+        min = Math.min(min, that.min);
+        max = Math.max(max, that.max);
+        for (int level = 0; level < that.levels.length; level++) {
+            for (int i = 0; i < that.sizes[level]; i++) {
+                insert(level, that.levels[level][i]);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>As in {@link #add(Object, long)}, the other sketch's values are
+     * inserted, raised by <i>k</i> levels, once for each bit <i>k</i> set
+     * in the weight.</p>
+     */
+    public void merge(Sketch sketch, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        final QuantileSketch that = (QuantileSketch) sketch;
+        if (that.capacity != capacity) {
+            throw new IllegalArgumentException(
+                "cannot merge quantile sketches of capacity "
+                + capacity + " and " + that.capacity);
+        }
+        count += that.count * weight;
+        min = Math.min(min, that.min);
+        max = Math.max(max, that.max);
+        for (int shift = 0; weight != 0; shift++, weight >>>= 1) {
+            if ((weight & 1) == 0) {
+                continue;
+            }
+            for (int level = 0; level < that.levels.length; level++) {
+                for (int i = 0; i < that.sizes[level]; i++) {
+                    insert(level + shift, that.levels[level][i]);
+                }
+            }
+        }
+    }
+
+    public QuantileSketch copy() {
+        final QuantileSketch copy = new QuantileSketch(rank, capacity);
+        copy.levels = new double[levels.length][];
+        for (int level = 0; level < levels.length; level++) {
+            copy.levels[level] = levels[level].clone();
+        }
+        copy.sizes = sizes.clone();
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        copy.compactions = compactions;
+        return copy;
+    }
+
+    public byte[] toBytes() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT);
+            out.writeInt(capacity);
+            out.writeLong(count);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.writeInt(compactions);
+            out.writeInt(levels.length);
+            for (int level = 0; level < levels.length; level++) {
+                out.writeInt(sizes[level]);
+                for (int i = 0; i < sizes[level]; i++) {
+                    out.writeDouble(levels[level][i]);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Cannot happen; we are writing to memory.
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public double getEstimate() {
+        return getQuantile(rank);
+    }
+
+    /**
+     * Returns the estimated value at a given rank.
+     *
+     * @param q Rank, between 0 and 1
+     * @return Estimated quantile, or NaN if the sketch is empty
+     */
+    public double getQuantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0d) {
+            return min;
+        }
+        if (q >= 1d) {
+            return max;
+        }
+        int n = 0;
+        for (int size : sizes) {
+            n += size;
+        }
+        // Sort the retained values, each weighted by 2^level, and walk
+        // until the cumulative weight reaches the requested rank.
+        final double[] values = new double[n];
+        final long[] weights = new long[n];
+        final Integer[] order = new Integer[n];
+        long total = 0;
+        int k = 0;
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < sizes[level]; i++) {
+                values[k] = levels[level][i];
+                weights[k] = 1L << level;
+                order[k] = k;
+                total += weights[k];
+                ++k;
+            }
+        }
+        Arrays.sort(
+            order,
+            new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(values[o1], values[o2]);
+                }
+            });
+        final double target = q * total;
+        long cumulative = 0;
+        for (int i : order) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+}
+
+// End QuantileSketch.java
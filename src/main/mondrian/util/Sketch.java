@@ -0,0 +1,119 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+/**
+ * Mergeable summary of a multiset of values, from which a statistic can be
+ * estimated.
+ *
+ * <p>A sketch is the value of a cell whose measure has a sketch aggregator
+ * (see {@link mondrian.rolap.RolapAggregator.SketchAggor}). Because two
+ * sketches can be merged into a sketch of the union of their values,
+ * cells at coarse levels can be rolled up in memory from finer cells, even
+ * for statistics such as distinct-count which cannot be added up.</p>
+ *
+ * <p>A sketch is a {@link Number} whose value is the estimated statistic, so
+ * that it can be formatted and used in calculations like any other cell
+ * value. A sketch can be written to and read from a binary column of a
+ * table using {@link #toBytes()}.</p>
+ *
+ * <p>Sketches held in the cache are shared, and must not be modified;
+ * {@link #copy()} a sketch before merging into it.</p>
+ */
+public abstract class Sketch extends Number {
+    /**
+     * Adds a raw value to this sketch.
+     *
+     * @param value Value, not null
+     */
+    public abstract void add(Object value);
+
+    /**
+     * Adds a raw value to this sketch several times, as if it had occurred
+     * in that many rows.
+     *
+     * <p>The default implementation calls {@link #add(Object)} repeatedly.</p>
+     *
+     * @param value Value, not null
+     * @param weight Number of occurrences
+     */
+    public void add(Object value, long weight) {
+        for (long i = 0; i < weight; i++) {
+            add(value);
+        }
+    }
+
+    /**
+     * Merges another sketch into this sketch, so that this sketch summarizes
+     * the values of both.
+     *
+     * @param sketch Sketch of the same kind and precision
+     */
+    public abstract void merge(Sketch sketch);
+
+    /**
+     * Merges another sketch into this sketch several times, as if its values
+     * had occurred in that many rows.
+     *
+     * <p>The default implementation calls {@link #merge(Sketch)}
+     * repeatedly.</p>
+     *
+     * @param sketch Sketch of the same kind and precision
+     * @param weight Number of occurrences
+     */
+    public void merge(Sketch sketch, long weight) {
+        for (long i = 0; i < weight; i++) {
+            merge(sketch);
+        }
+    }
+
+    /**
+     * Returns a copy of this sketch.
+     *
+     * @return Copy
+     */
+    public abstract Sketch copy();
+
+    /**
+     * Returns the serialized form of this sketch.
+     *
+     * @return Bytes
+     */
+    public abstract byte[] toBytes();
+
+    /**
+     * Returns the estimated statistic.
+     *
+     * @return Estimate
+     */
+    public abstract double getEstimate();
+
+    public double doubleValue() {
+        return getEstimate();
+    }
+
+    public float floatValue() {
+        return (float) getEstimate();
+    }
+
+    public long longValue() {
+        return Math.round(getEstimate());
+    }
+
+    public int intValue() {
+        return (int) longValue();
+    }
+
+    public String toString() {
+        return String.valueOf(getEstimate());
+    }
+}
+
+// End Sketch.java
@@ -0,0 +1,374 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.xmla;
+
+import mondrian.util.Base64;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Encodes a column of values, such as the values of one cell property for
+ * every cell of a cell set, as a compact binary block; and decodes it.
+ *
+ * <p>This is the encoding used when an XML/A client sets the
+ * {@link PropertyDefinition#CellDataEncoding} property to
+ * {@link Enumeration.CellDataEncoding#Columnar Columnar}. Instead of an
+ * element per cell, the response contains an element per column, whose
+ * content is the block, deflate-compressed and encoded in base 64.</p>
+ *
+ * <p>A block consists of:</p>
+ *
+ * <ul>
+ * <li>the type of the column (a byte: {@link #NULL}, {@link #INT},
+ *     {@link #LONG}, {@link #DOUBLE}, {@link #BOOLEAN} or
+ *     {@link #STRING});</li>
+ * <li>the number of values (an int);</li>
+ * <li>a bitmap with a bit per value, set if the value is null, least
+ *     significant bit first;</li>
+ * <li>the values that are not null: 4 bytes for an int, 8 bytes for a long
+ *     or double, 1 byte for a boolean; for strings, the number of distinct
+ *     strings, each string (the length of its UTF-8 encoding, then the
+ *     encoding), and then the index of each value's string.</li>
+ * </ul>
+ *
+ * <p>Numbers are stored in the narrowest type that represents every value
+ * in the column exactly. A {@link BigDecimal} is stored as a double only if
+ * converting it to a double and back yields the same number; otherwise the
+ * column is stored as strings.</p>
+ *
+ * <p>{@link #decode(String)} is a reference decoder for clients.</p>
+ */
+public class ColumnarEncoding {
+    /** Type of a column whose values are all null. */
+    public static final byte NULL = 0;
+    /** Type of a column of 32-bit integers. */
+    public static final byte INT = 1;
+    /** Type of a column of 64-bit integers. */
+    public static final byte LONG = 2;
+    /** Type of a column of double-precision numbers. */
+    public static final byte DOUBLE = 3;
+    /** Type of a column of booleans. */
+    public static final byte BOOLEAN = 4;
+    /** Type of a column of strings. */
+    public static final byte STRING = 5;
+
+    private static final String[] TYPE_NAMES = {
+        "null", "int", "long", "double", "boolean", "string"
+    };
+
+    /**
+     * Largest magnitude up to which every long can be converted to a double
+     * exactly.
+     */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private ColumnarEncoding() {
+    }
+
+    /**
+     * Returns the name of a column type, as written in the {@code type}
+     * attribute of a column element.
+     *
+     * @param type Column type
+     * @return Name of type, such as "int"
+     */
+    public static String typeName(byte type) {
+        return TYPE_NAMES[type];
+    }
+
+    /**
+     * Decodes a column that was written by {@link ColumnBuilder#encode()}.
+     *
+     * @param data Compressed block, encoded in base 64
+     * @return Values of the column; null values are null, and other values
+     * are of class {@link Integer}, {@link Long}, {@link Double},
+     * {@link Boolean} or {@link String}, depending on the type of the column
+     */
+    public static List<Object> decode(String data) {
+        final byte[] bytes = Base64.decode(data);
+        final Inflater inflater = new Inflater();
+        try {
+            return decode(
+                new DataInputStream(
+                    new InflaterInputStream(
+                        new ByteArrayInputStream(bytes), inflater)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                "Invalid column block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static List<Object> decode(DataInputStream in)
+        throws IOException
+    {
+        final byte type = in.readByte();
+        final int count = in.readInt();
+        final byte[] nulls = new byte[(count + 7) / 8];
+        in.readFully(nulls);
+        String[] dictionary = null;
+        if (type == STRING) {
+            dictionary = new String[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                final byte[] utf8 = new byte[in.readInt()];
+                in.readFully(utf8);
+                dictionary[i] = new String(utf8, "UTF-8");
+            }
+        }
+        final List<Object> values = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            if ((nulls[i >> 3] & (1 << (i & 7))) != 0) {
+                values.add(null);
+                continue;
+            }
+            switch (type) {
+            case INT:
+                values.add(in.readInt());
+                break;
+            case LONG:
+                values.add(in.readLong());
+                break;
+            case DOUBLE:
+                values.add(in.readDouble());
+                break;
+            case BOOLEAN:
+                values.add(in.readByte() != 0);
+                break;
+            case STRING:
+                values.add(dictionary[in.readInt()]);
+                break;
+            default:
+                throw new IOException("unknown column type " + type);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Collects the values of a column, in order, and encodes them.
+     */
+    public static class ColumnBuilder {
+        private final List<Object> values = new ArrayList<Object>();
+        private byte type = NULL;
+
+        /**
+         * Whether the column contains a long that cannot be converted to a
+         * double exactly.
+         */
+        private boolean wideLong;
+
+        /**
+         * Adds a value to the column.
+         *
+         * @param value Value; may be null
+         */
+        public void add(Object value) {
+            values.add(value);
+            if (value == null || type == STRING) {
+                return;
+            }
+            type = widen(type, typeOf(value));
+        }
+
+        /**
+         * Returns the number of values in the column.
+         */
+        public int size() {
+            return values.size();
+        }
+
+        /**
+         * Returns the type of the column: the narrowest type that can hold
+         * every value added so far.
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Encodes the column as a block, deflate-compresses it, and encodes
+         * the result in base 64.
+         *
+         * @return Encoded column
+         */
+        public String encode() {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final Deflater deflater = new Deflater();
+            try {
+                final DeflaterOutputStream out =
+                    new DeflaterOutputStream(bytes, deflater);
+                write(new DataOutputStream(out));
+                out.finish();
+            } catch (IOException e) {
+                // Cannot happen; we are writing to memory.
+                throw new RuntimeException(e);
+            } finally {
+                deflater.end();
+            }
+            return Base64.encodeBytes(
+                bytes.toByteArray(), Base64.DONT_BREAK_LINES);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            final int count = values.size();
+            out.writeByte(type);
+            out.writeInt(count);
+            final byte[] nulls = new byte[(count + 7) / 8];
+            for (int i = 0; i < count; i++) {
+                if (values.get(i) == null) {
+                    nulls[i >> 3] |= 1 << (i & 7);
+                }
+            }
+            out.write(nulls);
+            if (type == STRING) {
+                writeStrings(out);
+                return;
+            }
+            for (Object value : values) {
+                if (value == null) {
+                    continue;
+                }
+                switch (type) {
+                case INT:
+                    out.writeInt(((Number) value).intValue());
+                    break;
+                case LONG:
+                    out.writeLong(((Number) value).longValue());
+                    break;
+                case DOUBLE:
+                    out.writeDouble(((Number) value).doubleValue());
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                default:
+                    throw new AssertionError(type);
+                }
+            }
+        }
+
+        private void writeStrings(DataOutputStream out) throws IOException {
+            final Map<String, Integer> dictionary =
+                new LinkedHashMap<String, Integer>();
+            final int[] indexes = new int[values.size()];
+            int n = 0;
+            for (Object value : values) {
+                if (value == null) {
+                    continue;
+                }
+                final String s = toString(value);
+                Integer index = dictionary.get(s);
+                if (index == null) {
+                    index = dictionary.size();
+                    dictionary.put(s, index);
+                }
+                indexes[n++] = index;
+            }
+            out.writeInt(dictionary.size());
+            for (String s : dictionary.keySet()) {
+                final byte[] utf8 = s.getBytes("UTF-8");
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeInt(indexes[i]);
+            }
+        }
+
+        private static String toString(Object value) {
+            if (value instanceof BigDecimal) {
+                return XmlaUtil.normalizeNumericString(
+                    ((BigDecimal) value).toPlainString());
+            }
+            return value.toString();
+        }
+
+        /**
+         * Returns the narrowest type that can hold a value.
+         */
+        private byte typeOf(Object value) {
+            if (value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte)
+            {
+                return INT;
+            } else if (value instanceof Long) {
+                return typeOf(((Long) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                return DOUBLE;
+            } else if (value instanceof BigInteger) {
+                final BigInteger i = (BigInteger) value;
+                return i.bitLength() < 64 ? typeOf(i.longValue()) : STRING;
+            } else if (value instanceof BigDecimal) {
+                final BigDecimal d = (BigDecimal) value;
+                if (d.signum() == 0
+                    || d.scale() <= 0
+                    || d.stripTrailingZeros().scale() <= 0)
+                {
+                    final BigInteger i = d.toBigInteger();
+                    if (i.bitLength() < 64) {
+                        return typeOf(i.longValue());
+                    }
+                }
+                final double v = d.doubleValue();
+                if (!Double.isInfinite(v)
+                    && BigDecimal.valueOf(v).compareTo(d) == 0)
+                {
+                    return DOUBLE;
+                }
+                return STRING;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            } else {
+                return STRING;
+            }
+        }
+
+        private byte typeOf(long v) {
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                return INT;
+            }
+            if (v < -MAX_EXACT_DOUBLE || v > MAX_EXACT_DOUBLE) {
+                wideLong = true;
+            }
+            return LONG;
+        }
+
+        /**
+         * Returns the narrowest type that can hold values of two types.
+         */
+        private byte widen(byte type0, byte type1) {
+            if (type0 == type1 || type1 == NULL) {
+                return type0;
+            }
+            if (type0 == NULL) {
+                return type1;
+            }
+            if (type0 == STRING
+                || type1 == STRING
+                || type0 == BOOLEAN
+                || type1 == BOOLEAN)
+            {
+                return STRING;
+            }
+            // Both numeric, and different.
+            if (type0 == DOUBLE || type1 == DOUBLE) {
+                return wideLong ? STRING : DOUBLE;
+            }
+            return LONG;
+        }
+    }
+}
+
+// End ColumnarEncoding.java
@@ -120,6 +120,22 @@ public class Enumeration {
         }
     }
 
+    /**
+     * How the cells and axes of a multidimensional result are encoded.
+     *
+     * @see PropertyDefinition#CellDataEncoding
+     */
+    public enum CellDataEncoding {
+        /** An element for each cell and for each member of each tuple. */
+        Xml,
+
+        /** A compressed column for each cell property, and a dictionary of
+         * members and compressed columns of member indexes for each axis.
+         *
+         * @see ColumnarEncoding */
+        Columnar
+    }
+
 }
 
 // End Enumeration.java
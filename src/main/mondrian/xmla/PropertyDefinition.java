@@ -53,6 +53,24 @@ public enum PropertyDefinition {
         + "When you set this property during a session to change the current database for the session, this property is equivalent to the OLE DB property, DBPROP_CURRENTCATALOG.\n"
         + "The default value for this property is an empty string."),
 
+    /**
+     * Mondrian-specific extension to XMLA.
+     *
+     * @see Enumeration.CellDataEncoding
+     */
+    CellDataEncoding(
+        RowsetDefinition.Type.EnumString,
+        Olap4jUtil.enumSetAllOf(Enumeration.CellDataEncoding.class),
+        XmlaConstants.Access.ReadWrite,
+        Enumeration.CellDataEncoding.Xml.name(),
+        XmlaConstants.Method.EXECUTE,
+        "How the cells and axes of a multidimensional result are encoded. "
+        + "'Xml' (default) writes an element for each cell. 'Columnar' "
+        + "writes each cell property as a column of values, with a bitmap "
+        + "of null values, deflate-compressed and encoded in base 64; and "
+        + "writes each distinct member of an axis once, followed by columns "
+        + "of member indexes."),
+
     Content(
         RowsetDefinition.Type.EnumString,
         Olap4jUtil.enumSetAllOf(XmlaConstants.Content.class),
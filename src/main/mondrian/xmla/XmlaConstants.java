@@ -73,6 +73,8 @@ public interface XmlaConstants {
     public static final String CONTEXT_MIME_TYPE = "language";
     // context key for session id storage
     public static final String CONTEXT_XMLA_SESSION_ID   = "session_id";
+    // context key for the "Accept-Encoding" HTTP header of the request
+    public static final String CONTEXT_ACCEPT_ENCODING = "accept_encoding";
 
     // Username and password tokens
     public static final String CONTEXT_XMLA_USERNAME = "username";
@@ -1721,7 +1721,9 @@ public class XmlaHandler {
                             cellSet,
                             content != Content.DataIncludeDefaultSlicer,
                             responseMimeType
-                            == Enumeration.ResponseMimeType.JSON);
+                            == Enumeration.ResponseMimeType.JSON,
+                            getCellDataEncoding(request)
+                            == Enumeration.CellDataEncoding.Columnar);
                 } else {
                     dataSet =
                         new MDDataSet_Tabular(cellSet);
@@ -1799,6 +1801,18 @@ public class XmlaHandler {
         return mimeType;
     }
 
+    private static Enumeration.CellDataEncoding getCellDataEncoding(
+        XmlaRequest request)
+    {
+        final String encodingName =
+            request.getProperties().get(
+                PropertyDefinition.CellDataEncoding.name());
+        return Util.lookup(
+            Enumeration.CellDataEncoding.class,
+            encodingName,
+            Enumeration.CellDataEncoding.Xml);
+    }
+
     static abstract class MDDataSet implements QueryResult {
         protected final CellSet cellSet;
 
@@ -1885,20 +1899,49 @@ public class XmlaHandler {
         private List<Hierarchy> slicerAxisHierarchies;
         private final boolean omitDefaultSlicerInfo;
         private final boolean json;
+        private final boolean columnar;
         private XmlaUtil.ElementNameEncoder encoder =
             XmlaUtil.ElementNameEncoder.INSTANCE;
         private XmlaExtra extra;
 
+        /**
+         * Cell properties that the query asked for and that are not
+         * standard, such as ERROR_BOUND. They are written after the
+         * standard properties, under their own names.
+         */
+        private final List<Property> extensionCellProps =
+            new ArrayList<Property>();
+
+        /**
+         * Creates an MDDataSet_Multidimensional.
+         *
+         * @param cellSet Cell set
+         * @param omitDefaultSlicerInfo Whether to omit the default member of
+         *     hierarchies that are not on the slicer
+         * @param json Whether the response is JSON
+         * @param columnar Whether to write cells and axes in columnar form
+         *     (see {@link ColumnarEncoding})
+         * @throws SQLException on error
+         */
         protected MDDataSet_Multidimensional(
             CellSet cellSet,
             boolean omitDefaultSlicerInfo,
-            boolean json)
+            boolean json,
+            boolean columnar)
             throws SQLException
         {
             super(cellSet);
             this.omitDefaultSlicerInfo = omitDefaultSlicerInfo;
             this.json = json;
+            this.columnar = columnar;
             this.extra = getExtra(cellSet.getStatement().getConnection());
+            for (Property property
+                : cellSet.getMetaData().getCellProperties())
+            {
+                if (!(property instanceof StandardCellProperty)) {
+                    extensionCellProps.add(property);
+                }
+            }
         }
 
         public void unparse(SaxWriter writer)
@@ -1906,7 +1949,11 @@ public class XmlaHandler {
         {
             olapInfo(writer);
             axes(writer);
-            cellData(writer);
+            if (columnar) {
+                columnarCellData(writer);
+            } else {
+                cellData(writer);
+            }
         }
 
         public void metadata(SaxWriter writer) {
@@ -1987,6 +2034,11 @@ public class XmlaHandler {
                 writer, StandardCellProperty.FORE_COLOR, false, "ForeColor");
             cellProperty(
                 writer, StandardCellProperty.FONT_FLAGS, false, "FontFlags");
+            for (Property cellProperty : extensionCellProps) {
+                writer.element(
+                    encoder.encode(cellProperty.getName()),
+                    "name", cellProperty.getName());
+            }
             writer.endElement(); // CellInfo
             // -----------
             writer.endElement(); // OlapInfo
@@ -2119,7 +2171,11 @@ public class XmlaHandler {
             for (int i = 0; i < axes.size(); i++) {
                 final CellSetAxis axis = axes.get(i);
                 final List<Property> props = getProps(axis.getAxisMetaData());
-                axis(writer, axis, props, "Axis" + i);
+                if (columnar) {
+                    columnarAxis(writer, axis, props, "Axis" + i);
+                } else {
+                    axis(writer, axis, props, "Axis" + i);
+                }
             }
 
             ////////////////////////////////////////////
@@ -2252,6 +2308,120 @@ public class XmlaHandler {
             writer.endElement(); // Axis
         }
 
+        /**
+         * Writes an axis in columnar form: each distinct member once, then,
+         * for each hierarchy, a column of indexes into the list of members,
+         * one per position; and, if DisplayInfo was asked for, a column of
+         * display info.
+         */
+        private void columnarAxis(
+            SaxWriter writer,
+            CellSetAxis axis,
+            List<Property> props,
+            String axisName) throws OlapException
+        {
+            final List<Property> memberProps = new ArrayList<Property>();
+            boolean displayInfo = false;
+            for (Property prop : props) {
+                if (longProps.get(prop.getName())
+                    == StandardMemberProperty.DISPLAY_INFO)
+                {
+                    displayInfo = true;
+                } else {
+                    memberProps.add(prop);
+                }
+            }
+            final Map<Member, Integer> memberIndexes =
+                new LinkedHashMap<Member, Integer>();
+            final List<ColumnarEncoding.ColumnBuilder> indexColumns =
+                new ArrayList<ColumnarEncoding.ColumnBuilder>();
+            final List<ColumnarEncoding.ColumnBuilder> displayInfoColumns =
+                new ArrayList<ColumnarEncoding.ColumnBuilder>();
+            final List<Hierarchy> hierarchies = new ArrayList<Hierarchy>();
+
+            int positionCount = 0;
+            Iterator<Position> pit = axis.getPositions().iterator();
+            Position prevPosition = null;
+            Position position = pit.hasNext() ? pit.next() : null;
+            Position nextPosition = pit.hasNext() ? pit.next() : null;
+            while (position != null) {
+                final List<Member> members = position.getMembers();
+                for (int k = 0; k < members.size(); k++) {
+                    final Member member = members.get(k);
+                    if (k == indexColumns.size()) {
+                        hierarchies.add(member.getHierarchy());
+                        indexColumns.add(
+                            new ColumnarEncoding.ColumnBuilder());
+                        displayInfoColumns.add(
+                            new ColumnarEncoding.ColumnBuilder());
+                    }
+                    Integer index = memberIndexes.get(member);
+                    if (index == null) {
+                        index = memberIndexes.size();
+                        memberIndexes.put(member, index);
+                    }
+                    indexColumns.get(k).add(index);
+                    if (displayInfo) {
+                        Integer childrenCard = (Integer) member
+                            .getPropertyValue(
+                                StandardMemberProperty.CHILDREN_CARDINALITY);
+                        displayInfoColumns.get(k).add(
+                            calculateDisplayInfo(
+                                prevPosition, nextPosition, member, k,
+                                childrenCard));
+                    }
+                }
+                ++positionCount;
+                prevPosition = position;
+                position = nextPosition;
+                nextPosition = pit.hasNext() ? pit.next() : null;
+            }
+
+            writer.startElement(
+                "Axis",
+                "name", axisName,
+                "encoding", Enumeration.CellDataEncoding.Columnar.name(),
+                "tupleCount", positionCount);
+            writer.startSequence("Members", "Member");
+            for (Member member : memberIndexes.keySet()) {
+                writeMember(writer, member, null, null, 0, memberProps);
+            }
+            writer.endSequence(); // Members
+            writer.startSequence("Columns", "Column");
+            for (int k = 0; k < indexColumns.size(); k++) {
+                final String hierarchyName = hierarchies.get(k).getName();
+                writeColumn(
+                    writer, indexColumns.get(k),
+                    "name", "Member", "Hierarchy", hierarchyName);
+                if (displayInfo) {
+                    writeColumn(
+                        writer, displayInfoColumns.get(k),
+                        "name", "DisplayInfo", "Hierarchy", hierarchyName);
+                }
+            }
+            writer.endSequence(); // Columns
+            writer.endElement(); // Axis
+        }
+
+        /**
+         * Writes a column, encoded by {@link ColumnarEncoding}, as an element
+         * with the given attributes and its type.
+         */
+        private static void writeColumn(
+            SaxWriter writer,
+            ColumnarEncoding.ColumnBuilder column,
+            Object... attributes)
+        {
+            final Object[] attrs = new Object[attributes.length + 2];
+            System.arraycopy(attributes, 0, attrs, 0, attributes.length);
+            attrs[attributes.length] = "type";
+            attrs[attributes.length + 1] =
+                ColumnarEncoding.typeName(column.getType());
+            writer.startElement("Column", attrs);
+            writer.textElement("Data", column.encode());
+            writer.endElement(); // Column
+        }
+
         private void writeMember(
             SaxWriter writer, Member member, Position prevPosition,
             Position nextPosition, int k, List<Property> props)
@@ -2465,8 +2635,72 @@ public class XmlaHandler {
                     writer.textElement(cellProps.get(i).getName(), value);
                 }
             }
+            for (Property cellProperty : extensionCellProps) {
+                final Object value = cell.getPropertyValue(cellProperty);
+                if (value != null) {
+                    writer.textElement(
+                        encoder.encode(cellProperty.getName()), value);
+                }
+            }
             writer.endElement(); // Cell
         }
+
+        /**
+         * Writes the cells in columnar form: a column for each cell property,
+         * with a value for every cell, including null cells, in cell ordinal
+         * order.
+         *
+         * <p>Unlike {@link #cellData(SaxWriter)}, reads each cell by its
+         * ordinal, and asks whether to return each property once rather than
+         * once per cell.</p>
+         */
+        private void columnarCellData(SaxWriter writer) {
+            final List<Property> props = new ArrayList<Property>();
+            final List<String> names = new ArrayList<String>();
+            for (int i = 0; i < cellProps.size(); i++) {
+                if (extra.shouldReturnCellProperty(
+                        cellSet, cellPropLongs.get(i), true))
+                {
+                    props.add(cellPropLongs.get(i));
+                    names.add(cellProps.get(i).getName());
+                }
+            }
+            for (Property cellProperty : extensionCellProps) {
+                props.add(cellProperty);
+                names.add(cellProperty.getName());
+            }
+            final List<ColumnarEncoding.ColumnBuilder> columns =
+                new ArrayList<ColumnarEncoding.ColumnBuilder>();
+            for (int i = 0; i < props.size(); i++) {
+                columns.add(new ColumnarEncoding.ColumnBuilder());
+            }
+
+            int cellCount = 1;
+            for (CellSetAxis axis : cellSet.getAxes()) {
+                cellCount *= axis.getPositionCount();
+            }
+            for (int ordinal = 0; ordinal < cellCount; ordinal++) {
+                final Cell cell = cellSet.getCell(ordinal);
+                for (int i = 0; i < props.size(); i++) {
+                    final Property prop = props.get(i);
+                    columns.get(i).add(
+                        prop == StandardCellProperty.VALUE && cell.isNull()
+                            ? null
+                            : cell.getPropertyValue(prop));
+                }
+            }
+
+            writer.startElement(
+                "CellData",
+                "encoding", Enumeration.CellDataEncoding.Columnar.name(),
+                "cellCount", cellCount);
+            writer.startSequence("Columns", "Column");
+            for (int i = 0; i < props.size(); i++) {
+                writeColumn(writer, columns.get(i), "name", names.get(i));
+            }
+            writer.endSequence(); // Columns
+            writer.endElement(); // CellData
+        }
     }
 
     static abstract class ColumnHandler {
@@ -244,6 +244,9 @@ public abstract class XmlaServlet
                     }
                 }
                 context.put(CONTEXT_MIME_TYPE, mimeType);
+                context.put(
+                    CONTEXT_ACCEPT_ENCODING,
+                    request.getHeader("Accept-Encoding"));
 
                 unmarshallSoapMessage(request, requestSoapParts);
             } catch (XmlaException xex) {
@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -45,10 +46,45 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
     private static final String REQUIRE_AUTHENTICATED_SESSIONS =
         "requireAuthenticatedSessions";
 
+    /**
+     * Servlet config parameter that determines whether the xmla servlet
+     * sends the body of a large response to the client while it is being
+     * generated, rather than generating the whole body in memory first.
+     *
+     * <p>A streamed response cannot be replaced by a SOAP fault if an error
+     * occurs after its first bytes have been sent, and callbacks'
+     * {@link XmlaRequestCallback#postAction postAction} methods see an
+     * empty body.</p>
+     */
+    private static final String STREAM_RESPONSES = "streamResponses";
+
+    /**
+     * Servlet config parameter that determines whether the xmla servlet
+     * compresses streamed responses, for clients that accept gzip encoding.
+     */
+    private static final String COMPRESS_RESPONSES = "compressResponses";
+
+    /**
+     * Number of bytes of a streamed response body that are held in memory
+     * before the response is sent. A smaller response is sent in the usual
+     * way.
+     */
+    static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Value of the body in the response parts, if the body has been
+     * streamed to the client.
+     */
+    private static final byte[] STREAMED = new byte[0];
+
     private DocumentBuilderFactory domFactory = null;
 
     private boolean requireAuthenticatedSessions = false;
 
+    private boolean streamResponses = false;
+
+    private boolean compressResponses = false;
+
     /**
      * Session properties, keyed by session ID. Currently just username and
      * password.
@@ -62,6 +98,10 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         this.requireAuthenticatedSessions =
             Boolean.parseBoolean(
                 servletConfig.getInitParameter(REQUIRE_AUTHENTICATED_SESSIONS));
+        this.streamResponses =
+            getBooleanInitParameter(servletConfig, STREAM_RESPONSES);
+        this.compressResponses =
+            getBooleanInitParameter(servletConfig, COMPRESS_RESPONSES);
     }
 
     protected static DocumentBuilderFactory getDocumentBuilderFactory() {
@@ -451,6 +491,7 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         Map<String, Object> context)
         throws XmlaException
     {
+        ResponseStream stream = null;
         try {
             String encoding = response.getCharacterEncoding();
             Element hdrElem = requestSoapParts[0]; // not used
@@ -500,8 +541,25 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                 }
             }
 
+            if (streamResponses) {
+                final String acceptEncoding =
+                    (String) context.get(CONTEXT_ACCEPT_ENCODING);
+                stream =
+                    new ResponseStream(
+                        response,
+                        responseSoapParts[0],
+                        (Enumeration.ResponseMimeType)
+                            context.get(CONTEXT_MIME_TYPE),
+                        compressResponses
+                            && acceptEncoding != null
+                            && acceptEncoding.contains("gzip"));
+            }
+
             XmlaResponse xmlaRes =
-                new DefaultXmlaResponse(osBuf, encoding, responseMimeType);
+                new DefaultXmlaResponse(
+                    stream == null ? osBuf : stream,
+                    encoding,
+                    responseMimeType);
 
             try {
                 getXmlaHandler().process(xmlaReq, xmlaRes);
@@ -515,7 +573,8 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                     ex);
             }
 
-            responseSoapParts[1] = osBuf.toByteArray();
+            responseSoapParts[1] =
+                stream == null ? osBuf.toByteArray() : stream.finish();
         } catch (XmlaException xex) {
             throw xex;
         } catch (Exception ex) {
@@ -524,6 +583,12 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
                 HSB_UNKNOWN_CODE,
                 HSB_UNKNOWN_FAULT_FS,
                 ex);
+        } finally {
+            if (stream != null && stream.isCommitted()) {
+                // Part of the body has been sent. Whatever happens now, the
+                // response cannot be sent again.
+                responseSoapParts[1] = STREAMED;
+            }
         }
     }
 
@@ -533,27 +598,13 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         Enumeration.ResponseMimeType responseMimeType)
         throws XmlaException
     {
+        if (responseSoapParts[1] == STREAMED) {
+            // The response has already been sent.
+            return;
+        }
         try {
-            // If CharacterEncoding was set in web.xml, use this value
-            String encoding =
-                (charEncoding != null)
-                    ? charEncoding
-                    : response.getCharacterEncoding();
-
-            // Since we just reset response, encoding and content-type were
-            // reset too
-            if (charEncoding != null) {
-                response.setCharacterEncoding(charEncoding);
-            }
-            switch (responseMimeType) {
-            case JSON:
-                response.setContentType("application/json");
-                break;
-            case SOAP:
-            default:
-                response.setContentType("text/xml");
-                break;
-            }
+            String encoding = getResponseEncoding(response);
+            setContentType(response, responseMimeType);
 
              // The setCharacterEncoding, setContentType, or setLocale method
              // must be called BEFORE getWriter or getOutputStream and before
@@ -578,26 +629,12 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
 
                 case SOAP:
                 default:
-                    String s0 =
-                        "<?xml version=\"1.0\" encoding=\"" + encoding
-                        + "\"?>\n<" + SOAP_PREFIX + ":Envelope xmlns:"
-                        + SOAP_PREFIX + "=\"" + NS_SOAP_ENV_1_1 + "\" "
-                        + SOAP_PREFIX + ":encodingStyle=\""
-                        + NS_SOAP_ENC_1_1 + "\" >" + "\n<" + SOAP_PREFIX
-                        + ":Header>\n";
-                    String s2 =
-                        "</" + SOAP_PREFIX + ":Header>\n<" + SOAP_PREFIX
-                        + ":Body>\n";
-                    String s4 =
-                        "\n</" + SOAP_PREFIX + ":Body>\n</" + SOAP_PREFIX
-                        + ":Envelope>\n";
-
                     byteChunks = new Object[] {
-                        s0.getBytes(encoding),
+                        envelopeStart(encoding).getBytes(encoding),
                         soapHeader,
-                        s2.getBytes(encoding),
+                        envelopeBodyStart().getBytes(encoding),
                         soapBody,
-                        s4.getBytes(encoding),
+                        envelopeEnd().getBytes(encoding),
                     };
                     break;
                 }
@@ -670,6 +707,67 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         }
     }
 
+    /**
+     * Returns the character encoding of the response. If CharacterEncoding
+     * was set in web.xml, uses this value.
+     */
+    private String getResponseEncoding(HttpServletResponse response) {
+        return (charEncoding != null)
+            ? charEncoding
+            : response.getCharacterEncoding();
+    }
+
+    /**
+     * Sets the character encoding and content type of the response.
+     */
+    private void setContentType(
+        HttpServletResponse response,
+        Enumeration.ResponseMimeType responseMimeType)
+    {
+        // Since we just reset response, encoding and content-type were
+        // reset too
+        if (charEncoding != null) {
+            response.setCharacterEncoding(charEncoding);
+        }
+        switch (responseMimeType) {
+        case JSON:
+            response.setContentType("application/json");
+            break;
+        case SOAP:
+        default:
+            response.setContentType("text/xml");
+            break;
+        }
+    }
+
+    /**
+     * Returns the start of a SOAP envelope, up to the content of its header.
+     */
+    private static String envelopeStart(String encoding) {
+        return "<?xml version=\"1.0\" encoding=\"" + encoding
+            + "\"?>\n<" + SOAP_PREFIX + ":Envelope xmlns:"
+            + SOAP_PREFIX + "=\"" + NS_SOAP_ENV_1_1 + "\" "
+            + SOAP_PREFIX + ":encodingStyle=\""
+            + NS_SOAP_ENC_1_1 + "\" >" + "\n<" + SOAP_PREFIX
+            + ":Header>\n";
+    }
+
+    /**
+     * Returns the part of a SOAP envelope between the content of its header
+     * and the content of its body.
+     */
+    private static String envelopeBodyStart() {
+        return "</" + SOAP_PREFIX + ":Header>\n<" + SOAP_PREFIX + ":Body>\n";
+    }
+
+    /**
+     * Returns the end of a SOAP envelope, after the content of its body.
+     */
+    private static String envelopeEnd() {
+        return "\n</" + SOAP_PREFIX + ":Body>\n</" + SOAP_PREFIX
+            + ":Envelope>\n";
+    }
+
     /**
      * This produces a SOAP 1.1 version Fault element - not a 1.2 version.
      *
@@ -680,6 +778,15 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
         Phase phase,
         Throwable t)
     {
+        if (responseSoapParts[1] == STREAMED) {
+            // Part of the response has been sent, so it is too late to send
+            // a fault instead. The client will receive a truncated response.
+            LOGGER.error(
+                "Cannot send SOAP fault; response has already been streamed",
+                t);
+            return;
+        }
+
         // Regardless of whats been put into the response so far, clear
         // it out.
         response.reset();
@@ -839,6 +946,120 @@ public abstract class DefaultXmlaServlet extends XmlaServlet {
             return sessionInfo;
         }
     }
+
+    /**
+     * Output stream to which the body of a response is written, if
+     * responses are streamed.
+     *
+     * <p>Holds the first {@link #STREAM_BUFFER_SIZE} bytes of the body in
+     * memory. If the body is no larger, or if an error occurs before it gets
+     * larger, nothing has been sent, and the response is marshalled or
+     * replaced by a SOAP fault in the usual way.</p>
+     *
+     * <p>Otherwise, the stream sets the response headers, sends the start of
+     * the SOAP envelope and the body so far, and then sends the body as it is
+     * written. The length of the response is not known in advance, so the
+     * servlet container sends it using chunked transfer encoding.</p>
+     */
+    private class ResponseStream extends OutputStream {
+        private final HttpServletResponse response;
+        private final byte[] soapHeader;
+        private final Enumeration.ResponseMimeType responseMimeType;
+        private final boolean gzip;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream out;
+
+        ResponseStream(
+            HttpServletResponse response,
+            byte[] soapHeader,
+            Enumeration.ResponseMimeType responseMimeType,
+            boolean gzip)
+        {
+            this.response = response;
+            this.soapHeader = soapHeader;
+            this.responseMimeType =
+                responseMimeType == null
+                    ? Enumeration.ResponseMimeType.SOAP
+                    : responseMimeType;
+            this.gzip = gzip;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                out.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if (buffer.size() > STREAM_BUFFER_SIZE) {
+                commit();
+            }
+        }
+
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        /**
+         * Returns whether any of the response has been sent.
+         */
+        boolean isCommitted() {
+            return out != null;
+        }
+
+        private void commit() throws IOException {
+            final String encoding = getResponseEncoding(response);
+            setContentType(response, responseMimeType);
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            final OutputStream outputStream = response.getOutputStream();
+            out =
+                gzip
+                    ? new GZIPOutputStream(outputStream, 8192)
+                    : outputStream;
+            if (responseMimeType != Enumeration.ResponseMimeType.JSON) {
+                out.write(envelopeStart(encoding).getBytes(encoding));
+                if (soapHeader != null) {
+                    out.write(soapHeader);
+                }
+                out.write(envelopeBodyStart().getBytes(encoding));
+            }
+            buffer.writeTo(out);
+            buffer = null;
+            // Send the first bytes to the client now, rather than when the
+            // container's buffer is full.
+            out.flush();
+        }
+
+        /**
+         * Completes the response.
+         *
+         * @return Body, if none of the response has been sent;
+         *   otherwise {@link #STREAMED}
+         */
+        byte[] finish() throws IOException {
+            if (out == null) {
+                return buffer.toByteArray();
+            }
+            if (responseMimeType != Enumeration.ResponseMimeType.JSON) {
+                final String encoding = getResponseEncoding(response);
+                out.write(envelopeEnd().getBytes(encoding));
+            }
+            if (out instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) out).finish();
+            }
+            out.flush();
+            return STREAMED;
+        }
+    }
+
     /**
      * Holds authentication credentials of a XMLA session.
      */
@@ -9,6 +9,7 @@
 
 package mondrian.olap.fun;
 
+import mondrian.olap.Util;
 import mondrian.test.PerformanceTest;
 
 import junit.framework.TestCase;
@@ -503,6 +504,135 @@ public class PartialSortTest extends TestCase
     }
 
 
+    // returns random numeric values, some of them null or equal
+    private Object[] newRandomValues(int length) {
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(10)) {
+            case 0:
+                values[i] = Util.nullValue;
+                break;
+            case 1:
+                values[i] = random.nextInt(10);
+                break;
+            default:
+                values[i] = random.nextInt(length) / 4d;
+            }
+        }
+        return values;
+    }
+
+    // sorts the ordinals of VALUES with a comparator, as FunUtil does for
+    // values that are not numeric
+    private static Integer[] sortOrdinals(
+        final Object[] values, final boolean desc)
+    {
+        Integer[] ordinals = new Integer[values.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        Arrays.sort(
+            ordinals,
+            new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    final int c = FunUtil.compareValues(values[x], values[y]);
+                    return desc ? -c : c;
+                }
+            });
+        return ordinals;
+    }
+
+    private void assertSortsLikeComparator(int length, int limit) {
+        final Object[] values = newRandomValues(length);
+        final NumericSortKeys keys = NumericSortKeys.of(values);
+        for (boolean desc : new boolean[] {false, true}) {
+            final Integer[] expected = sortOrdinals(values, desc);
+            final int[] sorted = keys.sort(desc);
+            final int[] partiallySorted = keys.partialSort(desc, limit);
+            assertEquals(length, sorted.length);
+            assertEquals(Math.min(limit, length), partiallySorted.length);
+            for (int i = 0; i < length; i++) {
+                assertEquals(expected[i].intValue(), sorted[i]);
+                if (i < partiallySorted.length) {
+                    assertEquals(expected[i].intValue(), partiallySorted[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that {@link NumericSortKeys} sorts ordinals in the same order as
+     * a stable sort with {@link FunUtil#compareValues(Object, Object)}.
+     */
+    public void testNumericSortKeys() {
+        assertSortsLikeComparator(0, 4);
+        assertSortsLikeComparator(1, 4);
+        assertSortsLikeComparator(15, 4);
+        assertSortsLikeComparator(100, 20);
+        assertSortsLikeComparator(50000, 10);
+        assertSortsLikeComparator(50000, 12000);
+
+        // nulls are less than any number; NaN greater than any but infinity
+        final Object[] values = {
+            1, Double.NaN, Util.nullValue, Double.POSITIVE_INFINITY, -2.5, null
+        };
+        assertTrue(
+            Arrays.equals(
+                new int[] {2, 5, 4, 0, 1, 3},
+                NumericSortKeys.of(values).sort(false)));
+        assertTrue(
+            Arrays.equals(
+                new int[] {3, 1, 0},
+                NumericSortKeys.of(values).partialSort(true, 3)));
+
+        // values that cannot be represented are rejected
+        assertNull(NumericSortKeys.of(new Object[] {1, "a"}));
+        assertNull(
+            NumericSortKeys.of(new Object[] {1, Double.NEGATIVE_INFINITY}));
+    }
+
+    // Compares elapsed time of sorting ordinals by boxed values with a
+    // comparator, and by primitive sort keys.
+    private void numericSpeedTest(Logger logger, int length, int limit) {
+        logger.debug(
+            "sorting the max " + limit + " of " + length + " random values");
+        final Object[] values = newRandomValues(length);
+
+        long now = System.currentTimeMillis();
+        final Map<Integer, Object> valueMap = new HashMap<Integer, Object>();
+        for (int i = 0; i < length; i++) {
+            valueMap.put(i, values[i]);
+        }
+        final List<Integer> ordinals =
+            new ArrayList<Integer>(valueMap.keySet());
+        final Comparator<Integer> comp =
+            new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    return -FunUtil.compareValues(
+                        valueMap.get(x), valueMap.get(y));
+                }
+            };
+        Collections.sort(ordinals, comp);
+        long dt = System.currentTimeMillis() - now;
+        logger.debug(" boxed full sort took " + dt + " msecs");
+
+        now = System.currentTimeMillis();
+        FunUtil.stablePartialSort(ordinals, comp, limit);
+        dt = System.currentTimeMillis() - now;
+        logger.debug(" boxed stable partial sort took " + dt + " msecs");
+
+        now = System.currentTimeMillis();
+        final NumericSortKeys keys = NumericSortKeys.of(values);
+        keys.sort(true);
+        dt = System.currentTimeMillis() - now;
+        logger.debug(" primitive full sort took " + dt + " msecs");
+
+        now = System.currentTimeMillis();
+        keys.partialSort(true, limit);
+        dt = System.currentTimeMillis() - now;
+        logger.debug(" primitive partial sort took " + dt + " msecs");
+    }
+
     // Compares elapsed time of full sort (mergesort), partial sort, and stable
     // partial sort on the same input set.
     private void speedTest(Logger logger, int length, int limit) {
@@ -562,6 +692,8 @@ public class PartialSortTest extends TestCase
         speedTest(PerformanceTest.LOGGER, 1000000, 400);
         speedTest(PerformanceTest.LOGGER, 1000000, 4000);
         speedTest(PerformanceTest.LOGGER, 1000000, 40000);
+        numericSpeedTest(PerformanceTest.LOGGER, 1000000, 10);
+        numericSpeedTest(PerformanceTest.LOGGER, 1000000, 1000);
 
         // very large; needs bigger heap
         //speedTest(PerformanceTest.LOGGER, 1600 * 1600, 4);
@@ -0,0 +1,374 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+import mondrian.spi.Dialect;
+import mondrian.spi.impl.JdbcDialectImpl;
+import mondrian.test.PropertyRestoringTestCase;
+import mondrian.test.TestContext;
+
+import org.apache.log4j.Logger;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link FetchSizePolicy}.
+ *
+ * <p>The statements run against a simulated driver that counts round trips
+ * to the database and the number of rows it holds in memory. It can behave
+ * like Oracle, which reads 10 rows per round trip unless told otherwise; or
+ * like MySQL and PostgreSQL, which read the whole result in one round trip
+ * unless told to stream it.</p>
+ */
+public class FetchSizePolicyTest extends PropertyRestoringTestCase {
+    private static final Logger LOGGER =
+        Logger.getLogger(FetchSizePolicyTest.class);
+
+    private final MondrianProperties props = MondrianProperties.instance();
+
+    public void testFetchSize() throws SQLException {
+        propSaver.set(props.MaxFetchSize, 5000);
+        final FetchSizePolicy policy =
+            new FetchSizePolicy(new JdbcDialectImpl());
+
+        // Nothing known about member lookups yet; leave the driver default.
+        SimulatedDriver driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        assertFalse(
+            policy.apply(
+                driver.connection, driver.statement, Purpose.TUPLES, true));
+        assertEquals(0, driver.fetchSize);
+
+        policy.recordRowCount(Purpose.TUPLES, 200);
+        driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(driver.connection, driver.statement, Purpose.TUPLES, true);
+        assertEquals(201, driver.fetchSize);
+
+        // Small results still get the minimum fetch size.
+        policy.recordRowCount(Purpose.OTHER, 1);
+        driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(driver.connection, driver.statement, Purpose.OTHER, true);
+        assertEquals(FetchSizePolicy.MIN_FETCH_SIZE, driver.fetchSize);
+
+        // Segment loads of unknown size get the maximum.
+        driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(
+            driver.connection, driver.statement, Purpose.CELL_SEGMENT, true);
+        assertEquals(5000, driver.fetchSize);
+
+        // The average adapts to what statements return.
+        for (int i = 0; i < 20; i++) {
+            policy.recordRowCount(Purpose.CELL_SEGMENT, 1000);
+        }
+        driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(
+            driver.connection, driver.statement, Purpose.CELL_SEGMENT, true);
+        assertEquals(1001, driver.fetchSize);
+
+        propSaver.set(props.AdaptiveFetchSize, false);
+        driver = new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(
+            driver.connection, driver.statement, Purpose.CELL_SEGMENT, true);
+        assertEquals(0, driver.fetchSize);
+    }
+
+    /**
+     * Tests that large results are streamed in the way the dialect asks,
+     * and only if the result set is forward-only.
+     */
+    public void testStream() throws SQLException {
+        propSaver.set(props.StreamingRowThreshold, 1000);
+        final Dialect dialect = mock(Dialect.class);
+        when(dialect.getFetchSize(anyInt(), eq(true)))
+            .thenReturn(Integer.MIN_VALUE);
+        when(dialect.getFetchSize(anyInt(), eq(false))).thenReturn(0);
+        when(dialect.requiresAutoCommitOffToStream()).thenReturn(true);
+        final FetchSizePolicy policy = new FetchSizePolicy(dialect);
+
+        SimulatedDriver driver = new SimulatedDriver(Behavior.MYSQL, 100);
+        assertTrue(
+            policy.apply(
+                driver.connection,
+                driver.statement,
+                Purpose.DRILL_THROUGH,
+                true));
+        assertEquals(Integer.MIN_VALUE, driver.fetchSize);
+        assertFalse(driver.autoCommit);
+
+        driver = new SimulatedDriver(Behavior.MYSQL, 100);
+        assertFalse(
+            policy.apply(
+                driver.connection,
+                driver.statement,
+                Purpose.DRILL_THROUGH,
+                false));
+        assertEquals(0, driver.fetchSize);
+        assertTrue(driver.autoCommit);
+
+        // Drill-throughs turn out to be small; stop streaming them.
+        policy.recordRowCount(Purpose.DRILL_THROUGH, 50);
+        driver = new SimulatedDriver(Behavior.MYSQL, 100);
+        assertFalse(
+            policy.apply(
+                driver.connection,
+                driver.statement,
+                Purpose.DRILL_THROUGH,
+                true));
+        assertEquals(0, driver.fetchSize);
+    }
+
+    /**
+     * Tests that the rows of drill-through result sets, which the client
+     * reads rather than Mondrian, are counted; if they were not, the average
+     * would decay to 0 and later drill-throughs would get the minimum fetch
+     * size.
+     */
+    public void testDrillThroughRowCount() throws SQLException {
+        propSaver.set(props.AdaptiveFetchSize, true);
+        final CellSet cellSet =
+            TestContext.instance().executeOlap4jQuery(
+                "select {[Measures].[Unit Sales]} on 0,\n"
+                + " {[Gender].[F]} on 1\n"
+                + "from [Sales]\n"
+                + "where [Time].[1997].[Q1]");
+        final RolapConnection connection =
+            cellSet.getStatement().getConnection()
+                .unwrap(RolapConnection.class);
+        final Cell cell = cellSet.getCell(Arrays.asList(0, 0));
+        int rowCount = -1;
+        for (int i = 0; i < 10; i++) {
+            final ResultSet resultSet = cell.drillThrough();
+            int n = 0;
+            while (resultSet.next()) {
+                ++n;
+            }
+            resultSet.close();
+            if (rowCount >= 0) {
+                assertEquals(rowCount, n);
+            }
+            rowCount = n;
+        }
+        assertTrue(rowCount > FetchSizePolicy.MIN_FETCH_SIZE);
+
+        // The policy exists, because the drill-throughs used it. Ten
+        // statements of the same size bring the average close to it,
+        // whatever earlier tests left behind.
+        final FetchSizePolicy policy =
+            FetchSizePolicy.instance(connection.getDataSource(), null);
+        final long average = policy.getAverageRowCount(Purpose.DRILL_THROUGH);
+        assertTrue(
+            "average " + average + ", rows " + rowCount,
+            average >= rowCount / 2);
+        final SimulatedDriver driver =
+            new SimulatedDriver(Behavior.ORACLE, 100);
+        policy.apply(
+            driver.connection, driver.statement, Purpose.DRILL_THROUGH, false);
+        assertTrue(driver.fetchSize > FetchSizePolicy.MIN_FETCH_SIZE);
+    }
+
+    /**
+     * Loads a large segment through the simulated driver with and without
+     * the policy, and compares the number of round trips and the largest
+     * number of rows held in memory.
+     */
+    public void testPerformance() throws SQLException {
+        final int rowCount = LOGGER.isDebugEnabled() ? 2000000 : 200000;
+        for (Behavior behavior : Behavior.values()) {
+            final FetchSizePolicy policy =
+                new FetchSizePolicy(behavior.dialect());
+            final SimulatedDriver before =
+                new SimulatedDriver(behavior, rowCount);
+            final long beforeNanos = before.read();
+
+            final SimulatedDriver after =
+                new SimulatedDriver(behavior, rowCount);
+            policy.apply(
+                after.connection,
+                after.statement,
+                Purpose.CELL_SEGMENT,
+                true);
+            final long afterNanos = after.read();
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    behavior + ": " + rowCount + " rows; driver default: "
+                    + before.roundTripCount + " round trips, peak "
+                    + before.peakRowCount + " rows, "
+                    + beforeNanos / 1000000 + " ms; adaptive: "
+                    + after.roundTripCount + " round trips, peak "
+                    + after.peakRowCount + " rows, "
+                    + afterNanos / 1000000 + " ms");
+            }
+            assertEquals(rowCount, before.readCount);
+            assertEquals(rowCount, after.readCount);
+            switch (behavior) {
+            case ORACLE:
+                assertTrue(after.roundTripCount < before.roundTripCount);
+                break;
+            default:
+                assertTrue(after.peakRowCount < before.peakRowCount);
+                break;
+            }
+        }
+    }
+
+    /**
+     * How the simulated driver reads a result.
+     */
+    enum Behavior {
+        /** Reads 10 rows per round trip, or the fetch size if set. */
+        ORACLE,
+        /** Reads the whole result at once, unless the fetch size is
+         * {@link Integer#MIN_VALUE}. */
+        MYSQL,
+        /** Reads the whole result at once, unless the fetch size is set and
+         * auto-commit is off. */
+        POSTGRES;
+
+        /**
+         * Returns a dialect that sets up streaming as the dialect of the
+         * real database does.
+         */
+        Dialect dialect() {
+            switch (this) {
+            case MYSQL:
+                return new JdbcDialectImpl() {
+                    public int getFetchSize(int fetchSize, boolean stream) {
+                        return stream ? Integer.MIN_VALUE : fetchSize;
+                    }
+                };
+            case POSTGRES:
+                return new JdbcDialectImpl() {
+                    public boolean requiresAutoCommitOffToStream() {
+                        return true;
+                    }
+                };
+            default:
+                return new JdbcDialectImpl();
+            }
+        }
+    }
+
+    /**
+     * Simulated JDBC connection, statement and result set.
+     */
+    private static class SimulatedDriver implements InvocationHandler {
+        private static final int ROW_WIDTH = 4;
+
+        final Behavior behavior;
+        final int rowCount;
+        final Connection connection;
+        final Statement statement;
+        int fetchSize;
+        boolean autoCommit = true;
+        int readCount;
+        int roundTripCount;
+        int peakRowCount;
+        private long[][] batch = new long[0][];
+        private int batchPosition;
+
+        SimulatedDriver(Behavior behavior, int rowCount) {
+            this.behavior = behavior;
+            this.rowCount = rowCount;
+            this.connection = proxy(Connection.class);
+            this.statement = proxy(Statement.class);
+        }
+
+        private <T> T proxy(Class<T> clazz) {
+            return clazz.cast(
+                Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class[] {clazz},
+                    this));
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if (name.equals("setFetchSize")) {
+                fetchSize = (Integer) args[0];
+                return null;
+            } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean) args[0];
+                return null;
+            } else if (name.equals("close")) {
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        /**
+         * Reads every row, and returns the elapsed time in nanoseconds.
+         */
+        long read() {
+            final long start = System.nanoTime();
+            long sum = 0;
+            while (next()) {
+                sum += batch[batchPosition][0];
+            }
+            assertEquals((long) rowCount * (rowCount - 1) / 2, sum);
+            return System.nanoTime() - start;
+        }
+
+        private boolean next() {
+            if (++batchPosition < batch.length) {
+                return true;
+            }
+            if (readCount >= rowCount) {
+                return false;
+            }
+            final int batchSize =
+                Math.min(batchSize(), rowCount - readCount);
+            // Release the previous batch before reading the next, as a
+            // driver would.
+            batch = null;
+            batch = new long[batchSize][];
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = new long[ROW_WIDTH];
+                batch[i][0] = readCount++;
+            }
+            if (behavior != Behavior.MYSQL
+                || fetchSize != Integer.MIN_VALUE
+                || roundTripCount == 0)
+            {
+                // A streaming MySQL result arrives in one round trip.
+                ++roundTripCount;
+            }
+            peakRowCount = Math.max(peakRowCount, batchSize);
+            batchPosition = 0;
+            return true;
+        }
+
+        private int batchSize() {
+            switch (behavior) {
+            case ORACLE:
+                return fetchSize > 0 ? fetchSize : 10;
+            case MYSQL:
+                // A streaming result holds one row at a time.
+                return fetchSize == Integer.MIN_VALUE ? 1 : rowCount;
+            case POSTGRES:
+                return fetchSize > 0 && !autoCommit ? fetchSize : rowCount;
+            default:
+                throw new AssertionError(behavior);
+            }
+        }
+    }
+}
+
+// End FetchSizePolicyTest.java
@@ -0,0 +1,213 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.server.Execution;
+import mondrian.server.StatementImpl;
+import mondrian.server.monitor.Monitor;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.*;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link RolapResultShepherd}.
+ */
+public class RolapResultShepherdTest extends TestCase {
+    private static final Logger LOGGER =
+        Logger.getLogger(RolapResultShepherdTest.class);
+
+    private StatementImpl statement;
+    private RolapResultShepherd shepherd;
+
+    public void setUp() {
+        final MondrianServer server = mock(MondrianServer.class);
+        when(server.getMonitor()).thenReturn(mock(Monitor.class));
+        final RolapConnection connection = mock(RolapConnection.class);
+        when(connection.getServer()).thenReturn(server);
+        statement = mock(StatementImpl.class);
+        when(statement.getMondrianConnection()).thenReturn(connection);
+        shepherd = new RolapResultShepherd();
+    }
+
+    public void tearDown() {
+        shepherd.shutdown();
+    }
+
+    public void testResult() {
+        final Execution execution = new Execution(statement, 60000);
+        final Result result = mock(Result.class);
+        assertSame(
+            result,
+            shepherd.shepherdExecution(
+                execution,
+                new Callable<Result>() {
+                    public Result call() {
+                        execution.start();
+                        assertEquals(1, shepherd.getDeadlineCount());
+                        return result;
+                    }
+                }));
+        // The deadline is removed as soon as the execution ends.
+        assertEquals(0, shepherd.getDeadlineCount());
+        assertEquals(0, shepherd.getCancelCount());
+        assertNull(execution.getListener());
+    }
+
+    /**
+     * Tests that the user thread is released when an execution times out,
+     * even if the execution never checks whether it has timed out.
+     */
+    public void testTimeout() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Execution execution = new Execution(statement, 100);
+        try {
+            shepherd.shepherdExecution(execution, blocking(execution, latch));
+            fail("expected timeout");
+        } catch (QueryTimeoutException e) {
+            // ok
+        } finally {
+            latch.countDown();
+        }
+        assertEquals(1, shepherd.getCancelCount());
+        assertEquals(0, shepherd.getDeadlineCount());
+    }
+
+    /**
+     * Tests that the user thread is released as soon as an execution is
+     * canceled.
+     */
+    public void testCancel() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Execution execution = new Execution(statement, 0);
+        final Thread canceler =
+            new Thread() {
+                public void run() {
+                    try {
+                        started.await();
+                        execution.cancel();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            };
+        canceler.start();
+        final long start = System.nanoTime();
+        try {
+            shepherd.shepherdExecution(
+                execution,
+                new Callable<Result>() {
+                    public Result call() throws Exception {
+                        execution.start();
+                        started.countDown();
+                        latch.await();
+                        return null;
+                    }
+                });
+            fail("expected cancel");
+        } catch (QueryCanceledException e) {
+            // ok
+        } finally {
+            latch.countDown();
+        }
+        canceler.join();
+        assertTrue(System.nanoTime() - start < 10000000000L);
+        assertEquals(1, shepherd.getCancelCount());
+    }
+
+    /**
+     * Tests that an execution that ran out of memory releases its user
+     * thread.
+     */
+    public void testOutOfMemory() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Execution execution = new Execution(statement, 0);
+        try {
+            shepherd.shepherdExecution(
+                execution,
+                new Callable<Result>() {
+                    public Result call() throws Exception {
+                        execution.start();
+                        execution.setOutOfMemory("too big");
+                        latch.await();
+                        return null;
+                    }
+                });
+            fail("expected error");
+        } catch (MemoryLimitExceededException e) {
+            // ok
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Measures how long after their deadline executions that time out
+     * release the user thread. A shepherd that polls releases them, on
+     * average, half a polling interval late.
+     */
+    public void testPerformance() {
+        final int count = LOGGER.isDebugEnabled() ? 200 : 20;
+        final long timeoutMillis = 10;
+        long totalLateNanos = 0;
+        long maxLateNanos = 0;
+        for (int i = 0; i < count; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Execution execution =
+                new Execution(statement, timeoutMillis);
+            try {
+                shepherd.shepherdExecution(
+                    execution, blocking(execution, latch));
+                fail("expected timeout");
+            } catch (QueryTimeoutException e) {
+                final long lateNanos =
+                    System.nanoTime() - execution.getDeadlineNanos();
+                totalLateNanos += lateNanos;
+                maxLateNanos = Math.max(maxLateNanos, lateNanos);
+            } finally {
+                latch.countDown();
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                count + " timeouts; released on average "
+                + totalLateNanos / count / 1000 + " us after the deadline, "
+                + "at most " + maxLateNanos / 1000 + " us");
+        }
+        assertEquals(count, shepherd.getCancelCount());
+        assertTrue(totalLateNanos / count < 500000000L);
+    }
+
+    /**
+     * Returns a callable that starts an execution then waits, without
+     * checking whether the execution has been canceled, until a latch is
+     * released.
+     */
+    private static Callable<Result> blocking(
+        final Execution execution,
+        final CountDownLatch latch)
+    {
+        return new Callable<Result>() {
+            public Result call() throws Exception {
+                execution.start();
+                latch.await();
+                return null;
+            }
+        };
+    }
+}
+
+// End RolapResultShepherdTest.java
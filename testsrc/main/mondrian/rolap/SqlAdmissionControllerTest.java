@@ -0,0 +1,201 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.MondrianException;
+import mondrian.olap.MondrianProperties;
+import mondrian.server.Execution;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+import mondrian.test.PropertyRestoringTestCase;
+
+import java.util.*;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link SqlAdmissionController}.
+ */
+public class SqlAdmissionControllerTest extends PropertyRestoringTestCase {
+    private final MondrianProperties props = MondrianProperties.instance();
+
+    /**
+     * Tests that a member read that arrives after a segment load starts
+     * before it.
+     */
+    public void testPriority() throws Exception {
+        propSaver.set(props.QueryLimit, 1);
+        final SqlAdmissionController controller =
+            new SqlAdmissionController();
+        assertEquals(0, controller.acquire(Purpose.OTHER, Execution.NONE));
+
+        final List<Purpose> started =
+            Collections.synchronizedList(new ArrayList<Purpose>());
+        final Thread segmentThread =
+            startAcquire(controller, Purpose.CELL_SEGMENT, started);
+        waitForQueueLength(controller, 1);
+        final Thread tuplesThread =
+            startAcquire(controller, Purpose.TUPLES, started);
+        waitForQueueLength(controller, 2);
+
+        controller.release(Purpose.OTHER, 0);
+        tuplesThread.join(10000);
+        assertEquals(Collections.singletonList(Purpose.TUPLES), started);
+        controller.release(Purpose.TUPLES, 0);
+        segmentThread.join(10000);
+        assertEquals(
+            Arrays.asList(Purpose.TUPLES, Purpose.CELL_SEGMENT), started);
+    }
+
+    /**
+     * Tests that segment loads beyond their own limit wait, but do not stop
+     * other statements from starting.
+     */
+    public void testPurposeLimit() throws Exception {
+        propSaver.set(props.QueryLimit, 3);
+        propSaver.set(props.QueryLimitCellSegment, 1);
+        final SqlAdmissionController controller =
+            new SqlAdmissionController();
+        controller.acquire(Purpose.CELL_SEGMENT, Execution.NONE);
+
+        final List<Purpose> started =
+            Collections.synchronizedList(new ArrayList<Purpose>());
+        final Thread segmentThread =
+            startAcquire(controller, Purpose.CELL_SEGMENT, started);
+        waitForQueueLength(controller, 1);
+
+        assertEquals(0, controller.acquire(Purpose.TUPLES, Execution.NONE));
+        assertEquals(
+            0, controller.acquire(Purpose.DRILL_THROUGH, Execution.NONE));
+        assertTrue(started.isEmpty());
+
+        controller.release(Purpose.CELL_SEGMENT, 0);
+        segmentThread.join(10000);
+        assertEquals(Collections.singletonList(Purpose.CELL_SEGMENT), started);
+    }
+
+    /**
+     * Tests that a segment load ages, and starts while member reads keep
+     * arriving and the data source is never idle.
+     */
+    public void testAging() throws Exception {
+        propSaver.set(props.QueryLimit, 1);
+        propSaver.set(props.QueryLimitAgingMillis, 100);
+        final SqlAdmissionController controller =
+            new SqlAdmissionController();
+        controller.acquire(Purpose.OTHER, Execution.NONE);
+
+        final List<Purpose> started =
+            Collections.synchronizedList(new ArrayList<Purpose>());
+        final Thread segmentThread =
+            startAcquire(controller, Purpose.CELL_SEGMENT, started);
+        waitForQueueLength(controller, 1);
+
+        // Each time the running statement finishes, a member read is
+        // waiting to take its place.
+        Purpose running = Purpose.OTHER;
+        int tuplesCount = 0;
+        for (int i = 0; i < 100; i++) {
+            final Thread tuplesThread =
+                startAcquire(controller, Purpose.TUPLES, started);
+            waitForQueueLength(controller, 2);
+            Thread.sleep(20);
+            controller.release(running, 0);
+            waitForSize(started, i + 1);
+            if (started.get(i) == Purpose.CELL_SEGMENT) {
+                controller.release(Purpose.CELL_SEGMENT, 0);
+                tuplesThread.join(10000);
+                segmentThread.join(10000);
+                break;
+            }
+            running = Purpose.TUPLES;
+            ++tuplesCount;
+        }
+        assertTrue(started.contains(Purpose.CELL_SEGMENT));
+
+        // Member reads went first until the segment load had aged.
+        assertTrue(String.valueOf(started), tuplesCount > 0);
+        assertTrue(String.valueOf(started), tuplesCount < 50);
+    }
+
+    /**
+     * Tests that a statement is rejected at once if the statements ahead of
+     * it would probably keep it waiting past its deadline.
+     */
+    public void testDeadline() throws Exception {
+        propSaver.set(props.QueryLimit, 1);
+        final SqlAdmissionController controller =
+            new SqlAdmissionController();
+
+        // Statements usually run for 10 seconds.
+        controller.acquire(Purpose.TUPLES, Execution.NONE);
+        controller.release(Purpose.TUPLES, 10000000000L);
+        controller.acquire(Purpose.TUPLES, Execution.NONE);
+
+        final Execution execution = mock(Execution.class);
+        when(execution.getDeadlineMillis())
+            .thenReturn(System.currentTimeMillis() + 1000);
+        try {
+            controller.acquire(Purpose.TUPLES, execution);
+            fail("expected error");
+        } catch (MondrianException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("rejected"));
+        }
+        assertEquals(0, controller.getQueueLength());
+    }
+
+    private static Thread startAcquire(
+        final SqlAdmissionController controller,
+        final Purpose purpose,
+        final List<Purpose> started)
+    {
+        final Thread thread = new Thread(purpose.name()) {
+            public void run() {
+                try {
+                    controller.acquire(purpose, Execution.NONE);
+                    started.add(purpose);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void waitForSize(
+        List<?> list,
+        int size) throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (list.size() >= size) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("list size never reached " + size);
+    }
+
+    private static void waitForQueueLength(
+        SqlAdmissionController controller,
+        int length) throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (controller.getQueueLength() == length) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("queue length never reached " + length);
+    }
+}
+
+// End SqlAdmissionControllerTest.java
@@ -13,6 +13,7 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.sampling.*;
 import mondrian.server.*;
 import mondrian.spi.Dialect;
 import mondrian.test.SqlPattern;
@@ -3015,6 +3016,105 @@ public class TestAggregationManager extends BatchTestCase {
             true, true, true);
     }
 
+    /**
+     * Tests that {@link AggregationManager#findSample} chooses the smallest
+     * sample whose strata cover the request, and only when the execution
+     * asks for samples.
+     */
+    public void testFindSample() {
+        final CellRequest request =
+            createRequest(
+                "Sales", "[Measures].[Unit Sales]", "customer", "gender", "F");
+        final RolapStar star = request.getMeasure().getStar();
+        final BitKey levelBitKey = request.getConstrainedColumnsBitKey();
+        final BitKey measureBitKey = levelBitKey.emptyCopy();
+        measureBitKey.set(request.getMeasure().getBitPosition());
+
+        // Stratified by customer, so they determine gender; stratified by
+        // time does not.
+        final SampleInfo byCustomer =
+            createSampleInfo("sales_fact_1997_c10", 0.1f, "customer_id");
+        final SampleInfo byCustomerSmall =
+            createSampleInfo("sales_fact_1997_c5", 0.05f, "customer_id");
+        final SampleInfo byTime =
+            createSampleInfo("sales_fact_1997_t1", 0.01f, "time_id");
+        final List<SampleInfo> samples =
+            Arrays.asList(byCustomer, byCustomerSmall, byTime);
+        SampleInfoReader.sampleInfos.addAll(samples);
+
+        final Statement statement = execution.getMondrianStatement();
+        statement.setSampleContext(SampleContext.parse("sales_fact_1997"));
+        final Locus sampledLocus =
+            new Locus(new Execution(statement, 0), "testFindSample", null);
+        Locus.push(sampledLocus);
+        try {
+            assertSame(
+                byCustomerSmall,
+                AggregationManager.findSample(
+                    star, levelBitKey, measureBitKey));
+
+            // Distinct-count measures cannot be answered from a sample.
+            final CellRequest distinctRequest =
+                createRequest(
+                    "Sales", "[Measures].[Customer Count]",
+                    "customer", "gender", "F");
+            final BitKey distinctBitKey = levelBitKey.emptyCopy();
+            distinctBitKey.set(distinctRequest.getMeasure().getBitPosition());
+            assertNull(
+                AggregationManager.findSample(
+                    star, levelBitKey, distinctBitKey));
+        } finally {
+            Locus.pop(sampledLocus);
+            statement.setSampleContext(null);
+            SampleInfoReader.sampleInfos.removeAll(samples);
+        }
+
+        // Without a sample context, the fact table is read.
+        assertNull(
+            AggregationManager.findSample(star, levelBitKey, measureBitKey));
+    }
+
+    /**
+     * Tests the expressions that estimate the variance of aggregates read
+     * from a sample.
+     */
+    public void testSampledVarianceExpression() {
+        assertTrue(RolapAggregator.Sum.supportsErrorEstimate());
+        assertEquals(
+            "sum((f.x)*(f.x)*sf*(sf-1))",
+            RolapAggregator.Sum.getSampledVarianceExpression("f.x"));
+        assertTrue(RolapAggregator.Count.supportsErrorEstimate());
+        assertEquals(
+            "sum(sf*(sf-1))",
+            RolapAggregator.Count.getSampledVarianceExpression("f.x"));
+
+        // Average is estimated from a sample, but its error is not.
+        assertTrue(RolapAggregator.Avg.supportsSampling());
+        assertFalse(RolapAggregator.Avg.supportsErrorEstimate());
+        assertFalse(RolapAggregator.DistinctCount.supportsErrorEstimate());
+        try {
+            RolapAggregator.Avg.getSampledVarianceExpression("f.x");
+            fail("expected error");
+        } catch (MondrianException e) {
+            // ok
+        }
+    }
+
+    private static SampleInfo createSampleInfo(
+        String sampleTable,
+        float samplingRate,
+        String... groupingAttrs)
+    {
+        final SampleInfo sampleInfo = new SampleInfo();
+        sampleInfo.setOriginTable("sales_fact_1997");
+        sampleInfo.setSampleTable(sampleTable);
+        sampleInfo.setSamplingRate(samplingRate);
+        sampleInfo.setSamplingSchema(SamplingSchema.CONGRESSIONAL_SAMPLING);
+        sampleInfo.setGroupingAttrs(Arrays.asList(groupingAttrs));
+        sampleInfo.setJoinAttrs(Collections.<String>emptyList());
+        return sampleInfo;
+    }
+
     private AggStar getAggStar(RolapStar star, String aggStarName) {
         for (AggStar aggStar : star.getAggStars()) {
             if (aggStar.getFactTable().getName().equals(aggStarName)) {
@@ -0,0 +1,143 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+import mondrian.rolap.SqlStatement;
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for {@link DirectSegmentBody} and {@link DirectSegmentDataset}.
+ */
+public class DirectSegmentBodyTest extends TestCase {
+
+    public void testDoubleBody() {
+        // 70 cells, so that the null indicators span two words.
+        final double[] values = new double[70];
+        final BitSet nullValues = new BitSet();
+        for (int i = 0; i < values.length; i++) {
+            if (i % 3 == 0) {
+                nullValues.set(i);
+            } else {
+                values[i] = i * 1.5d;
+            }
+        }
+        final DirectSegmentBody body =
+            DirectSegmentBody.of(
+                new DenseDoubleSegmentBody(nullValues, values, axes(7, 10)));
+        assertEquals(SqlStatement.Type.DOUBLE, body.getType());
+        assertEquals(70, body.getSize());
+        assertEquals(70 - 24, body.getEffectiveSize());
+        assertTrue(Arrays.equals(values, (double[]) body.getValueArray()));
+        assertEquals(nullValues, body.getNullValueIndicators());
+        assertNull(body.getObject(66));
+        assertEquals(67 * 1.5d, body.getObject(67));
+        assertEquals(70 - 24, body.getValueMap().size());
+        assertTrue(body.getDirectByteCount() >= 70 * 8 + 16);
+
+        // The dataset reads the buffer in place.
+        final SegmentAxis[] axes = {
+            new SegmentAxis(null, body.getAxisValueSets()[0], false),
+            new SegmentAxis(null, body.getAxisValueSets()[1], false)
+        };
+        final SegmentDataset dataset =
+            new DirectSegmentDataset(axes, body);
+        final CellKey key = CellKey.Generator.newCellKey(new int[] {6, 7});
+        assertEquals(67 * 1.5d, dataset.getDouble(key), 0d);
+        assertFalse(dataset.isNull(key));
+        assertTrue(
+            dataset.isNull(CellKey.Generator.newCellKey(new int[] {6, 6})));
+        assertNull(
+            dataset.getObject(CellKey.Generator.newCellKey(new int[] {0, 0})));
+        assertSame(
+            DirectSegmentBody.class,
+            dataset.createSegmentBody(Collections.<Pair<SortedSet<Comparable>,
+                Boolean>>emptyList()).getClass());
+    }
+
+    public void testIntBody() {
+        final int[] values = {1, 0, 3, 0};
+        final BitSet nullValues = new BitSet();
+        nullValues.set(1);
+        final DirectSegmentBody body =
+            DirectSegmentBody.of(
+                new DenseIntSegmentBody(nullValues, values, axes(4)));
+        assertEquals(SqlStatement.Type.INT, body.getType());
+        assertTrue(Arrays.equals(values, (int[]) body.getValueArray()));
+        assertEquals(3, body.getEffectiveSize());
+        assertNull(body.getObject(1));
+        assertEquals(0, body.getObject(3));
+        assertEquals(3, body.getInt(2));
+    }
+
+    /**
+     * Tests that a body off the heap is serialized as a regular body, so that
+     * it can be sent to an external cache.
+     */
+    public void testSerialize() throws Exception {
+        final BitSet nullValues = new BitSet();
+        nullValues.set(2);
+        final DirectSegmentBody body =
+            DirectSegmentBody.of(
+                new DenseDoubleSegmentBody(
+                    nullValues, new double[] {1d, 2d, 0d}, axes(3)));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(body);
+        out.close();
+        final Object o =
+            new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(o instanceof DenseDoubleSegmentBody);
+        final SegmentBody body2 = (SegmentBody) o;
+        assertTrue(
+            Arrays.equals(
+                new double[] {1d, 2d, 0d}, (double[]) body2.getValueArray()));
+        assertEquals(nullValues, body2.getNullValueIndicators());
+    }
+
+    public void testToDirectBody() {
+        final SegmentBody dense =
+            new DenseDoubleSegmentBody(new BitSet(), new double[5], axes(5));
+        assertTrue(
+            SegmentBuilder.toDirectBody(dense) instanceof DirectSegmentBody);
+        final SegmentBody sampled =
+            SegmentBuilder.toDirectBody(new SampledSegmentBody(dense, dense));
+        assertTrue(
+            ((SampledSegmentBody) sampled).getVarianceBody()
+            instanceof DirectSegmentBody);
+        final SegmentBody objects =
+            new DenseObjectSegmentBody(new Object[] {"a"}, axes(1));
+        assertSame(objects, SegmentBuilder.toDirectBody(objects));
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        int... sizes)
+    {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int size : sizes) {
+            final SortedSet<Comparable> axis = new TreeSet<Comparable>();
+            for (int i = 0; i < size; i++) {
+                axis.add(i);
+            }
+            axes.add(Pair.<SortedSet<Comparable>, Boolean>of(axis, false));
+        }
+        return axes;
+    }
+}
+
+// End DirectSegmentBodyTest.java
@@ -0,0 +1,231 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.cache.DiskSegmentCache;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for {@link DiskSegmentCache}.
+ */
+public class DiskSegmentCacheTest extends TestCase {
+    private static final ByteString CHECKSUM =
+        new ByteString(new byte[] {1, 2, 3});
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that segments written by one cache are read by a cache that is
+     * opened later on the same directory, as after a restart.
+     */
+    public void testReopen() {
+        DiskSegmentCache cache = new DiskSegmentCache(directory, 1000000L);
+        cache.put(header("a", CHECKSUM), body(100, 1d));
+        cache.put(header("b", CHECKSUM), body(100, 2d));
+        cache.put(header("a", CHECKSUM), body(100, 3d));
+        cache.remove(header("b", CHECKSUM));
+        cache.tearDown();
+
+        cache = new DiskSegmentCache(directory, 1000000L);
+        assertEquals(1, cache.getSegmentCount());
+        assertTrue(cache.contains(header("a", CHECKSUM)));
+        assertFalse(cache.contains(header("b", CHECKSUM)));
+        final SegmentBody body = cache.get(header("a", CHECKSUM));
+        assertEquals(3d, ((double[]) body.getValueArray())[99], 0d);
+        assertEquals(100, body.getAxisValueSets()[0].size());
+        assertNull(cache.get(header("b", CHECKSUM)));
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that only the segments of the requested version of a schema are
+     * recovered, and that the segments of other versions with the same name,
+     * which may be in use at the same time, are kept.
+     */
+    public void testSchemaVersions() {
+        final ByteString newChecksum = new ByteString(new byte[] {4, 5, 6});
+        DiskSegmentCache cache = new DiskSegmentCache(directory, 1000000L);
+        cache.put(header("a", CHECKSUM), body(10, 1d));
+        cache.put(header("b", newChecksum), body(10, 1d));
+        cache.put(header("c", CHECKSUM, "otherSchema"), body(10, 1d));
+
+        assertEquals(
+            Collections.singletonList(header("b", newChecksum)),
+            cache.recoverSegmentHeaders("dummySchemaName", newChecksum));
+        assertTrue(cache.contains(header("a", CHECKSUM)));
+        assertEquals(
+            Collections.singletonList(header("a", CHECKSUM)),
+            cache.recoverSegmentHeaders("dummySchemaName", CHECKSUM));
+        cache.tearDown();
+
+        cache = new DiskSegmentCache(directory, 1000000L);
+        assertEquals(3, cache.getSegmentCount());
+        assertEquals(
+            Collections.singletonList(header("b", newChecksum)),
+            cache.recoverSegmentHeaders("dummySchemaName", newChecksum));
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that a record that was only partly written, because the server
+     * stopped, is ignored, and that the records before it survive.
+     */
+    public void testTruncatedRecord() throws IOException {
+        DiskSegmentCache cache = new DiskSegmentCache(directory, 1000000L);
+        cache.put(header("a", CHECKSUM), body(100, 1d));
+        cache.put(header("b", CHECKSUM), body(100, 2d));
+        final long length = cache.getFileLength();
+        cache.tearDown();
+
+        final RandomAccessFile file =
+            new RandomAccessFile(new File(directory, "segments.dat"), "rw");
+        file.setLength(length - 10);
+        file.close();
+
+        cache = new DiskSegmentCache(directory, 1000000L);
+        assertTrue(cache.contains(header("a", CHECKSUM)));
+        assertFalse(cache.contains(header("b", CHECKSUM)));
+        assertNotNull(cache.get(header("a", CHECKSUM)));
+
+        // New segments are appended after the last good record.
+        cache.put(header("c", CHECKSUM), body(100, 3d));
+        cache.tearDown();
+        cache = new DiskSegmentCache(directory, 1000000L);
+        assertEquals(2, cache.getSegmentCount());
+        assertEquals(
+            3d,
+            ((double[]) cache.get(header("c", CHECKSUM)).getValueArray())[0],
+            0d);
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that a file in a different format is discarded.
+     */
+    public void testVersion() throws IOException {
+        final DataOutputStream out =
+            new DataOutputStream(
+                new FileOutputStream(new File(directory, "segments.dat")));
+        out.writeInt(0x4d534547);
+        out.writeInt(-1);
+        out.writeBytes("a future format");
+        out.close();
+
+        final DiskSegmentCache cache =
+            new DiskSegmentCache(directory, 1000000L);
+        assertEquals(0, cache.getSegmentCount());
+        assertEquals(8, cache.getFileLength());
+        cache.tearDown();
+    }
+
+    /**
+     * Tests that the oldest segments are discarded when the cache exceeds its
+     * budget, and that the file is compacted.
+     */
+    public void testEvictAndCompact() {
+        final DiskSegmentCache cache = new DiskSegmentCache(directory, 40000L);
+        for (int i = 0; i < 500; i++) {
+            cache.put(header("m" + i, CHECKSUM), randomBody(i));
+        }
+        assertTrue(cache.getSegmentCount() < 500);
+        assertFalse(cache.contains(header("m0", CHECKSUM)));
+        assertTrue(cache.contains(header("m499", CHECKSUM)));
+        for (int i = 0; i < 500; i++) {
+            cache.put(header("m499", CHECKSUM), randomBody(i));
+        }
+        // Superseded records do not accumulate without limit.
+        assertTrue(cache.getFileLength() < 2 * 1024 * 1024);
+        assertNotNull(cache.get(header("m499", CHECKSUM)));
+        cache.tearDown();
+    }
+
+    private static SegmentBody body(int cellCount, double value) {
+        final double[] values = new double[cellCount];
+        Arrays.fill(values, value);
+        return new DenseDoubleSegmentBody(new BitSet(), values, axes(cellCount));
+    }
+
+    /**
+     * Returns a body whose values do not compress, so that each is a few
+     * kilobytes on disk.
+     */
+    private static SegmentBody randomBody(int seed) {
+        final Random random = new Random(seed);
+        final double[] values = new double[300];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+        }
+        return new DenseDoubleSegmentBody(
+            new BitSet(), values, axes(values.length));
+    }
+
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        int cellCount)
+    {
+        final SortedSet<Comparable> axis = new TreeSet<Comparable>();
+        for (int i = 0; i < cellCount; i++) {
+            axis.add(i);
+        }
+        return Collections.singletonList(
+            Pair.<SortedSet<Comparable>, Boolean>of(axis, false));
+    }
+
+    private static SegmentHeader header(
+        String measureName,
+        ByteString checksum)
+    {
+        return header(measureName, checksum, "dummySchemaName");
+    }
+
+    private static SegmentHeader header(
+        String measureName,
+        ByteString checksum,
+        String schemaName)
+    {
+        return new SegmentHeader(
+            schemaName,
+            checksum,
+            "dummyCubeName",
+            measureName,
+            Collections.<SegmentColumn>emptyList(),
+            Collections.<String>emptyList(),
+            "dummyFactTable",
+            BitKey.Factory.makeBitKey(3),
+            Collections.<SegmentColumn>emptyList());
+    }
+}
+
+// End DiskSegmentCacheTest.java
@@ -0,0 +1,195 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Unit test for {@link DistinctValueSet}, and a benchmark that compares it
+ * with the {@link TreeSet} that {@link SegmentLoader} used to collect axis
+ * values.
+ */
+public class DistinctValueSetTest extends TestCase {
+    /**
+     * The benchmark runs long enough to give useful timings only if logging
+     * is enabled at debug level.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(DistinctValueSetTest.class);
+
+    public void testInt() {
+        final DistinctValueSet set = new DistinctValueSet();
+        final TreeSet<Comparable> treeSet = new TreeSet<Comparable>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            final int value = random.nextInt(2000) - 1000;
+            assertEquals(treeSet.add(value), set.add(value));
+        }
+        assertEquals(treeSet.size(), set.size());
+        assertEquals(
+            new ArrayList<Comparable>(treeSet),
+            new ArrayList<Comparable>(set.toSortedSet()));
+        assertTrue(set.toSortedSet().first() instanceof Integer);
+        checkOffsets(set, treeSet);
+    }
+
+    public void testLong() {
+        final DistinctValueSet set = new DistinctValueSet();
+        set.add(Long.MAX_VALUE);
+        set.add(0L);
+        set.add(Long.MIN_VALUE);
+        set.add(0L);
+        assertEquals(3, set.size());
+        assertEquals(
+            Arrays.<Comparable>asList(Long.MIN_VALUE, 0L, Long.MAX_VALUE),
+            new ArrayList<Comparable>(set.toSortedSet()));
+        assertEquals(0, set.offsetOfOrdinal(set.put(Long.MIN_VALUE)));
+        assertEquals(1, set.offsetOfOrdinal(set.put(0L)));
+        assertEquals(2, set.offsetOfOrdinal(set.put(Long.MAX_VALUE)));
+    }
+
+    /**
+     * Tests that doubles are ordered and distinguished as by
+     * {@link Double#compareTo}, including negative zero and NaN.
+     */
+    public void testDouble() {
+        final DistinctValueSet set = new DistinctValueSet();
+        final double[] values = {
+            2.5d, 0d, -0d, Double.NaN, -1d, 2.5d, 0d, Double.NaN,
+            Double.NEGATIVE_INFINITY
+        };
+        final TreeSet<Comparable> treeSet = new TreeSet<Comparable>();
+        for (double value : values) {
+            assertEquals(treeSet.add(value), set.add(value));
+        }
+        assertEquals(
+            new ArrayList<Comparable>(treeSet),
+            new ArrayList<Comparable>(set.toSortedSet()));
+        checkOffsets(set, treeSet);
+    }
+
+    /**
+     * Tests that a set that receives values of different types becomes a set
+     * of objects without changing ordinals, and that values that compare
+     * equal are held once.
+     */
+    public void testObject() {
+        final DistinctValueSet set = new DistinctValueSet();
+        assertEquals(0, set.put(1));
+        assertEquals(1, set.put((Comparable) 2));
+        assertEquals(2, set.put(3L));
+        assertEquals(0, set.put(1));
+        assertEquals(1, set.put(2));
+        assertEquals(3, set.put(2L));
+
+        final DistinctValueSet set2 = new DistinctValueSet();
+        assertEquals(0, set2.put((Comparable) new BigDecimal("1.0")));
+        assertEquals(1, set2.put(new BigDecimal("1.00")));
+        assertEquals(2, set2.put(new BigDecimal("0.5")));
+        assertEquals(2, set2.size());
+        assertEquals(1, set2.offsetOfOrdinal(0));
+        assertEquals(1, set2.offsetOfOrdinal(1));
+        assertEquals(0, set2.offsetOfOrdinal(2));
+
+        final DistinctValueSet set3 = new DistinctValueSet();
+        for (int i = 0; i < 1000; i++) {
+            set3.add("v" + (i % 300));
+        }
+        assertEquals(300, set3.size());
+        assertEquals("v0", set3.toSortedSet().first());
+        assertEquals("v99", set3.toSortedSet().last());
+    }
+
+    public void testEmpty() {
+        final DistinctValueSet set = new DistinctValueSet();
+        assertEquals(0, set.size());
+        assertTrue(set.toSortedSet().isEmpty());
+    }
+
+    /**
+     * Compares the cost of collecting the distinct values of a few columns of
+     * a synthetic result set with a {@link TreeSet} and with a
+     * {@link DistinctValueSet}. Prints timings if logging is enabled at debug
+     * level.
+     */
+    public void testPerformance() {
+        final int rowCount = LOGGER.isDebugEnabled() ? 1000000 : 10000;
+        final int iterationCount = LOGGER.isDebugEnabled() ? 10 : 1;
+        final Random random = new Random(2);
+        final int[] ints = new int[rowCount];
+        final double[] doubles = new double[rowCount];
+        final String[] strings = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ints[i] = random.nextInt(5000);
+            doubles[i] = random.nextInt(300) * 0.25d;
+            strings[i] = "member" + random.nextInt(1000);
+        }
+        long treeNanos = 0;
+        long primitiveNanos = 0;
+        for (int iteration = 0; iteration < iterationCount; iteration++) {
+            long start = System.nanoTime();
+            final TreeSet<Comparable> intTree = new TreeSet<Comparable>();
+            final TreeSet<Comparable> doubleTree = new TreeSet<Comparable>();
+            final TreeSet<Comparable> stringTree = new TreeSet<Comparable>();
+            for (int i = 0; i < rowCount; i++) {
+                intTree.add(ints[i]);
+                doubleTree.add(doubles[i]);
+                stringTree.add(strings[i]);
+            }
+            final Comparable[] intKeys =
+                intTree.toArray(new Comparable[intTree.size()]);
+            treeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final DistinctValueSet intSet = new DistinctValueSet();
+            final DistinctValueSet doubleSet = new DistinctValueSet();
+            final DistinctValueSet stringSet = new DistinctValueSet();
+            for (int i = 0; i < rowCount; i++) {
+                intSet.add(ints[i]);
+                doubleSet.add(doubles[i]);
+                stringSet.add(strings[i]);
+            }
+            final SortedSet<Comparable> intKeys2 = intSet.toSortedSet();
+            doubleSet.toSortedSet();
+            stringSet.toSortedSet();
+            primitiveNanos += System.nanoTime() - start;
+
+            assertEquals(
+                Arrays.asList(intKeys),
+                new ArrayList<Comparable>(intKeys2));
+            assertEquals(doubleTree.size(), doubleSet.size());
+            assertEquals(stringTree.size(), stringSet.size());
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "DistinctValueSetTest.testPerformance: "
+                + rowCount + " rows, " + iterationCount + " iterations; "
+                + "TreeSet " + treeNanos / 1000000 + " ms, "
+                + "DistinctValueSet " + primitiveNanos / 1000000 + " ms");
+        }
+    }
+
+    private static void checkOffsets(
+        DistinctValueSet set,
+        SortedSet<Comparable> expected)
+    {
+        int i = 0;
+        for (Comparable value : expected) {
+            assertEquals(i++, set.offsetOfOrdinal(set.put(value)));
+        }
+    }
+}
+
+// End DistinctValueSetTest.java
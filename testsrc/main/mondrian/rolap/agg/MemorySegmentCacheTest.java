@@ -0,0 +1,143 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.cache.MemorySegmentCache;
+import mondrian.rolap.cache.OffHeapSegmentCache;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+import mondrian.util.Pair;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link MemorySegmentCache} and the estimates of segment body
+ * size on which it relies.
+ */
+public class MemorySegmentCacheTest extends TestCase {
+
+    public void testEstimateByteCount() {
+        final long small = SegmentBuilder.estimateByteCount(body(10));
+        final long large = SegmentBuilder.estimateByteCount(body(1000));
+        // Each cell of a dense body of doubles costs at least 8 bytes.
+        assertTrue(large - small >= 8 * 990);
+        assertTrue(large - small < 40 * 990);
+
+        // A sampled body carries a variance body as well.
+        final long sampled =
+            SegmentBuilder.estimateByteCount(
+                new SampledSegmentBody(body(1000), body(1000)));
+        assertTrue(sampled > 2 * large - 100);
+    }
+
+    /**
+     * Tests that the cache stays within its budget, evicting the least
+     * recently used segment among segments of equal size and load cost.
+     */
+    public void testEvictLeastRecentlyUsed() {
+        final long segmentBytes = SegmentBuilder.estimateByteCount(body(100));
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(3 * segmentBytes + segmentBytes / 2);
+        cache.put(header("a"), body(100), 10000000L);
+        cache.put(header("b"), body(100), 10000000L);
+        cache.put(header("c"), body(100), 10000000L);
+        assertEquals(3 * segmentBytes, cache.getByteCount());
+
+        // Use "a", so that "b" is now the least valuable.
+        assertNotNull(cache.get(header("a")));
+        cache.put(header("d"), body(100), 10000000L);
+        assertEquals(3, cache.getSegmentCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.contains(header("a")));
+        assertFalse(cache.contains(header("b")));
+        assertNull(cache.get(header("b")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getByteCount() <= cache.getByteLimit());
+    }
+
+    /**
+     * Tests that a segment that took a long time to load outlives a segment
+     * of the same size that was cheap to load, even if used less recently.
+     */
+    public void testEvictCheapestToReload() {
+        final long segmentBytes = SegmentBuilder.estimateByteCount(body(100));
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(2 * segmentBytes + segmentBytes / 2);
+        cache.put(header("slow"), body(100), 5000000000L);
+        cache.put(header("fast"), body(100), 1000000L);
+        cache.put(header("new"), body(100), 1000000L);
+        assertTrue(cache.contains(header("slow")));
+        assertFalse(cache.contains(header("fast")));
+        assertTrue(cache.contains(header("new")));
+    }
+
+    public void testRemoveAndOversizedSegment() {
+        final long segmentBytes = SegmentBuilder.estimateByteCount(body(100));
+        final MemorySegmentCache cache =
+            new MemorySegmentCache(2 * segmentBytes);
+        cache.put(header("a"), body(100));
+        cache.put(header("a"), body(100));
+        assertEquals(segmentBytes, cache.getByteCount());
+
+        // Too large to cache at all; does not flush the other segments.
+        cache.put(header("huge"), body(10000));
+        assertFalse(cache.contains(header("huge")));
+        assertTrue(cache.contains(header("a")));
+
+        assertTrue(cache.remove(header("a")));
+        assertFalse(cache.remove(header("a")));
+        assertEquals(0, cache.getByteCount());
+        assertEquals(0, cache.getSegmentCount());
+    }
+
+    /**
+     * Tests that {@link OffHeapSegmentCache} stores dense bodies in direct
+     * buffers, and counts the direct bytes against its budget.
+     */
+    public void testOffHeap() {
+        final MemorySegmentCache cache = new OffHeapSegmentCache(1000000L);
+        cache.put(header("a"), body(1000));
+        final SegmentBody body = cache.get(header("a"));
+        assertTrue(body instanceof DirectSegmentBody);
+        assertEquals(1000, ((double[]) body.getValueArray()).length);
+        assertTrue(cache.getByteCount() >= 1000 * 8);
+    }
+
+    private static SegmentBody body(int cellCount) {
+        final SortedSet<Comparable> axis = new TreeSet<Comparable>();
+        for (int i = 0; i < cellCount; i++) {
+            axis.add(i);
+        }
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            Collections.singletonList(
+                Pair.<SortedSet<Comparable>, Boolean>of(axis, false));
+        return new DenseDoubleSegmentBody(
+            new BitSet(), new double[cellCount], axes);
+    }
+
+    private static SegmentHeader header(String measureName) {
+        return new SegmentHeader(
+            "dummySchemaName",
+            new ByteString(new byte[0]),
+            "dummyCubeName",
+            measureName,
+            Collections.<SegmentColumn>emptyList(),
+            Collections.<String>emptyList(),
+            "dummyFactTable",
+            BitKey.Factory.makeBitKey(3),
+            Collections.<SegmentColumn>emptyList());
+    }
+}
+
+// End MemorySegmentCacheTest.java
@@ -411,6 +411,94 @@ public class SegmentBuilderTest extends BatchTestCase {
         assertTrue(rollup.right instanceof DenseDoubleSegmentBody);
     }
 
+    /**
+     * Tests that rolling up segments that were estimated from a sample also
+     * rolls up their variances, by summing them; and that the result is
+     * exact if the source is exact.
+     */
+    public void testRollupOfSampledSegment() {
+        final List<SegmentColumn> constrainedColumns =
+            asList(
+                new SegmentColumn("col1", 2, toSortedSet("a", "b")),
+                new SegmentColumn("col2", 2, toSortedSet("x", "y")));
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.add(Pair.of(toSortedSet("a", "b"), false));
+        axes.add(Pair.of(toSortedSet("x", "y"), false));
+        final SegmentBody estimates =
+            new DenseDoubleSegmentBody(
+                new BitSet(), new double[] {1, 2, 3, 4}, axes);
+        final SegmentBody variances =
+            new DenseDoubleSegmentBody(
+                new BitSet(), new double[] {0.5, 1, 1.5, 2}, axes);
+        final SegmentHeader header =
+            makeDummySegmentHeader(constrainedColumns, "dummySample");
+
+        Pair<SegmentHeader, SegmentBody> rollup =
+            SegmentBuilder.rollup(
+                singletonMap(
+                    header,
+                    (SegmentBody) new SampledSegmentBody(
+                        estimates, variances)),
+                singleton("col1"),
+                null, RolapAggregator.Sum, Dialect.Datatype.Numeric);
+        assertEquals("dummySample", rollup.left.sampleTableName);
+        assertTrue(rollup.right instanceof SampledSegmentBody);
+        assertArraysAreEqual(
+            new double[] {3, 7},
+            (double[]) rollup.right.getValueArray());
+        assertArraysAreEqual(
+            new double[] {1.5, 3.5},
+            (double[]) ((SampledSegmentBody) rollup.right)
+                .getVarianceBody().getValueArray());
+
+        rollup =
+            SegmentBuilder.rollup(
+                singletonMap(header, estimates),
+                singleton("col1"),
+                null, RolapAggregator.Sum, Dialect.Datatype.Numeric);
+        assertFalse(rollup.right instanceof SampledSegmentBody);
+        assertArraysAreEqual(
+            new double[] {3, 7},
+            (double[]) rollup.right.getValueArray());
+    }
+
+    /**
+     * Tests that a segment estimated from a sample never has the same
+     * identity as the exact segment with the same coordinates, and that
+     * derived headers keep the sample.
+     */
+    public void testSampledSegmentHeaderIdentity() {
+        final List<SegmentColumn> constrainedColumns =
+            asList(
+                new SegmentColumn("col1", 2, toSortedSet("a", "b")),
+                new SegmentColumn("col2", 2, toSortedSet("x", "y")));
+        final SegmentHeader exact =
+            makeDummySegmentHeader(constrainedColumns);
+        final SegmentHeader sampled =
+            makeDummySegmentHeader(constrainedColumns, "dummySample");
+        assertFalse(exact.isSampled());
+        assertTrue(sampled.isSampled());
+        assertEquals(exact, makeDummySegmentHeader(constrainedColumns));
+        assertEquals(
+            sampled,
+            makeDummySegmentHeader(constrainedColumns, "dummySample"));
+        assertFalse(exact.equals(sampled));
+        assertFalse(sampled.equals(exact));
+        assertFalse(exact.getUniqueID().equals(sampled.getUniqueID()));
+        assertFalse(
+            sampled.equals(
+                makeDummySegmentHeader(constrainedColumns, "otherSample")));
+
+        final SegmentColumn[] region = {
+            new SegmentColumn("col1", 2, toSortedSet("a"))
+        };
+        assertEquals(
+            "dummySample", sampled.constrain(region).sampleTableName);
+        assertEquals("dummySample", sampled.clone(region).sampleTableName);
+        assertNull(exact.constrain(region).sampleTableName);
+    }
+
     public void testRollupWithDenseIntBody() {
       //
       //  We have the following data:
@@ -1062,6 +1150,13 @@ public class SegmentBuilderTest extends BatchTestCase {
 
     private SegmentHeader makeDummySegmentHeader(
         List<SegmentColumn> constrainedColumns)
+    {
+        return makeDummySegmentHeader(constrainedColumns, null);
+    }
+
+    private SegmentHeader makeDummySegmentHeader(
+        List<SegmentColumn> constrainedColumns,
+        String sampleTableName)
     {
         return new SegmentHeader(
             "dummySchemaName",
@@ -1072,7 +1167,8 @@ public class SegmentBuilderTest extends BatchTestCase {
             Collections.<String>emptyList(),
             "dummyFactTable",
             BitKey.Factory.makeBitKey(3),
-            Collections.<SegmentColumn>emptyList());
+            Collections.<SegmentColumn>emptyList(),
+            sampleTableName);
     }
 
     private String [][] dummyColumnValues(int cols, int numVals) {
@@ -0,0 +1,149 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.cache.SegmentCacheIndexImpl;
+import mondrian.spi.*;
+import mondrian.util.ByteString;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for {@link SegmentCacheIndexImpl}, in particular that it can be
+ * used from several threads at once.
+ */
+public class SegmentCacheIndexImplTest extends TestCase {
+    private static final ByteString CHECKSUM =
+        new ByteString(new byte[] {1});
+    private static final BitKey BIT_KEY = BitKey.Factory.makeBitKey(3);
+
+    public void testLocate() {
+        final SegmentCacheIndexImpl index = new SegmentCacheIndexImpl();
+        index.add(header("a"), null, false);
+        index.add(header("b"), null, false);
+        assertEquals(
+            Collections.singletonList(header("a")),
+            locate(index, "a"));
+        index.remove(header("a"));
+        assertTrue(locate(index, "a").isEmpty());
+        assertFalse(index.contains(header("a")));
+        assertTrue(index.contains(header("b")));
+    }
+
+    /**
+     * Tests that methods that find a segment removed since the caller located
+     * it do not fail.
+     */
+    public void testRemovedSegment() {
+        final SegmentCacheIndexImpl index = new SegmentCacheIndexImpl();
+        index.add(header("a"), null, true);
+        assertNotNull(index.getFuture(null, header("a")));
+        index.loadSucceeded(header("a"), null);
+        index.remove(header("a"));
+        assertNull(index.getFuture(null, header("a")));
+        index.linkSqlStatement(header("a"), null);
+        index.setConverter(
+            "schema", CHECKSUM, "cube", "fact", "a",
+            Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * Tests that threads can locate segments while another thread adds and
+     * removes them.
+     */
+    public void testConcurrentLocate() throws Exception {
+        final SegmentCacheIndexImpl index = new SegmentCacheIndexImpl();
+        index.add(header("fixed"), null, false);
+        final int threadCount = 4;
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(threadCount + 1);
+        final AtomicReference<Throwable> error =
+            new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(threadCount + 1);
+        try {
+            executor.submit(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 20000; i++) {
+                                index.add(header("m" + i % 50), null, false);
+                                index.remove(header("m" + (i + 25) % 50));
+                            }
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            for (int t = 0; t < threadCount; t++) {
+                executor.submit(
+                    new Runnable() {
+                        public void run() {
+                            try {
+                                for (int i = 0; i < 20000; i++) {
+                                    if (locate(index, "fixed").size() != 1) {
+                                        throw new AssertionError(
+                                            "fixed segment not found");
+                                    }
+                                    locate(index, "m" + i % 50);
+                                }
+                            } catch (Throwable e) {
+                                error.compareAndSet(null, e);
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+            }
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+    }
+
+    private static List<SegmentHeader> locate(
+        SegmentCacheIndexImpl index,
+        String measureName)
+    {
+        return index.locate(
+            "schema",
+            CHECKSUM,
+            "cube",
+            measureName,
+            "fact",
+            BIT_KEY,
+            Collections.<String, Comparable>emptyMap(),
+            Collections.<String>emptyList());
+    }
+
+    private static SegmentHeader header(String measureName) {
+        return new SegmentHeader(
+            "schema",
+            CHECKSUM,
+            "cube",
+            measureName,
+            Collections.<SegmentColumn>emptyList(),
+            Collections.<String>emptyList(),
+            "fact",
+            BIT_KEY,
+            Collections.<SegmentColumn>emptyList());
+    }
+}
+
+// End SegmentCacheIndexImplTest.java
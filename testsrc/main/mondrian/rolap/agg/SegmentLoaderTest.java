@@ -366,7 +366,7 @@ public class SegmentLoaderTest extends BatchTestCase {
             }
         };
         int axisCount = 4;
-        SortedSet<Comparable>[] axisValueSet =
+        DistinctValueSet[] axisValueSet =
             loader.getDistinctValueWorkspace(axisCount);
         boolean[] axisContainsNull = new boolean[axisCount];
 
@@ -390,13 +390,15 @@ public class SegmentLoaderTest extends BatchTestCase {
         list.next();
         assertEquals(bitKeyForSummaryRow, list.getObject(5));
 
-        SortedSet<Comparable> yearAxis = axisValueSet[0];
+        SortedSet<Comparable> yearAxis = axisValueSet[0].toSortedSet();
         assertEquals(1, yearAxis.size());
-        SortedSet<Comparable> productFamilyAxis = axisValueSet[1];
+        SortedSet<Comparable> productFamilyAxis =
+            axisValueSet[1].toSortedSet();
         assertEquals(3, productFamilyAxis.size());
-        SortedSet<Comparable> productDepartmentAxis = axisValueSet[2];
+        SortedSet<Comparable> productDepartmentAxis =
+            axisValueSet[2].toSortedSet();
         assertEquals(4, productDepartmentAxis.size());
-        SortedSet<Comparable> genderAxis = axisValueSet[3];
+        SortedSet<Comparable> genderAxis = axisValueSet[3].toSortedSet();
         assertEquals(2, genderAxis.size());
 
         assertFalse(axisContainsNull[0]);
@@ -441,7 +443,7 @@ public class SegmentLoaderTest extends BatchTestCase {
             }
         };
         int axisCount = 4;
-        SortedSet<Comparable>[] axisValueSet =
+        DistinctValueSet[] axisValueSet =
             loader.getDistinctValueWorkspace(axisCount);
         boolean[] axisContainsNull = new boolean[axisCount];
         List<GroupingSet> groupingSets = new ArrayList<GroupingSet>();
@@ -486,7 +488,7 @@ public class SegmentLoaderTest extends BatchTestCase {
         List<GroupingSet> groupingSets = new ArrayList<GroupingSet>();
         groupingSets.add(groupingSetsInfo);
 
-        SortedSet<Comparable>[] axisValueSet =
+        DistinctValueSet[] axisValueSet =
             loader.getDistinctValueWorkspace(4);
         SegmentLoader.RowList list =
             loader.processData(
@@ -499,13 +501,15 @@ public class SegmentLoaderTest extends BatchTestCase {
         int lengthOfRowWithoutBitKey = 5;
         assertEquals(lengthOfRowWithoutBitKey, list.getTypes().size());
 
-        SortedSet<Comparable> yearAxis = axisValueSet[0];
+        SortedSet<Comparable> yearAxis = axisValueSet[0].toSortedSet();
         assertEquals(1, yearAxis.size());
-        SortedSet<Comparable> productFamilyAxis = axisValueSet[1];
+        SortedSet<Comparable> productFamilyAxis =
+            axisValueSet[1].toSortedSet();
         assertEquals(1, productFamilyAxis.size());
-        SortedSet<Comparable> productDepartmentAxis = axisValueSet[2];
+        SortedSet<Comparable> productDepartmentAxis =
+            axisValueSet[2].toSortedSet();
         assertEquals(2, productDepartmentAxis.size());
-        SortedSet<Comparable> genderAxis = axisValueSet[3];
+        SortedSet<Comparable> genderAxis = axisValueSet[3].toSortedSet();
         assertEquals(2, genderAxis.size());
     }
 
@@ -0,0 +1,444 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Aggregator;
+import mondrian.olap.MondrianException;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.server.Execution;
+import mondrian.spi.Dialect.Datatype;
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Unit test for {@link SegmentRollup}. Compares its results with a simple
+ * rollup that collects the values of each target cell in a list and calls
+ * the aggregator, as {@link SegmentBuilder#rollup} used to.
+ */
+public class SegmentRollupTest extends TestCase {
+    /**
+     * The benchmark runs long enough to give useful timings only if logging
+     * is enabled at debug level.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(SegmentRollupTest.class);
+
+    private ForkJoinPool pool;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        pool = new ForkJoinPool();
+    }
+
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+        pool = null;
+        super.tearDown();
+    }
+
+    /**
+     * Tests rolling up a dense double body, some of whose cells are null, to
+     * two of its three columns, one of which has a null value.
+     */
+    public void testDenseDouble() {
+        final SegmentBody body =
+            denseDouble(new int[] {4, 5, 3}, new boolean[] {false, true, false},
+                0, 7);
+        checkRollup(
+            Collections.singletonList(body), new int[] {0, 1},
+            RolapAggregator.Sum, Datatype.Numeric);
+        checkRollup(
+            Collections.singletonList(body), new int[] {2},
+            RolapAggregator.Min, Datatype.Numeric);
+        checkRollup(
+            Collections.singletonList(body), new int[] {},
+            RolapAggregator.Sum, Datatype.Numeric);
+    }
+
+    public void testDenseInt() {
+        final SegmentBody body =
+            denseInt(new int[] {3, 6}, new boolean[] {true, false}, 0, 5);
+        for (Aggregator aggregator : new Aggregator[] {
+                RolapAggregator.Sum, RolapAggregator.Min, RolapAggregator.Max})
+        {
+            checkRollup(
+                Collections.singletonList(body), new int[] {1},
+                aggregator, Datatype.Integer);
+        }
+    }
+
+    public void testSparse() {
+        final SegmentBody body = sparse(new int[] {20, 30}, 0, 50);
+        checkRollup(
+            Collections.singletonList(body), new int[] {1},
+            RolapAggregator.Sum, Datatype.Numeric);
+        checkRollup(
+            Collections.singletonList(body), new int[] {0},
+            RolapAggregator.Min, Datatype.Numeric);
+    }
+
+    /**
+     * Tests that a cell present in more than one source body is counted
+     * once.
+     */
+    public void testOverlap() {
+        final List<SegmentBody> bodies =
+            Arrays.asList(
+                denseDouble(new int[] {4, 3}, new boolean[2], 0, 0),
+                denseDouble(new int[] {4, 3}, new boolean[2], 2, 0),
+                sparse(new int[] {5, 3}, 3, 4));
+        checkRollup(
+            bodies, new int[] {1}, RolapAggregator.Sum, Datatype.Numeric);
+        checkRollup(
+            bodies, new int[] {0, 1}, RolapAggregator.Sum, Datatype.Numeric);
+    }
+
+    /**
+     * Tests that a rollup of non-overlapping bodies that is split into
+     * pieces and run in parallel gives the same result as when run in one
+     * piece.
+     */
+    public void testParallel() {
+        final List<SegmentBody> bodies = new ArrayList<SegmentBody>();
+        for (int i = 0; i < 4; i++) {
+            bodies.add(
+                denseDouble(new int[] {10, 100, 100}, new boolean[3],
+                    i * 10, 1));
+        }
+        bodies.add(sparse(new int[] {7, 100, 100}, 40, 2));
+        final int saved =
+            MondrianProperties.instance().RollupParallelThreshold.get();
+        try {
+            MondrianProperties.instance().RollupParallelThreshold.set(0);
+            final Map<List<Comparable>, Object> sequential =
+                rollup(bodies, new int[] {1}, RolapAggregator.Sum,
+                    Datatype.Numeric);
+            MondrianProperties.instance().RollupParallelThreshold.set(1);
+            final Map<List<Comparable>, Object> parallel =
+                rollup(bodies, new int[] {1}, RolapAggregator.Sum,
+                    Datatype.Numeric);
+            assertEquals(sequential, parallel);
+            assertEquals(
+                expected(bodies, new int[] {1}, RolapAggregator.Sum,
+                    Datatype.Numeric),
+                parallel);
+            checkRollup(
+                bodies, new int[] {0, 2}, RolapAggregator.Min,
+                Datatype.Numeric);
+        } finally {
+            MondrianProperties.instance().RollupParallelThreshold.set(saved);
+        }
+    }
+
+    /**
+     * Tests that a rollup, sequential or parallel, stops if its execution
+     * has been canceled.
+     */
+    public void testCancel() {
+        final List<SegmentBody> bodies = new ArrayList<SegmentBody>();
+        for (int i = 0; i < 4; i++) {
+            bodies.add(
+                denseDouble(new int[] {10, 100, 100}, new boolean[3],
+                    i * 10, 1));
+        }
+        final Execution execution =
+            new Execution(null, 0) {
+                public void checkCancelOrTimeout() {
+                    throw new MondrianException("canceled");
+                }
+            };
+        final int saved =
+            MondrianProperties.instance().RollupParallelThreshold.get();
+        try {
+            for (int threshold : new int[] {0, 1}) {
+                MondrianProperties.instance().RollupParallelThreshold.set(
+                    threshold);
+                try {
+                    rollup(
+                        bodies, new int[] {1}, RolapAggregator.Sum,
+                        Datatype.Numeric, execution);
+                    fail("expected exception");
+                } catch (MondrianException e) {
+                    assertEquals("canceled", e.getMessage());
+                }
+            }
+        } finally {
+            MondrianProperties.instance().RollupParallelThreshold.set(saved);
+        }
+    }
+
+    /**
+     * Compares the cost of rolling up a large dense segment to one of its
+     * columns with {@link SegmentRollup} and with lists of values. Prints
+     * timings if logging is enabled at debug level.
+     */
+    public void testPerformance() {
+        final int[] sizes = LOGGER.isDebugEnabled()
+            ? new int[] {100, 200, 100}
+            : new int[] {10, 20, 10};
+        final int iterationCount = LOGGER.isDebugEnabled() ? 5 : 1;
+        final List<SegmentBody> bodies =
+            Collections.singletonList(
+                denseDouble(sizes, new boolean[3], 0, 0));
+        final int[] keep = {1};
+        long listNanos = 0;
+        long rollupNanos = 0;
+        for (int iteration = 0; iteration < iterationCount; iteration++) {
+            long start = System.nanoTime();
+            final Map<List<Comparable>, Object> expected =
+                expected(bodies, keep, RolapAggregator.Sum, Datatype.Numeric);
+            listNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final Map<List<Comparable>, Object> actual =
+                rollup(bodies, keep, RolapAggregator.Sum, Datatype.Numeric);
+            rollupNanos += System.nanoTime() - start;
+            assertEquals(expected, actual);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "SegmentRollupTest.testPerformance: "
+                + sizes[0] * sizes[1] * sizes[2] + " cells, "
+                + iterationCount + " iterations; "
+                + "lists " + listNanos / 1000000 + " ms, "
+                + "SegmentRollup " + rollupNanos / 1000000 + " ms");
+        }
+    }
+
+    private void checkRollup(
+        List<SegmentBody> bodies,
+        int[] keep,
+        Aggregator aggregator,
+        Datatype datatype)
+    {
+        assertEquals(
+            expected(bodies, keep, aggregator, datatype),
+            rollup(bodies, keep, aggregator, datatype));
+    }
+
+    /**
+     * Rolls up bodies using {@link SegmentRollup}, and returns the result as
+     * a map from the values of the kept columns to the cell value.
+     */
+    private Map<List<Comparable>, Object> rollup(
+        List<SegmentBody> bodies,
+        int[] keep,
+        Aggregator aggregator,
+        Datatype datatype)
+    {
+        return rollup(bodies, keep, aggregator, datatype, null);
+    }
+
+    private Map<List<Comparable>, Object> rollup(
+        List<SegmentBody> bodies,
+        int[] keep,
+        Aggregator aggregator,
+        Datatype datatype,
+        Execution execution)
+    {
+        final Comparable[][] targetValues = new Comparable[keep.length][];
+        final boolean[] targetHasNull = new boolean[keep.length];
+        for (int t = 0; t < keep.length; t++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (SegmentBody body : bodies) {
+                values.addAll(body.getAxisValueSets()[keep[t]]);
+                targetHasNull[t] |= body.getNullAxisFlags()[keep[t]];
+            }
+            targetValues[t] = values.toArray(new Comparable[values.size()]);
+        }
+        final SegmentRollup.Cells cells =
+            new SegmentRollup(
+                bodies, keep, targetValues, targetHasNull, aggregator,
+                datatype, pool, execution)
+                .run();
+        final Map<List<Comparable>, Object> map =
+            new HashMap<List<Comparable>, Object>();
+        for (int i = 0; i < cells.size(); i++) {
+            long offset = cells.offset(i);
+            final Comparable[] key = new Comparable[keep.length];
+            for (int t = keep.length - 1; t >= 0; --t) {
+                final int size =
+                    targetValues[t].length + (targetHasNull[t] ? 1 : 0);
+                final int ordinal = (int) (offset % size);
+                offset /= size;
+                key[t] = ordinal < targetValues[t].length
+                    ? targetValues[t][ordinal]
+                    : null;
+            }
+            assertNull(map.put(Arrays.asList(key), cells.value(i)));
+        }
+        return map;
+    }
+
+    /**
+     * Rolls up bodies by collecting the values of each target cell in a
+     * list.
+     */
+    private static Map<List<Comparable>, Object> expected(
+        List<SegmentBody> bodies,
+        int[] keep,
+        Aggregator aggregator,
+        Datatype datatype)
+    {
+        final Set<List<Comparable>> seen = new HashSet<List<Comparable>>();
+        final Map<List<Comparable>, List<Object>> lists =
+            new HashMap<List<Comparable>, List<Object>>();
+        for (SegmentBody body : bodies) {
+            final List<Comparable[]> values = new ArrayList<Comparable[]>();
+            for (SortedSet<Comparable> set : body.getAxisValueSets()) {
+                values.add(set.toArray(new Comparable[set.size()]));
+            }
+            for (Map.Entry<CellKey, Object> entry
+                : body.getValueMap().entrySet())
+            {
+                final int[] ordinals = entry.getKey().getOrdinals();
+                final List<Comparable> cell = new ArrayList<Comparable>();
+                for (int c = 0; c < ordinals.length; c++) {
+                    cell.add(
+                        ordinals[c] < values.get(c).length
+                            ? values.get(c)[ordinals[c]]
+                            : null);
+                }
+                if (!seen.add(cell)) {
+                    continue;
+                }
+                final List<Comparable> target = new ArrayList<Comparable>();
+                for (int t : keep) {
+                    target.add(cell.get(t));
+                }
+                List<Object> list = lists.get(target);
+                if (list == null) {
+                    list = new ArrayList<Object>();
+                    lists.put(target, list);
+                }
+                list.add(entry.getValue());
+            }
+        }
+        final Map<List<Comparable>, Object> map =
+            new HashMap<List<Comparable>, Object>();
+        for (Map.Entry<List<Comparable>, List<Object>> entry
+            : lists.entrySet())
+        {
+            map.put(
+                entry.getKey(),
+                aggregator.aggregate(entry.getValue(), datatype));
+        }
+        return map;
+    }
+
+    /**
+     * Creates the axes of a body. Column {@code c} has values
+     * {@code first}, ..., {@code first + sizes[c] - 1}, and a null value if
+     * {@code hasNull[c]}.
+     */
+    private static List<Pair<SortedSet<Comparable>, Boolean>> axes(
+        int[] sizes,
+        boolean[] hasNull,
+        int first)
+    {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int c = 0; c < sizes.length; c++) {
+            final SortedSet<Comparable> values = new TreeSet<Comparable>();
+            for (int i = 0; i < sizes[c]; i++) {
+                values.add(first + i);
+            }
+            axes.add(Pair.of(values, hasNull[c]));
+        }
+        return axes;
+    }
+
+    private static int cellCount(int[] sizes, boolean[] hasNull) {
+        int n = 1;
+        for (int c = 0; c < sizes.length; c++) {
+            n *= sizes[c] + (hasNull[c] ? 1 : 0);
+        }
+        return n;
+    }
+
+    /**
+     * Creates a dense body of doubles. If {@code nullEvery} is not 0, every
+     * {@code nullEvery}th cell is null.
+     */
+    private static SegmentBody denseDouble(
+        int[] sizes,
+        boolean[] hasNull,
+        int first,
+        int nullEvery)
+    {
+        final int n = cellCount(sizes, hasNull);
+        final double[] values = new double[n];
+        final BitSet nulls = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if (nullEvery != 0 && i % nullEvery == 0) {
+                nulls.set(i);
+            } else {
+                values[i] = (i * 7 + first) % 101;
+            }
+        }
+        return new DenseDoubleSegmentBody(
+            nulls, values, axes(sizes, hasNull, first));
+    }
+
+    /**
+     * Creates a dense body of ints. If {@code nullEvery} is not 0, every
+     * {@code nullEvery}th cell is null.
+     */
+    private static SegmentBody denseInt(
+        int[] sizes,
+        boolean[] hasNull,
+        int first,
+        int nullEvery)
+    {
+        final int n = cellCount(sizes, hasNull);
+        final int[] values = new int[n];
+        final BitSet nulls = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if (nullEvery != 0 && i % nullEvery == 0) {
+                nulls.set(i);
+            } else {
+                values[i] = (i * 13) % 37;
+            }
+        }
+        return new DenseIntSegmentBody(
+            nulls, values, axes(sizes, hasNull, first));
+    }
+
+    /**
+     * Creates a sparse body that has a value in every {@code every}th cell.
+     */
+    private static SegmentBody sparse(int[] sizes, int first, int every) {
+        final boolean[] hasNull = new boolean[sizes.length];
+        final int n = cellCount(sizes, hasNull);
+        final Map<CellKey, Object> data = new HashMap<CellKey, Object>();
+        final int[] ordinals = new int[sizes.length];
+        for (int i = 0; i < n; i += every) {
+            for (int c = sizes.length - 1, r = i; c >= 0; --c) {
+                ordinals[c] = r % sizes[c];
+                r /= sizes[c];
+            }
+            data.put(
+                CellKey.Generator.newCellKey(ordinals),
+                (double) ((i * 3) % 19));
+        }
+        return new SparseSegmentBody(data, axes(sizes, hasNull, first));
+    }
+}
+
+// End SegmentRollupTest.java
@@ -0,0 +1,103 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.rolap.sql;
+
+import mondrian.spi.Dialect;
+import mondrian.spi.impl.JdbcDialectImpl;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit test for {@link BoundSql}, and for the bind variables written by
+ * {@link SqlQuery#quote}.
+ */
+public class BoundSqlTest extends TestCase {
+    public void testParse() throws Exception {
+        final StringBuilder buf =
+            new StringBuilder("select * from t where a = ");
+        assertTrue(
+            BoundSql.appendBindVariable(
+                buf, "O'Brien", Dialect.Datatype.String));
+        buf.append(" and b in (");
+        assertTrue(
+            BoundSql.appendBindVariable(buf, 1997, Dialect.Datatype.Integer));
+        buf.append(", ");
+        assertTrue(
+            BoundSql.appendBindVariable(
+                buf, "2.5", Dialect.Datatype.Numeric));
+        buf.append(")");
+
+        final BoundSql boundSql = BoundSql.parse(buf.toString());
+        assertNotNull(boundSql);
+        assertEquals(
+            "select * from t where a = ? and b in (?, ?)",
+            boundSql.sql);
+        assertEquals(
+            "select * from t where a = 'O''Brien' and b in (1997, 2.5)",
+            boundSql.literalSql);
+        assertEquals(3, boundSql.getBindVariableCount());
+
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        boundSql.bind(statement);
+        verify(statement).setString(1, "O'Brien");
+        verify(statement).setLong(2, 1997L);
+        verify(statement).setBigDecimal(3, new BigDecimal("2.5"));
+    }
+
+    public void testParseWithoutBindVariables() {
+        assertNull(BoundSql.parse("select 1 from t where a = 'x'"));
+    }
+
+    /**
+     * Tests that values that cannot be bound are refused, so that the caller
+     * writes them as literals.
+     */
+    public void testNotBindable() {
+        final StringBuilder buf = new StringBuilder();
+        assertFalse(
+            BoundSql.appendBindVariable(buf, null, Dialect.Datatype.String));
+        assertFalse(
+            BoundSql.appendBindVariable(buf, "abc", Dialect.Datatype.Numeric));
+        assertFalse(
+            BoundSql.appendBindVariable(
+                buf, "a\u0001b", Dialect.Datatype.String));
+        assertFalse(
+            BoundSql.appendBindVariable(
+                buf, "1997-01-01", Dialect.Datatype.Date));
+        assertEquals(0, buf.length());
+    }
+
+    public void testSqlQueryQuote() {
+        final SqlQuery sqlQuery = new SqlQuery(new JdbcDialectImpl());
+        sqlQuery.setGenerateParameterizedSql(true);
+        final StringBuilder buf = new StringBuilder();
+        sqlQuery.quote(buf, "CA", Dialect.Datatype.String);
+        buf.append(", ");
+        sqlQuery.quote(buf, "1997-01-01", Dialect.Datatype.Date);
+        buf.append(", ");
+        sqlQuery.quote(buf, null, Dialect.Datatype.Integer);
+        final BoundSql boundSql = BoundSql.parse(buf.toString());
+        assertEquals("?, DATE '1997-01-01', null", boundSql.sql);
+        assertEquals("'CA', DATE '1997-01-01', null", boundSql.literalSql);
+
+        sqlQuery.setGenerateParameterizedSql(false);
+        buf.setLength(0);
+        sqlQuery.quote(buf, "CA", Dialect.Datatype.String);
+        assertEquals("'CA'", buf.toString());
+    }
+}
+
+// End BoundSqlTest.java
@@ -16,12 +16,16 @@ import mondrian.spi.Dialect;
 import mondrian.spi.impl.*;
 import mondrian.test.SqlPattern;
 import mondrian.test.TestContext;
+import mondrian.util.Counters;
 
 import java.sql.SQLException;
 import java.util.*;
 
 import static mondrian.spi.Dialect.DatabaseProduct.MYSQL;
 import static mondrian.spi.Dialect.DatabaseProduct.POSTGRESQL;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -155,6 +159,57 @@ public class SqlQueryTest extends BatchTestCase {
         return sql.replaceAll("\\r", "");
     }
 
+    /**
+     * Tests that the offset and limit of a query are generated after the
+     * ORDER BY clause, in the syntax of the dialect.
+     */
+    public void testLimitOffset() {
+        assertFalse(new JdbcDialectImpl().supportsLimitOffset());
+        assertNull(new JdbcDialectImpl().generateLimitOffset(20, 10));
+
+        JdbcDialectImpl dialect = spy(new JdbcDialectImpl());
+        when(dialect.requiresOrderByAlias()).thenReturn(false);
+        when(dialect.supportsLimitOffset()).thenReturn(true);
+        doReturn("limit 10 offset 20")
+            .when(dialect).generateLimitOffset(20, 10);
+        SqlQuery query = new SqlQuery(dialect, true);
+        query.addOrderBy("expr", "alias", false, true, false, true);
+        assertEquals(
+            "\norder by\n"
+            + "    expr DESC",
+            query.toString().replaceAll("\\r", ""));
+        query.setLimitOffset(20, 10);
+        assertEquals(
+            "\norder by\n"
+            + "    expr DESC\n"
+            + "limit 10 offset 20",
+            query.toString().replaceAll("\\r", ""));
+
+        assertEquals(
+            "limit 10 offset 20", limitOffset(PostgreSqlDialect.class, 20, 10));
+        assertEquals("offset 20", limitOffset(PostgreSqlDialect.class, 20, -1));
+        assertEquals(
+            "limit 10 offset 0", limitOffset(VerticaDialect.class, 0, 10));
+        assertEquals(
+            "limit 0 offset 20", limitOffset(HsqldbDialect.class, 20, -1));
+        assertEquals(
+            "limit 10 offset 20", limitOffset(MySqlDialect.class, 20, 10));
+        assertEquals(
+            "limit 18446744073709551615 offset 20",
+            limitOffset(MySqlDialect.class, 20, -1));
+    }
+
+    private static String limitOffset(
+        Class<? extends Dialect> dialectClass, int offset, int limit)
+    {
+        final Dialect dialect = mock(dialectClass);
+        when(dialect.supportsLimitOffset()).thenCallRealMethod();
+        when(dialect.generateLimitOffset(anyInt(), anyInt()))
+            .thenCallRealMethod();
+        assertTrue(dialect.supportsLimitOffset());
+        return dialect.generateLimitOffset(offset, limit);
+    }
+
     public void testToStringForForcedIndexHint() {
         Map<String, String> hints = new HashMap<String, String>();
         hints.put("force_index", "myIndex");
@@ -804,6 +859,35 @@ public class SqlQueryTest extends BatchTestCase {
             new SqlPattern(Dialect.DatabaseProduct.MYSQL, sql, sql.length());
         assertQuerySql(context, mdx, new SqlPattern[]{mySqlPattern});
     }
+
+    /**
+     * Tests that a query returns the same results when generated SQL passes
+     * key values as bind variables, and that statements that differ only in
+     * their values are prepared once.
+     */
+    public void testParameterizedSql() {
+        final String mdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Store].[USA].[CA].Children, [Store].[USA].[OR]} on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q1]";
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(mdx));
+
+        propSaver.set(prop.GenerateParameterizedSql, true);
+        final TestContext context = getTestContext().withFreshConnection();
+        final long missCount = Counters.PREPARED_STATEMENT_MISS_COUNT.get();
+        context.flushSchemaCache();
+        context.assertQueryReturns(mdx, expected);
+        assertTrue(Counters.PREPARED_STATEMENT_MISS_COUNT.get() > missCount);
+
+        // Run again with empty caches. The same statements are generated,
+        // so they have all been prepared before.
+        final long hitCount = Counters.PREPARED_STATEMENT_HIT_COUNT.get();
+        context.flushSchemaCache();
+        context.assertQueryReturns(mdx, expected);
+        assertTrue(Counters.PREPARED_STATEMENT_HIT_COUNT.get() > hitCount);
+    }
 }
 
 // End SqlQueryTest.java
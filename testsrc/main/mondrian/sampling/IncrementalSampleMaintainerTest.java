@@ -0,0 +1,156 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.sampling;
+
+import mondrian.rolap.RolapConnection;
+import mondrian.test.FoodMartTestCase;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Tests {@link IncrementalSampleMaintainer}, which merges rows appended to a
+ * fact table into an existing congressional sample.
+ */
+public class IncrementalSampleMaintainerTest extends FoodMartTestCase {
+    private static final String ORIGIN_TABLE = "inventory_fact_1997";
+    private static final String SAMPLE_TABLE = "inventory_fact_1997_inc_test";
+
+    private RolapConnection connection;
+    private SampleDatabase database;
+    private boolean created;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        connection = (RolapConnection) getTestContext().getConnection();
+        database = SampleDatabase.of(connection);
+    }
+
+    protected void tearDown() throws Exception {
+        if (created) {
+            database.execute("DROP TABLE " + database.quote(SAMPLE_TABLE));
+            created = false;
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Tests that appending rows to one stratum keeps that stratum's sample
+     * size, adds the appended rows to its estimated size, and leaves the other
+     * strata alone.
+     */
+    public void testAppend() {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        final SampleInfo info = buildSample();
+        final Map<String, double[]> before = strata();
+        assertTrue(before.containsKey("1"));
+
+        // Append nothing.
+        final IncrementalSampleMaintainer maintainer =
+            new IncrementalSampleMaintainer(connection, info);
+        assertEquals(0, maintainer.append("1 = 0"));
+        assertEquals(before.keySet(), strata().keySet());
+
+        // Treat warehouse 1's rows as if they had been loaded again.
+        final String condition = database.quote("warehouse_id") + " = 1";
+        final int appended = database.query(
+            "SELECT count(*) FROM " + database.quote(ORIGIN_TABLE)
+            + " WHERE " + condition,
+            new SampleDatabase.ResultSetHandler<Integer>() {
+                public Integer handle(ResultSet rs) throws SQLException {
+                    assertTrue(rs.next());
+                    return rs.getInt(1);
+                }
+            });
+        assertEquals(1, maintainer.append(condition));
+
+        final Map<String, double[]> after = strata();
+        assertEquals(before.keySet(), after.keySet());
+        for (String key : before.keySet()) {
+            final double[] b = before.get(key);
+            final double[] a = after.get(key);
+            assertEquals(key, b[0], a[0], 0d);
+            assertEquals(
+                key,
+                key.equals("1") ? Math.round(b[1]) + appended : b[1],
+                a[1],
+                1d);
+        }
+    }
+
+    /**
+     * Tests that error-bounded samples, whose buckets a reservoir cannot
+     * maintain, are rejected.
+     */
+    public void testErrorBoundedSampleRejected() {
+        final SampleInfo info = new SampleInfo();
+        info.setOriginTable(ORIGIN_TABLE);
+        info.setSampleTable(SAMPLE_TABLE);
+        info.setSamplingSchema(SamplingSchema.ERROR_BOUNDED_SAMPLING);
+        try {
+            new IncrementalSampleMaintainer(connection, info);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(SAMPLE_TABLE));
+        }
+    }
+
+    private SampleInfo buildSample() {
+        final List<String> attrs = Collections.singletonList("warehouse_id");
+        final CongressionalSampling sampling =
+            new CongressionalSampling(
+                database, ORIGIN_TABLE, SAMPLE_TABLE,
+                new ArrayList<String>(attrs), 0.1f);
+        sampling.house();
+        sampling.senate();
+        sampling.basicCongress();
+        sampling.congress();
+        created = true;
+        sampling.materializeCongress();
+
+        final SampleInfo info = new SampleInfo();
+        info.setOriginTable(ORIGIN_TABLE);
+        info.setSampleTable(SAMPLE_TABLE);
+        info.setSamplingSchema(SamplingSchema.CONGRESSIONAL_SAMPLING);
+        info.setSamplingRate(0.1f);
+        info.setGroupingAttrs(attrs);
+        info.setJoinAttrs(Collections.<String>emptyList());
+        return info;
+    }
+
+    /**
+     * Returns the sample size and the sum of scale factors of each stratum.
+     */
+    private Map<String, double[]> strata() {
+        final String attr = database.quote("warehouse_id");
+        return database.query(
+            "SELECT " + attr + ", count(*), sum(" + database.quote("sf")
+            + ") FROM " + database.quote(SAMPLE_TABLE)
+            + " GROUP BY " + attr,
+            new SampleDatabase.ResultSetHandler<Map<String, double[]>>() {
+                public Map<String, double[]> handle(ResultSet rs)
+                    throws SQLException
+                {
+                    final Map<String, double[]> map =
+                        new HashMap<String, double[]>();
+                    while (rs.next()) {
+                        map.put(
+                            rs.getString(1),
+                            new double[] {rs.getInt(2), rs.getDouble(3)});
+                    }
+                    return map;
+                }
+            });
+    }
+}
+
+// End IncrementalSampleMaintainerTest.java
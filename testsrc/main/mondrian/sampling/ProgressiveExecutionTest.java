@@ -0,0 +1,137 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.sampling;
+
+import mondrian.olap.*;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapResult;
+import mondrian.server.RefreshListener;
+import mondrian.server.Statement;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tests progressive execution: a statement with a {@link RefreshListener}
+ * gets an approximate answer from a sample, and then the exact answer in the
+ * background.
+ */
+public class ProgressiveExecutionTest extends FoodMartTestCase {
+    private static final String ORIGIN_TABLE = "sales_fact_1997";
+    private static final String SAMPLE_TABLE =
+        "sales_fact_1997_progressive_test";
+    private static final String MDX =
+        "select {[Measures].[Unit Sales]} on columns,\n"
+        + " {[Time].[1997].Children} on rows\n"
+        + "from [Sales]";
+
+    private RolapConnection connection;
+    private SampleDatabase database;
+    private SampleInfo sampleInfo;
+    private boolean created;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        connection =
+            (RolapConnection) getTestContext().withFreshConnection()
+                .getConnection();
+        database = SampleDatabase.of(connection);
+    }
+
+    protected void tearDown() throws Exception {
+        if (sampleInfo != null) {
+            SampleInfoReader.sampleInfos.remove(sampleInfo);
+            sampleInfo = null;
+        }
+        if (created) {
+            database.execute("DROP TABLE " + database.quote(SAMPLE_TABLE));
+            created = false;
+        }
+        connection.close();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that an execution that reads from a sample returns its answer,
+     * and that the listener then receives the exact answer.
+     */
+    public void testRefresh() throws Exception {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        buildSample();
+
+        // Make sure that cells are not answered from exact segments that
+        // other tests have cached.
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        final Cube salesCube = connection.getSchema().lookupCube("Sales", true);
+        cacheControl.flush(cacheControl.createMeasuresRegion(salesCube));
+
+        final BlockingQueue<Object> refreshes =
+            new ArrayBlockingQueue<Object>(1);
+        final Query query = connection.parseQuery(MDX);
+        final Statement statement = query.getStatement();
+        statement.setSampleContext(SampleContext.parse(ORIGIN_TABLE));
+        statement.setRefreshListener(
+            new RefreshListener() {
+                public void refreshed(Statement stmt, Result result) {
+                    refreshes.add(TestContext.toString(result));
+                }
+
+                public void refreshFailed(
+                    Statement stmt, Throwable throwable)
+                {
+                    refreshes.add(throwable);
+                }
+            });
+        final Result approximate = connection.execute(query);
+        assertEquals(4, approximate.getAxes()[1].getPositions().size());
+
+        // The first answer was read from the sample; only then is the
+        // listener called.
+        assertTrue(
+            "expected first answer to be approximate",
+            ((RolapResult) approximate).getExecution().isApproximate());
+        final Object refresh = refreshes.poll(60, TimeUnit.SECONDS);
+        assertNotNull("exact answer not received", refresh);
+        if (refresh instanceof Throwable) {
+            throw new AssertionError(refresh);
+        }
+        final Result exact = connection.execute(connection.parseQuery(MDX));
+        assertEquals(TestContext.toString(exact), refresh);
+        query.close();
+    }
+
+    private void buildSample() {
+        final List<String> attrs = Collections.singletonList("time_id");
+        final CongressionalSampling sampling =
+            new CongressionalSampling(
+                database, ORIGIN_TABLE, SAMPLE_TABLE,
+                new ArrayList<String>(attrs), 0.1f);
+        sampling.house();
+        sampling.senate();
+        sampling.basicCongress();
+        sampling.congress();
+        created = true;
+        sampling.materializeCongress();
+
+        sampleInfo = new SampleInfo();
+        sampleInfo.setOriginTable(ORIGIN_TABLE);
+        sampleInfo.setSampleTable(SAMPLE_TABLE);
+        sampleInfo.setSamplingSchema(SamplingSchema.CONGRESSIONAL_SAMPLING);
+        sampleInfo.setSamplingRate(0.1f);
+        sampleInfo.setGroupingAttrs(attrs);
+        sampleInfo.setJoinAttrs(Collections.<String>emptyList());
+        SampleInfoReader.sampleInfos.add(sampleInfo);
+    }
+}
+
+// End ProgressiveExecutionTest.java
@@ -0,0 +1,349 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.sampling;
+
+import mondrian.rolap.RolapConnection;
+import mondrian.spi.Dialect;
+import mondrian.test.FoodMartTestCase;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+
+/**
+ * Tests that samples are built through the schema's data source and dialect,
+ * so that they can be built on the bundled FoodMart database whatever its
+ * product.
+ */
+public class SampleDatabaseTest extends FoodMartTestCase {
+    private static final String ORIGIN_TABLE = "inventory_fact_1997";
+
+    private SampleDatabase database;
+    private final List<String> createdTables = new ArrayList<String>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        database =
+            SampleDatabase.of((RolapConnection) getTestContext().getConnection());
+    }
+
+    protected void tearDown() throws Exception {
+        for (String table : createdTables) {
+            database.execute("DROP TABLE " + database.quote(table));
+        }
+        createdTables.clear();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that an error-bounded sample contains one row per bucket, and
+     * that within each stratum the scale factors add up to the number of rows
+     * of the stratum.
+     */
+    public void testErrorBoundedSample() {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        final String sampleTable = "inventory_fact_1997_eb_test";
+        final ErrorBoundedSampling sampling =
+            new ErrorBoundedSampling(
+                database, 50f, 0.9f, ORIGIN_TABLE, sampleTable,
+                Collections.singletonList("warehouse_id"),
+                Collections.singletonList("units_ordered"));
+        int bucketCount = 0;
+        for (List<Bucket> buckets : sampling.getGroupBuckets().values()) {
+            bucketCount += buckets.size();
+        }
+        assertTrue(bucketCount > 0);
+
+        createdTables.add(sampleTable);
+        sampling.materialize();
+
+        final double[] sample =
+            countAndSumSf(sampleTable);
+        assertEquals(bucketCount, (int) sample[0]);
+        assertEquals(count(ORIGIN_TABLE), sample[1], 0.01);
+    }
+
+    /**
+     * Tests that a congressional sample, whose allocation runs the queries of
+     * each subset of the grouping attributes in parallel, is materialized in
+     * the FoodMart database.
+     */
+    public void testCongressionalSample() {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        final String sampleTable = "inventory_fact_1997_cs_test";
+        final CongressionalSampling sampling =
+            new CongressionalSampling(
+                database, ORIGIN_TABLE, sampleTable,
+                new ArrayList<String>(
+                    Arrays.asList("warehouse_id", "store_id")),
+                0.1f);
+        sampling.house();
+        sampling.senate();
+        sampling.basicCongress();
+        sampling.congress();
+
+        createdTables.add(sampleTable);
+        sampling.materializeCongress();
+
+        // Rows are kept at random, so only check the estimate loosely.
+        final int originCount = count(ORIGIN_TABLE);
+        final double[] sample = countAndSumSf(sampleTable);
+        assertTrue(sample[0] > 0);
+        assertTrue(sample[0] < originCount);
+        assertEquals(originCount, sample[1], originCount * 0.5);
+    }
+
+    /**
+     * Tests that materializing an error-bounded sample reads the origin table
+     * once, computing the buckets in the same scan that chooses the rows,
+     * and that the buckets are not read again afterwards.
+     */
+    public void testErrorBoundedSampleSinglePass() {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        final List<String> events = new ArrayList<String>();
+        final SampleDatabase recording =
+            new SampleDatabase(
+                Recorder.wrap(
+                    DataSource.class, database.getDataSource(), events),
+                database.getDialect());
+        final String sampleTable = "inventory_fact_1997_eb_pass_test";
+        final ErrorBoundedSampling sampling =
+            new ErrorBoundedSampling(
+                recording, 50f, 0.9f, ORIGIN_TABLE, sampleTable,
+                Collections.singletonList("warehouse_id"),
+                Collections.singletonList("units_ordered"));
+        assertEquals(0, scanCount(events));
+
+        createdTables.add(sampleTable);
+        sampling.materialize();
+        assertEquals(1, scanCount(events));
+
+        int bucketCount = 0;
+        for (List<Bucket> buckets : sampling.getGroupBuckets().values()) {
+            bucketCount += buckets.size();
+        }
+        assertTrue(sampling.getSamplingRate() > 0f);
+        assertEquals(1, scanCount(events));
+        assertEquals(bucketCount, (int) countAndSumSf(sampleTable)[0]);
+    }
+
+    /**
+     * Tests that queries ask the driver to stream their results in the way
+     * the dialect requires, and give the connection back to the pool with
+     * auto-commit on.
+     */
+    public void testQueryStreams() {
+        final Dialect dialect = database.getDialect();
+        final Dialect autoCommitOffDialect =
+            (Dialect) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] {Dialect.class},
+                new InvocationHandler() {
+                    public Object invoke(
+                        Object proxy, Method method, Object[] args)
+                        throws Throwable
+                    {
+                        if (method.getName().equals(
+                                "requiresAutoCommitOffToStream"))
+                        {
+                            return true;
+                        }
+                        try {
+                            return method.invoke(dialect, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        final List<String> events = new ArrayList<String>();
+        final SampleDatabase recording =
+            new SampleDatabase(
+                Recorder.wrap(
+                    DataSource.class, database.getDataSource(), events),
+                autoCommitOffDialect);
+        final boolean autoCommit =
+            recording.query(
+                "SELECT count(*) FROM " + database.quote(ORIGIN_TABLE),
+                new SampleDatabase.ResultSetHandler<Boolean>() {
+                    public Boolean handle(ResultSet rs) throws SQLException {
+                        assertTrue(rs.next());
+                        return rs.getStatement().getConnection()
+                            .getAutoCommit();
+                    }
+                });
+        assertFalse(autoCommit);
+        final int fetchSize =
+            dialect.getFetchSize(SampleTableWriter.BATCH_SIZE, true);
+        if (fetchSize != 0) {
+            assertTrue(events.contains("setFetchSize " + fetchSize));
+        }
+        assertTrue(events.contains("setAutoCommit false"));
+        assertTrue(
+            events.indexOf("setAutoCommit true")
+            > events.indexOf("setAutoCommit false"));
+    }
+
+    /**
+     * Tests that the sample table writer sends rows to the database in
+     * batches, and writes every row.
+     */
+    public void testSampleTableWriter() throws SQLException {
+        if (!database.getDialect().allowsDdl()) {
+            return;
+        }
+        final String sampleTable = "inventory_fact_1997_writer_test";
+        database.createSampleTable(ORIGIN_TABLE, sampleTable, false);
+        createdTables.add(sampleTable);
+
+        final List<String> events = new ArrayList<String>();
+        final SampleDatabase recording =
+            new SampleDatabase(
+                Recorder.wrap(
+                    DataSource.class, database.getDataSource(), events),
+                database.getDialect());
+        final int rowCount =
+            database.query(
+                "SELECT * FROM " + database.quote(ORIGIN_TABLE),
+                new SampleDatabase.ResultSetHandler<Integer>() {
+                    public Integer handle(ResultSet rs) throws SQLException {
+                        final int columnCount =
+                            rs.getMetaData().getColumnCount();
+                        final SampleTableWriter writer =
+                            new SampleTableWriter(
+                                recording, sampleTable, columnCount + 1);
+                        int n = 0;
+                        try {
+                            while (rs.next()) {
+                                final Object[] row =
+                                    SampleTableWriter.readRow(
+                                        rs, columnCount, 1);
+                                row[columnCount] = 1;
+                                writer.write(row);
+                                ++n;
+                            }
+                        } finally {
+                            writer.close();
+                        }
+                        return n;
+                    }
+                });
+        assertTrue(rowCount > SampleTableWriter.BATCH_SIZE);
+        assertEquals(
+            (rowCount + SampleTableWriter.BATCH_SIZE - 1)
+            / SampleTableWriter.BATCH_SIZE,
+            Collections.frequency(events, "executeBatch"));
+        final double[] sample = countAndSumSf(sampleTable);
+        assertEquals(rowCount, (int) sample[0]);
+        assertEquals(rowCount, sample[1], 0.01);
+    }
+
+    /**
+     * Returns the number of queries that have scanned the origin table in
+     * order.
+     */
+    private static int scanCount(List<String> events) {
+        int n = 0;
+        for (String event : events) {
+            if (event.startsWith("executeQuery ")
+                && event.contains(ORIGIN_TABLE)
+                && event.contains("ORDER BY"))
+            {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private int count(String table) {
+        return (int) countAndSumSf(table, false)[0];
+    }
+
+    private double[] countAndSumSf(String table) {
+        return countAndSumSf(table, true);
+    }
+
+    private double[] countAndSumSf(String table, boolean sf) {
+        return database.query(
+            "SELECT count(*)"
+            + (sf ? ", sum(" + database.quote("sf") + ")" : "")
+            + " FROM " + database.quote(table),
+            new SampleDatabase.ResultSetHandler<double[]>() {
+                public double[] handle(ResultSet rs) throws SQLException {
+                    assertTrue(rs.next());
+                    return new double[] {
+                        rs.getInt(1),
+                        rs.getMetaData().getColumnCount() > 1
+                            ? rs.getDouble(2)
+                            : 0d
+                    };
+                }
+            });
+    }
+
+    /**
+     * Records calls to a JDBC data source, and to the connections and
+     * statements that it creates. Each event is the method name, followed by
+     * the first argument if it is the SQL or a setting.
+     */
+    private static class Recorder implements InvocationHandler {
+        private final Object target;
+        private final List<String> events;
+
+        Recorder(Object target, List<String> events) {
+            this.target = target;
+            this.events = events;
+        }
+
+        static <T> T wrap(Class<T> clazz, Object target, List<String> events) {
+            return clazz.cast(
+                Proxy.newProxyInstance(
+                    Recorder.class.getClassLoader(),
+                    new Class[] {clazz},
+                    new Recorder(target, events)));
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            final String name = method.getName();
+            if (name.equals("executeQuery")
+                || name.equals("setFetchSize")
+                || name.equals("setAutoCommit"))
+            {
+                events.add(name + " " + args[0]);
+            } else if (name.equals("executeBatch")) {
+                events.add(name);
+            }
+            final Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            final Class<?> type = method.getReturnType();
+            if (result != null
+                && (type == Connection.class
+                    || type == Statement.class
+                    || type == PreparedStatement.class))
+            {
+                return wrap(type, result, events);
+            }
+            return result;
+        }
+    }
+}
+
+// End SampleDatabaseTest.java
@@ -23,6 +23,9 @@ import mondrian.rolap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.*;
 import mondrian.rolap.sql.*;
+import mondrian.sampling.IncrementalSampleMaintainerTest;
+import mondrian.sampling.ProgressiveExecutionTest;
+import mondrian.sampling.SampleDatabaseTest;
 import mondrian.server.FileRepositoryTest;
 import mondrian.spi.impl.ImpalaDialectTest;
 import mondrian.spi.impl.SybaseDialectTest;
@@ -35,6 +38,7 @@ import mondrian.udf.CurrentDateMemberUdfTest;
 import mondrian.udf.NullValueTest;
 import mondrian.util.*;
 import mondrian.xmla.*;
+import mondrian.xmla.impl.DefaultXmlaServletTest;
 import mondrian.xmla.impl.DynamicDatasourceXmlaServletTest;
 import mondrian.xmla.test.XmlaTest;
 
@@ -212,8 +216,17 @@ public class Main extends TestSuite {
             }
             addTest(suite, SqlConstraintUtilsTest.class);
             addTest(suite, SegmentBuilderTest.class);
+            addTest(suite, SampleDatabaseTest.class);
+            addTest(suite, IncrementalSampleMaintainerTest.class);
+            addTest(suite, ProgressiveExecutionTest.class);
             addTest(suite, DenseDoubleSegmentBodyTest.class);
             addTest(suite, DenseIntSegmentBodyTest.class);
+            addTest(suite, MemorySegmentCacheTest.class);
+            addTest(suite, DirectSegmentBodyTest.class);
+            addTest(suite, DiskSegmentCacheTest.class);
+            addTest(suite, SegmentCacheIndexImplTest.class);
+            addTest(suite, DistinctValueSetTest.class);
+            addTest(suite, SegmentRollupTest.class);
             addTest(suite, NativeFilterMatchingTest.class);
             addTest(suite, NativeFilterAgainstAggTableTest.class);
             addTest(suite, RolapConnectionTest.class);
@@ -279,6 +292,8 @@ public class Main extends TestSuite {
             addTest(suite, XmlaTabularTest.class);
             addTest(suite, XmlaTests.class);
             addTest(suite, DynamicDatasourceXmlaServletTest.class);
+            addTest(suite, DefaultXmlaServletTest.class);
+            addTest(suite, ColumnarEncodingTest.class);
             addTest(suite, XmlaTest.class, "suite");
             addTest(suite, XmlaDimensionPropertiesTest.class);
             if (isRunOnce()) {
@@ -310,6 +325,7 @@ public class Main extends TestSuite {
             addTest(suite, DataSourceChangeListenerTest.class);
             addTest(suite, ModulosTest.class);
             addTest(suite, PrimeFinderTest.class);
+            addTest(suite, SketchTest.class);
             addTest(suite, CellKeyTest.class);
             addTest(suite, RolapAxisTest.class);
             addTest(suite, CrossJoinTest.class);
@@ -364,6 +380,8 @@ public class Main extends TestSuite {
             addTest(suite, MemberCacheHelperTest.class);
             addTest(suite, EffectiveMemberCacheTest.class);
             addTest(suite, SqlStatementTest.class);
+            addTest(suite, SqlAdmissionControllerTest.class);
+            addTest(suite, FetchSizePolicyTest.class);
             addTest(suite, ValidMeasureFunDefTest.class);
 
             boolean testNonEmpty = isRunOnce();
@@ -384,11 +402,14 @@ public class Main extends TestSuite {
             addTest(suite, FastBatchingCellReaderTest.class);
             addTest(suite, SqlQueryTest.class);
             addTest(suite, CodeSetTest.class);
+            addTest(suite, BoundSqlTest.class);
             addTest(suite, ExplicitRecognizerTest.class);
             addTest(suite, AggregationOverAggTableTest.class);
             addTest(suite, XmlUtilTest.class);
             addTest(suite, NamespaceContextImplTest.class);
             addTest(suite, CancellationTest.class);
+            addTest(suite, CancellationCheckerTest.class);
+            addTest(suite, RolapResultShepherdTest.class);
 
             if (MondrianProperties.instance().EnableNativeCrossJoin.get()) {
                 addTest(suite, BatchedFillTest.class, "suite");
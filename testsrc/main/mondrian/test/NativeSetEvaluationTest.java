@@ -23,6 +23,19 @@ import mondrian.util.Bug;
  * <p>
  */
 public class NativeSetEvaluationTest extends BatchTestCase {
+    private TestContext localTestContext;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        localTestContext = null; // allow gc
+    }
+
+    @Override
+    public TestContext getTestContext() {
+        return localTestContext != null
+            ? localTestContext : super.getTestContext();
+    }
 
     /**
      * Checks that a given MDX query results in a particular SQL statement
@@ -1762,6 +1775,164 @@ public class NativeSetEvaluationTest extends BatchTestCase {
                 "The results of native and non-native evaluations should be equal";
         verifySameNativeAndNot(query, message, getTestContext());
     }
+
+    /**
+     * Tests that Order by a measure, with a flag that breaks the hierarchy,
+     * is evaluated in SQL on a non-empty axis.
+     */
+    public void testNativeOrder() {
+        propSaver.set(propSaver.properties.EnableNativeOrder, true);
+        checkNative(
+            0, 13,
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " non empty Order([Store].[Store City].Members,\n"
+            + "   [Measures].[Unit Sales], BDESC) on 1\n"
+            + "from [Sales]",
+            null, true);
+        checkNative(
+            0, 13,
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " non empty Order([Store].[Store City].Members,\n"
+            + "   [Measures].[Store Sales], BASC) on 1\n"
+            + "from [Sales]",
+            null, true);
+    }
+
+    /**
+     * Tests that Head and Subset of a descending Order are evaluated in SQL,
+     * with and without NON EMPTY; without it, the result is completed with
+     * empty rows, as for TopCount.
+     */
+    public void testNativeOrderHeadSubset() {
+        propSaver.set(propSaver.properties.EnableNativeOrder, true);
+        checkNative(
+            0, 5,
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " non empty Head(Order([Store].[Store City].Members,\n"
+            + "   [Measures].[Unit Sales], BDESC), 5) on 1\n"
+            + "from [Sales]",
+            null, true);
+        checkNative(
+            0, 3,
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " non empty Subset(Order([Store].[Store City].Members,\n"
+            + "   [Measures].[Unit Sales], BDESC), 2, 3) on 1\n"
+            + "from [Sales]",
+            null, true);
+        checkNative(
+            0, 5,
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " Subset(Order([Store].[Store City].Members,\n"
+            + "   [Measures].[Unit Sales], BDESC), 10, 5) on 1\n"
+            + "from [Sales]",
+            null, true);
+    }
+
+    /**
+     * Tests that Sum, Aggregate and Count(..., EXCLUDEEMPTY) over a level
+     * or a list of members are evaluated natively, and give the same result
+     * as when evaluated over the cells of each member.
+     */
+    public void testNativeAggregate() {
+        propSaver.set(propSaver.properties.EnableNativeAggregate, true);
+        checkNative(
+            0, 3,
+            "with member [Store].[Total] as\n"
+            + " 'Sum([Store].[Store City].Members)'\n"
+            + "select {[Measures].[Unit Sales],\n"
+            + " [Measures].[Store Sales]} on 0,\n"
+            + " {[Gender].Members} on 1\n"
+            + "from [Sales]\n"
+            + "where [Store].[Total]",
+            null, true);
+        checkNative(
+            0, 4,
+            "with member [Product].[Agg] as\n"
+            + " 'Aggregate({[Product].[Drink], [Product].[Food]})'\n"
+            + "select {[Measures].[Unit Sales],\n"
+            + " [Measures].[Store Cost]} on 0,\n"
+            + " {[Time].[1997].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where [Product].[Agg]",
+            null, true);
+        checkNative(
+            0, 2,
+            "with member [Store].[Cities] as\n"
+            + " 'Count([Store].[Store City].Members, EXCLUDEEMPTY)'\n"
+            + "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Store].[Cities], [Store].[USA]} on 1\n"
+            + "from [Sales]",
+            null, true);
+        checkNative(
+            0, 2,
+            "with member [Store].[Pairs] as\n"
+            + " 'Count(CrossJoin([Store].[Store City].Members,\n"
+            + "   [Gender].[Gender].Members), EXCLUDEEMPTY)'\n"
+            + "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Store].[Pairs], [Store].[USA]} on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q1]",
+            null, true);
+
+        // Min and max over the union of the tuples.
+        localTestContext =
+            TestContext.instance().createSubstitutingCube(
+                "Sales",
+                null,
+                "<Measure name=\"Min Unit Sales\" column=\"unit_sales\"\n"
+                + "    aggregator=\"min\"/>\n"
+                + "<Measure name=\"Max Unit Sales\" column=\"unit_sales\"\n"
+                + "    aggregator=\"max\"/>",
+                null,
+                null);
+        checkNative(
+            0, 4,
+            "with member [Product].[Agg] as\n"
+            + " 'Aggregate({[Product].[Drink], [Product].[Food]})'\n"
+            + "select {[Measures].[Min Unit Sales],\n"
+            + " [Measures].[Max Unit Sales]} on 0,\n"
+            + " {[Time].[1997].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where [Product].[Agg]",
+            null, true);
+
+        // Aggregate rolls up with the current measure's aggregator, not
+        // that of the measure it aggregates: here, the maximum of the
+        // tuples' minimums, and the sum of their maximums. The union of the
+        // tuples would give the wrong answer, so the set is not native.
+        checkNotNative(
+            4,
+            "with member [Product].[Agg Min] as\n"
+            + " 'Aggregate({[Product].[Drink], [Product].[Food]},\n"
+            + "   [Measures].[Min Unit Sales])'\n"
+            + "select {[Measures].[Max Unit Sales]} on 0,\n"
+            + " {[Time].[1997].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where [Product].[Agg Min]");
+        checkNotNative(
+            4,
+            "with member [Product].[Agg Max] as\n"
+            + " 'Aggregate({[Product].[Drink], [Product].[Food]},\n"
+            + "   [Measures].[Max Unit Sales])'\n"
+            + "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Time].[1997].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where [Product].[Agg Max]");
+
+        // More tuples than fit in a predicate; if the dialect limits the
+        // size of value lists, the values of the tuples are folded instead.
+        propSaver.set(propSaver.properties.MaxConstraints, 2);
+        checkNative(
+            0, 4,
+            "with member [Product].[Agg] as\n"
+            + " 'Aggregate([Product].[Product Department].Members)'\n"
+            + "select {[Measures].[Unit Sales],\n"
+            + " [Measures].[Min Unit Sales]} on 0,\n"
+            + " {[Time].[1997].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where [Product].[Agg]",
+            null, true);
+    }
 }
 
 // End NativeSetEvaluationTest.java
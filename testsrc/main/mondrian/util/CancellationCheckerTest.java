@@ -0,0 +1,172 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2016-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.util;
+
+import mondrian.olap.*;
+import mondrian.rolap.RolapConnection;
+import mondrian.server.Execution;
+import mondrian.server.StatementImpl;
+import mondrian.server.monitor.Monitor;
+import mondrian.test.PropertyRestoringTestCase;
+
+import org.apache.log4j.Logger;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link CancellationChecker} and the checks in
+ * {@link Execution}.
+ */
+public class CancellationCheckerTest extends PropertyRestoringTestCase {
+    private static final Logger LOGGER =
+        Logger.getLogger(CancellationCheckerTest.class);
+
+    private final MondrianProperties props = MondrianProperties.instance();
+    private StatementImpl statement;
+
+    public void setUp() {
+        final MondrianServer server = mock(MondrianServer.class);
+        when(server.getMonitor()).thenReturn(mock(Monitor.class));
+        final RolapConnection connection = mock(RolapConnection.class);
+        when(connection.getServer()).thenReturn(server);
+        statement = mock(StatementImpl.class);
+        when(statement.getMondrianConnection()).thenReturn(connection);
+    }
+
+    public void testInterval() {
+        propSaver.set(props.CheckCancelOrTimeoutInterval, 10);
+        final Execution execution = spy(new Execution(statement, 0));
+        execution.start();
+        for (int i = 0; i < 100; i++) {
+            CancellationChecker.checkCancelOrTimeout(i, execution);
+        }
+        verify(execution, times(10)).checkCancelOrTimeout();
+
+        // A non-positive interval switches the checks off.
+        propSaver.set(props.CheckCancelOrTimeoutInterval, 0);
+        final Execution execution2 = spy(new Execution(statement, 0));
+        execution2.start();
+        for (int i = 0; i < 100; i++) {
+            CancellationChecker.checkCancelOrTimeout(i, execution2);
+        }
+        verify(execution2, never()).checkCancelOrTimeout();
+    }
+
+    public void testTimeout() throws InterruptedException {
+        final Execution execution = new Execution(statement, 1);
+        // Not started yet, so cannot time out.
+        Thread.sleep(10);
+        execution.checkCancelOrTimeout();
+        assertFalse(execution.isCancelOrTimeout());
+
+        execution.start();
+        Thread.sleep(10);
+        assertTrue(execution.isCancelOrTimeout());
+        try {
+            CancellationChecker.checkCancelOrTimeout(0, execution);
+            fail("expected timeout");
+        } catch (QueryTimeoutException e) {
+            // ok
+        }
+        assertTrue(execution.isDone());
+        // Every later check throws too.
+        try {
+            execution.checkCancelOrTimeout();
+            fail("expected timeout");
+        } catch (QueryTimeoutException e) {
+            // ok
+        }
+    }
+
+    public void testOutOfMemory() {
+        final Execution execution = new Execution(statement, 0);
+        execution.start();
+        execution.checkCancelOrTimeout();
+        execution.setOutOfMemory("too big");
+        assertTrue(execution.isCancelOrTimeout());
+        try {
+            execution.checkCancelOrTimeout();
+            fail("expected error");
+        } catch (MemoryLimitExceededException e) {
+            // ok
+        }
+    }
+
+    /**
+     * Measures the cost of a check from several threads sharing an
+     * execution, checking on every iteration; compares with checks that
+     * lock the execution and read the interval property each time, as
+     * {@link CancellationChecker} used to.
+     */
+    public void testPerformance() throws InterruptedException {
+        final int iterations = LOGGER.isDebugEnabled() ? 10000000 : 100000;
+        final int threadCount = 4;
+        propSaver.set(props.CheckCancelOrTimeoutInterval, 1);
+        final Execution execution = new Execution(statement, 600000);
+        execution.start();
+
+        final long lockFreeNanos =
+            run(
+                threadCount, new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < iterations; i++) {
+                            CancellationChecker.checkCancelOrTimeout(
+                                i, execution);
+                        }
+                    }
+                });
+        final long lockedNanos =
+            run(
+                threadCount, new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < iterations; i++) {
+                            final int interval =
+                                props.CheckCancelOrTimeoutInterval.get();
+                            synchronized (execution) {
+                                if (interval > 0 && i % interval == 0) {
+                                    execution.checkCancelOrTimeout();
+                                }
+                            }
+                        }
+                    }
+                });
+        if (LOGGER.isDebugEnabled()) {
+            final long checkCount = (long) iterations * threadCount;
+            LOGGER.debug(
+                threadCount + " threads, " + checkCount + " checks; "
+                + "lock-free: " + lockFreeNanos / checkCount + " ns/check; "
+                + "locked: " + lockedNanos / checkCount + " ns/check");
+        }
+        assertFalse(execution.isCancelOrTimeout());
+    }
+
+    /**
+     * Runs a task in several threads at once; returns the elapsed time in
+     * nanoseconds.
+     */
+    private static long run(int threadCount, Runnable runnable)
+        throws InterruptedException
+    {
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(runnable);
+        }
+        final long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
+
+// End CancellationCheckerTest.java
@@ -0,0 +1,451 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2016 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import mondrian.olap.*;
+import mondrian.rolap.RolapAggregator;
+import mondrian.rolap.RolapUtil;
+import mondrian.spi.Dialect;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Test case for {@link Sketch}, {@link HyperLogLog} and
+ * {@link QuantileSketch}, and for the sketch aggregators in
+ * {@link RolapAggregator}.
+ */
+public class SketchTest extends FoodMartTestCase {
+    /**
+     * Relative error within which a distinct-count estimate must lie: four
+     * standard errors of a HyperLogLog of the default precision.
+     */
+    private static final double RELATIVE_ERROR =
+        4d * 1.04d / Math.sqrt(1 << HyperLogLog.DEFAULT_PRECISION);
+
+    private static final String SKETCH_MEASURE =
+        "<Measure name=\"Customer Count Sketch\" column=\"customer_id\"\n"
+        + "    aggregator=\"distinct-count-sketch\" formatString=\"#,###\"/>";
+
+    private static final String FINE_QUERY =
+        "select {[Measures].[Customer Count Sketch]} on 0,\n"
+        + " {[Gender].[Gender].Members}\n"
+        + " * {[Marital Status].[Marital Status].Members} on 1\n"
+        + "from [Sales]";
+
+    protected void tearDown() throws Exception {
+        RolapUtil.setHook(null);
+        super.tearDown();
+    }
+
+    public void testHyperLogLogEstimate() {
+        for (int n : new int[] {0, 1, 10, 1000, 100000}) {
+            final HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                hll.add(i);
+                // Duplicates do not change the estimate.
+                hll.add(i);
+            }
+            assertEquals(
+                String.valueOf(n), n, hll.getEstimate(), 0.05d * n + 0.5d);
+        }
+    }
+
+    public void testHyperLogLogHashesNumbersByValue() {
+        final HyperLogLog hll = new HyperLogLog();
+        hll.add(7);
+        hll.add(7L);
+        hll.add(7d);
+        hll.add(new java.math.BigDecimal("7"));
+        assertEquals(1L, hll.longValue());
+    }
+
+    public void testHyperLogLogMerge() {
+        final HyperLogLog a = new HyperLogLog();
+        final HyperLogLog b = new HyperLogLog();
+        final HyperLogLog union = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            a.add(i);
+            union.add(i);
+        }
+        for (int i = 10000; i < 30000; i++) {
+            b.add(i);
+            union.add(i);
+        }
+        a.merge(b);
+        assertTrue(Arrays.equals(union.toBytes(), a.toBytes()));
+        assertEquals(30000d, a.getEstimate(), 1500d);
+    }
+
+    public void testHyperLogLogBytes() {
+        final HyperLogLog hll = new HyperLogLog(10);
+        for (int i = 0; i < 500; i++) {
+            hll.add("v" + i);
+        }
+        final HyperLogLog hll2 = HyperLogLog.fromBytes(hll.toBytes());
+        assertEquals(10, hll2.getPrecision());
+        assertEquals(hll.getEstimate(), hll2.getEstimate(), 0d);
+        try {
+            HyperLogLog.fromBytes(new byte[] {1, 10, 0});
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("wrong length"));
+        }
+    }
+
+    public void testQuantileSketch() {
+        final QuantileSketch median = new QuantileSketch(0.5d);
+        assertTrue(Double.isNaN(median.getEstimate()));
+        final List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            values.add(i);
+        }
+        Collections.shuffle(values, new Random(1));
+        for (Integer value : values) {
+            median.add(value);
+        }
+        assertEquals(100000L, median.getCount());
+        assertEquals(50000d, median.getEstimate(), 2000d);
+        assertEquals(0d, median.getQuantile(0d), 0d);
+        assertEquals(99999d, median.getQuantile(1d), 0d);
+        assertEquals(90000d, median.getQuantile(0.9d), 2000d);
+
+        // The same stored sketch, read as a minimum and as a maximum.
+        final byte[] bytes = median.toBytes();
+        assertEquals(0d, QuantileSketch.fromBytes(bytes, 0d).getEstimate(), 0d);
+        assertEquals(
+            99999d, QuantileSketch.fromBytes(bytes, 1d).getEstimate(), 0d);
+        assertEquals(
+            median.getEstimate(),
+            QuantileSketch.fromBytes(bytes, 0.5d).getEstimate(),
+            0d);
+    }
+
+    public void testQuantileSketchMerge() {
+        final QuantileSketch a = new QuantileSketch(0.5d);
+        final QuantileSketch b = new QuantileSketch(0.5d);
+        for (int i = 0; i < 10000; i++) {
+            a.add(i);
+            b.add(i + 10000);
+        }
+        a.merge(b);
+        assertEquals(20000L, a.getCount());
+        assertEquals(10000d, a.getEstimate(), 500d);
+        assertEquals(0d, a.getQuantile(0d), 0d);
+        assertEquals(19999d, a.getQuantile(1d), 0d);
+    }
+
+    /**
+     * Tests that adding a value with a weight is equivalent to adding it
+     * that many times.
+     */
+    public void testQuantileSketchWeight() {
+        final QuantileSketch median = new QuantileSketch(0.5d);
+        final QuantileSketch merged = new QuantileSketch(0.5d);
+        final QuantileSketch part = new QuantileSketch(0.5d);
+        for (int i = 0; i < 1000; i++) {
+            // Values below 100 occur 1000 times each; others once.
+            median.add(i, i < 100 ? 1000L : 1L);
+            part.add(i);
+        }
+        assertEquals(100900L, median.getCount());
+        assertEquals(0d, median.getQuantile(0d), 0d);
+        assertEquals(999d, median.getQuantile(1d), 0d);
+        assertEquals(50d, median.getEstimate(), 5d);
+
+        merged.merge(part, 3L);
+        assertEquals(3000L, merged.getCount());
+        assertEquals(500d, merged.getEstimate(), 50d);
+
+        // Repeating a value does not add distinct values.
+        final HyperLogLog hll = new HyperLogLog();
+        hll.add("a", 1000L);
+        hll.add("b", 0L);
+        assertEquals(1d, hll.getEstimate(), 0.1d);
+    }
+
+    /**
+     * Tests that a sketch aggregator rolls up cells by merging their
+     * sketches, and leaves the cells' sketches, which may be cached, alone.
+     */
+    public void testAggregatorRollup() {
+        final RolapAggregator.SketchAggor aggregator =
+            (RolapAggregator.SketchAggor) RolapAggregator.DistinctCountSketch;
+        assertTrue(aggregator.isSketch());
+        assertFalse(RolapAggregator.DistinctCount.isSketch());
+        assertSame(
+            aggregator,
+            RolapAggregator.enumeration.getValue(
+                "distinct-count-sketch", false));
+        Sketch a = null;
+        Sketch b = null;
+        for (int i = 0; i < 300; i++) {
+            a = aggregator.fold(a, i);
+        }
+        for (int i = 200; i < 500; i++) {
+            b = aggregator.fold(b, i);
+        }
+        final byte[] aBytes = a.toBytes();
+        final List<Object> cells = new ArrayList<Object>();
+        cells.add(a);
+        cells.add(b);
+        final Sketch rollup =
+            (Sketch) aggregator.aggregate(cells, Dialect.Datatype.Integer);
+        assertEquals(500d, rollup.getEstimate(), 25d);
+        assertTrue(Arrays.equals(aBytes, a.toBytes()));
+
+        // A serialized sketch, as read from a binary column, is merged; a
+        // raw value is added.
+        Sketch c = aggregator.fold(null, b.toBytes());
+        assertEquals(b.getEstimate(), c.getEstimate(), 0d);
+        c = aggregator.fold(c, 1000);
+        assertEquals(301d, c.getEstimate(), 15d);
+    }
+
+    public void testQuantileAggregators() {
+        final RolapAggregator.SketchAggor min =
+            (RolapAggregator.SketchAggor) RolapAggregator.MinSketch;
+        final RolapAggregator.SketchAggor max =
+            (RolapAggregator.SketchAggor) RolapAggregator.MaxSketch;
+        Sketch sketch = null;
+        for (int i = 0; i < 1000; i++) {
+            sketch = min.fold(sketch, i * 2.5d);
+        }
+        final byte[] bytes = sketch.toBytes();
+        assertEquals(0d, min.fold(null, bytes).getEstimate(), 0d);
+        assertEquals(2497.5d, max.fold(null, bytes).getEstimate(), 0d);
+        final RolapAggregator.SketchAggor median =
+            (RolapAggregator.SketchAggor) RolapAggregator.MedianSketch;
+        assertEquals(1250d, median.fold(null, bytes).getEstimate(), 25d);
+    }
+
+    /**
+     * Tests that a sketch measure is loaded by a query that groups by its
+     * operand, and that its estimates are within the error bound of the
+     * exact distinct counts.
+     */
+    public void testSketchMeasureLoad() {
+        final TestContext context = getSketchContext();
+        final List<String> sqlList = recordSql();
+        final Result result = context.executeQuery(
+            "select {[Measures].[Customer Count Sketch],\n"
+            + " [Measures].[Customer Count]} on 0,\n"
+            + " {[Gender].[Gender].Members}\n"
+            + " * {[Marital Status].[Marital Status].Members} on 1\n"
+            + "from [Sales]");
+        RolapUtil.setHook(null);
+
+        // The sketch measure is not aggregated in SQL; the query counts the
+        // rows that have each value.
+        boolean found = false;
+        for (String sql : sqlList) {
+            if (sql.contains("sales_fact_1997")
+                && sql.contains("customer_id")
+                && sql.contains("count(*)")
+                && !sql.contains("count(distinct"))
+            {
+                found = true;
+            }
+        }
+        assertTrue("expected sketch query, got " + sqlList, found);
+
+        final List<Position> rows = result.getAxes()[1].getPositions();
+        assertEquals(4, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            final Object estimate = result.getCell(new int[] {0, i}).getValue();
+            assertTrue(estimate instanceof Sketch);
+            assertEstimate(
+                rows.get(i).toString(),
+                result.getCell(new int[] {1, i}).getValue(),
+                estimate);
+        }
+    }
+
+    /**
+     * Tests that cells of a sketch measure at a coarse level are rolled up
+     * from cached segments at a finer level, without going back to SQL, and
+     * that the merged estimates are within the error bound of the exact
+     * distinct counts.
+     */
+    public void testSketchMeasureRollup() {
+        propSaver.set(propSaver.properties.EnableInMemoryRollup, true);
+        final TestContext context = getSketchContext();
+
+        // Cache a segment by gender and marital status.
+        context.executeQuery(FINE_QUERY);
+
+        final List<String> sqlList = recordSql();
+        final Result result = context.executeQuery(
+            "select {[Measures].[Customer Count Sketch]} on 0,\n"
+            + " {[Gender].[Gender].Members} on 1\n"
+            + "from [Sales]");
+        RolapUtil.setHook(null);
+        for (String sql : sqlList) {
+            assertFalse(
+                "Expected cells to be rolled up from cache: " + sql,
+                sql.contains("sales_fact_1997"));
+        }
+
+        final Result exact = context.executeQuery(
+            "select {[Measures].[Customer Count]} on 0,\n"
+            + " {[Gender].[Gender].Members} on 1\n"
+            + "from [Sales]");
+        final List<Position> rows = result.getAxes()[1].getPositions();
+        assertEquals(2, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEstimate(
+                rows.get(i).toString(),
+                exact.getCell(new int[] {0, i}).getValue(),
+                result.getCell(new int[] {0, i}).getValue());
+        }
+    }
+
+    /**
+     * Tests a median-sketch measure over a column whose values repeat. The
+     * median is of all fact rows, not of the distinct values of the column,
+     * so each value is counted as many times as it occurs.
+     */
+    public void testQuantileSketchMeasure() throws SQLException {
+        final TestContext context =
+            getSketchContext(
+                "<Measure name=\"Median Store Sales\" column=\"store_sales\"\n"
+                + "    aggregator=\"median-sketch\" formatString=\"#.00\"/>");
+        final Result result = context.executeQuery(
+            "select {[Measures].[Median Store Sales],\n"
+            + " [Measures].[Sales Count]} on 0,\n"
+            + " {[Gender].[Gender].Members} on 1\n"
+            + "from [Sales]");
+        final Map<String, double[]> exact = storeSalesByGender(context);
+        final List<Position> rows = result.getAxes()[1].getPositions();
+        assertEquals(2, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            final String gender = rows.get(i).get(0).getName();
+            final QuantileSketch sketch =
+                (QuantileSketch) result.getCell(new int[] {0, i}).getValue();
+
+            // Every fact row was counted.
+            assertEquals(
+                gender,
+                ((Number) result.getCell(new int[] {1, i}).getValue())
+                    .longValue(),
+                sketch.getCount());
+
+            // The estimate has a rank close to 0.5 among all fact rows.
+            final double[] values = exact.get(gender);
+            assertEquals(sketch.getCount(), values.length);
+            final double estimate = sketch.getEstimate();
+            assertTrue(
+                gender + ": " + estimate,
+                values[(int) (values.length * 0.48d)] <= estimate
+                && estimate <= values[(int) (values.length * 0.52d)]);
+        }
+    }
+
+    /**
+     * Returns the store sales of every fact row, sorted, for each gender.
+     */
+    private static Map<String, double[]> storeSalesByGender(
+        TestContext context) throws SQLException
+    {
+        final Dialect dialect = context.getDialect();
+        final String sql =
+            "select c." + dialect.quoteIdentifier("gender")
+            + ", f." + dialect.quoteIdentifier("store_sales")
+            + " from " + dialect.quoteIdentifier("sales_fact_1997") + " f, "
+            + dialect.quoteIdentifier("customer") + " c"
+            + " where f." + dialect.quoteIdentifier("customer_id")
+            + " = c." + dialect.quoteIdentifier("customer_id");
+        final Map<String, List<Double>> lists =
+            new HashMap<String, List<Double>>();
+        java.sql.Connection connection = null;
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection =
+                context.getConnection().getDataSource().getConnection();
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                List<Double> list = lists.get(resultSet.getString(1));
+                if (list == null) {
+                    list = new ArrayList<Double>();
+                    lists.put(resultSet.getString(1), list);
+                }
+                list.add(resultSet.getDouble(2));
+            }
+        } finally {
+            Util.close(resultSet, statement, connection);
+        }
+        final Map<String, double[]> map = new HashMap<String, double[]>();
+        for (Map.Entry<String, List<Double>> entry : lists.entrySet()) {
+            final double[] values = new double[entry.getValue().size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(values);
+            map.put(entry.getKey(), values);
+        }
+        return map;
+    }
+
+    /**
+     * Returns a context whose Sales cube has a distinct-count-sketch measure
+     * over customers, with an empty cache.
+     */
+    private TestContext getSketchContext() {
+        return getSketchContext(SKETCH_MEASURE);
+    }
+
+    /**
+     * Returns a context whose Sales cube has an extra measure, with an empty
+     * cache.
+     */
+    private TestContext getSketchContext(String measureDefs) {
+        final TestContext context =
+            getTestContext().createSubstitutingCube(
+                "Sales", null, measureDefs, null, null);
+        context.flushSchemaCache();
+        return context.withFreshConnection();
+    }
+
+    /**
+     * Sets a hook that records the SQL statements executed from now on.
+     */
+    private static List<String> recordSql() {
+        final List<String> sqlList = new CopyOnWriteArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqlList.add(sql);
+                }
+            });
+        return sqlList;
+    }
+
+    private static void assertEstimate(
+        String message,
+        Object exact,
+        Object estimate)
+    {
+        final double n = ((Number) exact).doubleValue();
+        assertEquals(
+            message,
+            n,
+            ((Number) estimate).doubleValue(),
+            RELATIVE_ERROR * n + 0.5d);
+    }
+}
+
+// End SketchTest.java
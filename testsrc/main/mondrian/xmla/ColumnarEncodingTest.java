@@ -0,0 +1,200 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.xmla;
+
+import mondrian.xmla.impl.DefaultSaxWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Unit test for {@link ColumnarEncoding}.
+ */
+public class ColumnarEncodingTest extends TestCase {
+    private static final Logger LOGGER =
+        Logger.getLogger(ColumnarEncodingTest.class);
+
+    public void testInt() {
+        final List<Object> values =
+            Arrays.<Object>asList(1, null, (short) -2, (byte) 3, 4L, null);
+        assertRoundTrip(
+            ColumnarEncoding.INT,
+            values,
+            Arrays.<Object>asList(1, null, -2, 3, 4, null));
+    }
+
+    public void testLong() {
+        assertRoundTrip(
+            ColumnarEncoding.LONG,
+            Arrays.<Object>asList(1, Long.MAX_VALUE, null),
+            Arrays.<Object>asList(1L, Long.MAX_VALUE, null));
+    }
+
+    public void testDouble() {
+        assertRoundTrip(
+            ColumnarEncoding.DOUBLE,
+            Arrays.<Object>asList(1.5, null, 2, 0.25f, new BigDecimal("0.1")),
+            Arrays.<Object>asList(1.5, null, 2.0, 0.25, 0.1));
+    }
+
+    /**
+     * Tests that decimals are stored as integers if they have no fraction,
+     * as doubles if a double holds them exactly, and otherwise as strings.
+     */
+    public void testDecimal() {
+        assertRoundTrip(
+            ColumnarEncoding.INT,
+            Arrays.<Object>asList(
+                new BigDecimal("12.00"), new BigDecimal("0.000"),
+                BigInteger.TEN),
+            Arrays.<Object>asList(12, 0, 10));
+        assertRoundTrip(
+            ColumnarEncoding.STRING,
+            Arrays.<Object>asList(
+                new BigDecimal("1.5"),
+                new BigDecimal("0.12345678901234567890123")),
+            Arrays.<Object>asList("1.5", "0.12345678901234567890123"));
+    }
+
+    /**
+     * Tests that a column whose values cannot all be held in one numeric type
+     * without loss is stored as strings.
+     */
+    public void testWiden() {
+        assertRoundTrip(
+            ColumnarEncoding.STRING,
+            Arrays.<Object>asList(Long.MAX_VALUE, 0.5),
+            Arrays.<Object>asList(String.valueOf(Long.MAX_VALUE), "0.5"));
+        assertRoundTrip(
+            ColumnarEncoding.STRING,
+            Arrays.<Object>asList(true, 1),
+            Arrays.<Object>asList("true", "1"));
+    }
+
+    public void testString() {
+        assertRoundTrip(
+            ColumnarEncoding.STRING,
+            Arrays.<Object>asList("$1,234.00", null, "\u00a31", "$1,234.00"),
+            Arrays.<Object>asList("$1,234.00", null, "\u00a31", "$1,234.00"));
+    }
+
+    public void testBoolean() {
+        assertRoundTrip(
+            ColumnarEncoding.BOOLEAN,
+            Arrays.<Object>asList(true, null, false),
+            Arrays.<Object>asList(true, null, false));
+    }
+
+    public void testNull() {
+        assertRoundTrip(
+            ColumnarEncoding.NULL,
+            Arrays.<Object>asList(null, null, null, null, null, null, null,
+                null, null),
+            Arrays.<Object>asList(null, null, null, null, null, null, null,
+                null, null));
+        assertRoundTrip(
+            ColumnarEncoding.NULL,
+            Collections.emptyList(),
+            Collections.emptyList());
+    }
+
+    /**
+     * Compares the size of the cells of a large, sparse cell set, and the
+     * time to write them, as an element per cell and in columnar form.
+     */
+    public void testPerformance() {
+        final int cellCount = LOGGER.isDebugEnabled() ? 1000000 : 100000;
+        final Random random = new Random(0);
+        final Object[] values = new Object[cellCount];
+        final String[] formattedValues = new String[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            if (random.nextInt(3) > 0) {
+                final double value = random.nextInt(100000) / 100d;
+                values[i] = value;
+                formattedValues[i] = String.format("%,.2f", value);
+            }
+        }
+
+        long start = System.nanoTime();
+        final StringWriter sw = new StringWriter();
+        final SaxWriter writer = new DefaultSaxWriter(sw);
+        writer.startSequence("CellData", "Cell");
+        for (int i = 0; i < cellCount; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            writer.startElement("Cell", "CellOrdinal", i);
+            writer.startElement("Value", "xsi:type", "xsd:double");
+            writer.characters(values[i].toString());
+            writer.endElement();
+            writer.textElement("FmtValue", formattedValues[i]);
+            writer.textElement("FormatString", "#,##0.00");
+            writer.endElement();
+        }
+        writer.endSequence();
+        writer.flush();
+        final long xmlNanos = System.nanoTime() - start;
+        final int xmlLength = sw.getBuffer().length();
+
+        start = System.nanoTime();
+        final ColumnarEncoding.ColumnBuilder valueColumn =
+            new ColumnarEncoding.ColumnBuilder();
+        final ColumnarEncoding.ColumnBuilder fmtValueColumn =
+            new ColumnarEncoding.ColumnBuilder();
+        final ColumnarEncoding.ColumnBuilder formatStringColumn =
+            new ColumnarEncoding.ColumnBuilder();
+        for (int i = 0; i < cellCount; i++) {
+            valueColumn.add(values[i]);
+            fmtValueColumn.add(formattedValues[i]);
+            formatStringColumn.add(values[i] == null ? null : "#,##0.00");
+        }
+        final String encodedValues = valueColumn.encode();
+        final int columnarLength =
+            encodedValues.length()
+            + fmtValueColumn.encode().length()
+            + formatStringColumn.encode().length();
+        final long columnarNanos = System.nanoTime() - start;
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                cellCount + " cells; xml: " + xmlLength + " chars in "
+                + xmlNanos / 1000000 + " ms; columnar: " + columnarLength
+                + " chars in " + columnarNanos / 1000000 + " ms");
+        }
+        assertTrue(columnarLength * 2 < xmlLength);
+        assertEquals(
+            Arrays.asList(values), ColumnarEncoding.decode(encodedValues));
+    }
+
+    private static void assertRoundTrip(
+        byte type,
+        List<Object> values,
+        List<Object> expected)
+    {
+        final ColumnarEncoding.ColumnBuilder column =
+            new ColumnarEncoding.ColumnBuilder();
+        for (Object value : values) {
+            column.add(value);
+        }
+        assertEquals(
+            ColumnarEncoding.typeName(type),
+            ColumnarEncoding.typeName(column.getType()));
+        assertEquals(values.size(), column.size());
+        assertEquals(expected, ColumnarEncoding.decode(column.encode()));
+    }
+}
+
+// End ColumnarEncodingTest.java
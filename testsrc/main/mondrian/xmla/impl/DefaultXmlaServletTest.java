@@ -0,0 +1,302 @@
+/*
+// This software is subject to the terms of the Eclipse Public License v1.0
+// Agreement, available at the following URL:
+// http://www.eclipse.org/legal/epl-v10.html.
+// You must accept the terms of that agreement to use this software.
+//
+// Copyright (C) 2005-2016 Pentaho and others
+// All Rights Reserved.
+*/
+package mondrian.xmla.impl;
+
+import mondrian.tui.MockHttpServletRequest;
+import mondrian.tui.MockHttpServletResponse;
+import mondrian.xmla.*;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.w3c.dom.Document;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletConfig;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for the streaming of responses by {@link DefaultXmlaServlet}.
+ *
+ * <p>The servlet's handler is replaced by one that writes a given number
+ * of cells, and optionally fails after writing some of them.</p>
+ */
+public class DefaultXmlaServletTest extends TestCase {
+    private static final Logger LOGGER =
+        Logger.getLogger(DefaultXmlaServletTest.class);
+
+    private static final String REQUEST =
+        "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\""
+        + XmlaConstants.NS_SOAP_ENV_1_1 + "\">\n"
+        + "<SOAP-ENV:Body>\n"
+        + "<Execute xmlns=\"" + XmlaConstants.NS_XMLA + "\">\n"
+        + "<Command><Statement>select from [Sales]</Statement></Command>\n"
+        + "<Properties><PropertyList/></Properties>\n"
+        + "</Execute>\n"
+        + "</SOAP-ENV:Body>\n"
+        + "</SOAP-ENV:Envelope>";
+
+    /**
+     * Number of cells whose XML is larger than the streaming buffer.
+     */
+    private static final int LARGE = DefaultXmlaServlet.STREAM_BUFFER_SIZE / 8;
+
+    public void testNotStreamed() throws Exception {
+        final Handler handler = new Handler(LARGE, -1);
+        final MockHttpServletResponse response =
+            service(handler, false, false, false);
+        assertEquals(LARGE, countCells(parse(response.toByteArray())));
+        assertEquals(0, handler.sentBeforeEnd);
+    }
+
+    /**
+     * Tests that a small response is not streamed, but sent in the usual
+     * way.
+     */
+    public void testSmall() throws Exception {
+        final Handler handler = new Handler(10, -1);
+        final MockHttpServletResponse response =
+            service(handler, true, false, false);
+        assertEquals(10, countCells(parse(response.toByteArray())));
+        assertEquals(0, handler.sentBeforeEnd);
+    }
+
+    /**
+     * Tests that a large response starts to be sent before the handler has
+     * finished writing it, and is identical to a response that was not
+     * streamed.
+     */
+    public void testStream() throws Exception {
+        final Handler handler = new Handler(LARGE, -1);
+        final MockHttpServletResponse response =
+            service(handler, true, false, false);
+        final byte[] bytes = response.toByteArray();
+        assertEquals(LARGE, countCells(parse(bytes)));
+        assertTrue(handler.sentBeforeEnd > 0);
+        assertTrue(handler.sentBeforeEnd < bytes.length);
+
+        final MockHttpServletResponse response2 =
+            service(new Handler(LARGE, -1), false, false, false);
+        assertEquals(
+            new String(response2.toByteArray(), "UTF-8"),
+            new String(bytes, "UTF-8"));
+    }
+
+    /**
+     * Tests that a streamed response is compressed if the client accepts
+     * gzip encoding.
+     */
+    public void testGzip() throws Exception {
+        final Handler handler = new Handler(LARGE, -1);
+        final MockHttpServletResponse response =
+            service(handler, true, true, true);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        final byte[] bytes = gunzip(response.toByteArray());
+        assertEquals(LARGE, countCells(parse(bytes)));
+        assertTrue(response.toByteArray().length < bytes.length);
+
+        // Client does not accept gzip.
+        final MockHttpServletResponse response2 =
+            service(new Handler(LARGE, -1), true, true, false);
+        assertNull(response2.getHeader("Content-Encoding"));
+        assertEquals(LARGE, countCells(parse(response2.toByteArray())));
+    }
+
+    /**
+     * Tests that an error before any of a streamed response has been sent
+     * results in a SOAP fault.
+     */
+    public void testFaultBeforeFirstFlush() throws Exception {
+        final Handler handler = new Handler(LARGE, 10);
+        final MockHttpServletResponse response =
+            service(handler, true, false, false);
+        final Document document = parse(response.toByteArray());
+        assertEquals(
+            1, document.getElementsByTagName("SOAP-ENV:Fault").getLength());
+        assertEquals(0, countCells(document));
+    }
+
+    /**
+     * Tests that an error after part of a streamed response has been sent
+     * leaves the response truncated, rather than appending a fault to it.
+     */
+    public void testFaultAfterFirstFlush() throws Exception {
+        final Handler handler = new Handler(LARGE, LARGE - 10);
+        final MockHttpServletResponse response =
+            service(handler, true, false, false);
+        final String content = new String(response.toByteArray(), "UTF-8");
+        assertTrue(content.startsWith("<?xml"));
+        assertTrue(content.contains("<Cell"));
+        assertFalse(content.contains("Fault"));
+        assertFalse(content.contains("</SOAP-ENV:Envelope>"));
+    }
+
+    /**
+     * Measures how many bytes are held in memory, and how soon the first
+     * bytes are sent, for a large response with and without streaming.
+     */
+    public void testPerformance() throws Exception {
+        final int cellCount = LOGGER.isDebugEnabled() ? 500000 : LARGE * 4;
+        for (boolean stream : new boolean[] {false, true}) {
+            final Handler handler = new Handler(cellCount, -1);
+            final long start = System.nanoTime();
+            final MockHttpServletResponse response =
+                service(handler, stream, false, false);
+            final long nanos = System.nanoTime() - start;
+            final int length = response.toByteArray().length;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    (stream ? "streamed" : "buffered") + ": " + cellCount
+                    + " cells, " + length + " bytes in " + nanos / 1000000
+                    + " ms; first bytes sent after "
+                    + handler.firstSentNanos / 1000000 + " ms");
+            }
+            if (stream) {
+                assertTrue(handler.firstSentNanos > 0);
+                assertTrue(handler.sentBeforeEnd > length / 2);
+            } else {
+                assertEquals(0, handler.sentBeforeEnd);
+            }
+        }
+    }
+
+    private MockHttpServletResponse service(
+        Handler handler,
+        boolean stream,
+        boolean compress,
+        boolean acceptGzip)
+        throws Exception
+    {
+        final ServletConfig config = mock(ServletConfig.class);
+        when(config.getInitParameter("streamResponses"))
+            .thenReturn(String.valueOf(stream));
+        when(config.getInitParameter("compressResponses"))
+            .thenReturn(String.valueOf(compress));
+        final StubServlet servlet = new StubServlet(handler.xmlaHandler());
+        servlet.init(config);
+
+        final MockHttpServletRequest request =
+            new MockHttpServletRequest(REQUEST.getBytes("UTF-8"));
+        request.setMethod("POST");
+        request.setContentType("text/xml");
+        if (acceptGzip) {
+            request.setHeader("Accept-Encoding", "gzip, deflate");
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding("UTF-8");
+        handler.response = response;
+        servlet.service(request, response);
+        return response;
+    }
+
+    private static Document parse(byte[] bytes) throws Exception {
+        final DocumentBuilderFactory factory =
+            DocumentBuilderFactory.newInstance();
+        return factory.newDocumentBuilder()
+            .parse(new ByteArrayInputStream(bytes));
+    }
+
+    private static int countCells(Document document) {
+        return document.getElementsByTagName("Cell").getLength();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        final InputStream in =
+            new GZIPInputStream(new ByteArrayInputStream(bytes));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes cells to the response, in place of {@link XmlaHandler}, and
+     * records how much of the response had been sent before it finished.
+     */
+    private static class Handler implements Answer<Void> {
+        private final int cellCount;
+        private final int failAt;
+        MockHttpServletResponse response;
+        int sentBeforeEnd;
+        long firstSentNanos;
+
+        /**
+         * Creates a Handler.
+         *
+         * @param cellCount Number of cells to write
+         * @param failAt Number of cells after which to fail, or -1
+         */
+        Handler(int cellCount, int failAt) {
+            this.cellCount = cellCount;
+            this.failAt = failAt;
+        }
+
+        XmlaHandler xmlaHandler() {
+            final XmlaHandler xmlaHandler = mock(XmlaHandler.class);
+            doAnswer(this).when(xmlaHandler).process(
+                any(XmlaRequest.class), any(XmlaResponse.class));
+            return xmlaHandler;
+        }
+
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+            final long start = System.nanoTime();
+            final XmlaResponse xmlaResponse =
+                (XmlaResponse) invocation.getArguments()[1];
+            final SaxWriter writer = xmlaResponse.getWriter();
+            writer.startDocument();
+            writer.startElement("ExecuteResponse");
+            for (int i = 0; i < cellCount; i++) {
+                if (i == failAt) {
+                    throw new RuntimeException("failed after " + i + " cells");
+                }
+                writer.startElement("Cell", "CellOrdinal", i);
+                writer.textElement("Value", i);
+                writer.endElement();
+                if (firstSentNanos == 0
+                    && response.toByteArray().length > 0)
+                {
+                    firstSentNanos = System.nanoTime() - start;
+                }
+            }
+            writer.endElement();
+            writer.endDocument();
+            sentBeforeEnd = response.toByteArray().length;
+            return null;
+        }
+    }
+
+    /**
+     * Servlet whose XML/A handler is given.
+     */
+    private static class StubServlet extends DefaultXmlaServlet {
+        StubServlet(XmlaHandler xmlaHandler) {
+            this.xmlaHandler = xmlaHandler;
+        }
+
+        protected XmlaHandler.ConnectionFactory createConnectionFactory(
+            ServletConfig servletConfig)
+        {
+            return null;
+        }
+    }
+}
+
+// End DefaultXmlaServletTest.java
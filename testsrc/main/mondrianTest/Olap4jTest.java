@@ -16,7 +16,8 @@ import org.olap4j.Position;
 import org.olap4j.metadata.Member;
 import org.pentaho.ui.xul.samples.SampleEventHandler;
 
-import mondrian.sampling.SampleContext;
+import mondrian.rolap.RolapConnection;
+import mondrian.sampling.SampleDatabase;
 import mondrian.sampling.SampleInfoReader;  
   
 public class Olap4jTest {         
@@ -49,18 +50,16 @@ public class Olap4jTest {
       
      public void testQuery(){                 
          OlapConnection connection = null;  
-         //加载样本元信息
-         SampleInfoReader.loadSampleInfo();
-         //设置需要从样本进行查询的表
-         List<String> tables = new ArrayList();
-         tables.add("inventory_fact_1997");
-         SampleContext.setTablesNeededSampling(tables);
-         
-         System.out.println(SampleInfoReader.sampleInfos);
         try {  
+            //通过连接串属性SampleTables设置需要从样本进行查询的表
             connection = getConnection("jdbc:mondrian:" +   
                             "Jdbc=jdbc:mysql://localhost:3306/foodmart?user=root&password=zhouyu4444;" +  
-                            "Catalog=E:\\oxygen_workspace\\mondrian\\FoodMart.xml;");  
+                            "Catalog=E:\\oxygen_workspace\\mondrian\\FoodMart.xml;" +
+                            "SampleTables=inventory_fact_1997;");  
+            //通过schema的数据源加载样本元信息
+            SampleInfoReader.loadSampleInfo(
+                SampleDatabase.of(connection.unwrap(RolapConnection.class)));
+            System.out.println(SampleInfoReader.sampleInfos);
         } catch (ClassNotFoundException e1) {  
             e1.printStackTrace();  
         } catch (SQLException e1) {  